@@ -1,5 +1,6 @@
 package peergos.server;
 
+import peergos.server.storage.*;
 import peergos.shared.*;
 import peergos.shared.crypto.random.*;
 import peergos.shared.user.*;
@@ -15,14 +16,14 @@ import java.util.function.*;
 public class Downloader {
 
     public static void main(String[] args) throws Exception {
-        Crypto crypto = Crypto.initJava();
+        Crypto crypto = Main.initCrypto();
         NetworkAccess network = NetworkAccess.buildJava(new URL("https://demo.peergos.net")).get();
         String username = args[0];
         String fromPath = args[1];
         String toPath = args[2];
         Console console = System.console();
         String password = new String(console.readPassword("Enter password for " + username + ":"));
-        UserContext context = UserContext.signIn(username, password, network, crypto).get();
+        UserContext context = EncryptedBlockCache.signIn(username, password, network, crypto).get();
         ForkJoinPool pool = new ForkJoinPool(50);
         long t1 = System.currentTimeMillis();
         downloadTo(context, fromPath, Paths.get(toPath), props -> true, pool);
@@ -1,5 +1,6 @@
 package peergos.server;
 
+import peergos.server.storage.*;
 import peergos.shared.*;
 import peergos.shared.user.*;
 
@@ -9,12 +10,12 @@ import java.net.*;
 public class Login {
 
     public static void main(String[] args) throws Exception {
-        Crypto crypto = Crypto.initJava();
+        Crypto crypto = Main.initCrypto();
         NetworkAccess network = NetworkAccess.buildJava(new URL("https://demo.peergos.net")).get();
         String username = args[0];
         Console console = System.console();
         String password = new String(console.readPassword("Enter password for " + username + ":"));
-        UserContext context = UserContext.signIn(username, password, network, crypto).get();
+        UserContext context = EncryptedBlockCache.signIn(username, password, network, crypto).get();
         System.out.println("Logged in " + username + " successfully!");
     }
 }
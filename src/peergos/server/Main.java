@@ -27,10 +27,26 @@ import java.io.*;
 import java.net.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class Main {
+
+    private static final ExecutorService CRYPTO_POOL =
+            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "Crypto");
+                t.setDaemon(true);
+                return t;
+            });
+
+    /** Initialise crypto for a JVM entry point, running async encryption and signing on a daemon pool sized to the
+     *  number of cores, so that independent chunks and fragments are processed concurrently.
+     *
+     */
+    public static Crypto initCrypto() {
+        return Crypto.initJava(CRYPTO_POOL);
+    }
     public static final String PEERGOS_PATH = "PEERGOS_PATH";
     public static final Path DEFAULT_PEERGOS_DIR_PATH =
             Paths.get(System.getProperty("user.home"), ".peergos");
@@ -88,7 +104,7 @@ public class Main {
                     "This means creating a pki keypair and publishing the public key",
             args -> {
                 try {
-                    Crypto crypto = Crypto.initJava();
+                    Crypto crypto = initCrypto();
                     // setup peergos user and pki keys
                     String testpassword = args.getArg("peergos.password");
                     String pkiUsername = "peergos";
@@ -145,7 +161,7 @@ public class Main {
                     "This means signing up the peergos user, and adding the pki public key to the peergos user",
             args -> {
                 try {
-                    Crypto crypto = Crypto.initJava();
+                    Crypto crypto = initCrypto();
                     // recreate peergos user and pki keys
                     String password = args.getArg("peergos.password");
                     String pkiUsername = "peergos";
@@ -299,13 +315,17 @@ public class Main {
                     new Command.Arg("username", "Peergos username", true),
                     new Command.Arg("password", "Peergos password", true),
                     new Command.Arg("webport", "Peergos service address port", false, "8000"),
-                    new Command.Arg("mountPoint", "The directory to mount the Peergos filesystem in", true, "peergos")
+                    new Command.Arg("mountPoint", "The directory to mount the Peergos filesystem in", true, "peergos"),
+                    new Command.Arg("fuse-attr-timeout", "Seconds the kernel may cache file attributes for", false, "1.0"),
+                    new Command.Arg("fuse-entry-timeout", "Seconds the kernel may cache directory entries for", false, "1.0"),
+                    new Command.Arg("fuse-path-cache-size", "Maximum number of paths to cache attributes and listings for", false, "10000"),
+                    new Command.Arg("session-cache", "A local directory to cache encrypted metadata in for fast re-login", false)
             ).collect(Collectors.toList())
     );
 
     public static void startPeergos(Args a) {
         try {
-            Crypto.initJava();
+            initCrypto();
             int webPort = a.getInt("port");
             a.setIfAbsent("proxy-target", getLocalMultiAddress(webPort).toString());
 
@@ -338,13 +358,14 @@ public class Main {
                     mutablePointersSqlFile :
                     a.fromPeergosDir("mutable-pointers-file").toString();
             MutablePointers sqlMutable = UserRepository.buildSqlLite(path, localDht);
+            MutableEventPropagator localMutable = new MutableEventPropagator(sqlMutable);
             MutablePointersProxy proxingMutable = new HttpMutablePointers(ipfsGateway, pkiServerNodeId);
 
             PublicKeyHash peergosId = PublicKeyHash.fromString(a.getArg("peergos.identity.hash"));
             // build a mirroring proxying corenode, unless we are the pki node
             boolean isPkiNode = nodeId.equals(pkiServerNodeId);
             CoreNode core = isPkiNode ?
-                    buildPkiCorenode(sqlMutable, localDht, a) :
+                    buildPkiCorenode(localMutable, localDht, a) :
                     new MirrorCoreNode(new HTTPCoreNode(ipfsGateway, pkiServerNodeId), proxingMutable, localDht,
                             peergosId, a.fromPeergosDir("pki-mirror-state-path","pki-state.cbor"));
 
@@ -359,7 +380,6 @@ public class Main {
             SpaceCheckingKeyFilter spaceChecker = new SpaceCheckingKeyFilter(core, sqlMutable, localDht, userQuotas, statePath);
             CorenodeEventPropagator corePropagator = new CorenodeEventPropagator(signupFilter);
             corePropagator.addListener(spaceChecker::accept);
-            MutableEventPropagator localMutable = new MutableEventPropagator(sqlMutable);
             localMutable.addListener(spaceChecker::accept);
 
             ContentAddressedStorage filteringDht = new WriteFilter(localDht, spaceChecker::allowWrite);
@@ -384,7 +404,7 @@ public class Main {
 
             new UserFilePinner(userPath, core, p2mMutable, p2pDht, delayMs).start();
 
-            Admin storageAdmin = new Admin();
+            Admin storageAdmin = new Admin(userQuotas, core, localDht);
             UserService peergos = new UserService(p2pDht, corePropagator, p2pSocial, p2mMutable, storageAdmin);
             InetSocketAddress localAddress = new InetSocketAddress("localhost", userAPIAddress.getPort());
             Optional<Path> webroot = a.hasArg("webroot") ?
@@ -422,10 +442,13 @@ public class Main {
         System.out.println("\n\nPeergos mounted at " + path + "\n\n");
         try {
             NetworkAccess network = NetworkAccess.buildJava(webPort).get();
-            Crypto crypto = Crypto.initJava();
-            UserContext userContext = PeergosNetworkUtils.ensureSignedUp(username, password, network, crypto);
-            PeergosFS peergosFS = new PeergosFS(userContext);
-            FuseProcess fuseProcess = new FuseProcess(peergosFS, path);
+            Crypto crypto = initCrypto();
+            UserContext userContext = a.hasArg("session-cache") && network.isUsernameRegistered(username).join() ?
+                    EncryptedBlockCache.signIn(username, password, Paths.get(a.getArg("session-cache")), network, crypto).join() :
+                    PeergosNetworkUtils.ensureSignedUp(username, password, network, crypto);
+            PeergosFS peergosFS = new PeergosFS(userContext, a.getInt("fuse-path-cache-size"));
+            FuseProcess fuseProcess = new FuseProcess(peergosFS, path,
+                    a.getDouble("fuse-attr-timeout"), a.getDouble("fuse-entry-timeout"));
 
             Runtime.getRuntime().addShutdownHook(new Thread(() -> fuseProcess.close(), "Fuse shutdown"));
 
@@ -470,7 +493,7 @@ public class Main {
                 new CachingStorage(new IpfsDHT(), dhtCacheEntries, maxValueSizeToCache) :
                 new FileContentAddressedStorage(blockstorePath(a));
         try {
-            Crypto crypto = Crypto.initJava();
+            Crypto crypto = initCrypto();
             MutablePointers mutable = UserRepository.buildSqlLite(path, dht);
             PublicKeyHash peergosIdentity = PublicKeyHash.fromString(a.getArg("peergos.identity.hash"));
 
@@ -501,7 +524,7 @@ public class Main {
 
     private static CoreNode buildPkiCorenode(MutablePointers mutable, ContentAddressedStorage dht, Args a) {
         try {
-            Crypto crypto = Crypto.initJava();
+            Crypto crypto = initCrypto();
             PublicKeyHash peergosIdentity = PublicKeyHash.fromString(a.getArg("peergos.identity.hash"));
 
             String pkiSecretKeyfilePassword = a.getArg("pki.keyfile.password");
@@ -1,5 +1,6 @@
 package peergos.server;
 
+import peergos.server.storage.*;
 import peergos.shared.*;
 import peergos.shared.user.*;
 
@@ -10,13 +11,13 @@ import java.time.*;
 public class Renew {
 
     public static void main(String[] args) throws Exception {
-        Crypto crypto = Crypto.initJava();
+        Crypto crypto = Main.initCrypto();
         NetworkAccess network = NetworkAccess.buildJava(new URL("https://demo.peergos.net")).get();
         String username = args[0];
         LocalDate expiry = LocalDate.parse(args[1]);
         Console console = System.console();
         String password = new String(console.readPassword("Enter password for " + username + ":"));
-        UserContext context = UserContext.signIn(username, password, network, crypto).get();
+        UserContext context = EncryptedBlockCache.signIn(username, password, network, crypto).get();
         context.renewUsernameClaim(expiry).get();
         System.out.println("Logged in " + username + " successfully!");
     }
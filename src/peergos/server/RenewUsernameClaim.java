@@ -1,5 +1,6 @@
 package peergos.server;
 
+import peergos.server.storage.*;
 import peergos.shared.*;
 import peergos.shared.crypto.*;
 import peergos.shared.crypto.random.*;
@@ -17,14 +18,14 @@ import java.util.function.*;
 public class RenewUsernameClaim {
 
     public static void main(String[] args) throws Exception {
-        Crypto crypto = Crypto.initJava();
+        Crypto crypto = Main.initCrypto();
         NetworkAccess network = NetworkAccess.buildJava(new URL("https://demo.peergos.net")).get();
         String username = args[0];
         Console console = System.console();
         String password = new String(console.readPassword("Enter password for " + username + ":"));
 
         LocalDate expiry = LocalDate.now().plusMonths(2);
-        UserContext context = UserContext.signIn(username, password, network, crypto).get();
+        UserContext context = EncryptedBlockCache.signIn(username, password, network, crypto).get();
         boolean isExpired = context.usernameIsExpired().get();
         if (isExpired)
             System.out.println(context.renewUsernameClaim(expiry).get() ? "Renewed username" : "Failed to renew username");
@@ -18,14 +18,14 @@ import java.util.stream.*;
 public class Uploader {
 
     public static void main(String[] args) throws Exception {
-        Crypto crypto = Crypto.initJava();
+        Crypto crypto = Main.initCrypto();
         NetworkAccess network = NetworkAccess.buildJava(new URL("https://demo.peergos.net")).get();
         String username = args[0];
         String fromPath = args[1];
         String toPath = args[2];
         Console console = System.console();
         String password = new String(console.readPassword("Enter password for " + username + ":"));
-        UserContext context = UserContext.signIn(username, password, network, crypto).get();
+        UserContext context = EncryptedBlockCache.signIn(username, password, network, crypto).get();
         ForkJoinPool pool = new ForkJoinPool(1);
         long t1 = System.currentTimeMillis();
         try {
@@ -32,9 +32,15 @@ public class IpfsCoreNode implements CoreNode {
 
     private final Map<String, List<UserPublicKeyLink>> chains = new ConcurrentHashMap<>();
     private final Map<PublicKeyHash, String> reverseLookup = new ConcurrentHashMap<>();
+    // guarded by itself, as getUsernames copies it from other threads
     private final List<String> usernames = new ArrayList<>();
+    // the most recent pending update for each username, which any subsequent update for that username waits for
+    private final Map<String, CompletableFuture<Boolean>> userLocks = new ConcurrentHashMap<>();
+    // validated updates waiting to be committed in the next batch
+    private final List<PendingUpdate> pending = new ArrayList<>();
+    private boolean committing = false;
 
-    private MaybeMultihash currentRoot;
+    private volatile MaybeMultihash currentRoot;
 
     public IpfsCoreNode(SigningPrivateKeyAndPublicHash pkiSigner,
                         MaybeMultihash currentRoot,
@@ -121,7 +127,9 @@ public class IpfsCoreNode implements CoreNode {
             chains.put(username, updatedChain);
             if (! oldValue.isPresent()) {
                 // This is a new user
-                usernames.add(username);
+                synchronized (usernames) {
+                    usernames.add(username);
+                }
             }
         } catch (Exception e) {
             LOG.log(Level.WARNING, e.getMessage(), e);
@@ -129,62 +137,138 @@ public class IpfsCoreNode implements CoreNode {
     }
 
     /** Update a user's public key chain, keeping the in memory mappings correct and committing the new pki root
+     *
+     * Updates for the same username are applied in order, whilst updates for different users are validated
+     * concurrently and then committed together in batches.
      *
      * @param username
      * @param updatedChain
      * @return
      */
     @Override
-    public synchronized CompletableFuture<Boolean> updateChain(String username, List<UserPublicKeyLink> updatedChain) {
-            try {
-                Function<ByteArrayWrapper, byte[]> identityHash = arr -> Arrays.copyOfRange(arr.data, 0, CoreNode.MAX_USERNAME_SIZE);
-                CommittedWriterData current = WriterData.getWriterData(currentRoot.get(), ipfs).get();
-                MaybeMultihash currentTree = current.props.tree.map(MaybeMultihash::of).orElseGet(MaybeMultihash::empty);
-
-                ChampWrapper champ = currentTree.isPresent() ?
-                        ChampWrapper.create(currentTree.get(), identityHash, ipfs).get() :
-                        IpfsTransaction.call(peergosIdentity,
-                                tid -> ChampWrapper.create(signer.publicKeyHash, signer, identityHash, tid, ipfs),
-                                ipfs).get();
-                MaybeMultihash existing = champ.get(username.getBytes()).get();
-                Optional<CborObject> cborOpt = existing.isPresent() ?
-                        ipfs.get(existing.get()).get() :
-                        Optional.empty();
-                if (! cborOpt.isPresent() && existing.isPresent()) {
-                    LOG.severe("Couldn't retrieve existing claim chain from " + existing + " for " + username);
-                    return CompletableFuture.completedFuture(true);
-                }
-                List<UserPublicKeyLink> existingChain = cborOpt.map(cbor -> ((CborObject.CborList) cbor).value.stream()
-                        .map(UserPublicKeyLink::fromCbor)
-                        .collect(Collectors.toList()))
-                        .orElse(Collections.emptyList());
-
-                List<UserPublicKeyLink> mergedChain = UserPublicKeyLink.merge(existingChain, updatedChain, ipfs).get();
-                CborObject.CborList mergedChainCbor = new CborObject.CborList(mergedChain.stream()
-                        .map(Cborable::toCbor)
-                        .collect(Collectors.toList()));
-                Multihash mergedChainHash = IpfsTransaction.call(peergosIdentity,
-                        tid -> ipfs.put(peergosIdentity, signer, mergedChainCbor.toByteArray(), tid),
-                        ipfs).get();
-                synchronized (this) {
+    public CompletableFuture<Boolean> updateChain(String username, List<UserPublicKeyLink> updatedChain) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        CompletableFuture<Boolean> previous = userLocks.put(username, result);
+        CompletableFuture<Boolean> prior = previous == null ? CompletableFuture.completedFuture(true) : previous;
+        prior.handle((x, t) -> true)
+                .thenCompose(x -> validateAndCommit(username, updatedChain))
+                .thenApply(result::complete)
+                .exceptionally(result::completeExceptionally);
+        result.handle((x, t) -> userLocks.remove(username, result));
+        return result;
+    }
+
+    private CompletableFuture<Boolean> validateAndCommit(String username, List<UserPublicKeyLink> updatedChain) {
+        List<UserPublicKeyLink> existingChain = chains.getOrDefault(username, Collections.emptyList());
+        return UserPublicKeyLink.merge(existingChain, updatedChain, ipfs)
+                .thenCompose(mergedChain -> {
+                    CborObject.CborList mergedChainCbor = new CborObject.CborList(mergedChain.stream()
+                            .map(Cborable::toCbor)
+                            .collect(Collectors.toList()));
                     return IpfsTransaction.call(peergosIdentity,
-                            tid -> champ.put(signer.publicKeyHash, signer, username.getBytes(), existing, mergedChainHash, tid)
-                                    .thenCompose(newPkiRoot -> current.props.withChamp(newPkiRoot)
-                                            .commit(peergosIdentity, signer, currentRoot, mutable, ipfs, tid)),
-                            ipfs
-                    ).thenApply(committed -> {
-                        if (existingChain.isEmpty())
-                            usernames.add(username);
-                        PublicKeyHash owner = updatedChain.get(updatedChain.size() - 1).owner;
-                        reverseLookup.put(owner, username);
-                        chains.put(username, mergedChain);
-                        currentRoot = committed.get(signer).hash;
-                        return true;
+                            tid -> ipfs.put(peergosIdentity, signer, mergedChainCbor.toByteArray(), tid),
+                            ipfs).thenCompose(mergedChainHash -> {
+                        PendingUpdate update = new PendingUpdate(username, updatedChain, mergedChain, mergedChainHash);
+                        enqueue(update);
+                        return update.result;
                     });
-                }
-            } catch (Exception e) {
-                throw new RuntimeException(e.getMessage(), e);
+                });
+    }
+
+    private static class PendingUpdate {
+        public final String username;
+        public final List<UserPublicKeyLink> updatedChain, mergedChain;
+        public final Multihash mergedChainHash;
+        public final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        public PendingUpdate(String username,
+                             List<UserPublicKeyLink> updatedChain,
+                             List<UserPublicKeyLink> mergedChain,
+                             Multihash mergedChainHash) {
+            this.username = username;
+            this.updatedChain = updatedChain;
+            this.mergedChain = mergedChain;
+            this.mergedChainHash = mergedChainHash;
+        }
+    }
+
+    private void enqueue(PendingUpdate update) {
+        synchronized (pending) {
+            pending.add(update);
+            if (committing)
+                return;
+            committing = true;
+        }
+        commitPending();
+    }
+
+    /** Commit all the validated updates that have accumulated since the last commit in a single champ root change.
+     *  Only one commit is in progress at a time, and it triggers the next one when it is finished.
+     */
+    private void commitPending() {
+        List<PendingUpdate> batch;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                committing = false;
+                return;
             }
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+        commitBatch(batch)
+                .thenApply(x -> {
+                    batch.forEach(u -> u.result.complete(true));
+                    return true;
+                }).exceptionally(t -> {
+                    LOG.log(Level.WARNING, t.getMessage(), t);
+                    batch.forEach(u -> u.result.completeExceptionally(t));
+                    return false;
+                }).thenAccept(x -> commitPending());
+    }
+
+    private CompletableFuture<Boolean> commitBatch(List<PendingUpdate> batch) {
+        Function<ByteArrayWrapper, byte[]> identityHash = arr -> Arrays.copyOfRange(arr.data, 0, CoreNode.MAX_USERNAME_SIZE);
+        MaybeMultihash root = currentRoot;
+        return WriterData.getWriterData(root.get(), ipfs).thenCompose(current -> {
+            MaybeMultihash currentTree = current.props.tree.map(MaybeMultihash::of).orElseGet(MaybeMultihash::empty);
+            return IpfsTransaction.call(peergosIdentity,
+                    tid -> (currentTree.isPresent() ?
+                            ChampWrapper.create(currentTree.get(), identityHash, ipfs) :
+                            ChampWrapper.create(signer.publicKeyHash, signer, identityHash, tid, ipfs))
+                            .thenCompose(champ -> {
+                                // later updates for the same user supersede earlier ones in the batch
+                                Map<ByteArrayWrapper, Multihash> latest = new LinkedHashMap<>();
+                                for (PendingUpdate u : batch)
+                                    latest.put(new ByteArrayWrapper(u.username.getBytes()), u.mergedChainHash);
+                                return Futures.reduceAll(latest.entrySet(),
+                                        new LinkedHashMap<ByteArrayWrapper, Pair<MaybeMultihash, Multihash>>(),
+                                        (updates, e) -> champ.get(e.getKey().data).thenApply(existing -> {
+                                            updates.put(e.getKey(), new Pair<>(existing, e.getValue()));
+                                            return updates;
+                                        }), (a, b) -> b)
+                                        .thenCompose(updates -> champ.putAll(signer.publicKeyHash, signer, updates, tid));
+                            })
+                            .thenCompose(newPkiRoot -> current.props.withChamp(newPkiRoot)
+                                    .commit(peergosIdentity, signer, root, mutable, ipfs, tid)),
+                    ipfs
+            ).thenApply(committed -> {
+                synchronized (this) {
+                    List<String> newUsernames = new ArrayList<>();
+                    for (PendingUpdate u : batch) {
+                        if (! chains.containsKey(u.username))
+                            newUsernames.add(u.username);
+                        PublicKeyHash owner = u.updatedChain.get(u.updatedChain.size() - 1).owner;
+                        reverseLookup.put(owner, u.username);
+                        chains.put(u.username, u.mergedChain);
+                    }
+                    synchronized (usernames) {
+                        usernames.addAll(newUsernames);
+                    }
+                    currentRoot = committed.get(signer).hash;
+                }
+                return true;
+            });
+        });
     }
 
     @Override
@@ -200,7 +284,9 @@ public class IpfsCoreNode implements CoreNode {
 
     @Override
     public CompletableFuture<List<String>> getUsernames(String prefix) {
-        return CompletableFuture.completedFuture(usernames);
+        synchronized (usernames) {
+            return CompletableFuture.completedFuture(new ArrayList<>(usernames));
+        }
     }
 
     @Override
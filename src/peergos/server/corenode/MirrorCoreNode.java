@@ -18,6 +18,7 @@ import java.util.logging.*;
 import java.util.stream.*;
 
 public class MirrorCoreNode implements CoreNode {
+    private static final long UPDATE_PERIOD_MILLIS = 60_000;
 
     private final CoreNode writeTarget;
     private final MutablePointers mutable;
@@ -149,19 +150,45 @@ public class MirrorCoreNode implements CoreNode {
     public void start() {
         running = true;
         new Thread(() -> {
+            Map<PublicKeyHash, Optional<byte[]>> known = new HashMap<>();
             while (running) {
                 try {
-                    Thread.sleep(60_000);
+                    waitForPkiChange(known);
                     boolean changed = update();
                     if (changed)
                         saveState();
                 } catch (Throwable t) {
                     Logging.LOG().log(Level.SEVERE, t.getMessage(), t);
+                    known.clear();
+                    try {
+                        Thread.sleep(UPDATE_PERIOD_MILLIS);
+                    } catch (InterruptedException e) {}
                 }
             }
         }, "Mirroring PKI node").start();
     }
 
+    /** Block until either the peergos or pki pointer changes from the last values we saw, or the update period elapses
+     *
+     * @param known the last pointer values we saw, which are updated with any changes
+     */
+    private void waitForPkiChange(Map<PublicKeyHash, Optional<byte[]>> known) throws Exception {
+        CorenodeState current = state;
+        PublicKeyHash peergosKey = current.pkiOwnerIdentity;
+        if (! known.containsKey(current.pkiKey) || ! known.containsKey(peergosKey)) {
+            known.clear();
+            known.put(peergosKey, mutable.getPointer(peergosKey, peergosKey).get());
+            known.put(current.pkiKey, mutable.getPointer(peergosKey, current.pkiKey).get());
+        }
+        long start = System.currentTimeMillis();
+        Map<PublicKeyHash, Optional<byte[]>> changes = mutable.watchPointers(peergosKey, known, UPDATE_PERIOD_MILLIS).get();
+        known.putAll(changes);
+        // pointers which aren't notified of updates return immediately, so poll at the update period
+        long remaining = UPDATE_PERIOD_MILLIS - (System.currentTimeMillis() - start);
+        if (changes.isEmpty() && remaining > 0)
+            Thread.sleep(remaining);
+    }
+
     private synchronized void saveState() {
         byte[] serialized = state.toCbor().serialize();
         Logging.LOG().info("Writing "+ serialized.length +" bytes to "+ statePath);
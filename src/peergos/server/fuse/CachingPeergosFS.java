@@ -9,6 +9,7 @@ import jnr.ffi.types.size_t;
 import peergos.shared.user.UserContext;
 import peergos.shared.user.fs.Chunk;
 import peergos.shared.user.fs.FileProperties;
+import peergos.shared.util.*;
 import ru.serce.jnrfuse.ErrorCodes;
 import ru.serce.jnrfuse.struct.*;
 
@@ -16,29 +17,52 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.function.*;
-
+import java.util.stream.*;
+
+/** A write-back cache of file chunks on top of PeergosFS.
+ *
+ *  Writes only modify in memory chunks. Dirty chunks are uploaded in the background once they are full, or have not been
+ *  written to for syncSleep millis, or synchronously on flush, fsync and release, or when we need to evict them to stay
+ *  within the chunk budget.
+ */
 public class CachingPeergosFS extends PeergosFS {
 	private static final Logger LOG = Logging.LOG();
 
     private static final int DEFAULT_SYNC_SLEEP = 1000*30;
-    private static final int DEFAULT_CACHE_SIZE = 1;
-    private static final boolean DEBUG = true;
-
-    private final ConcurrentMap<String, CacheEntryHolder> entryMap;
+    private static final int DEFAULT_CACHE_SIZE = 20;
+
+    // path => (chunk start => chunk), and all cached chunks in least recently used order, both guarded by chunksByPath.
+    // Entry locks are never taken while holding chunksByPath, so a slow download or upload of one chunk can't block
+    // access to the others.
+    private final Map<String, TreeMap<Long, CacheEntry>> chunksByPath = new HashMap<>();
+    private final LinkedHashMap<CacheEntry, Boolean> lru = new LinkedHashMap<>(16, 0.75f, true);
+    // uploads modify the parent directory, so only do one at a time
+    private final Object uploadLock = new Object();
+    private final ScheduledExecutorService flusher;
     private final int chunkCacheSize, syncSleep;
-//    private final Thread syncRunner;
 
     public CachingPeergosFS(UserContext userContext) {
         this(userContext, DEFAULT_CACHE_SIZE, DEFAULT_SYNC_SLEEP);
     }
 
+    /**
+     *
+     * @param chunkCacheSize the maximum number of chunks to hold in memory across all files
+     * @param syncSleep millis after the last write to a chunk before we upload it in the background
+     */
     public CachingPeergosFS(UserContext userContext, int chunkCacheSize, int syncSleep) {
         super(userContext);
-
+        if (chunkCacheSize < 1)
+            throw new IllegalArgumentException("Chunk cache must hold at least one chunk!");
         this.chunkCacheSize = chunkCacheSize;
         this.syncSleep = syncSleep;
-        this.entryMap = new ConcurrentHashMap<>();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Fuse write-back");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(100, syncSleep / 2);
+        flusher.scheduleWithFixedDelay(this::flushExpired, period, period, TimeUnit.MILLISECONDS);
     }
 
     @Override
@@ -52,26 +76,41 @@ public class CachingPeergosFS extends PeergosFS {
     }
 
     public int read(String s, Pointer pointer, int pointerOffset, @size_t long size, @off_t long offset, FuseFileInfo fuseFileInfo) {
-        if (DEBUG)
-            System.out.printf("read(%s, offset=%d, size=%d)\n", s, offset, size);
         if (!containedInOneChunk(offset, offset + size)) {
             long boundary = alignToChunkSize(offset + Chunk.MAX_SIZE);
-            int r1 = read(s, pointer, 0, boundary - offset, offset, fuseFileInfo);
-            if (r1 <= 0)
+            int r1 = read(s, pointer, pointerOffset, boundary - offset, offset, fuseFileInfo);
+            if (r1 < boundary - offset)
                 return r1;
-            int r2 = read(s, pointer, (int)(boundary - offset), size + offset - boundary, boundary, fuseFileInfo);
-            if (r2 <= 0)
+            int r2 = read(s, pointer, pointerOffset + (int)(boundary - offset), size + offset - boundary, boundary, fuseFileInfo);
+            if (r2 < 0)
                 return r2;
             return r1 + r2;
         }
 
-        long startPos = alignToChunkSize(offset);
-        int chunkOffset  = intraChunkOffset(offset);
-        int iSize = (int) size;
+        Optional<PeergosStat> stat = getByPath(s);
+        if (! stat.isPresent())
+            return -ErrorCodes.ENOENT();
+        long fileSize = getSize(s, stat.get().properties.size);
+        if (offset >= fileSize)
+            return 0;
+        int toRead = (int) Math.min(size, fileSize - offset);
 
-        CacheEntryHolder cacheEntryHolder = entryMap.computeIfAbsent(s, path -> new CacheEntryHolder(new CacheEntry(path, startPos)));
-        return cacheEntryHolder.apply(c -> c != null && c.offset == startPos, () -> new CacheEntry(s, startPos),
-                ce -> ce.read(pointer, pointerOffset, chunkOffset, iSize));
+        long startPos = alignToChunkSize(offset);
+        int chunkOffset = intraChunkOffset(offset);
+        while (true) {
+            CacheEntry entry = getEntry(s, startPos);
+            try {
+                synchronized (entry) {
+                    if (entry.evicted)
+                        continue;
+                    entry.ensureLoaded();
+                    pointer.put(pointerOffset, entry.data, chunkOffset, toRead);
+                    return toRead;
+                }
+            } finally {
+                done(entry);
+            }
+        }
     }
 
     @Override
@@ -85,14 +124,12 @@ public class CachingPeergosFS extends PeergosFS {
     }
 
     public int write(String s, Pointer pointer, int pointerOffset, @size_t long size, @off_t long offset, FuseFileInfo fuseFileInfo) {
-        if (DEBUG)
-            System.out.printf("write(%s, offset=%d, size=%d)\n", s, offset, size);
         if  (! containedInOneChunk(offset, offset+size)) {
             long boundary = alignToChunkSize(offset + Chunk.MAX_SIZE);
-            int w1 = write(s, pointer, 0, boundary - offset, offset, fuseFileInfo);
+            int w1 = write(s, pointer, pointerOffset, boundary - offset, offset, fuseFileInfo);
             if (w1 <= 0)
                 return w1;
-            int w2 = write(s, pointer, (int)(boundary - offset), size + offset - boundary, boundary, fuseFileInfo);
+            int w2 = write(s, pointer, pointerOffset + (int)(boundary - offset), size + offset - boundary, boundary, fuseFileInfo);
             if (w2 <= 0)
                 return w2;
             return w1 + w2;
@@ -102,20 +139,28 @@ public class CachingPeergosFS extends PeergosFS {
         int  chunkOffset  = intraChunkOffset(offset);
         int iSize = (int) size;
 
-        CacheEntryHolder cacheEntry = entryMap.computeIfAbsent(s, path -> new CacheEntryHolder(new CacheEntry(path, startPos)));
-        return cacheEntry.apply(c -> c != null && c.offset == startPos, () -> new CacheEntry(s, startPos),
-                ce -> ce.write(pointer, pointerOffset, chunkOffset, iSize));
+        while (true) {
+            CacheEntry entry = getEntry(s, startPos);
+            try {
+                synchronized (entry) {
+                    if (entry.evicted)
+                        continue;
+                    int written = entry.write(pointer, pointerOffset, chunkOffset, iSize);
+                    if (entry.isFull())
+                        // the writer has probably moved on to the next chunk, so upload this one off the request thread
+                        flusher.execute(() -> flushUpTo(s, startPos));
+                    return written;
+                }
+            } finally {
+                done(entry);
+            }
+        }
     }
 
     @Override
     public int lock(String s, FuseFileInfo fuseFileInfo, int i, Flock flock) {
         try {
-            if (DEBUG)
-                System.out.printf("lock(%s)\n", s);
-            CacheEntryHolder cacheEntryHolder = entryMap.get(s);
-            if (cacheEntryHolder != null)
-                cacheEntryHolder.syncAndClear();
-            return 0;
+            return syncFile(s) ? 0 : -ErrorCodes.EIO();
         } catch (Throwable t) {
             LOG.log(Level.WARNING, t.getMessage(), t);
             throw t;
@@ -125,12 +170,8 @@ public class CachingPeergosFS extends PeergosFS {
     @Override
     public int flush(String s, FuseFileInfo fuseFileInfo) {
         try {
-            if (DEBUG)
-                System.out.printf("flush(%s)\n", s);
-            CacheEntryHolder cacheEntry = entryMap.get(s);
-            if (cacheEntry != null) {
-                cacheEntry.sync();
-            }
+            if (! syncFile(s))
+                return -ErrorCodes.EIO();
             return super.flush(s, fuseFileInfo);
         } catch (Throwable t) {
             LOG.log(Level.WARNING, t.getMessage(), t);
@@ -138,82 +179,264 @@ public class CachingPeergosFS extends PeergosFS {
         }
     }
 
+    @Override
+    public int fsync(String s, int isDataSync, FuseFileInfo fuseFileInfo) {
+        return syncFile(s) ? 0 : -ErrorCodes.EIO();
+    }
+
+    @Override
+    public int release(String s, FuseFileInfo fuseFileInfo) {
+        return syncFile(s) ? 0 : -ErrorCodes.EIO();
+    }
+
+    @Override
+    public int open(String s, FuseFileInfo fuseFileInfo) {
+        // pick up any remote changes since we last read this file
+        dropClean(s);
+        return super.open(s, fuseFileInfo);
+    }
+
+    @Override
+    public int unlink(String s) {
+        drop(s);
+        return super.unlink(s);
+    }
+
+    @Override
+    public int rename(String s, String s1) {
+        if (! syncFile(s))
+            return -ErrorCodes.EIO();
+        drop(s);
+        drop(s1);
+        return super.rename(s, s1);
+    }
+
+    @Override
+    public int ftruncate(String s, @off_t long l, FuseFileInfo fuseFileInfo) {
+        if (! syncFile(s))
+            return -ErrorCodes.EIO();
+        drop(s);
+        return super.ftruncate(s, l, fuseFileInfo);
+    }
+
     @Override
     protected int annotateAttributes(String fullPath, PeergosStat peergosStat, FileStat fileStat) {
-        if (DEBUG)
-            System.out.printf("annotate(%s)\n", fullPath);
-        CacheEntryHolder cacheEntry = entryMap.get(fullPath);
-        Optional<PeergosStat> updatedStat = Optional.empty();
-        if (cacheEntry != null) {
-            updatedStat = cacheEntry.applyIfPresent(ce -> {
-                if (ce == null)
-                    return peergosStat;
-                long maxSize = ce.offset + ce.maxDirtyPos;
-                if (peergosStat.properties.size < maxSize) {
-                    FileProperties updated = peergosStat.properties.withSize(maxSize);
-                    return new PeergosStat(peergosStat.treeNode, updated);
-                }
-                return peergosStat;
-            });
+        long size = getSize(fullPath, peergosStat.properties.size);
+        if (peergosStat.properties.size < size) {
+            FileProperties updated = peergosStat.properties.withSize(size);
+            peergosStat = new PeergosStat(peergosStat.treeNode, updated);
         }
-        return super.annotateAttributes(fullPath, updatedStat.orElse(peergosStat), fileStat);
+        return super.annotateAttributes(fullPath, peergosStat, fileStat);
     }
 
-    private boolean containedInOneChunk(long start, long end) {
-        return alignToChunkSize(start) == alignToChunkSize(end-1);
+    /**
+     *
+     * @return the size of the file including any writes which haven't been committed yet
+     */
+    private long getSize(String path, long committedSize) {
+        List<CacheEntry> entries = getEntries(path);
+        long size = committedSize;
+        for (CacheEntry entry : entries) {
+            synchronized (entry) {
+                size = Math.max(size, entry.offset + entry.writtenEnd);
+            }
+        }
+        return size;
     }
 
-    private long alignToChunkSize(long pos) {
-        return Math.max(0, pos / Chunk.MAX_SIZE) * Chunk.MAX_SIZE;
+    private List<CacheEntry> getEntries(String path) {
+        synchronized (chunksByPath) {
+            TreeMap<Long, CacheEntry> chunks = chunksByPath.get(path);
+            if (chunks == null)
+                return Collections.emptyList();
+            return new ArrayList<>(chunks.values());
+        }
     }
-    private int intraChunkOffset(long  pos) {
-        return (int) pos % Chunk.MAX_SIZE;
+
+    /** The caller must call done(entry) once it has finished with the returned entry
+     *
+     * @return the cached chunk at this offset, creating it, and evicting other chunks if necessary
+     */
+    private CacheEntry getEntry(String path, long offset) {
+        while (true) {
+            CacheEntry victim = null;
+            synchronized (chunksByPath) {
+                TreeMap<Long, CacheEntry> chunks = chunksByPath.computeIfAbsent(path, p -> new TreeMap<>());
+                CacheEntry existing = chunks.get(offset);
+                if (existing != null) {
+                    lru.get(existing);
+                    existing.users++;
+                    return existing;
+                }
+                if (lru.size() >= chunkCacheSize) {
+                    // entries in use are skipped, and an entry's dirty state only changes while it is in use
+                    for (CacheEntry candidate : lru.keySet()) {
+                        if (candidate.users > 0)
+                            continue;
+                        if (! candidate.isDirty()) {
+                            remove(candidate);
+                            victim = null;
+                            break;
+                        }
+                        if (victim == null)
+                            victim = candidate;
+                    }
+                }
+                if (victim == null) {
+                    // if every chunk is in use we temporarily exceed the budget rather than wait
+                    CacheEntry entry = new CacheEntry(path, offset);
+                    // an eviction may have removed this file's now empty map
+                    chunksByPath.computeIfAbsent(path, p -> new TreeMap<>()).put(offset, entry);
+                    lru.put(entry, true);
+                    entry.users++;
+                    return entry;
+                }
+                victim.users++;
+            }
+            try {
+                LOG.info("Ejecting dirty chunk from " + victim.path + " at " + victim.offset);
+                if (! flushUpTo(victim.path, victim.offset))
+                    throw new IllegalStateException("Unable to upload chunk of " + victim.path + " at " + victim.offset);
+            } finally {
+                done(victim);
+            }
+        }
     }
 
-    private class CacheEntryHolder {
-        private CacheEntry entry;
+    /** Mark an entry as in use, so it won't be evicted
+     *
+     * @return false if the entry has already been evicted
+     */
+    private boolean use(CacheEntry entry) {
+        synchronized (chunksByPath) {
+            if (entry.evicted)
+                return false;
+            entry.users++;
+            return true;
+        }
+    }
 
-        public CacheEntryHolder(CacheEntry entry) {
-            this.entry = entry;
+    private void done(CacheEntry entry) {
+        synchronized (chunksByPath) {
+            entry.users--;
+            if (entry.users == 0 && entry.evicted)
+                BufferPool.CHUNKS.release(entry.data);
         }
+    }
 
-        public synchronized <A> A apply(Predicate<CacheEntry> correctChunk, Supplier<CacheEntry> supplier, Function<CacheEntry, A> func) {
-            if (!correctChunk.test(entry)) {
-                long oldOffset = entry != null ? entry.offset : -1;
-                syncAndClear();
-                setEntry(supplier.get());
-                LOG.info("Ejecting chunk from " + entry.path + " " + oldOffset + " -> "+ entry.offset);
+    /** Must be called holding the lock on chunksByPath
+     *
+     */
+    private void remove(CacheEntry entry) {
+        if (entry.evicted)
+            return;
+        entry.evicted = true;
+        // nothing reads the data of an evicted entry, so its buffer can be reused once no one is using it
+        if (entry.users == 0)
+            BufferPool.CHUNKS.release(entry.data);
+        lru.remove(entry);
+        TreeMap<Long, CacheEntry> chunks = chunksByPath.get(entry.path);
+        if (chunks == null)
+            return;
+        chunks.remove(entry.offset);
+        if (chunks.isEmpty())
+            chunksByPath.remove(entry.path);
+    }
 
-            }
-            return func.apply(entry);
+    /** Forget all cached chunks of a file, including unwritten changes
+     *
+     */
+    private void drop(String path) {
+        synchronized (chunksByPath) {
+            for (CacheEntry entry : getEntries(path))
+                remove(entry);
         }
+    }
 
-        public synchronized <A> Optional<A> applyIfPresent(Function<CacheEntry, A> func) {
-            if (entry != null) {
-                return Optional.of(func.apply(entry));
-            }
-            return Optional.empty();
+    private void dropClean(String path) {
+        synchronized (chunksByPath) {
+            for (CacheEntry entry : getEntries(path))
+                if (entry.users == 0 && ! entry.isDirty())
+                    remove(entry);
         }
+    }
 
-        public synchronized void setEntry(CacheEntry entry) {
-            this.entry = entry;
+    /** Upload all dirty chunks of a file, in order
+     *
+     * @return true if everything was committed
+     */
+    private boolean syncFile(String path) {
+        return flushUpTo(path, Long.MAX_VALUE);
+    }
+
+    /** Upload the dirty chunks of a file which start at or before an offset, in order, so the file is only ever extended
+     *  from its end
+     *
+     * @return true if everything was committed
+     */
+    private boolean flushUpTo(String path, long offset) {
+        boolean success = true;
+        for (CacheEntry entry : getEntries(path)) {
+            if (entry.offset > offset)
+                break;
+            success &= flush(entry);
         }
+        return success;
+    }
 
-        public synchronized void sync() {
-            if (entry == null)
-                return;
-            if (DEBUG)
-                System.out.printf("sync(%s)\n", entry.path);
-            entry.sync();
+    private void flushExpired() {
+        try {
+            long now = System.currentTimeMillis();
+            List<CacheEntry> all;
+            synchronized (chunksByPath) {
+                all = chunksByPath.values().stream()
+                        .flatMap(chunks -> chunks.values().stream())
+                        .collect(Collectors.toList());
+            }
+            for (CacheEntry entry : all) {
+                boolean expired;
+                synchronized (entry) {
+                    expired = entry.isDirty() && now - entry.lastWrite >= syncSleep;
+                }
+                if (expired)
+                    flushUpTo(entry.path, entry.offset);
+            }
+        } catch (Throwable t) {
+            LOG.log(Level.WARNING, t.getMessage(), t);
         }
+    }
 
-        public synchronized void syncAndClear() {
-            if (entry == null)
-                return;
-            if (DEBUG)
-                System.out.printf("fsync(%s)\n", entry.path);
-            entry.sync();
-            entry = null;
+    /** Upload the dirty section of a chunk, if any. Writes made during the upload leave the chunk dirty.
+     *
+     * @return true unless the upload failed
+     */
+    private boolean flush(CacheEntry entry) {
+        if (! use(entry))
+            return true;
+        try {
+            synchronized (uploadLock) {
+                byte[] section;
+                long sectionStart;
+                synchronized (entry) {
+                    if (entry.evicted || ! entry.isDirty())
+                        return true;
+                    section = Arrays.copyOfRange(entry.data, entry.dirtyStart, entry.dirtyEnd);
+                    sectionStart = entry.offset + entry.dirtyStart;
+                    entry.markClean();
+                }
+                Path p = Paths.get(entry.path);
+                String parentPath = p.getParent().toString();
+                String name = p.getFileName().toString();
+                int res = applyIfPresent(parentPath, (parent) -> mutate(entry.path,
+                        () -> CachingPeergosFS.this.write(parent, name, section, section.length, sectionStart)), -ErrorCodes.ENOENT());
+                if (res < 0)
+                    synchronized (entry) {
+                        entry.markDirty((int)(sectionStart - entry.offset), section.length);
+                    }
+                return res >= 0;
+            }
+        } finally {
+            done(entry);
         }
     }
 
@@ -221,19 +444,42 @@ public class CachingPeergosFS extends PeergosFS {
         private final String path;
         private final byte[] data;
         private final long offset;
-        private int maxDirtyPos;
+        // the section that has been written to since the last upload, empty when dirtyStart == dirtyEnd
+        private int dirtyStart, dirtyEnd;
+        // the end of any section written since this chunk was cached, committed or not
+        private int writtenEnd;
+        private long lastWrite;
+        // whether data reflects the committed file outside the dirty section
+        private boolean loaded;
+        // the number of callers using this entry, and whether it has been removed from the cache, guarded by chunksByPath
+        private int users;
+        private volatile boolean evicted;
 
         public CacheEntry(String path, long offset) {
             this.path = path;
             this.offset = offset;
-            this.data = new byte[Chunk.MAX_SIZE];
-            //read current data into data view
-            PeergosStat stat = getByPath(path).orElseThrow(() -> new IllegalStateException("missing" + path));
-            byte[] readData = CachingPeergosFS.this.read(stat, data.length, offset)
-                    .orElseThrow(() -> new IllegalStateException("missing: " + path));
-            this.maxDirtyPos = 0;
-            System.arraycopy(readData, 0, data, 0, readData.length);
+            this.data = BufferPool.CHUNKS.take();
+        }
 
+        /** Read the committed contents of this chunk, preserving any local changes
+         *
+         */
+        public void ensureLoaded() {
+            if (loaded)
+                return;
+            PeergosStat stat = getByPath(path).orElseThrow(() -> new IllegalStateException("missing" + path));
+            if (offset < stat.properties.size) {
+                byte[] readData = CachingPeergosFS.this.read(stat, data.length, offset)
+                        .orElseThrow(() -> new IllegalStateException("missing: " + path));
+                if (! isDirty())
+                    System.arraycopy(readData, 0, data, 0, readData.length);
+                else {
+                    System.arraycopy(readData, 0, data, 0, Math.min(readData.length, dirtyStart));
+                    if (dirtyEnd < readData.length)
+                        System.arraycopy(readData, dirtyEnd, data, dirtyEnd, readData.length - dirtyEnd);
+                }
+            }
+            loaded = true;
         }
 
         private void ensureInBounds(int offset, int length) {
@@ -241,50 +487,62 @@ public class CachingPeergosFS extends PeergosFS {
                 throw new  IllegalStateException("cannot op with offset "+ offset +" and length "+ length +" with length "+ data.length);
         }
 
-        public int read(Pointer pointer, int pointerOffset, int chunkOffset, int length) {
-            ensureInBounds(chunkOffset, length);
-            pointer.put(pointerOffset, data, chunkOffset, length);
-            return length;
-        }
-
         public int write(Pointer pointer, int pointerOffset, int chunkOffset, int length) {
             ensureInBounds(chunkOffset, length);
+            // the dirty section must be contiguous, so fill any gap with the committed contents first
+            if (isDirty() && (chunkOffset > dirtyEnd || chunkOffset + length < dirtyStart))
+                ensureLoaded();
             pointer.get(pointerOffset, data, chunkOffset, length);
-            maxDirtyPos = Math.max(maxDirtyPos, chunkOffset+length);
+            markDirty(chunkOffset, length);
+            writtenEnd = Math.max(writtenEnd, chunkOffset + length);
+            lastWrite = System.currentTimeMillis();
             return length;
         }
 
-        public void sync() {
-            Path p = Paths.get(path);
-
-            String parentPath = p.getParent().toString();
-            String name = p.getFileName().toString();
-
-            if (maxDirtyPos ==0)
-                return;
-            applyIfPresent(parentPath, (parent) -> CachingPeergosFS.this.write(parent, name, data, maxDirtyPos, offset), -ErrorCodes.ENOENT());
+        public boolean isDirty() {
+            return dirtyEnd > dirtyStart;
         }
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-
-            CacheEntry that = (CacheEntry) o;
-
-            return Objects.equals(path, that.path);
+        public boolean isFull() {
+            return dirtyEnd == data.length;
+        }
 
+        public void markDirty(int start, int length) {
+            if (! isDirty()) {
+                dirtyStart = start;
+                dirtyEnd = start + length;
+            } else {
+                dirtyStart = Math.min(dirtyStart, start);
+                dirtyEnd = Math.max(dirtyEnd, start + length);
+            }
         }
 
-        @Override
-        public int hashCode() {
-            return path != null ? path.hashCode() : 0;
+        public void markClean() {
+            dirtyStart = 0;
+            dirtyEnd = 0;
         }
     }
 
+    private boolean containedInOneChunk(long start, long end) {
+        return alignToChunkSize(start) == alignToChunkSize(end-1);
+    }
+
+    private long alignToChunkSize(long pos) {
+        return Math.max(0, pos / Chunk.MAX_SIZE) * Chunk.MAX_SIZE;
+    }
+    private int intraChunkOffset(long  pos) {
+        return (int) (pos % Chunk.MAX_SIZE);
+    }
+
     @Override
     public void close() throws Exception {
-
+        List<String> paths;
+        synchronized (chunksByPath) {
+            paths = new ArrayList<>(chunksByPath.keySet());
+        }
+        for (String path : paths)
+            syncFile(path);
+        flusher.shutdown();
         super.close();
     }
-}
\ No newline at end of file
+}
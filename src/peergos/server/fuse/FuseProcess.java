@@ -17,13 +17,25 @@ public class FuseProcess implements Runnable, AutoCloseable {
 
     private final PeergosFS peergosFS;
     private final Path mountPoint;
+    private final double attrTimeoutSeconds, entryTimeoutSeconds;
     private volatile boolean isFinished;
     private volatile boolean isClosed;
 
 
     public FuseProcess(PeergosFS peergosFS, Path mountPoint) {
+        this(peergosFS, mountPoint, 1.0, 1.0);
+    }
+
+    /**
+     *
+     * @param attrTimeoutSeconds how long the kernel may cache file attributes before asking us again
+     * @param entryTimeoutSeconds how long the kernel may cache name lookups before asking us again
+     */
+    public FuseProcess(PeergosFS peergosFS, Path mountPoint, double attrTimeoutSeconds, double entryTimeoutSeconds) {
         this.peergosFS = peergosFS;
         this.mountPoint = mountPoint;
+        this.attrTimeoutSeconds = attrTimeoutSeconds;
+        this.entryTimeoutSeconds = entryTimeoutSeconds;
     }
 
     @Override
@@ -46,7 +58,8 @@ public class FuseProcess implements Runnable, AutoCloseable {
         int transferBufferSize = 5*1024*1024;
         String[] fuseOpts = new String[]{"-o", "big_writes",
                 "-o", "fsname=Peergos",
-                "-o", "max_read="+transferBufferSize, "-o", "max_write="+transferBufferSize};
+                "-o", "max_read="+transferBufferSize, "-o", "max_write="+transferBufferSize,
+                "-o", "attr_timeout="+attrTimeoutSeconds, "-o", "entry_timeout="+entryTimeoutSeconds};
         peergosFS.mount(mountPoint, blocking, debug, fuseOpts);
 
         new Thread(this, "Fuse process").start();
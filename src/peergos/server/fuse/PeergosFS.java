@@ -5,9 +5,11 @@ import peergos.server.util.Logging;
 
 import jnr.ffi.Pointer;
 import jnr.ffi.types.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.mutable.*;
 import peergos.shared.user.UserContext;
 import peergos.shared.user.fs.*;
-import peergos.shared.util.Serialize;
+import peergos.shared.util.*;
 
 import ru.serce.jnrfuse.ErrorCodes;
 import ru.serce.jnrfuse.FuseFillDir;
@@ -18,7 +20,10 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.function.*;
+import java.util.stream.*;
 
 /**
  * Nice FUSE API doc @
@@ -40,11 +45,55 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
     }
 
 
+    /** A cached value for a path, which is valid as long as the signed pointer of the writer it was read from is unchanged
+     *
+     */
+    private static class Cached<V> {
+        public final V value;
+        public final PublicKeyHash owner, writer;
+        public final Optional<byte[]> pointer;
+
+        public Cached(V value, PublicKeyHash owner, PublicKeyHash writer, Optional<byte[]> pointer) {
+            this.value = value;
+            this.owner = owner;
+            this.writer = writer;
+            this.pointer = pointer;
+        }
+    }
+
+    private static final int DEFAULT_PATH_CACHE_SIZE = 10_000;
+    private static final long DEFAULT_QUOTA = 1024L * 1024 * 1024;
+    private static final long BLOCK_SIZE = 4096;
+    private static final long USAGE_REFRESH_MILLIS = 60_000;
+    // how long a writer's pointer is trusted when validating cached paths, before it is read again
+    private static final long POINTER_TTL_MILLIS = 1_000;
+
     private final UserContext context;
     protected volatile boolean isClosed;
+    // path => getattr result and readdir listing, invalidated by writer commits or local mutations
+    private final LRUCache<String, Cached<PeergosStat>> statCache;
+    private final LRUCache<String, Cached<List<String>>> listingCache;
+    // writer => the time we last read its pointer, and its value, guarded by itself
+    private final Map<PublicKeyHash, Pair<Long, Optional<byte[]>>> recentPointers = new HashMap<>();
+    // statfs is called often, but computing our usage walks all our data, so do it in the background, along with
+    // fetching our quota from the server
+    private volatile long quotaBytes = DEFAULT_QUOTA;
+    private volatile long usedBytes, usageUpdated;
+    private final AtomicBoolean updatingUsage = new AtomicBoolean(false);
 
     public PeergosFS(UserContext context) {
+        this(context, DEFAULT_PATH_CACHE_SIZE);
+    }
+
+    /**
+     *
+     * @param pathCacheSize the maximum number of paths to cache attributes and directory listings for
+     */
+    public PeergosFS(UserContext context, int pathCacheSize) {
         this.context = context;
+        this.statCache = new LRUCache<>(pathCacheSize);
+        this.listingCache = new LRUCache<>(pathCacheSize);
+        getUsage();
     }
 
     @Override
@@ -130,7 +179,7 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
             return -ErrorCodes.ENOENT();
 
         PeergosStat parent = parentOpt.get();
-        return mkdir(name, parent.treeNode).isPresent() ? 0 : -ErrorCodes.ENOENT();
+        return mutate(s, () -> mkdir(name, parent.treeNode).isPresent() ? 0 : -ErrorCodes.ENOENT());
     }
 
     @Override
@@ -151,6 +200,8 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
         } catch (Exception ioe) {
             LOG.log(Level.WARNING, ioe.getMessage(), ioe);
             return -ErrorCodes.ENOENT();
+        } finally {
+            invalidate(s);
         }
     }
 
@@ -158,7 +209,8 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
     public int rmdir(String s) {
         ensureNotClosed();
         Path dir = Paths.get(s);
-        return applyIfPresent(s, (stat) -> applyIfPresent(dir.getParent().toString(), parentStat -> rmdir(stat, parentStat)));
+        return applyIfPresent(s, (stat) -> applyIfPresent(dir.getParent().toString(),
+                parentStat -> mutate(s, () -> rmdir(stat, parentStat))));
     }
 
     @Override
@@ -168,8 +220,9 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
 
     private int rename(PeergosStat source, PeergosStat sourceParent, String sourcePath, String targetPath) {
         ensureNotClosed();
+        Path requested = Paths.get(targetPath);
+        Path renamedInPlacePath = Paths.get(sourcePath).getParent().resolve(requested.getFileName().toString());
         try {
-            Path requested = Paths.get(targetPath);
             String targetFilename = requested.getFileName().toString();
             Optional<FileWrapper> newParent = context.getByPath(requested.getParent().toString()).get();
             if (!newParent.isPresent())
@@ -179,7 +232,6 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
             FileWrapper updatedParent = source.treeNode.rename(targetFilename, parent, context).get();
             // TODO clean up on error conditions
             if (! parent.equals(newParent.get())) {
-                Path renamedInPlacePath = Paths.get(sourcePath).getParent().resolve(requested.getFileName().toString());
                 Optional<FileWrapper> renamedOriginal = context.getByPath(renamedInPlacePath.toString()).get();
                 if (! renamedOriginal.isPresent())
                     return -ErrorCodes.ENOENT();
@@ -190,6 +242,10 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
         } catch (Exception ioe) {
             LOG.log(Level.WARNING, ioe.getMessage(), ioe);
             return -ErrorCodes.ENOENT();
+        } finally {
+            invalidate(sourcePath);
+            invalidate(renamedInPlacePath.toString());
+            invalidate(targetPath);
         }
     }
     @Override
@@ -242,15 +298,47 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
         Path path = Paths.get(s);
         String parentPath = path.getParent().toString();
         String name = path.getFileName().toString();
-        return applyIfPresent(parentPath, (parent) -> write(parent, name, pointer, size, offset), -ErrorCodes.ENOENT());
+        return applyIfPresent(parentPath,
+                (parent) -> mutate(s, () -> write(parent, name, pointer, size, offset)), -ErrorCodes.ENOENT());
     }
 
     @Override
     public int statfs(String s, Statvfs statvfs) {
         ensureNotClosed();
+        long used = getUsage();
+        long quotaBytes = this.quotaBytes;
+        long free = Math.max(0, quotaBytes - used);
+        // the preferred io size, tools like cp use this as their buffer size
         statvfs.f_bsize.set(128*1024L);
-//        return 0;
-        return unimp();
+        statvfs.f_frsize.set(BLOCK_SIZE);
+        statvfs.f_blocks.set(quotaBytes / BLOCK_SIZE);
+        statvfs.f_bfree.set(free / BLOCK_SIZE);
+        statvfs.f_bavail.set(free / BLOCK_SIZE);
+        statvfs.f_namemax.set(FileProperties.MAX_FILE_NAME_SIZE);
+        return 0;
+    }
+
+    /**
+     *
+     * @return the last known space used by this user, triggering a background refresh of it and our quota if they are
+     * out of date
+     */
+    private long getUsage() {
+        if (System.currentTimeMillis() - usageUpdated > USAGE_REFRESH_MILLIS && updatingUsage.compareAndSet(false, true)) {
+            context.getQuota()
+                    .thenCombine(context.getTotalSpaceUsed(), Pair::new)
+                    .whenComplete((quotaAndUsage, t) -> {
+                        if (t != null)
+                            LOG.log(Level.WARNING, t.getMessage(), t);
+                        else {
+                            quotaBytes = quotaAndUsage.left;
+                            usedBytes = quotaAndUsage.right;
+                            usageUpdated = System.currentTimeMillis();
+                        }
+                        updatingUsage.set(false);
+                    });
+        }
+        return usedBytes;
     }
 
     @Override
@@ -298,7 +386,7 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
     @Override
     public int readdir(String s, Pointer pointer, FuseFillDir fuseFillDir, @off_t long l, FuseFileInfo fuseFileInfo) {
         ensureNotClosed();
-        return applyIfPresent(s, (stat) ->readdir(stat, fuseFillDir, pointer));
+        return applyIfPresent(s, (stat) ->readdir(s, stat, fuseFillDir, pointer));
     }
 
     @Override
@@ -340,7 +428,7 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
         byte[] emptyData = new byte[0];
 
         return applyIfPresent(parentPath,
-                (stat) -> write(stat,  name, emptyData, 0, 0));
+                (stat) -> mutate(s, () -> write(stat,  name, emptyData, 0, 0)));
     }
 
     @Override
@@ -348,7 +436,7 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
         ensureNotClosed();
         Path path = Paths.get(s);
         String parentPath = path.getParent().toString();
-        return applyIfBothPresent(parentPath, s, (parent, file) -> truncate(parent, file, l));
+        return applyIfBothPresent(parentPath, s, (parent, file) -> mutate(s, () -> truncate(parent, file, l)));
     }
 
     @Override
@@ -396,6 +484,8 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
             } catch (Exception ex) {
                 LOG.log(Level.WARNING, ex.getMessage(), ex);
                 return -ErrorCodes.ENOENT();
+            } finally {
+                invalidate(s);
             }
         }, aDefault);
 
@@ -416,16 +506,18 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
         return unimp();
     }
 
-//    @Override
-//    public int write_buf(String s, FuseBufvec fuseBufvec, @off_t long l, FuseFileInfo fuseFileInfo) {
-//
-//        return write();
-//    }
-
-//    @Override
-//    public int read_buf(String s, Pointer pointer, @size_t long l, @off_t long l1, FuseFileInfo fuseFileInfo) {
-//        return 0;
-//    }
+    @Override
+    public int write_buf(String s, FuseBufvec fuseBufvec, @off_t long offset, FuseFileInfo fuseFileInfo) {
+        ensureNotClosed();
+        // a single in memory buffer can be written directly, rather than copied into a new buffer first
+        if (fuseBufvec.count.get() != 1 || fuseBufvec.idx.get() != 0 || fuseBufvec.off.get() != 0)
+            return super.write_buf(s, fuseBufvec, offset, fuseFileInfo);
+        FuseBuf buf = fuseBufvec.buf;
+        // any flags mean the data is in a file descriptor
+        if (buf.flags.intValue() != 0)
+            return super.write_buf(s, fuseBufvec, offset, fuseFileInfo);
+        return write(s, buf.mem.get(), buf.size.get(), offset, fuseFileInfo);
+    }
 
     @Override
     public int flock(String s, FuseFileInfo fuseFileInfo, int i) {
@@ -445,6 +537,9 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
 
     protected Optional<PeergosStat> getByPath(String path) {
         try {
+            Optional<PeergosStat> cached = getCached(statCache, path);
+            if (cached.isPresent())
+                return cached;
             Optional<FileWrapper> opt = context.getByPath(path).get();
             ;
             if (!opt.isPresent())
@@ -452,12 +547,104 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
             FileWrapper treeNode = opt.get();
             FileProperties fileProperties = treeNode.getFileProperties();
 
-            return Optional.of(new PeergosStat(treeNode, fileProperties));
+            PeergosStat stat = new PeergosStat(treeNode, fileProperties);
+            cache(statCache, path, stat, treeNode, currentPointers(Collections.singleton(treeNode)));
+            return Optional.of(stat);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     *
+     * @return The cached value for this path, if present and its writer hadn't committed since it was cached when we
+     * last read its pointer, at most POINTER_TTL_MILLIS ago
+     */
+    private <V> Optional<V> getCached(LRUCache<String, Cached<V>> cache, String path) throws Exception {
+        Cached<V> cached;
+        synchronized (cache) {
+            cached = cache.get(path);
+        }
+        if (cached == null)
+            return Optional.empty();
+        Optional<byte[]> current = getPointer(cached.owner, cached.writer, false);
+        if (MutablePointers.isSamePointer(current, cached.pointer))
+            return Optional.of(cached.value);
+        synchronized (cache) {
+            cache.remove(path, cached);
+        }
+        return Optional.empty();
+    }
+
+    private <V> void cache(LRUCache<String, Cached<V>> cache,
+                           String path,
+                           V value,
+                           FileWrapper source,
+                           Map<PublicKeyHash, Optional<byte[]>> pointers) {
+        // The pointer is read after the value, so a commit in between can leave a stale entry until the next commit
+        Cached<V> cached = new Cached<>(value, source.owner(), source.writer(), pointers.get(source.writer()));
+        synchronized (cache) {
+            cache.put(path, cached);
+        }
+    }
+
+    private Map<PublicKeyHash, Optional<byte[]>> currentPointers(Collection<FileWrapper> files) throws Exception {
+        Map<PublicKeyHash, Optional<byte[]>> res = new HashMap<>();
+        for (FileWrapper file : files) {
+            if (! res.containsKey(file.writer()))
+                res.put(file.writer(), getPointer(file.owner(), file.writer(), true));
+        }
+        return res;
+    }
+
+    /**
+     *
+     * @param fresh whether to read the pointer even if we have read it within POINTER_TTL_MILLIS
+     * @return the writer's current pointer
+     */
+    private Optional<byte[]> getPointer(PublicKeyHash owner, PublicKeyHash writer, boolean fresh) throws Exception {
+        long now = System.currentTimeMillis();
+        if (! fresh) {
+            synchronized (recentPointers) {
+                Pair<Long, Optional<byte[]>> recent = recentPointers.get(writer);
+                if (recent != null && now - recent.left < POINTER_TTL_MILLIS)
+                    return recent.right;
+            }
+        }
+        Optional<byte[]> current = context.network.mutable.getPointer(owner, writer).get();
+        synchronized (recentPointers) {
+            recentPointers.put(writer, new Pair<>(now, current));
+        }
+        return current;
+    }
+
+    /** Apply a mutation to a path, and then drop any cached state for it, so a lookup made during the mutation can't
+     *  leave the old state cached
+     */
+    protected int mutate(String path, Supplier<Integer> mutation) {
+        try {
+            return mutation.get();
+        } finally {
+            invalidate(path);
+        }
+    }
+
+    protected void invalidate(String path) {
+        // our own changes are visible immediately, so don't trust pointers read before them
+        synchronized (recentPointers) {
+            recentPointers.clear();
+        }
+        Path parent = Paths.get(path).getParent();
+        String descendantPrefix = path.endsWith("/") ? path : path + "/";
+        for (LRUCache<String, ? extends Cached<?>> cache : Arrays.asList(statCache, listingCache)) {
+            synchronized (cache) {
+                cache.keySet().removeIf(p -> p.equals(path) || p.startsWith(descendantPrefix));
+                if (parent != null)
+                    cache.remove(parent.toString());
+            }
+        }
+    }
+
     private Optional<PeergosStat> getParentByPath(String  path) {
         String parentPath = Paths.get(path).getParent().toString();
         return getByPath(parentPath);
@@ -496,12 +683,28 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
         }
     }
 
-    private int readdir(PeergosStat stat, FuseFillDir fuseFillDir, Pointer pointer) {
+    private int readdir(String path, PeergosStat stat, FuseFillDir fuseFillDir, Pointer pointer) {
         try {
+            Optional<List<String>> cached = getCached(listingCache, path);
+            if (cached.isPresent()) {
+                cached.get().forEach(e -> fuseFillDir.apply(pointer, e, null, 0));
+                return 0;
+            }
             Set<FileWrapper> children = stat.treeNode.getChildren(context.network).get();
-            children.stream()
+            List<String> names = children.stream()
                     .map(e -> e.getFileProperties().name)
-                    .forEach(e -> fuseFillDir.apply(pointer, e, null, 0));
+                    .collect(Collectors.toList());
+            names.forEach(e -> fuseFillDir.apply(pointer, e, null, 0));
+
+            // A listing is usually followed by a getattr of each child, so cache those too
+            List<FileWrapper> all = new ArrayList<>(children);
+            all.add(stat.treeNode);
+            Map<PublicKeyHash, Optional<byte[]>> pointers = currentPointers(all);
+            String prefix = path.endsWith("/") ? path : path + "/";
+            for (FileWrapper child : children)
+                cache(statCache, prefix + child.getFileProperties().name,
+                        new PeergosStat(child, child.getFileProperties()), child, pointers);
+            cache(listingCache, path, names, stat.treeNode, pointers);
             return 0;
         } catch (Exception e) {
             LOG.log(Level.WARNING, e.getMessage(), e);
@@ -547,22 +750,10 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
             return -ErrorCodes.ENOENT();
 
         byte[] data = dataOpt.get();
-        for (int i = 0; i < data.length; i++) {
-            pointer.putByte(i, data[i]);
-        }
+        pointer.put(0, data, 0, data.length);
         return data.length;
     }
 
-    private byte[] getData(Pointer pointer, int size) {
-        if (Integer.MAX_VALUE < size) {
-            throw new IllegalStateException("Cannot write more than " + Integer.MAX_VALUE + " bytes");
-        }
-
-        byte[] toWrite = new byte[size];
-        pointer.get(0, toWrite, 0, size);
-        return toWrite;
-    }
-
     public int truncate(PeergosStat parent, PeergosStat file, long size) {
 
         debug("TRUNCATE file %s, size %d", file.properties.name, size);
@@ -588,14 +779,24 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
     }
 
     public int write(PeergosStat parent, String name, byte[] toWrite, long size, long offset) {
+        return write(parent, name, new AsyncReader.ArrayBacked(toWrite), size, offset);
+    }
+
+    /** Write directly from fuse's buffer into the encrypted chunks, without an intermediate copy
+     *
+     */
+    public int write(PeergosStat parent, String name, Pointer pointer, long size, long offset) {
+        return write(parent, name, new PointerReader(pointer, size), size, offset);
+    }
 
+    private int write(PeergosStat parent, String name, AsyncReader toWrite, long size, long offset) {
         try {
             long updatedLength = size + offset;
             if (Integer.MAX_VALUE < updatedLength) {
                 throw new IllegalStateException("Cannot write more than " + Integer.MAX_VALUE + " bytes");
             }
 
-            FileWrapper b = parent.treeNode.uploadFileSection(name, new AsyncReader.ArrayBacked(toWrite), false, offset,
+            FileWrapper b = parent.treeNode.uploadFileSection(name, toWrite, false, offset,
                     offset + size, Optional.empty(), true, context.network,
                     context.crypto, l -> {},
                     parent.treeNode.generateChildLocationsFromSize(size, context.crypto.random)).get();
@@ -606,9 +807,42 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
         }
     }
 
-    public int write(PeergosStat parent, String name, Pointer pointer, long size, long offset) {
-        byte[] data = getData(pointer, (int) size);
-        return write(parent, name, data, size, offset);
+    /** Reads from native memory, which must remain valid until the reader is no longer used
+     *
+     */
+    private static class PointerReader implements AsyncReader {
+        private final Pointer pointer;
+        private final long size;
+        private long index = 0;
+
+        public PointerReader(Pointer pointer, long size) {
+            this.pointer = pointer;
+            this.size = size;
+        }
+
+        @Override
+        public CompletableFuture<AsyncReader> seekJS(int high32, int low32) {
+            index += ((long) high32 << 32) | (low32 & 0xFFFFFFFFL);
+            return CompletableFuture.completedFuture(this);
+        }
+
+        @Override
+        public CompletableFuture<Integer> readIntoArray(byte[] res, int offset, int length) {
+            int toRead = (int) Math.min(length, size - index);
+            pointer.get(index, res, offset, toRead);
+            index += toRead;
+            return CompletableFuture.completedFuture(toRead);
+        }
+
+        @Override
+        public CompletableFuture<AsyncReader> reset() {
+            index = 0;
+            return CompletableFuture.completedFuture(this);
+        }
+
+        @Override
+        public void close() {
+        }
     }
 
     /**
@@ -32,4 +32,15 @@ public class BlockingMutablePointers implements MutablePointers {
         res.completeExceptionally(new IllegalStateException("This Peergos subspace has been banned from this server"));
         return res;
     }
+
+    @Override
+    public CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> watchPointers(PublicKeyHash owner,
+                                                                                 Map<PublicKeyHash, Optional<byte[]>> known,
+                                                                                 long timeoutMillis) {
+        if (known.keySet().stream().allMatch(blacklist::isAllowed))
+            return source.watchPointers(owner, known, timeoutMillis);
+        CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> res = new CompletableFuture<>();
+        res.completeExceptionally(new IllegalStateException("This Peergos subspace has been banned from this server"));
+        return res;
+    }
 }
@@ -11,9 +11,17 @@ public class MutableEventPropagator implements MutablePointers {
 
     private final MutablePointers target;
     private final List<Consumer<? super MutableEvent>> listeners = new ArrayList<>();
+    // pending watchPointers calls, indexed by the writers they are watching
+    private final Map<PublicKeyHash, Set<CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>>>> watchers = new HashMap<>();
+    private final ScheduledExecutorService notifier = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Mutable pointer watchers");
+        t.setDaemon(true);
+        return t;
+    });
 
     public MutableEventPropagator(MutablePointers target) {
         this.target = target;
+        addListener(this::notifyWatchers);
     }
 
     public void addListener(Consumer<? super MutableEvent> listener) {
@@ -38,4 +46,58 @@ public class MutableEventPropagator implements MutablePointers {
     public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash owner, PublicKeyHash writer) {
         return target.getPointer(owner, writer);
     }
+
+    @Override
+    public CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> watchPointers(PublicKeyHash owner,
+                                                                                 Map<PublicKeyHash, Optional<byte[]>> known,
+                                                                                 long timeoutMillis) {
+        CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> result = new CompletableFuture<>();
+        if (known.isEmpty()) {
+            result.complete(Collections.emptyMap());
+            return result;
+        }
+        // register before reading the current values so we can't miss an update in between
+        synchronized (watchers) {
+            for (PublicKeyHash writer : known.keySet())
+                watchers.computeIfAbsent(writer, w -> new HashSet<>()).add(result);
+        }
+        ScheduledFuture<?> timeout = notifier.schedule(() -> result.complete(Collections.emptyMap()),
+                timeoutMillis, TimeUnit.MILLISECONDS);
+        result.whenComplete((res, t) -> {
+            timeout.cancel(false);
+            synchronized (watchers) {
+                for (PublicKeyHash writer : known.keySet()) {
+                    Set<CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>>> forWriter = watchers.get(writer);
+                    if (forWriter == null)
+                        continue;
+                    forWriter.remove(result);
+                    if (forWriter.isEmpty())
+                        watchers.remove(writer);
+                }
+            }
+        });
+        getChangedPointers(owner, known)
+                .thenAccept(changed -> {
+                    if (! changed.isEmpty())
+                        result.complete(changed);
+                }).exceptionally(t -> {
+                    result.completeExceptionally(t);
+                    return null;
+                });
+        return result;
+    }
+
+    private void notifyWatchers(MutableEvent event) {
+        List<CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>>> toNotify;
+        synchronized (watchers) {
+            Set<CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>>> forWriter = watchers.get(event.writer);
+            if (forWriter == null)
+                return;
+            toNotify = new ArrayList<>(forWriter);
+        }
+        Map<PublicKeyHash, Optional<byte[]>> change =
+                Collections.singletonMap(event.writer, Optional.of(event.writerSignedBtreeRootHash));
+        // complete before the update returns, so watchers have seen it by then; they mustn't block this thread
+        toNotify.forEach(w -> w.complete(change));
+    }
 }
@@ -78,4 +78,11 @@ public class PinningMutablePointers implements MutablePointers {
     public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash owner, PublicKeyHash writer) {
         return target.getPointer(owner, writer);
     }
+
+    @Override
+    public CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> watchPointers(PublicKeyHash owner,
+                                                                                 Map<PublicKeyHash, Optional<byte[]>> known,
+                                                                                 long timeoutMillis) {
+        return target.watchPointers(owner, known, timeoutMillis);
+    }
 }
@@ -144,6 +144,26 @@ public class DHTHandler implements HttpHandler {
                             .exceptionally(Futures::logAndThrow).get();
                     break;
                 }
+                case CHAMP_GET: {
+                    byte[] body = Serialize.readFully(httpExchange.getRequestBody(), 1024 * 1024);
+                    List<Pair<Multihash, byte[]>> lookups = parseChampLookups(body);
+                    if (lookups.size() > MAX_CHAMP_LOOKUPS)
+                        throw new IllegalStateException("Too many champ lookups: " + lookups.size());
+                    dht.getChampLookupBlocks(lookups)
+                            .thenAccept(blocks -> replyBytes(httpExchange, serializeBlockList(blocks), Optional.empty()))
+                            .exceptionally(Futures::logAndThrow).get();
+                    break;
+                }
+                case BLOCK_GRAPH: {
+                    Multihash root = Cid.decode(args.get(0));
+                    int depth = Math.min(MAX_GRAPH_DEPTH, Integer.parseInt(last.apply("depth")));
+                    int max = Math.min(MAX_GRAPH_BLOCKS, Integer.parseInt(last.apply("max")));
+                    // not cacheable, as the result depends on which descendants this server has
+                    dht.getBlockGraph(root, depth, max)
+                            .thenAccept(blocks -> replyBytes(httpExchange, serializeBlockList(blocks), Optional.empty()))
+                            .exceptionally(Futures::logAndThrow).get();
+                    break;
+                }
                 case PIN_ADD: {
                     PublicKeyHash ownerHash = PublicKeyHash.fromString(last.apply("owner"));
                     Multihash hash = Cid.decode(args.get(0));
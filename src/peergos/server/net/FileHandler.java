@@ -2,10 +2,12 @@ package peergos.server.net;
 
 import java.io.*;
 import java.nio.file.Path;
+import java.util.*;
 
 public class FileHandler extends StaticHandler
 {
     private final Path root;
+
     public FileHandler(Path root, boolean isGzip) {
         super(isGzip);
         this.root = root;
@@ -15,7 +17,13 @@ public class FileHandler extends StaticHandler
     public Asset getAsset(String resourcePath) throws IOException {
         String stem = resourcePath.startsWith("/")  ?  resourcePath.substring(1) : resourcePath;
         Path fullPath = root.resolve(stem);
-        byte[] bytes = readResource(new FileInputStream(fullPath.toFile()), isGzip());
-        return new Asset(bytes);
+        File file = fullPath.toFile();
+        byte[] bytes = readResource(new FileInputStream(file), false);
+        return new Asset(bytes, isGzip(), file.lastModified());
+    }
+
+    @Override
+    protected List<String> assetPaths() throws IOException {
+        return listFiles(root);
     }
 }
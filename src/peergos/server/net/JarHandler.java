@@ -1,9 +1,15 @@
 package peergos.server.net;
 
 import java.io.*;
-import java.nio.file.Path;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.jar.*;
+import java.util.stream.*;
 
 public class JarHandler extends StaticHandler {
+    // assets in the jar can't change while we are running
+    private static final long START_TIME = System.currentTimeMillis();
     private final Path root;
 
     public JarHandler(boolean isGzip, Path root) {
@@ -15,7 +21,28 @@ public class JarHandler extends StaticHandler {
     public Asset getAsset(String resourcePath) throws IOException {
         String pathWithinJar = "/" + root.resolve(resourcePath).toString()
                 .replaceAll("\\\\", "/"); // needed for Windows!
-        byte[] data = StaticHandler.readResource(JarHandler.class.getResourceAsStream(pathWithinJar), isGzip());
-        return new Asset(data);
+        byte[] data = StaticHandler.readResource(JarHandler.class.getResourceAsStream(pathWithinJar), false);
+        return new Asset(data, isGzip(), START_TIME);
+    }
+
+    @Override
+    protected List<String> assetPaths() throws IOException {
+        Path location;
+        try {
+            location = Paths.get(JarHandler.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        // when run from compiled classes rather than a jar
+        if (Files.isDirectory(location))
+            return listFiles(location.resolve(root));
+
+        String prefix = root.toString().replaceAll("\\\\", "/") + "/";
+        try (JarFile jar = new JarFile(location.toFile())) {
+            return jar.stream()
+                    .filter(e -> ! e.isDirectory() && e.getName().startsWith(prefix))
+                    .map(e -> e.getName().substring(prefix.length()))
+                    .collect(Collectors.toList());
+        }
     }
 }
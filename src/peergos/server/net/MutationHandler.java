@@ -4,6 +4,7 @@ import com.sun.net.httpserver.*;
 import peergos.server.*;
 import peergos.server.mutable.*;
 import peergos.server.util.*;
+import peergos.shared.cbor.*;
 import peergos.shared.crypto.hash.*;
 import peergos.shared.mutable.*;
 import peergos.shared.util.*;
@@ -18,6 +19,9 @@ import java.util.logging.*;
 public class MutationHandler implements HttpHandler {
     private static final Logger LOG = Logging.LOG();
 
+    private static final long MAX_WATCH_TIMEOUT_MILLIS = 120_000;
+    private static final int MAX_WATCHED_WRITERS = 1024;
+
     private final MutablePointers mutable;
 
     public MutationHandler(MutablePointers mutable) {
@@ -41,6 +45,10 @@ public class MutationHandler implements HttpHandler {
 
         Map<String, List<String>> params = HttpUtil.parseQuery(exchange.getRequestURI().getQuery());
         PublicKeyHash owner = PublicKeyHash.fromString(params.get("owner").get(0));
+        if (method.equals("watchPointers")) {
+            handleWatch(exchange, owner, params, t1);
+            return;
+        }
         PublicKeyHash writer = PublicKeyHash.fromString(params.get("writer").get(0));
         try {
             switch (method) {
@@ -72,4 +80,54 @@ public class MutationHandler implements HttpHandler {
             LOG.info("Mutable pointers server handled " + method + " request in: " + (t2 - t1) + " mS");
         }
     }
+
+    /** Long poll for changes to a set of writers. The response is sent asynchronously, when a change is observed or the
+     * timeout elapses, so waiting watchers don't hold a handler thread.
+     */
+    private void handleWatch(HttpExchange exchange,
+                             PublicKeyHash owner,
+                             Map<String, List<String>> params,
+                             long t1) throws IOException {
+        try {
+            long timeout = Math.min(MAX_WATCH_TIMEOUT_MILLIS, Long.parseLong(params.get("timeout").get(0)));
+            byte[] body = Serialize.readFully(exchange.getRequestBody(), 1024 * 1024);
+            Map<PublicKeyHash, Optional<byte[]>> known = WatchedPointers.fromCbor(CborObject.fromByteArray(body)).pointers;
+            if (known.size() > MAX_WATCHED_WRITERS)
+                throw new IllegalStateException("Too many writers to watch: " + known.size());
+            // respond off the thread which completed the watch, which may be making an update
+            mutable.watchPointers(owner, known, timeout)
+                    .thenAcceptAsync(changes -> {
+                        try {
+                            byte[] res = new WatchedPointers(changes).serialize();
+                            exchange.sendResponseHeaders(200, res.length);
+                            exchange.getResponseBody().write(res);
+                        } catch (IOException e) {
+                            LOG.log(Level.WARNING, e.getMessage(), e);
+                        } finally {
+                            exchange.close();
+                            long t2 = System.currentTimeMillis();
+                            LOG.info("Mutable pointers server handled watchPointers request in: " + (t2 - t1) + " mS");
+                        }
+                    }).exceptionally(t -> {
+                        replyError(exchange, t);
+                        return null;
+                    });
+        } catch (Exception e) {
+            replyError(exchange, e);
+        }
+    }
+
+    private static void replyError(HttpExchange exchange, Throwable e) {
+        try {
+            LOG.log(Level.WARNING, e.getMessage(), e);
+            exchange.getResponseHeaders().set("Trailer", e.getMessage());
+            exchange.sendResponseHeaders(400, 0);
+            OutputStream body = exchange.getResponseBody();
+            body.write(e.getMessage().getBytes());
+        } catch (IOException io) {
+            LOG.log(Level.WARNING, io.getMessage(), io);
+        } finally {
+            exchange.close();
+        }
+    }
 }
@@ -1,7 +1,7 @@
 package peergos.server.net;
 
 import com.sun.net.httpserver.*;
-import peergos.server.util.Logging;
+import peergos.server.util.*;
 import peergos.shared.*;
 import peergos.shared.cbor.*;
 import peergos.shared.corenode.*;
@@ -16,6 +16,7 @@ import peergos.shared.util.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.*;
 import java.util.logging.*;
 import java.util.stream.*;
@@ -30,6 +31,21 @@ public class PublicFileHandler implements HttpHandler {
     private final ContentAddressedStorage dht;
     private final NetworkAccess network;
     private static final String PATH_PREFIX = "/public/";
+    private static final int RESOLVED_PATH_CACHE_SIZE = 1000;
+    private static final long WATCH_TIMEOUT_MILLIS = 60_000;
+    private static final long POLL_PERIOD_MILLIS = 5_000;
+    // public path => resolved file, valid until one of the pointers it was resolved from changes
+    private final LRUCache<String, ResolvedPath> resolvedPaths = new LRUCache<>(RESOLVED_PATH_CACHE_SIZE);
+    // for each owner with cached paths, the writers they were resolved from and the pointer values we know, guarded by
+    // resolvedPaths. An owner is present here while its watch loop is running.
+    private final Map<PublicKeyHash, Map<PublicKeyHash, Optional<byte[]>>> watched = new HashMap<>();
+    // the pointer watch in progress for each owner, guarded by resolvedPaths
+    private final Map<PublicKeyHash, CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>>> watches = new HashMap<>();
+    private final ScheduledExecutorService watchers = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Public file pointer watcher");
+        t.setDaemon(true);
+        return t;
+    });
 
     public PublicFileHandler(CoreNode core, MutablePointers mutable, ContentAddressedStorage dht) {
         this.core = core;
@@ -50,43 +66,7 @@ public class PublicFileHandler implements HttpHandler {
             path = path.substring(PATH_PREFIX.length());
             String originalPath = path;
 
-            String ownerName = path.substring(0, path.indexOf("/"));
-
-            Optional<PublicKeyHash> ownerOpt = core.getPublicKeyHash(ownerName).get();
-            if (! ownerOpt.isPresent())
-                throw new IllegalStateException("Owner doesn't exist for path " + path);
-            PublicKeyHash owner = ownerOpt.get();
-            CommittedWriterData userData = WriterData.getWriterData(owner, owner, mutable, dht).get();
-            Optional<Multihash> publicData = userData.props.publicData;
-            if (! publicData.isPresent())
-                throw new IllegalStateException("User " + ownerName + " has not made any files public.");
-
-            Function<ByteArrayWrapper, byte[]> hasher = x -> Hash.sha256(x.data);
-            ChampWrapper champ = ChampWrapper.create(publicData.get(), hasher, dht).get();
-
-            MaybeMultihash capHash = champ.get(("/" + path).getBytes()).get();
-            // The user might have published an ancestor directory of the requested path, so drop path elements until we
-            // either find a capability, or have none left
-            String subPath = "";
-            while (! capHash.isPresent() && path.length() > 0) {
-                String lastElement = path.substring(path.lastIndexOf("/"));
-                subPath = lastElement + subPath;
-                path = path.substring(0, path.length() - lastElement.length());
-                capHash = champ.get(("/" + path).getBytes()).get();
-            }
-            if (! capHash.isPresent())
-                throw new IllegalStateException("User " + ownerName + " has not published a file at " + originalPath);
-
-            Optional<CborObject> capCbor = dht.get(capHash.get()).get();
-            AbsoluteCapability cap = AbsoluteCapability.fromCbor(capCbor.get());
-
-            TrieNodeImpl trieRoot = TrieNodeImpl.empty().put(path, new EntryPoint(cap, ownerName));
-            Optional<FileWrapper> fileOpt = trieRoot.getByPath(originalPath, network).get();
-
-            if (! fileOpt.isPresent())
-                throw new IllegalStateException("Couldn't retrieve file: " + path);
-
-            FileWrapper file = fileOpt.get();
+            FileWrapper file = getFile(originalPath);
 
             if (file.isDirectory()) {
                 String fullPath = httpExchange.getRequestURI().getPath();
@@ -109,18 +89,7 @@ public class PublicFileHandler implements HttpHandler {
                 out.write(body);
                 out.close();
             } else {
-                long fileSize = file.getSize();
-                httpExchange.sendResponseHeaders(200, fileSize);
-                AsyncReader reader = file.getInputStream(network, null, x -> {}).get();
-                byte[] buf = new byte[(int) Math.min(fileSize, 5 * 1024 * 1024)];
-                long read = 0;
-                OutputStream out = httpExchange.getResponseBody();
-                while (read < fileSize) {
-                    int r = reader.readIntoArray(buf, 0, (int) Math.min(buf.length, fileSize - read)).get();
-                    out.write(buf, 0, r);
-                    read += r;
-                }
-                out.close();
+                serveFile(httpExchange, file);
             }
         } catch (Exception e) {
             LOG.severe("Error handling " +httpExchange.getRequestURI());
@@ -134,6 +103,249 @@ public class PublicFileHandler implements HttpHandler {
         }
     }
 
+    /** Get the file at a public path, using a previous resolution if none of the pointers it depended on have changed
+     *
+     */
+    private FileWrapper getFile(String originalPath) throws Exception {
+        synchronized (resolvedPaths) {
+            ResolvedPath cached = resolvedPaths.get(originalPath);
+            if (cached != null)
+                return cached.file;
+        }
+        ResolvedPath resolved = resolve(originalPath);
+        PublicKeyHash owner = resolved.owner;
+        boolean start;
+        CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> restart = null;
+        synchronized (resolvedPaths) {
+            resolvedPaths.put(originalPath, resolved);
+            start = ! watched.containsKey(owner);
+            Map<PublicKeyHash, Optional<byte[]>> known = watched.computeIfAbsent(owner, o -> new HashMap<>());
+            boolean added = false;
+            for (Map.Entry<PublicKeyHash, Optional<byte[]>> e : resolved.pointers.entrySet())
+                if (! known.containsKey(e.getKey())) {
+                    known.put(e.getKey(), e.getValue());
+                    added = true;
+                }
+            if (! start && added)
+                restart = watches.get(owner);
+        }
+        if (start)
+            watchers.execute(() -> watch(owner));
+        else if (restart != null)
+            restart.complete(Collections.emptyMap()); // the next watch will include the new writers
+        return resolved.file;
+    }
+
+    /** Watch all the writers an owner's cached paths were resolved from in a single call, and drop the paths resolved
+     *  from any which change. This repeats until none of the owner's paths are cached.
+     */
+    private void watch(PublicKeyHash owner) {
+        Map<PublicKeyHash, Optional<byte[]>> known;
+        synchronized (resolvedPaths) {
+            Map<PublicKeyHash, Optional<byte[]>> forOwner = watched.get(owner);
+            Set<PublicKeyHash> inUse = resolvedPaths.values().stream()
+                    .filter(r -> r.owner.equals(owner))
+                    .flatMap(r -> r.pointers.keySet().stream())
+                    .collect(Collectors.toSet());
+            forOwner.keySet().retainAll(inUse);
+            if (forOwner.isEmpty()) {
+                watched.remove(owner);
+                return;
+            }
+            known = new HashMap<>(forOwner);
+        }
+        long start = System.currentTimeMillis();
+        CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> watch;
+        try {
+            watch = mutable.watchPointers(owner, known, WATCH_TIMEOUT_MILLIS);
+        } catch (Exception e) {
+            watch = Futures.errored(e);
+        }
+        boolean stale;
+        synchronized (resolvedPaths) {
+            watches.put(owner, watch);
+            stale = ! known.keySet().containsAll(watched.get(owner).keySet());
+        }
+        if (stale)
+            watch.complete(Collections.emptyMap());
+        watch.whenComplete((changes, t) -> {
+            if (t != null) {
+                LOG.log(Level.WARNING, t.getMessage(), t);
+                synchronized (resolvedPaths) {
+                    resolvedPaths.values().removeIf(r -> r.owner.equals(owner));
+                    watches.remove(owner);
+                    watched.remove(owner);
+                }
+                return;
+            }
+            boolean restart;
+            synchronized (resolvedPaths) {
+                watches.remove(owner);
+                Map<PublicKeyHash, Optional<byte[]>> forOwner = watched.get(owner);
+                if (! changes.isEmpty()) {
+                    resolvedPaths.values().removeIf(r -> r.owner.equals(owner)
+                            && r.pointers.keySet().stream().anyMatch(changes::containsKey));
+                    forOwner.keySet().removeAll(changes.keySet());
+                }
+                restart = ! known.keySet().containsAll(forOwner.keySet());
+            }
+            // pointers which aren't notified of updates return immediately, so poll them instead
+            boolean early = changes.isEmpty() && ! restart && System.currentTimeMillis() - start < WATCH_TIMEOUT_MILLIS;
+            watchers.schedule(() -> watch(owner), early ? POLL_PERIOD_MILLIS : 0, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private ResolvedPath resolve(String originalPath) throws Exception {
+        String path = originalPath;
+        String ownerName = path.substring(0, path.indexOf("/"));
+
+        Optional<PublicKeyHash> ownerOpt = core.getPublicKeyHash(ownerName).get();
+        if (! ownerOpt.isPresent())
+            throw new IllegalStateException("Owner doesn't exist for path " + path);
+        PublicKeyHash owner = ownerOpt.get();
+        // read the pointer first, so we can't miss a change made during resolution
+        Optional<byte[]> ownerPointer = mutable.getPointer(owner, owner).get();
+        CommittedWriterData userData = WriterData.getWriterData(owner, owner, mutable, dht).get();
+        Optional<Multihash> publicData = userData.props.publicData;
+        if (! publicData.isPresent())
+            throw new IllegalStateException("User " + ownerName + " has not made any files public.");
+
+        Function<ByteArrayWrapper, byte[]> hasher = x -> Hash.sha256(x.data);
+        ChampWrapper champ = ChampWrapper.create(publicData.get(), hasher, dht).get();
+
+        MaybeMultihash capHash = champ.get(("/" + path).getBytes()).get();
+        // The user might have published an ancestor directory of the requested path, so drop path elements until we
+        // either find a capability, or have none left
+        String subPath = "";
+        while (! capHash.isPresent() && path.length() > 0) {
+            String lastElement = path.substring(path.lastIndexOf("/"));
+            subPath = lastElement + subPath;
+            path = path.substring(0, path.length() - lastElement.length());
+            capHash = champ.get(("/" + path).getBytes()).get();
+        }
+        if (! capHash.isPresent())
+            throw new IllegalStateException("User " + ownerName + " has not published a file at " + originalPath);
+
+        Optional<CborObject> capCbor = dht.get(capHash.get()).get();
+        AbsoluteCapability cap = AbsoluteCapability.fromCbor(capCbor.get());
+
+        Map<PublicKeyHash, Optional<byte[]>> pointers = new HashMap<>();
+        pointers.put(owner, ownerPointer);
+        pointers.put(cap.writer, mutable.getPointer(owner, cap.writer).get());
+
+        Optional<FileWrapper> fileOpt = network.retrieveEntryPoint(new EntryPoint(cap, ownerName)).get();
+        for (String element : subPath.split("/")) {
+            if (element.isEmpty() || ! fileOpt.isPresent())
+                continue;
+            FileWrapper parent = fileOpt.get();
+            fileOpt = parent.getChild(element, network).get();
+            // a child under a new writer is re-read after its pointer, so we can't miss a change made in between
+            if (fileOpt.isPresent() && ! pointers.containsKey(fileOpt.get().writer())) {
+                pointers.put(fileOpt.get().writer(), mutable.getPointer(owner, fileOpt.get().writer()).get());
+                fileOpt = parent.getChild(element, network).get();
+            }
+        }
+
+        if (! fileOpt.isPresent())
+            throw new IllegalStateException("Couldn't retrieve file: " + originalPath);
+        return new ResolvedPath(owner, fileOpt.get(), pointers);
+    }
+
+    /** The result of resolving a public path, and the pointers whose values it was resolved from
+     *
+     */
+    private static class ResolvedPath {
+        public final PublicKeyHash owner;
+        public final FileWrapper file;
+        public final Map<PublicKeyHash, Optional<byte[]>> pointers;
+
+        public ResolvedPath(PublicKeyHash owner, FileWrapper file, Map<PublicKeyHash, Optional<byte[]>> pointers) {
+            this.owner = owner;
+            this.file = file;
+            this.pointers = pointers;
+        }
+    }
+
+    /** Stream a file, or the single byte range requested, honouring conditional request headers
+     *
+     */
+    private void serveFile(HttpExchange httpExchange, FileWrapper file) throws Exception {
+        long fileSize = file.getSize();
+        String etag = getETag(file);
+        Headers requestHeaders = httpExchange.getRequestHeaders();
+        Headers responseHeaders = httpExchange.getResponseHeaders();
+        responseHeaders.set("ETag", etag);
+        responseHeaders.set("Accept-Ranges", "bytes");
+        String mimeType = file.getFileProperties().mimeType;
+        if (! mimeType.isEmpty())
+            responseHeaders.set("Content-Type", mimeType);
+
+        if (HttpUtil.matchesETag(requestHeaders.getFirst("If-None-Match"), etag)) {
+            httpExchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        String ifRange = requestHeaders.getFirst("If-Range");
+        // If-Range requires a strong comparison, and dates are never strong validators for us
+        boolean rangeApplies = ifRange == null || ifRange.trim().equals(etag);
+        Optional<Pair<Long, Long>> range;
+        try {
+            range = rangeApplies ?
+                    HttpUtil.parseRange(requestHeaders.getFirst("Range"), fileSize) :
+                    Optional.empty();
+        } catch (IllegalArgumentException e) {
+            responseHeaders.set("Content-Range", "bytes */" + fileSize);
+            httpExchange.sendResponseHeaders(416, -1);
+            return;
+        }
+
+        long start = range.map(r -> r.left).orElse(0L);
+        long length = range.map(r -> r.right - r.left + 1).orElse(fileSize);
+        int status = range.isPresent() ? 206 : 200;
+        if (range.isPresent())
+            responseHeaders.set("Content-Range", "bytes " + start + "-" + range.get().right + "/" + fileSize);
+        if (httpExchange.getRequestMethod().equals("HEAD")) {
+            // a HEAD response has no body, so the length must be set explicitly
+            responseHeaders.set("Content-Length", Long.toString(length));
+            httpExchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        httpExchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        if (length == 0)
+            return;
+
+        AsyncReader reader = file.getInputStream(network, null, x -> {}).get();
+        if (start > 0)
+            reader = reader.seek(start).get();
+        byte[] buf = BufferPool.FRAGMENTS.take();
+        try {
+            long read = 0;
+            OutputStream out = httpExchange.getResponseBody();
+            while (read < length) {
+                int r = reader.readIntoArray(buf, 0, (int) Math.min(buf.length, length - read)).get();
+                out.write(buf, 0, r);
+                read += r;
+            }
+            out.close();
+        } finally {
+            BufferPool.FRAGMENTS.release(buf);
+        }
+    }
+
+    /** A strong entity tag for the current version of a file. This changes whenever the file's first cryptree node or
+     * properties change, which any modification of the file does.
+     */
+    private static String getETag(FileWrapper file) {
+        RetrievedCapability pointer = file.getPointer();
+        FileProperties props = file.getFileProperties();
+        String version = pointer.capability.writer + "/" +
+                ArrayOps.bytesToHex(pointer.capability.getMapKey()) + "/" +
+                pointer.fileAccess.committedHash() + "/" +
+                props.size + "/" +
+                props.modified;
+        return "\"" + ArrayOps.bytesToHex(Hash.sha256(version.getBytes())) + "\"";
+    }
+
     private static void replyError(HttpExchange exchange, Throwable t) {
         try {
             exchange.getResponseHeaders().set("Trailer", t.getMessage());
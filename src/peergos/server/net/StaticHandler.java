@@ -2,16 +2,21 @@ package peergos.server.net;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
+import peergos.server.util.HttpUtil;
 import peergos.shared.crypto.hash.Hash;
 import peergos.shared.util.ArrayOps;
 
 import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.time.format.*;
 import java.util.*;
-import java.util.concurrent.*;
+import java.util.stream.*;
 import java.util.zip.GZIPOutputStream;
 
 public abstract class StaticHandler implements HttpHandler
 {
+    private static final long DEFAULT_CACHE_BYTES = 128 * 1024 * 1024;
     private final boolean isGzip;
 
     public StaticHandler(boolean isGzip) {
@@ -22,12 +27,35 @@ public abstract class StaticHandler implements HttpHandler
 
     public static class Asset {
         public final byte[] data;
+        public final Optional<byte[]> gzipped;
         public final String hash;
+        public final long lastModified;
 
-        public Asset(byte[] data) {
+        /**
+         *
+         * @param data the uncompressed asset
+         * @param gzip whether to also precompute a gzipped variant
+         * @param lastModified modification time in millis since the epoch
+         */
+        public Asset(byte[] data, boolean gzip, long lastModified) {
             this.data = data;
+            this.gzipped = gzip ? Optional.of(gzip(data)).filter(g -> g.length < data.length) : Optional.empty();
             byte[] digest = Hash.sha256(data);
-            this.hash = ArrayOps.bytesToHex(Arrays.copyOfRange(digest, 0, 4));
+            this.hash = ArrayOps.bytesToHex(digest);
+            // HTTP dates have a resolution of seconds
+            this.lastModified = lastModified - lastModified % 1000;
+        }
+
+        public Asset(byte[] data) {
+            this(data, false, System.currentTimeMillis());
+        }
+
+        public String etag(boolean gzipped) {
+            return "\"" + hash + (gzipped ? "-gz" : "") + "\"";
+        }
+
+        public long size() {
+            return data.length + gzipped.map(g -> g.length).orElse(0);
         }
     }
 
@@ -46,8 +74,13 @@ public abstract class StaticHandler implements HttpHandler
 
             Asset res = getAsset(path);
 
-            if (isGzip)
+            String acceptEncoding = httpExchange.getRequestHeaders().getFirst("Accept-Encoding");
+            boolean sendGzip = res.gzipped.isPresent() && acceptEncoding != null && acceptEncoding.contains("gzip");
+            byte[] body = sendGzip ? res.gzipped.get() : res.data;
+            if (sendGzip)
                 httpExchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            if (isGzip)
+                httpExchange.getResponseHeaders().set("Vary", "Accept-Encoding");
             if (path.endsWith(".js"))
                 httpExchange.getResponseHeaders().set("Content-Type", "text/javascript");
             else if (path.endsWith(".html"))
@@ -60,16 +93,23 @@ public abstract class StaticHandler implements HttpHandler
                 httpExchange.getResponseHeaders().set("Content-Type", "image/png");
 	    else if (path.endsWith(".woff"))
                 httpExchange.getResponseHeaders().set("Content-Type", "application/font-woff");
-	    
+
+            String etag = res.etag(sendGzip);
+            httpExchange.getResponseHeaders().set("ETag", etag);
+            httpExchange.getResponseHeaders().set("Last-Modified", formatHttpDate(res.lastModified));
+            if (res.data.length > 100 * 1024)
+                httpExchange.getResponseHeaders().set("Cache-Control", "public, max-age=3600");
+
+            if (isNotModified(httpExchange, etag, res.lastModified)) {
+                httpExchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
             if (httpExchange.getRequestMethod().equals("HEAD")) {
-                httpExchange.getResponseHeaders().set("Content-Length", "" + res.data.length);
+                httpExchange.getResponseHeaders().set("Content-Length", "" + body.length);
                 httpExchange.sendResponseHeaders(200, -1);
                 return;
             }
-            if (res.data.length > 100 * 1024) {
-                httpExchange.getResponseHeaders().set("Cache-Control", "public, max-age=3600");
-                httpExchange.getResponseHeaders().set("ETag", res.hash);
-            }
 
             // Only allow assets to be loaded from the original host
 //            httpExchange.getResponseHeaders().set("content-security-policy", "default-src https: 'self'");
@@ -82,8 +122,8 @@ public abstract class StaticHandler implements HttpHandler
             // Don't send Peergos referrer to anyone
             httpExchange.getResponseHeaders().set("referrer-policy", "no-referrer");
 
-            httpExchange.sendResponseHeaders(200, res.data.length);
-            httpExchange.getResponseBody().write(res.data);
+            httpExchange.sendResponseHeaders(200, body.length);
+            httpExchange.getResponseBody().write(body);
             httpExchange.getResponseBody().close();
         } catch (NullPointerException t) {
             System.err.println("Error retrieving: " + path);
@@ -94,6 +134,27 @@ public abstract class StaticHandler implements HttpHandler
         }
     }
 
+    /** If-None-Match takes precedence over If-Modified-Since when both are present
+     *
+     */
+    private static boolean isNotModified(HttpExchange httpExchange, String etag, long lastModified) {
+        String ifNoneMatch = httpExchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch != null)
+            return HttpUtil.matchesETag(ifNoneMatch, etag);
+        String ifModifiedSince = httpExchange.getRequestHeaders().getFirst("If-Modified-Since");
+        if (ifModifiedSince == null)
+            return false;
+        try {
+            long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return lastModified <= since;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private static String formatHttpDate(long millis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC));
+    }
 
     protected static byte[] readResource(InputStream in, boolean gzip) throws IOException {
         ByteArrayOutputStream bout = new ByteArrayOutputStream();
@@ -108,17 +169,90 @@ public abstract class StaticHandler implements HttpHandler
         return bout.toByteArray();
     }
 
+    private static byte[] gzip(byte[] data) {
+        try {
+            return readResource(new ByteArrayInputStream(data), true);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
     public StaticHandler withCache() {
-        Map<String, Asset> cache = new ConcurrentHashMap<>();
+        return withCache(DEFAULT_CACHE_BYTES);
+    }
+
+    /**
+     *
+     * @return the path of every asset this handler can serve, relative to its root, if it can list them
+     */
+    protected List<String> assetPaths() throws IOException {
+        return Collections.emptyList();
+    }
+
+    /**
+     *
+     * @return the path of every file under dir, relative to it and separated by '/'
+     */
+    protected static List<String> listFiles(Path dir) throws IOException {
+        if (! Files.isDirectory(dir))
+            return Collections.emptyList();
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile)
+                    .map(p -> dir.relativize(p).toString().replaceAll("\\\\", "/"))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     *
+     * @param maxCacheBytes the maximum total size of cached assets, including their compressed variants
+     * @return A handler which caches assets, evicting the least recently used when over the size limit. Every asset
+     * which fits is loaded, and compressed, before this returns.
+     */
+    public StaticHandler withCache(long maxCacheBytes) {
+        LinkedHashMap<String, Asset> cache = new LinkedHashMap<>(16, 0.75f, true);
+        long[] cachedBytes = new long[1];
         StaticHandler that = this;
 
+        try {
+            for (String path : assetPaths()) {
+                try {
+                    Asset asset = getAsset(path);
+                    if (cachedBytes[0] + asset.size() > maxCacheBytes)
+                        continue;
+                    cache.put(path, asset);
+                    cachedBytes[0] += asset.size();
+                } catch (Exception e) {
+                    System.err.println("Error preloading: " + path);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error listing assets to preload: " + e.getMessage());
+        }
+
         return new StaticHandler(isGzip) {
             @Override
             public Asset getAsset(String resourcePath) throws IOException {
-                if (! cache.containsKey(resourcePath))
-                    cache.put(resourcePath, that.getAsset(resourcePath));
-                return cache.get(resourcePath);
+                synchronized (cache) {
+                    Asset cached = cache.get(resourcePath);
+                    if (cached != null)
+                        return cached;
+                }
+                Asset asset = that.getAsset(resourcePath);
+                if (asset.size() > maxCacheBytes)
+                    return asset;
+                synchronized (cache) {
+                    Asset existing = cache.put(resourcePath, asset);
+                    if (existing != null)
+                        cachedBytes[0] -= existing.size();
+                    cachedBytes[0] += asset.size();
+                    Iterator<Map.Entry<String, Asset>> lru = cache.entrySet().iterator();
+                    while (cachedBytes[0] > maxCacheBytes && lru.hasNext()) {
+                        cachedBytes[0] -= lru.next().getValue().size();
+                        lru.remove();
+                    }
+                }
+                return asset;
             }
         };
     }
@@ -0,0 +1,303 @@
+package peergos.server.storage;
+
+import peergos.server.util.Logging;
+import peergos.shared.*;
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.crypto.symmetric.*;
+import peergos.shared.io.ipfs.multiaddr.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+import peergos.shared.user.*;
+import peergos.shared.util.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+import java.util.stream.*;
+
+/** A persistent local cache of blocks in front of another ContentAddressedStorage, for fast re-login.
+ *
+ *  Blocks are immutable, so a cached block never needs revalidating. Mutable pointers are not cached, so a login
+ *  with a warm cache only fetches the pointer roots and any blocks which have changed since the last session. This
+ *  covers the user's WriterData, entry points, friends' capabilities and directory metadata, which are all stored in
+ *  blocks.
+ *
+ *  Each block is stored in its own file, named by its hash, as a random nonce followed by the block encrypted with a
+ *  key derived from the user's root key. Blocks which fail to decrypt are discarded and fetched again. When the cache
+ *  grows beyond its size limit the least recently used blocks are deleted.
+ */
+public class EncryptedBlockCache implements ContentAddressedStorage {
+    private static final Logger LOG = Logging.LOG();
+    private static final byte[] KEY_DERIVATION_LABEL = "peergos-session-cache".getBytes();
+    public static final int DEFAULT_MAX_VALUE_SIZE = 256 * 1024;
+    public static final long DEFAULT_MAX_CACHE_BYTES = 200 * 1024 * 1024;
+    // the fraction of the size limit to evict down to, so we don't evict on every write once full
+    private static final double EVICTION_TARGET = 0.75;
+    public static final String SESSION_CACHE_PROPERTY = "peergos.session-cache";
+
+    private final ContentAddressedStorage target;
+    private final Path root;
+    private final SymmetricKey key;
+    private final int maxValueSize;
+    private final long maxCacheBytes;
+    private long cachedBytes; // guarded by this
+
+    public EncryptedBlockCache(ContentAddressedStorage target,
+                               Path root,
+                               SymmetricKey key,
+                               int maxValueSize,
+                               long maxCacheBytes) {
+        this.target = target;
+        this.root = root;
+        this.key = key;
+        this.maxValueSize = maxValueSize;
+        this.maxCacheBytes = maxCacheBytes;
+        File rootDir = root.toFile();
+        if (! rootDir.exists() && ! rootDir.mkdirs())
+            throw new IllegalStateException("Unable to create directory " + root);
+        if (! rootDir.isDirectory())
+            throw new IllegalStateException("Session cache path must be a directory! " + root);
+        this.cachedBytes = cachedFiles().stream().mapToLong(File::length).sum();
+    }
+
+    /**
+     *
+     * @return a key for the session cache which is only derivable from the user's login secrets
+     */
+    public static SymmetricKey deriveKey(UserWithRoot user, Crypto crypto) {
+        byte[] rootKey = user.getRoot().getKey();
+        byte[] material = new byte[rootKey.length + KEY_DERIVATION_LABEL.length];
+        System.arraycopy(rootKey, 0, material, 0, rootKey.length);
+        System.arraycopy(KEY_DERIVATION_LABEL, 0, material, rootKey.length, KEY_DERIVATION_LABEL.length);
+        return new TweetNaClKey(Hash.sha256(material), false, crypto.symmetricProvider, crypto.random);
+    }
+
+    /** Sign in, reading and populating a session cache for this user in a subdirectory of cacheRoot
+     *
+     */
+    public static CompletableFuture<UserContext> signIn(String username,
+                                                        String password,
+                                                        Path cacheRoot,
+                                                        NetworkAccess network,
+                                                        Crypto crypto) {
+        return UserContext.signIn(username, password, network, crypto, x -> {},
+                user -> network.withStorage(dht -> new EncryptedBlockCache(dht, cacheRoot.resolve(username),
+                        deriveKey(user, crypto), DEFAULT_MAX_VALUE_SIZE, DEFAULT_MAX_CACHE_BYTES)));
+    }
+
+    /** Sign in, using a session cache if the command line tools have been given one with -Dpeergos.session-cache=dir
+     *
+     */
+    public static CompletableFuture<UserContext> signIn(String username,
+                                                        String password,
+                                                        NetworkAccess network,
+                                                        Crypto crypto) {
+        String cacheRoot = System.getProperty(SESSION_CACHE_PROPERTY);
+        if (cacheRoot == null)
+            return UserContext.signIn(username, password, network, crypto);
+        return signIn(username, password, Paths.get(cacheRoot), network, crypto);
+    }
+
+    private Path getFilePath(Multihash h) {
+        String name = h.toString();
+        // cids of the same type share a prefix, so spread the blocks over subdirectories by the end of their name
+        return root.resolve(name.substring(name.length() - 2)).resolve(name);
+    }
+
+    /**
+     *
+     * @return the cached blocks, deleting any partially written ones
+     */
+    private List<File> cachedFiles() {
+        List<File> res = new ArrayList<>();
+        File[] dirs = root.toFile().listFiles(File::isDirectory);
+        for (File dir : dirs == null ? new File[0] : dirs) {
+            File[] files = dir.listFiles();
+            for (File file : files == null ? new File[0] : files) {
+                if (file.getName().endsWith(".tmp"))
+                    file.delete();
+                else
+                    res.add(file);
+            }
+        }
+        return res;
+    }
+
+    /** Delete the least recently used blocks until we are comfortably within the size limit
+     *
+     */
+    private synchronized void evict() {
+        if (cachedBytes <= maxCacheBytes)
+            return;
+        List<Pair<Long, File>> byLastUse = cachedFiles().stream()
+                .map(f -> new Pair<>(f.lastModified(), f))
+                .sorted(Comparator.comparing(p -> p.left))
+                .collect(Collectors.toList());
+        cachedBytes = byLastUse.stream().mapToLong(p -> p.right.length()).sum();
+        long target = (long) (maxCacheBytes * EVICTION_TARGET);
+        for (int i = 0; i < byLastUse.size() && cachedBytes > target; i++) {
+            File file = byLastUse.get(i).right;
+            long size = file.length();
+            if (file.delete())
+                cachedBytes -= size;
+        }
+    }
+
+    private Optional<byte[]> getLocal(Multihash h) {
+        Path path = getFilePath(h);
+        File file = path.toFile();
+        if (! file.exists())
+            return Optional.empty();
+        try {
+            // the modification time of a cached block records when it was last used
+            file.setLastModified(System.currentTimeMillis());
+            byte[] stored = Files.readAllBytes(path);
+            byte[] nonce = Arrays.copyOfRange(stored, 0, TweetNaCl.SECRETBOX_NONCE_BYTES);
+            byte[] cipherText = Arrays.copyOfRange(stored, TweetNaCl.SECRETBOX_NONCE_BYTES, stored.length);
+            return Optional.of(key.decrypt(cipherText, nonce));
+        } catch (Exception e) {
+            LOG.info("Discarding unreadable cached block " + h);
+            path.toFile().delete();
+            return Optional.empty();
+        }
+    }
+
+    private void putLocal(Multihash h, byte[] block) {
+        if (block.length == 0 || block.length > maxValueSize)
+            return;
+        Path path = getFilePath(h);
+        if (path.toFile().exists())
+            return;
+        try {
+            byte[] nonce = key.createNonce();
+            byte[] cipherText = key.encrypt(block, nonce);
+            byte[] stored = new byte[nonce.length + cipherText.length];
+            System.arraycopy(nonce, 0, stored, 0, nonce.length);
+            System.arraycopy(cipherText, 0, stored, nonce.length, cipherText.length);
+            // write to a temporary file first so a concurrent reader never sees a partial block
+            Files.createDirectories(path.getParent());
+            Path tmp = Files.createTempFile(path.getParent(), h.toString(), ".tmp");
+            Files.write(tmp, stored);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            synchronized (this) {
+                cachedBytes += stored.length;
+            }
+            evict();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Couldn't cache block " + h, e);
+        }
+    }
+
+    private List<Multihash> cacheAll(List<Multihash> hashes, List<byte[]> blocks) {
+        for (int i = 0; i < hashes.size() && i < blocks.size(); i++)
+            putLocal(hashes.get(i), blocks.get(i));
+        return hashes;
+    }
+
+    @Override
+    public CompletableFuture<Multihash> id() {
+        return target.id();
+    }
+
+    @Override
+    public CompletableFuture<TransactionId> startTransaction(PublicKeyHash owner) {
+        return target.startTransaction(owner);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> closeTransaction(PublicKeyHash owner, TransactionId tid) {
+        return target.closeTransaction(owner, tid);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> put(PublicKeyHash owner,
+                                                  PublicKeyHash writer,
+                                                  List<byte[]> signatures,
+                                                  List<byte[]> blocks,
+                                                  TransactionId tid) {
+        return target.put(owner, writer, signatures, blocks, tid)
+                .thenApply(hashes -> cacheAll(hashes, blocks));
+    }
+
+    @Override
+    public CompletableFuture<Optional<CborObject>> get(Multihash key) {
+        Optional<byte[]> local = getLocal(key);
+        if (local.isPresent())
+            return CompletableFuture.completedFuture(local.map(CborObject::fromByteArray));
+        return target.get(key).thenApply(cborOpt -> {
+            cborOpt.ifPresent(cbor -> putLocal(key, cbor.toByteArray()));
+            return cborOpt;
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> putRaw(PublicKeyHash owner,
+                                                     PublicKeyHash writer,
+                                                     List<byte[]> signatures,
+                                                     List<byte[]> blocks,
+                                                     TransactionId tid) {
+        return target.putRaw(owner, writer, signatures, blocks, tid)
+                .thenApply(hashes -> cacheAll(hashes, blocks));
+    }
+
+    @Override
+    public CompletableFuture<Optional<byte[]>> getRaw(Multihash key) {
+        Optional<byte[]> local = getLocal(key);
+        if (local.isPresent())
+            return CompletableFuture.completedFuture(local);
+        return target.getRaw(key).thenApply(rawOpt -> {
+            rawOpt.ifPresent(raw -> putLocal(key, raw));
+            return rawOpt;
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> recursivePin(PublicKeyHash owner, Multihash h) {
+        return target.recursivePin(owner, h);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> recursiveUnpin(PublicKeyHash owner, Multihash h) {
+        return target.recursiveUnpin(owner, h);
+    }
+
+    @Override
+    public CompletableFuture<List<MultiAddress>> pinUpdate(PublicKeyHash owner, Multihash existing, Multihash updated) {
+        return target.pinUpdate(owner, existing, updated);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> getLinks(Multihash root) {
+        return target.getLinks(root);
+    }
+
+    @Override
+    public CompletableFuture<List<byte[]>> getChampLookupBlocks(List<Pair<Multihash, byte[]>> lookups) {
+        return target.getChampLookupBlocks(lookups).thenApply(this::cacheAll);
+    }
+
+    @Override
+    public CompletableFuture<List<byte[]>> getBlockGraph(Multihash root, int maxDepth, int maxBlocks) {
+        return target.getBlockGraph(root, maxDepth, maxBlocks).thenApply(this::cacheAll);
+    }
+
+    @Override
+    public boolean isCaching() {
+        return true;
+    }
+
+    private List<byte[]> cacheAll(List<byte[]> cborBlocks) {
+        for (byte[] block : cborBlocks)
+            putLocal(BufferedStorage.hashToCid(block), block);
+        return cborBlocks;
+    }
+
+    @Override
+    public CompletableFuture<Optional<Integer>> getSize(Multihash block) {
+        return target.getSize(block);
+    }
+}
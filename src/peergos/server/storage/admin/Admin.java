@@ -1,16 +1,51 @@
 package peergos.server.storage.admin;
 
 import peergos.server.*;
+import peergos.server.storage.*;
+import peergos.shared.cbor.*;
+import peergos.shared.corenode.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.storage.*;
 import peergos.shared.storage.controller.*;
 
 import java.util.concurrent.*;
 
 public class Admin implements InstanceAdmin {
 
-    public Admin() {}
+    private final UserQuotas quotas;
+    private final CoreNode core;
+    private final ContentAddressedStorage dht;
+
+    public Admin(UserQuotas quotas, CoreNode core, ContentAddressedStorage dht) {
+        this.quotas = quotas;
+        this.core = core;
+        this.dht = dht;
+    }
 
     @Override
     public CompletableFuture<VersionInfo> getVersionInfo() {
         return CompletableFuture.completedFuture(new VersionInfo(UserService.CURRENT_VERSION));
     }
+
+    @Override
+    public CompletableFuture<Long> getQuota(PublicKeyHash owner, byte[] signedTime) {
+        return dht.getSigningKey(owner).thenCompose(ownerOpt -> {
+            try {
+                if (! ownerOpt.isPresent())
+                    throw new IllegalStateException("Couldn't retrieve owner key during getQuota() call!");
+                byte[] raw = ownerOpt.get().unsignMessage(signedTime);
+                CborObject cbor = CborObject.fromByteArray(raw);
+                if (! (cbor instanceof CborObject.CborLong))
+                    throw new IllegalStateException("Invalid cbor for getQuota authorisation!");
+                long utcMillis = ((CborObject.CborLong) cbor).value;
+                long now = System.currentTimeMillis();
+                if (Math.abs(now - utcMillis) > 300_000)
+                    throw new IllegalStateException("Stale auth time in getQuota, is your clock accurate?");
+                // This is a valid request
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            return core.getUsername(owner);
+        }).thenApply(quotas::getQuota);
+    }
 }
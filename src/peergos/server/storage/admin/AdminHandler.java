@@ -1,11 +1,15 @@
 package peergos.server.storage.admin;
 
 import com.sun.net.httpserver.*;
+import peergos.server.util.*;
+import peergos.shared.crypto.hash.*;
 import peergos.shared.io.ipfs.api.*;
 import peergos.shared.storage.controller.*;
 import peergos.shared.util.*;
 
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 public class AdminHandler implements HttpHandler {
 
@@ -22,21 +26,47 @@ public class AdminHandler implements HttpHandler {
         String[] subComponents = path.substring(Constants.ADMIN_URL.length()).split("/");
         String method = subComponents[0];
 
-        String reply;
+        CompletableFuture<String> reply;
         try {
             switch (method) {
                 case InstanceAdmin.HTTP.VERSION:
-                    InstanceAdmin.VersionInfo res = target.getVersionInfo().join();
-                    reply = JSONParser.toString(res.toJSON());
+                    reply = target.getVersionInfo().thenApply(res -> JSONParser.toString(res.toJSON()));
+                    break;
+                case InstanceAdmin.HTTP.QUOTA:
+                    Map<String, List<String>> params = HttpUtil.parseQuery(exchange.getRequestURI().getQuery());
+                    List<String> owner = params.get("owner");
+                    List<String> auth = params.get("auth");
+                    if (owner == null || auth == null)
+                        throw new IllegalArgumentException("Quota requests require owner and auth parameters");
+                    reply = target.getQuota(PublicKeyHash.fromString(owner.get(0)), ArrayOps.hexToBytes(auth.get(0)))
+                            .thenApply(quota -> JSONParser.toString(Collections.singletonMap("Quota", quota)));
                     break;
                 default:
                     throw new IOException("Unknown method "+ method);
             }
-
-            byte[] b = reply.getBytes();
-            exchange.sendResponseHeaders(200, b.length);
-            exchange.getResponseBody().write(b);
         } catch (Exception e) {
+            replyError(exchange, e);
+            return;
+        }
+        // the quota is only available once the owner's key is retrieved, so reply when it is, rather than blocking
+        reply.whenComplete((res, t) -> {
+            try {
+                if (t != null) {
+                    replyError(exchange, t);
+                    return;
+                }
+                byte[] b = res.getBytes();
+                exchange.sendResponseHeaders(200, b.length);
+                exchange.getResponseBody().write(b);
+                exchange.close();
+            } catch (IOException e) {
+                exchange.close();
+            }
+        });
+    }
+
+    private static void replyError(HttpExchange exchange, Throwable e) {
+        try {
             Throwable cause = e.getCause();
             if (cause != null)
                 exchange.getResponseHeaders().set("Trailer", cause.getMessage());
@@ -44,9 +74,9 @@ public class AdminHandler implements HttpHandler {
                 exchange.getResponseHeaders().set("Trailer", e.getMessage());
 
             exchange.sendResponseHeaders(400, 0);
+        } catch (IOException ioe) {
         } finally {
             exchange.close();
         }
-
     }
 }
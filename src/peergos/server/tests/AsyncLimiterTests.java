@@ -0,0 +1,62 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class AsyncLimiterTests {
+
+    @Test
+    public void bounded() throws Exception {
+        AsyncLimiter limiter = new AsyncLimiter(2);
+        List<CompletableFuture<Integer>> tasks = new ArrayList<>();
+        AtomicInteger started = new AtomicInteger(0);
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            CompletableFuture<Integer> task = new CompletableFuture<>();
+            tasks.add(task);
+            results.add(limiter.submit(() -> {
+                started.incrementAndGet();
+                return task;
+            }));
+        }
+        Assert.assertTrue("Only maxInFlight started", started.get() == 2);
+
+        tasks.get(0).complete(0);
+        Assert.assertTrue("Next task started", started.get() == 3);
+        Assert.assertTrue(results.get(0).get() == 0);
+
+        tasks.get(1).completeExceptionally(new IllegalStateException());
+        Assert.assertTrue("Failed task releases its slot", started.get() == 4);
+        try {
+            results.get(1).get();
+            Assert.fail();
+        } catch (ExecutionException expected) {}
+
+        for (int i = 2; i < 5; i++)
+            tasks.get(i).complete(i);
+        for (int i = 2; i < 5; i++)
+            Assert.assertTrue(results.get(i).get() == i);
+    }
+
+    @Test
+    public void longQueueOfSynchronousTasks() throws Exception {
+        AsyncLimiter limiter = new AsyncLimiter(1);
+        CompletableFuture<Integer> blocker = new CompletableFuture<>();
+        limiter.submit(() -> blocker);
+
+        int queued = 200_000;
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < queued; i++) {
+            int val = i;
+            results.add(limiter.submit(() -> CompletableFuture.completedFuture(val)));
+        }
+        // every queued task completes synchronously, which mustn't grow the stack per task
+        blocker.complete(-1);
+        for (int i = 0; i < queued; i++)
+            Assert.assertTrue(results.get(i).getNow(null) == i);
+    }
+}
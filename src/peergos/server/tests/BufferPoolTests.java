@@ -0,0 +1,62 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class BufferPoolTests {
+
+    @Test
+    public void reusesZeroedBuffers() {
+        BufferPool pool = new BufferPool(1024, 2);
+        byte[] a = pool.take();
+        Arrays.fill(a, (byte) 7);
+        pool.release(a);
+        Assert.assertTrue("Buffer pooled", pool.idle() == 1);
+
+        byte[] b = pool.take();
+        Assert.assertTrue("Buffer reused", a == b);
+        Assert.assertTrue("Buffer zeroed", Arrays.equals(new byte[1024], b));
+    }
+
+    @Test
+    public void bounded() {
+        BufferPool pool = new BufferPool(16, 2);
+        List<byte[]> taken = Arrays.asList(pool.take(), pool.take(), pool.take());
+        taken.forEach(pool::release);
+        Assert.assertTrue("Only keep maxPooled", pool.idle() == 2);
+
+        // buffers of the wrong size are ignored
+        pool.take();
+        pool.take();
+        pool.release(new byte[15]);
+        Assert.assertTrue("Ignore wrong size", pool.idle() == 0);
+
+        pool.release(new byte[16]);
+        pool.release(new byte[16]);
+        pool.setMaxPooled(1);
+        Assert.assertTrue("Shrinking drops idle buffers", pool.idle() == 1);
+        pool.setMaxPooled(0);
+        pool.release(new byte[16]);
+        Assert.assertTrue("Retain nothing", pool.idle() == 0);
+    }
+
+    @Test
+    public void releasedAfterAsyncTask() throws Exception {
+        BufferPool pool = new BufferPool(16, 2);
+        CompletableFuture<Integer> task = new CompletableFuture<>();
+        CompletableFuture<Integer> res = pool.withBuffer(buf -> task);
+        Assert.assertTrue("Buffer in use", pool.idle() == 0);
+        task.complete(3);
+        Assert.assertTrue(res.get() == 3);
+        Assert.assertTrue("Buffer returned", pool.idle() == 1);
+
+        try {
+            pool.withBuffer(buf -> Futures.errored(new IllegalStateException())).get();
+            Assert.fail();
+        } catch (ExecutionException expected) {}
+        Assert.assertTrue("Buffer returned after failure", pool.idle() == 1);
+    }
+}
@@ -5,6 +5,7 @@ import peergos.shared.cbor.*;
 import peergos.shared.io.ipfs.multihash.*;
 import peergos.shared.util.*;
 
+import java.io.*;
 import java.util.*;
 
 public class CborObjects {
@@ -106,6 +107,36 @@ public class CborObjects {
         compatibleAndIdempotentSerialization(cborList);
     }
 
+    @Test
+    public void streamingLinks() throws IOException {
+        Multihash hash1 = Multihash.fromBase58("QmPZ9gcCEpqKTo6aq61g2nXGUhM4iCL3ewB6LDXZCtioEB");
+        Multihash hash2 = Multihash.fromBase58("QmYwAPJzv5CZsnA625s3Xf2nemtYgPpHdWEz79ojWnPbdG");
+        SortedMap<CborObject, CborObject> inner = new TreeMap<>();
+        inner.put(new CborObject.CborString("a"), new CborObject.CborMerkleLink(hash2));
+        inner.put(new CborObject.CborString("b"), new CborObject.CborByteArray(random(300)));
+        inner.put(new CborObject.CborString("c"), new CborObject.CborLong(-70000));
+        CborObject.CborList value = new CborObject.CborList(Arrays.asList(
+                new CborObject.CborMerkleLink(hash1),
+                new CborObject.CborString("A value"),
+                new CborObject.CborMap(inner),
+                new CborObject.CborList(Arrays.asList(new CborObject.CborNull(), new CborObject.CborMerkleLink(hash1)))));
+
+        // encode two objects into a reused buffer
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        new CborObject.CborString("Something else").writeTo(buffer);
+        int offset = buffer.size();
+        value.writeTo(buffer);
+        byte[] raw = buffer.toByteArray();
+        Assert.assertTrue("Same encoding", Arrays.equals(value.toByteArray(), Arrays.copyOfRange(raw, offset, raw.length)));
+
+        Assert.assertEquals("Links from slice", value.links(), CborObject.getLinks(raw, offset, raw.length - offset));
+        Assert.assertEquals("Parse slice", value, CborObject.fromByteArray(raw, offset, raw.length - offset));
+
+        CborDecoder decoder = new CborDecoder(raw, 0, raw.length);
+        decoder.skipValue(raw.length);
+        Assert.assertEquals("Links after skipped value", Arrays.asList(hash1, hash2, hash1), decoder.readLinks(raw.length));
+    }
+
     public void compatibleAndIdempotentSerialization(CborObject value) {
         byte[] raw = value.toByteArray();
         CborObject deserialized = CborObject.fromByteArray(raw);
@@ -115,5 +146,6 @@ public class CborObjects {
         byte[] raw2 = deserialized.toByteArray();
         boolean sameRaw = Arrays.equals(raw, raw2);
         Assert.assertTrue("Idempotent serialization", sameRaw);
+        Assert.assertEquals("Streamed links", value.links(), CborObject.getLinks(raw));
     }
 }
@@ -3,6 +3,7 @@ package peergos.server.tests;
 import org.junit.*;
 import peergos.server.storage.*;
 import peergos.shared.*;
+import peergos.shared.cbor.*;
 import peergos.shared.crypto.*;
 import peergos.shared.crypto.hash.*;
 import peergos.shared.hamt.*;
@@ -12,6 +13,7 @@ import peergos.shared.util.*;
 
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.*;
 
 public class ChampTests {
@@ -228,6 +230,254 @@ public class ChampTests {
         }
     }
 
+    @Test
+    public void batchedPutsAndRemoves() throws Exception {
+        RAMStorage sequentialStorage = new RAMStorage();
+        RAMStorage batchStorage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash user = createUser(sequentialStorage, crypto);
+        createUser(batchStorage, crypto);
+        Random r = new Random(28);
+        Supplier<Multihash> randomHash = () -> {
+            byte[] hash = new byte[32];
+            r.nextBytes(hash);
+            return new Multihash(Multihash.Type.sha2_256, hash);
+        };
+        TransactionId tid = sequentialStorage.startTransaction(user.publicKeyHash).get();
+        Function<ByteArrayWrapper, byte[]> hasher = x -> x.data;
+        ChampWrapper sequential = ChampWrapper.create(user.publicKeyHash, user, hasher, tid, sequentialStorage).get();
+        ChampWrapper batch = ChampWrapper.create(user.publicKeyHash, user, hasher, tid, batchStorage).get();
+        int blocksBefore = batchStorage.size();
+
+        Map<ByteArrayWrapper, Pair<MaybeMultihash, Multihash>> updates = new LinkedHashMap<>();
+        Multihash sequentialRoot = null;
+        for (int i = 0; i < 500; i++) {
+            byte[] key = randomHash.get().toBytes();
+            Multihash value = randomHash.get();
+            updates.put(new ByteArrayWrapper(key), new Pair<>(MaybeMultihash.empty(), value));
+            sequentialRoot = sequential.put(user.publicKeyHash, user, key, MaybeMultihash.empty(), value, tid).get();
+        }
+        Multihash batchRoot = batch.putAll(user.publicKeyHash, user, updates, tid).get();
+        Assert.assertEquals("Batch put gives same tree", sequentialRoot, batchRoot);
+        for (Map.Entry<ByteArrayWrapper, Pair<MaybeMultihash, Multihash>> e : updates.entrySet())
+            Assert.assertEquals(MaybeMultihash.of(e.getValue().right), batch.get(e.getKey().data).get());
+        Assert.assertTrue("Intermediate nodes not written",
+                batchStorage.size() - blocksBefore < sequentialStorage.size() - blocksBefore);
+
+        Map<ByteArrayWrapper, MaybeMultihash> toRemove = new LinkedHashMap<>();
+        for (Map.Entry<ByteArrayWrapper, Pair<MaybeMultihash, Multihash>> e : updates.entrySet()) {
+            if (toRemove.size() == updates.size() / 2)
+                break;
+            toRemove.put(e.getKey(), MaybeMultihash.of(e.getValue().right));
+            sequentialRoot = sequential.remove(user.publicKeyHash, user, e.getKey().data, MaybeMultihash.of(e.getValue().right), tid).get();
+        }
+        batchRoot = batch.removeAll(user.publicKeyHash, user, toRemove, tid).get();
+        Assert.assertEquals("Batch remove gives same tree", sequentialRoot, batchRoot);
+
+        // a batch with a stale expected value must fail
+        ByteArrayWrapper remaining = updates.keySet().stream().filter(k -> ! toRemove.containsKey(k)).findFirst().get();
+        try {
+            batch.putAll(user.publicKeyHash, user,
+                    Collections.singletonMap(remaining, new Pair<>(MaybeMultihash.empty(), randomHash.get())), tid).get();
+            Assert.fail("CAS should fail");
+        } catch (ExecutionException expected) {}
+    }
+
+    @Test
+    public void blockGraph() throws Exception {
+        RAMStorage storage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash user = createUser(storage, crypto);
+        Random r = new Random(28);
+        TransactionId tid = storage.startTransaction(user.publicKeyHash).get();
+        ChampWrapper champ = ChampWrapper.create(user.publicKeyHash, user, x -> x.data, tid, storage).get();
+        Multihash root = null;
+        for (int i = 0; i < 200; i++) {
+            byte[] key = new byte[32];
+            r.nextBytes(key);
+            byte[] data = new byte[10];
+            r.nextBytes(data);
+            Multihash value = storage.putRaw(user.publicKeyHash, user.publicKeyHash, Arrays.asList(new byte[0]),
+                    Arrays.asList(data), tid).get().get(0);
+            root = champ.put(user.publicKeyHash, user, key, MaybeMultihash.empty(), value, tid).get();
+        }
+
+        List<byte[]> justRoot = storage.getBlockGraph(root, 0, 100).get();
+        Assert.assertEquals(1, justRoot.size());
+        Assert.assertEquals(root, BufferedStorage.hashToCid(justRoot.get(0)));
+
+        // every champ node, but no raw blocks
+        List<byte[]> all = storage.getBlockGraph(root, 10, 1000).get();
+        Assert.assertTrue(all.size() > 1);
+        BufferedStorage local = new BufferedStorage(new RAMStorage());
+        local.put(null, null, Collections.emptyList(), all, null).get();
+        Assert.assertEquals(champ.size().get(), ChampWrapper.create(root, x -> x.data, local).get().size().get());
+
+        List<byte[]> limited = storage.getBlockGraph(root, 10, 5).get();
+        Assert.assertEquals(5, limited.size());
+        List<byte[]> parsed = ContentAddressedStorage.HTTP.parseBlockList(ContentAddressedStorage.HTTP.serializeBlockList(limited));
+        for (int i = 0; i < limited.size(); i++)
+            Assert.assertTrue(Arrays.equals(limited.get(i), parsed.get(i)));
+    }
+
+    @Test
+    public void batchedLookupBlocks() throws Exception {
+        RAMStorage storage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash user = createUser(storage, crypto);
+        Random r = new Random(28);
+        TransactionId tid = storage.startTransaction(user.publicKeyHash).get();
+        Function<ByteArrayWrapper, byte[]> hasher = x -> x.data;
+        ChampWrapper champ = ChampWrapper.create(user.publicKeyHash, user, hasher, tid, storage).get();
+
+        List<byte[]> keys = new ArrayList<>();
+        Multihash root = null;
+        for (int i = 0; i < 500; i++) {
+            byte[] key = new byte[32];
+            r.nextBytes(key);
+            keys.add(key);
+            Multihash value = storage.put(user.publicKeyHash, user, new CborObject.CborLong(i).serialize(), tid).get();
+            root = champ.put(user.publicKeyHash, user, key, MaybeMultihash.empty(), value, tid).get();
+        }
+        byte[] absent = new byte[32];
+        r.nextBytes(absent);
+        List<Pair<Multihash, byte[]>> lookups = new ArrayList<>();
+        for (int i = 0; i < 50; i++)
+            lookups.add(new Pair<>(root, keys.get(i * 10)));
+        lookups.add(new Pair<>(root, absent));
+
+        byte[] request = ContentAddressedStorage.HTTP.serializeChampLookups(lookups);
+        List<Pair<Multihash, byte[]>> parsed = ContentAddressedStorage.HTTP.parseChampLookups(request);
+        Assert.assertEquals(lookups.size(), parsed.size());
+        List<byte[]> blocks = storage.getChampLookupBlocks(parsed).get();
+        Assert.assertTrue("Shared champ nodes only returned once", blocks.size() < storage.size());
+
+        // the lookups can be repeated using only the returned blocks
+        BufferedStorage local = new BufferedStorage(new RAMStorage());
+        local.put(null, null, Collections.emptyList(), blocks, null).get();
+        ChampWrapper localChamp = ChampWrapper.create(root, hasher, local).get();
+        for (int i = 0; i < 50; i++) {
+            MaybeMultihash value = localChamp.get(keys.get(i * 10)).get();
+            Assert.assertTrue(value.isPresent());
+            Assert.assertEquals(new CborObject.CborLong(i * 10), local.get(value.get()).get().get());
+        }
+        Assert.assertTrue(! localChamp.get(absent).get().isPresent());
+    }
+
+    @Test
+    public void diff() throws Exception {
+        RAMStorage storage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash user = createUser(storage, crypto);
+        Random r = new Random(28);
+        Supplier<Multihash> randomHash = () -> {
+            byte[] hash = new byte[32];
+            r.nextBytes(hash);
+            return new Multihash(Multihash.Type.sha2_256, hash);
+        };
+        TransactionId tid = storage.startTransaction(user.publicKeyHash).get();
+        Function<ByteArrayWrapper, byte[]> hasher = x -> x.data;
+
+        for (int trial = 0; trial < 20; trial++) {
+            ChampWrapper tree = ChampWrapper.create(user.publicKeyHash, user, hasher, tid, storage).get();
+            Map<ByteArrayWrapper, MaybeMultihash> before = new HashMap<>();
+            Multihash originalRoot = null;
+            int nKeys = r.nextInt(200);
+            for (int i = 0; i < nKeys; i++) {
+                byte[] key = randomHash.get().toBytes();
+                Multihash value = randomHash.get();
+                originalRoot = tree.put(user.publicKeyHash, user, key, MaybeMultihash.empty(), value, tid).get();
+                before.put(new ByteArrayWrapper(key), MaybeMultihash.of(value));
+            }
+            // modify, add and remove some keys, including enough to move mappings between levels
+            Map<ByteArrayWrapper, MaybeMultihash> after = new HashMap<>(before);
+            Multihash updatedRoot = originalRoot;
+            for (ByteArrayWrapper key : before.keySet()) {
+                int action = r.nextInt(4);
+                if (action == 0) {
+                    Multihash value = randomHash.get();
+                    updatedRoot = tree.put(user.publicKeyHash, user, key.data, after.get(key), value, tid).get();
+                    after.put(key, MaybeMultihash.of(value));
+                } else if (action == 1) {
+                    updatedRoot = tree.remove(user.publicKeyHash, user, key.data, after.get(key), tid).get();
+                    after.put(key, MaybeMultihash.empty());
+                }
+            }
+            int nNewKeys = r.nextInt(200);
+            for (int i = 0; i < nNewKeys; i++) {
+                byte[] key = randomHash.get().toBytes();
+                Multihash value = randomHash.get();
+                updatedRoot = tree.put(user.publicKeyHash, user, key, MaybeMultihash.empty(), value, tid).get();
+                after.put(new ByteArrayWrapper(key), MaybeMultihash.of(value));
+            }
+
+            Map<ByteArrayWrapper, Pair<MaybeMultihash, MaybeMultihash>> expected = new HashMap<>();
+            for (ByteArrayWrapper key : after.keySet()) {
+                MaybeMultihash original = before.getOrDefault(key, MaybeMultihash.empty());
+                if (! original.equals(after.get(key)) && ! (! before.containsKey(key) && ! after.get(key).isPresent()))
+                    expected.put(key, new Pair<>(original, after.get(key)));
+            }
+            Map<ByteArrayWrapper, Pair<MaybeMultihash, MaybeMultihash>> diff = new HashMap<>();
+            Champ.applyToDiff(originalRoot == null ? MaybeMultihash.empty() : MaybeMultihash.of(originalRoot),
+                    updatedRoot == null ? MaybeMultihash.empty() : MaybeMultihash.of(updatedRoot),
+                    t -> {
+                        if (diff.put(t.left, new Pair<>(t.middle, t.right)) != null)
+                            throw new IllegalStateException("Key reported twice in diff!");
+                    }, 4, storage).get();
+            Assert.assertEquals("Correct diff", expected, diff);
+        }
+    }
+
+    @Test
+    public void mappingCounts() throws Exception {
+        RAMStorage storage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash user = createUser(storage, crypto);
+        Random r = new Random(28);
+        Supplier<Multihash> randomHash = () -> {
+            byte[] hash = new byte[32];
+            r.nextBytes(hash);
+            return new Multihash(Multihash.Type.sha2_256, hash);
+        };
+        TransactionId tid = storage.startTransaction(user.publicKeyHash).get();
+        int bitWidth = 3;
+        int maxCollisions = 2;
+        // an empty storage, so any attempt to walk the tree to count mappings will fail
+        ContentAddressedStorage empty = new RAMStorage();
+
+        Champ current = Champ.empty();
+        Multihash currentHash = storage.put(user.publicKeyHash, user, current.serialize(), tid).get();
+        List<ByteArrayWrapper> keys = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            ByteArrayWrapper key = new ByteArrayWrapper(randomHash.get().toBytes());
+            Pair<Champ, Multihash> updated = current.put(user.publicKeyHash, user, key, key.data, 0, MaybeMultihash.empty(),
+                    MaybeMultihash.of(randomHash.get()), bitWidth, maxCollisions, x -> x.data, tid, storage, currentHash).get();
+            current = updated.left;
+            currentHash = updated.right;
+            keys.add(key);
+            Assert.assertEquals("Count after put", keys.size(), (long) current.size(0, empty).get());
+        }
+        Collections.shuffle(keys, r);
+        while (! keys.isEmpty()) {
+            ByteArrayWrapper key = keys.remove(keys.size() - 1);
+            MaybeMultihash existing = current.get(key, key.data, 0, bitWidth, storage).get();
+            Pair<Champ, Multihash> updated = current.remove(user.publicKeyHash, user, key, key.data, 0, existing,
+                    bitWidth, maxCollisions, tid, storage, currentHash).get();
+            current = updated.left;
+            currentHash = updated.right;
+            Assert.assertEquals("Count after remove", keys.size(), (long) current.size(0, empty).get());
+        }
+        Assert.assertEquals("Canonical empty tree", Champ.empty().serialize().length, current.serialize().length);
+
+        // a tree loaded from storage knows its count without walking it
+        Pair<Champ, Multihash> tree = randomTree(user, r, 0, 32, 200, bitWidth, maxCollisions, randomHash, storage);
+        Champ loaded = Champ.fromCbor(storage.get(tree.right).get().get());
+        Assert.assertEquals("Count from loaded root", 200, (long) loaded.size(0, empty).get());
+
+        // nodes in the original format, without a count, are still readable
+        List<? extends Cborable> fields = ((CborObject.CborList) tree.left.toCbor()).value;
+        Assert.assertEquals("Count is stored", 4, fields.size());
+        CborObject.CborList legacy = new CborObject.CborList(new ArrayList<>(fields.subList(0, 3)));
+        Champ parsed = Champ.fromCbor(legacy);
+        Assert.assertTrue("Round trip", Arrays.equals(legacy.serialize(), parsed.serialize()));
+        Assert.assertEquals("Count by walking tree", 200, (long) parsed.size(0, storage).get());
+    }
+
     private static byte[] randomKey(byte[] startingWith, int extraBytes, Random r) {
         byte[] suffix = new byte[extraBytes];
         r.nextBytes(suffix);
@@ -263,6 +513,69 @@ public class ChampTests {
         return new Pair<>(current, currentHash);
     }
 
+    /** Champ nodes written before bitmaps were serialized without a BitSet must still re-encode byte identically,
+     *  otherwise their hashes would change.
+     */
+    @Test
+    public void bitmapSerializationIsUnchanged() throws Exception {
+        // a node with bit 9 set in its data map, holding key 0x01 with no value, as written by BitSet.toByteArray()
+        byte[] golden = ArrayOps.hexToBytes("834200024081824101f6");
+        Assert.assertTrue(Arrays.equals(golden, Champ.fromCbor(CborObject.fromByteArray(golden)).serialize()));
+
+        Random r = new Random(35);
+        Multihash child = new Multihash(Multihash.Type.sha2_256, new byte[32]);
+        List<Integer> bitmaps = new ArrayList<>(Arrays.asList(0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE));
+        for (int bit = 0; bit < 32; bit++)
+            bitmaps.add(1 << bit);
+        for (int i = 0; i < 100; i++)
+            bitmaps.add(r.nextInt());
+        for (int bitmap : bitmaps) {
+            int dataMap = bitmap & r.nextInt();
+            int nodeMap = bitmap & ~dataMap;
+            List<CborObject> contents = new ArrayList<>();
+            for (int i = 0; i < Integer.bitCount(dataMap); i++)
+                contents.add(new CborObject.CborList(Arrays.asList(
+                        new CborObject.CborByteArray(new byte[]{(byte) i}), new CborObject.CborNull())));
+            for (int i = 0; i < Integer.bitCount(nodeMap); i++)
+                contents.add(new CborObject.CborMerkleLink(child));
+            CborObject.CborList existing = new CborObject.CborList(Arrays.asList(
+                    new CborObject.CborByteArray(BitSet.valueOf(new long[]{dataMap & 0xFFFFFFFFL}).toByteArray()),
+                    new CborObject.CborByteArray(BitSet.valueOf(new long[]{nodeMap & 0xFFFFFFFFL}).toByteArray()),
+                    new CborObject.CborList(contents)));
+            byte[] raw = existing.serialize();
+            Assert.assertTrue("Bitmaps " + dataMap + ", " + nodeMap,
+                    Arrays.equals(raw, Champ.fromCbor(CborObject.fromByteArray(raw)).serialize()));
+        }
+
+        // and every node of a real champ
+        RAMStorage storage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash user = createUser(storage, crypto);
+        TransactionId tid = storage.startTransaction(user.publicKeyHash).get();
+        ChampWrapper champ = ChampWrapper.create(user.publicKeyHash, user, x -> x.data, tid, storage).get();
+        Multihash root = null;
+        for (int i = 0; i < 500; i++) {
+            byte[] key = new byte[32];
+            r.nextBytes(key);
+            root = champ.put(user.publicKeyHash, user, key, MaybeMultihash.empty(), child, tid).get();
+        }
+        for (byte[] node : storage.getBlockGraph(root, 10, 10_000).get()) {
+            CborObject.CborList cbor = (CborObject.CborList) CborObject.fromByteArray(node);
+            for (int i = 0; i < 2; i++) {
+                byte[] bitmap = ((CborObject.CborByteArray) cbor.value.get(i)).value;
+                Assert.assertTrue(Arrays.equals(BitSet.valueOf(bitmap).toByteArray(), bitmap));
+            }
+            Assert.assertTrue(Arrays.equals(node, Champ.fromCbor(cbor).serialize()));
+        }
+    }
+
+    @Test
+    public void bitWidthIsValidated() {
+        try {
+            new ChampWrapper(Champ.empty(), null, x -> x.data, new RAMStorage(), Champ.MAX_BIT_WIDTH + 1);
+            Assert.fail("Bit width must fit in the node bitmaps");
+        } catch (IllegalStateException expected) {}
+    }
+
     public static SigningPrivateKeyAndPublicHash createUser(ContentAddressedStorage storage, Crypto crypto) {
         SigningKeyPair random = SigningKeyPair.random(crypto.random, crypto.signer);
         try {
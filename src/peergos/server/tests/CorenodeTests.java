@@ -1,11 +1,107 @@
 package peergos.server.tests;
 
 import org.junit.*;
-import peergos.server.corenode.UsernameValidator;
+import peergos.server.corenode.*;
+import peergos.server.storage.*;
+import peergos.shared.*;
+import peergos.shared.corenode.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.mutable.*;
+import peergos.shared.storage.*;
+import peergos.shared.user.*;
 
+import java.time.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class CorenodeTests {
+    private static final Crypto crypto = Crypto.initJava();
+
+    /** Pointers whose updates don't complete until the gate is opened
+     *
+     */
+    private static class GatedPointers implements MutablePointers {
+        private final Map<PublicKeyHash, byte[]> pointers = new ConcurrentHashMap<>();
+        private CompletableFuture<Boolean> gate = CompletableFuture.completedFuture(true);
+        private int updates = 0;
+
+        @Override
+        public synchronized CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writer, byte[] writerSignedBtreeRootHash) {
+            updates++;
+            return gate.thenApply(x -> {
+                pointers.put(writer, writerSignedBtreeRootHash);
+                return true;
+            });
+        }
+
+        @Override
+        public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash owner, PublicKeyHash writer) {
+            return CompletableFuture.completedFuture(Optional.ofNullable(pointers.get(writer)));
+        }
+    }
+
+    private static SigningPrivateKeyAndPublicHash randomSigner() {
+        SigningKeyPair pair = SigningKeyPair.random(crypto.random, crypto.signer);
+        return new SigningPrivateKeyAndPublicHash(ContentAddressedStorage.hashKey(pair.publicSigningKey), pair.secretSigningKey);
+    }
+
+    @Test
+    public void concurrentUpdatesAreOrderedAndBatched() throws Exception {
+        RAMStorage dht = new RAMStorage();
+        GatedPointers mutable = new GatedPointers();
+        SigningPrivateKeyAndPublicHash peergos = randomSigner();
+        SigningPrivateKeyAndPublicHash pki = randomSigner();
+        MaybeMultihash root = IpfsTransaction.call(peergos.publicKeyHash,
+                tid -> WriterData.createEmpty(peergos.publicKeyHash, pki, dht).join()
+                        .commit(peergos.publicKeyHash, pki, MaybeMultihash.empty(), mutable, dht, tid)
+                        .thenApply(version -> version.get(pki).hash), dht).join();
+        IpfsCoreNode core = new IpfsCoreNode(pki, root, dht, mutable, peergos.publicKeyHash);
+        LocalDate expiry = LocalDate.now().plusMonths(2);
+
+        // hold the first commit open, so the later updates queue up behind it
+        CompletableFuture<Boolean> gate = new CompletableFuture<>();
+        mutable.gate = gate;
+        int initialUpdates = mutable.updates;
+        CompletableFuture<Boolean> first = core.updateChain("first",
+                UserPublicKeyLink.createInitial(randomSigner(), "first", expiry, Collections.emptyList()));
+
+        // a key change must be validated against the claim queued before it
+        SigningPrivateKeyAndPublicHash oldKey = randomSigner(), newKey = randomSigner();
+        CompletableFuture<Boolean> claim = core.updateChain("alice",
+                UserPublicKeyLink.createInitial(oldKey, "alice", expiry, Collections.emptyList()));
+        CompletableFuture<Boolean> keyChange = core.updateChain("alice",
+                UserPublicKeyLink.createChain(oldKey, newKey, "alice", expiry, Collections.emptyList()));
+
+        List<String> others = new ArrayList<>();
+        List<CompletableFuture<Boolean>> otherResults = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            String username = "user" + i;
+            others.add(username);
+            otherResults.add(core.updateChain(username,
+                    UserPublicKeyLink.createInitial(randomSigner(), username, expiry, Collections.emptyList())));
+        }
+        Assert.assertFalse("Waiting for first commit", first.isDone() || claim.isDone());
+
+        gate.complete(true);
+        Assert.assertTrue(first.get(5, TimeUnit.SECONDS));
+        Assert.assertTrue(claim.get(5, TimeUnit.SECONDS));
+        Assert.assertTrue(keyChange.get(5, TimeUnit.SECONDS));
+        for (CompletableFuture<Boolean> res : otherResults)
+            Assert.assertTrue(res.get(5, TimeUnit.SECONDS));
+
+        List<UserPublicKeyLink> chain = core.getChain("alice").get();
+        Assert.assertEquals("Key change applied after claim", 2, chain.size());
+        Assert.assertEquals(newKey.publicKeyHash, chain.get(1).owner);
+        Assert.assertEquals("alice", core.getUsername(newKey.publicKeyHash).get());
+        // the first update, then the queued claims in one batch, then the key change which waited for its claim
+        Assert.assertEquals("Queued updates are batched", 3, mutable.updates - initialUpdates);
+
+        Set<String> usernames = new HashSet<>(core.getUsernames("").get());
+        Assert.assertTrue(usernames.containsAll(others));
+        Assert.assertTrue(usernames.contains("first") && usernames.contains("alice"));
+        Assert.assertEquals("No duplicate usernames", 12, core.getUsernames("").get().size());
+    }
 
     @Test
     public void isValidUsernameTest() {
@@ -0,0 +1,88 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.storage.*;
+import peergos.shared.*;
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.symmetric.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+
+import java.nio.file.*;
+import java.util.*;
+
+public class EncryptedBlockCacheTests {
+    private static final Crypto crypto = Crypto.initJava();
+
+    private static Optional<Path> cachedFile(Path dir, Multihash h) throws Exception {
+        return Files.walk(dir)
+                .filter(p -> p.getFileName().toString().equals(h.toString()))
+                .findAny();
+    }
+
+    @Test
+    public void servesCachedBlocksAcrossSessions() throws Exception {
+        Path dir = Files.createTempDirectory("peergos-session");
+        SymmetricKey key = TweetNaClKey.random(crypto.symmetricProvider, crypto.random);
+        byte[] block = new CborObject.CborString("Some secret metadata").toByteArray();
+
+        ContentAddressedStorage first = new EncryptedBlockCache(new RAMStorage(), dir, key, 1024, 1024 * 1024);
+        Multihash h = first.put(null, null, Arrays.asList(new byte[0]), Arrays.asList(block), null).get().get(0);
+
+        // a new session with an empty backing store can still read the block
+        ContentAddressedStorage second = new EncryptedBlockCache(new RAMStorage(), dir, key, 1024, 1024 * 1024);
+        Optional<CborObject> cached = second.get(h).get();
+        Assert.assertTrue("Block served from cache", cached.isPresent());
+        Assert.assertTrue(Arrays.equals(block, cached.get().toByteArray()));
+
+        byte[] stored = Files.readAllBytes(cachedFile(dir, h).get());
+        Assert.assertTrue("Cached blocks are encrypted", ! new String(stored).contains("secret metadata"));
+
+        // a different key can't read the cache, and falls through to the backing store
+        SymmetricKey other = TweetNaClKey.random(crypto.symmetricProvider, crypto.random);
+        ContentAddressedStorage wrongKey = new EncryptedBlockCache(new RAMStorage(), dir, other, 1024, 1024 * 1024);
+        Assert.assertTrue("Unreadable block ignored", ! wrongKey.get(h).get().isPresent());
+    }
+
+    @Test
+    public void largeBlocksNotCached() throws Exception {
+        Path dir = Files.createTempDirectory("peergos-session");
+        SymmetricKey key = TweetNaClKey.random(crypto.symmetricProvider, crypto.random);
+        ContentAddressedStorage cache = new EncryptedBlockCache(new RAMStorage(), dir, key, 1024, 1024 * 1024);
+        byte[] raw = new byte[2048];
+        Multihash h = cache.putRaw(null, null, Arrays.asList(new byte[0]), Arrays.asList(raw), null).get().get(0);
+        Assert.assertTrue("Large block not cached", ! cachedFile(dir, h).isPresent());
+        Assert.assertTrue(cache.getRaw(h).get().isPresent());
+    }
+
+    @Test
+    public void leastRecentlyUsedBlocksEvicted() throws Exception {
+        Path dir = Files.createTempDirectory("peergos-session");
+        SymmetricKey key = TweetNaClKey.random(crypto.symmetricProvider, crypto.random);
+        int maxCacheBytes = 4096;
+        ContentAddressedStorage cache = new EncryptedBlockCache(new RAMStorage(), dir, key, 1024, maxCacheBytes);
+        Random r = new Random(47);
+        List<Multihash> hashes = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            byte[] raw = new byte[200];
+            r.nextBytes(raw);
+            hashes.add(cache.putRaw(null, null, Arrays.asList(new byte[0]), Arrays.asList(raw), null).get().get(0));
+            // keep using the first block
+            Assert.assertTrue(cache.getRaw(hashes.get(0)).get().isPresent());
+            Thread.sleep(10);
+        }
+        long size = Files.walk(dir).filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        Assert.assertTrue("Within size limit", size <= maxCacheBytes);
+        Assert.assertTrue("Recently used block kept", cachedFile(dir, hashes.get(0)).isPresent());
+        Assert.assertTrue("Newest block kept", cachedFile(dir, hashes.get(hashes.size() - 1)).isPresent());
+        Assert.assertTrue("Old block evicted", ! cachedFile(dir, hashes.get(1)).isPresent());
+
+        // the size of an existing cache is counted when it is reopened
+        ContentAddressedStorage reopened = new EncryptedBlockCache(new RAMStorage(), dir, key, 1024, size + 100);
+        byte[] raw = new byte[200];
+        r.nextBytes(raw);
+        reopened.putRaw(null, null, Arrays.asList(new byte[0]), Arrays.asList(raw), null).get();
+        long newSize = Files.walk(dir).filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        Assert.assertTrue("Evicted after reopening", newSize < size);
+    }
+}
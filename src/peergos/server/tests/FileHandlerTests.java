@@ -5,9 +5,11 @@ import  peergos.server.net.FileHandler;
 import peergos.server.net.StaticHandler;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Collections;
 
 public class FileHandlerTests {
     static final Path TEST_ROOT = Paths.get("test", "resources", "static_handler");
@@ -22,4 +24,39 @@ public class FileHandlerTests {
         StaticHandler.Asset hello = fileHandler.getAsset("test/hello.txt");
         Assert.assertEquals(new String(hello.data), "Hello, Peergos!");
     }
+
+    @Test
+    public void cachePreloadsAssets() throws IOException {
+        Path root = Files.createTempDirectory("peergos-static");
+        Files.createDirectories(root.resolve("js"));
+        String html = String.join("", Collections.nCopies(100, "<p>Hello, Peergos!</p>"));
+        String js = String.join("", Collections.nCopies(100, "console.log('Hello');"));
+        Files.write(root.resolve("index.html"), html.getBytes());
+        Files.write(root.resolve("js").resolve("app.js"), js.getBytes());
+        StaticHandler cached = new FileHandler(root, true).withCache(1024 * 1024);
+
+        // the assets are served from memory, with their compressed variants, once the cache is built
+        Files.delete(root.resolve("index.html"));
+        Files.delete(root.resolve("js").resolve("app.js"));
+        StaticHandler.Asset index = cached.getAsset("index.html");
+        Assert.assertEquals(html, new String(index.data));
+        Assert.assertTrue("Compressed at startup", index.gzipped.isPresent());
+        Assert.assertEquals(js, new String(cached.getAsset("js/app.js").data));
+    }
+
+    @Test
+    public void preloadWithinCacheSize() throws IOException {
+        Path root = Files.createTempDirectory("peergos-static");
+        Files.write(root.resolve("small.txt"), new byte[100]);
+        Files.write(root.resolve("large.txt"), new byte[10_000]);
+        StaticHandler cached = new FileHandler(root, false).withCache(1000);
+
+        Files.delete(root.resolve("small.txt"));
+        Files.delete(root.resolve("large.txt"));
+        Assert.assertEquals(100, cached.getAsset("small.txt").data.length);
+        try {
+            cached.getAsset("large.txt");
+            Assert.fail("Asset larger than the cache was preloaded");
+        } catch (IOException expected) {}
+    }
 }
@@ -27,7 +27,8 @@ public class FragmenterTest {
     public static Collection<Object[]> parameters() {
         return Arrays.asList(new Object[][]{
                 {new SplitFragmenter()},
-                {new ErasureFragmenter(ErasureFragmenter.ERASURE_ORIGINAL, ErasureFragmenter.ERASURE_ALLOWED_FAILURES)}
+                {new ErasureFragmenter(ErasureFragmenter.ERASURE_ORIGINAL, ErasureFragmenter.ERASURE_ALLOWED_FAILURES)},
+                {new ReedSolomonFragmenter(ErasureFragmenter.ERASURE_ORIGINAL, ErasureFragmenter.ERASURE_ALLOWED_FAILURES)}
         });
     }
 
@@ -262,7 +262,7 @@ public class MultiUserTests {
                 subdir.generateChildLocationsFromSize(data1.length, u1.crypto.random)).get();
 
         Path filePath = Paths.get(u1.username, subdirName, filename);
-        u1.shareWriteAccessWith(filePath, userContexts.stream().map(u -> u.username).collect(Collectors.toSet()));
+        u1.shareWriteAccessWith(filePath, userContexts.stream().map(u -> u.username).collect(Collectors.toSet())).join();
 
         // check other users can read the file
         for (UserContext userContext : userContexts) {
@@ -519,7 +519,7 @@ public class MultiUserTests {
         //copy file
         Path destSubdirPath = Paths.get(u1.username, destinationSubdirName);
         FileWrapper destSubdir = u1.getByPath(destSubdirPath).get().get();
-        theFile.copyTo(destSubdir, u1);
+        theFile.copyTo(destSubdir, u1).join();
 
         //old copy should retain sharedWith entries
         Set<String> sharedWriteAccessWithOriginal = u1.sharedWithCache.getSharedWith(sharedWithAccess, cap);
@@ -747,7 +747,7 @@ public class MultiUserTests {
         Path destSubdirPath = Paths.get(u1.username, destinationSubdirName);
         FileWrapper destSubdir = u1.getByPath(destSubdirPath).get().get();
 
-        theDir.moveTo(destSubdir, theParent, u1);
+        theDir.moveTo(destSubdir, theParent, u1).join();
 
         //old copy sharedWith entries should be removed
         Set<String> sharedWriteAccessWithOriginal = u1.sharedWithCache.getSharedWith(sharedWithAccess, cap);
@@ -801,7 +801,7 @@ public class MultiUserTests {
         // share the file from "a" to each of the others
         String originalPath = u1.username + "/" + filename;
         FileWrapper u1File = u1.getByPath(originalPath).get().get();
-        u1.shareReadAccessWith(Paths.get(u1.username, filename), friends.stream().map(u -> u.username).collect(Collectors.toSet()));
+        u1.shareReadAccessWith(Paths.get(u1.username, filename), friends.stream().map(u -> u.username).collect(Collectors.toSet())).join();
 
         // check other users can read the file
         for (UserContext friend : friends) {
@@ -1011,10 +1011,10 @@ public class MultiUserTests {
         String username2 = random();
         String password2 = random();
         UserContext u2 = PeergosNetworkUtils.ensureSignedUp(username2, password2, network, crypto);
-        u2.sendFollowRequest(u1.username, SymmetricKey.random());
+        u2.sendFollowRequest(u1.username, SymmetricKey.random()).join();
         List<FollowRequestWithCipherText> u1Requests = u1.processFollowRequests().get();
         assertTrue("Receive a follow request", u1Requests.size() > 0);
-        u1.sendReplyFollowRequest(u1Requests.get(0), false, false);
+        u1.sendReplyFollowRequest(u1Requests.get(0), false, false).join();
         List<FollowRequestWithCipherText> u2FollowRequests = u2.processFollowRequests().get();
         Optional<FileWrapper> u1Tou2 = u2.getByPath("/" + u1.username).get();
         assertTrue("Friend root not present after rejected follow request", ! u1Tou2.isPresent());
@@ -1074,10 +1074,10 @@ public class MultiUserTests {
         String username2 = random();
         String password2 = random();
         UserContext u2 = PeergosNetworkUtils.ensureSignedUp(username2, password2, network, crypto);
-        u2.sendFollowRequest(u1.username, SymmetricKey.random());
+        u2.sendFollowRequest(u1.username, SymmetricKey.random()).join();
         List<FollowRequestWithCipherText> u1Requests = u1.processFollowRequests().get();
         assertTrue("Receive a follow request", u1Requests.size() > 0);
-        u1.sendReplyFollowRequest(u1Requests.get(0), false, true);
+        u1.sendReplyFollowRequest(u1Requests.get(0), false, true).join();
         List<FollowRequestWithCipherText> u2FollowRequests = u2.processFollowRequests().get();
         Optional<FileWrapper> u1Tou2 = u2.getByPath("/" + u1.username).get();
         assertTrue("Friend root not present after rejected follow request", ! u1Tou2.isPresent());
@@ -1090,9 +1090,9 @@ public class MultiUserTests {
     public void unfollow() throws Exception {
         UserContext u1 = PeergosNetworkUtils.ensureSignedUp(random(), random(), network, crypto);
         UserContext u2 = PeergosNetworkUtils.ensureSignedUp(random(), random(), network, crypto);
-        u2.sendFollowRequest(u1.username, SymmetricKey.random());
+        u2.sendFollowRequest(u1.username, SymmetricKey.random()).join();
         List<FollowRequestWithCipherText> u1Requests = u1.processFollowRequests().get();
-        u1.sendReplyFollowRequest(u1Requests.get(0), true, true);
+        u1.sendReplyFollowRequest(u1Requests.get(0), true, true).join();
         List<FollowRequestWithCipherText> u2FollowRequests = u2.processFollowRequests().get();
 
         Set<String> u1Following = u1.getFollowing().get();
@@ -1108,9 +1108,9 @@ public class MultiUserTests {
     public void removeFollower() throws Exception {
         UserContext u1 = PeergosNetworkUtils.ensureSignedUp(random(), random(), network, crypto);
         UserContext u2 = PeergosNetworkUtils.ensureSignedUp(random(), random(), network, crypto);
-        u2.sendFollowRequest(u1.username, SymmetricKey.random());
+        u2.sendFollowRequest(u1.username, SymmetricKey.random()).join();
         List<FollowRequestWithCipherText> u1Requests = u1.processFollowRequests().get();
-        u1.sendReplyFollowRequest(u1Requests.get(0), true, true);
+        u1.sendReplyFollowRequest(u1Requests.get(0), true, true).join();
         List<FollowRequestWithCipherText> u2FollowRequests = u2.processFollowRequests().get();
 
         Set<String> u1Followers = u1.getFollowerNames().get();
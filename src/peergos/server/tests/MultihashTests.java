@@ -0,0 +1,116 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.shared.io.ipfs.cid.*;
+import peergos.shared.io.ipfs.multibase.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.util.*;
+
+import java.math.*;
+import java.security.*;
+import java.util.*;
+
+public class MultihashTests {
+    private static final String ALPHABET = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz";
+
+    /** A straightforward BigInteger base58 encoder to compare against
+     *
+     */
+    private static String referenceEncode(byte[] input) {
+        StringBuilder res = new StringBuilder();
+        BigInteger value = new BigInteger(1, input);
+        BigInteger base = BigInteger.valueOf(58);
+        while (value.signum() > 0) {
+            BigInteger[] divmod = value.divideAndRemainder(base);
+            res.append(ALPHABET.charAt(divmod[1].intValue()));
+            value = divmod[0];
+        }
+        for (int i = 0; i < input.length && input[i] == 0; i++)
+            res.append('1');
+        return res.reverse().toString();
+    }
+
+    @Test
+    public void base58KnownVectors() {
+        Map<String, String> vectors = new LinkedHashMap<>();
+        vectors.put("", "");
+        vectors.put("00", "1");
+        vectors.put("000000", "111");
+        vectors.put("00010203", "1Ldp");
+        vectors.put("0000287fb4cd", "11233QC4");
+        vectors.put("48656c6c6f20576f726c6421", "2NEpo7TZRRrLZSi2U");
+        vectors.put("54686520717569636b2062726f776e20666f78206a756d7073206f76657220746865206c617a7920646f672e",
+                "USm3fpXnKG5EUBx2ndxBDMPVciP5hGey2Jh4NDv6gmeo1LkMeiKrLJUUBk6Z");
+        vectors.put("ffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff",
+                "JEKNVnkbo3jma5nREBBJCDoXFVeKkD56V3xKrvRmWxFG");
+        for (Map.Entry<String, String> e : vectors.entrySet()) {
+            byte[] raw = ArrayOps.hexToBytes(e.getKey());
+            Assert.assertEquals(e.getValue(), Base58.encode(raw));
+            Assert.assertTrue(e.getValue(), Arrays.equals(raw, Base58.decode(e.getValue())));
+        }
+    }
+
+    @Test
+    public void base58RoundTrip() {
+        Random r = new Random(39);
+        for (int length = 0; length < 100; length++) {
+            for (int leadingZeros = 0; leadingZeros <= Math.min(length, 3); leadingZeros++) {
+                byte[] input = new byte[length];
+                r.nextBytes(input);
+                for (int i = 0; i < leadingZeros; i++)
+                    input[i] = 0;
+                String encoded = Base58.encode(input);
+                Assert.assertEquals(referenceEncode(input), encoded);
+                Assert.assertTrue(encoded, Arrays.equals(input, Base58.decode(encoded)));
+            }
+            byte[] zeros = new byte[length];
+            Assert.assertTrue(Arrays.equals(zeros, Base58.decode(Base58.encode(zeros))));
+        }
+    }
+
+    @Test
+    public void invalidBase58() {
+        for (String invalid : Arrays.asList("0", "O", "I", "l", "1+", "Qm\u00e9")) {
+            try {
+                Base58.decode(invalid);
+                Assert.fail("Invalid base58: " + invalid);
+            } catch (IllegalStateException expected) {}
+        }
+    }
+
+    @Test
+    public void multihashKnownVector() throws Exception {
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest("peergos".getBytes());
+        Multihash h = new Multihash(Multihash.Type.sha2_256, hash);
+        String expected = "QmXfTSu1DrvosBQf4QwyyRD2LAra6fK7ybctu6EZGpo9Xx";
+        Assert.assertEquals(expected, h.toString());
+        Assert.assertEquals("Cached string", expected, h.toString());
+        Assert.assertEquals(h, Multihash.fromBase58(expected));
+        Assert.assertTrue(Arrays.equals(h.toBytes(), Base58.decode(expected)));
+
+        Cid v0 = Cid.decode(expected);
+        Assert.assertEquals(0, v0.version);
+        Assert.assertEquals(h, v0);
+        Assert.assertEquals(expected, v0.toString());
+    }
+
+    @Test
+    public void cidRoundTrip() {
+        Random r = new Random(40);
+        for (Cid.Codec codec : Arrays.asList(Cid.Codec.DagCbor, Cid.Codec.Raw, Cid.Codec.DagProtobuf)) {
+            byte[] hash = new byte[32];
+            r.nextBytes(hash);
+            // a hash starting with zero bytes still round trips through the string form
+            hash[0] = 0;
+            hash[1] = 0;
+            Cid cid = Cid.buildCidV1(codec, Multihash.Type.sha2_256, hash);
+            String encoded = cid.toString();
+            Assert.assertEquals("Cached string", encoded, cid.toString());
+            Cid decoded = Cid.decode(encoded);
+            Assert.assertEquals(cid, decoded);
+            Assert.assertEquals(codec, decoded.codec);
+            Assert.assertTrue(Arrays.equals(cid.toBytes(), decoded.toBytes()));
+            Assert.assertEquals(cid, Cid.cast(cid.toBytes()));
+        }
+    }
+}
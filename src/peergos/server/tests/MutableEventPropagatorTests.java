@@ -0,0 +1,86 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.mutable.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.mutable.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class MutableEventPropagatorTests {
+
+    private static class RamPointers implements MutablePointers {
+        private final Map<PublicKeyHash, byte[]> pointers = new ConcurrentHashMap<>();
+
+        @Override
+        public CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writer, byte[] writerSignedBtreeRootHash) {
+            pointers.put(writer, writerSignedBtreeRootHash);
+            return CompletableFuture.completedFuture(true);
+        }
+
+        @Override
+        public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash owner, PublicKeyHash writer) {
+            return CompletableFuture.completedFuture(Optional.ofNullable(pointers.get(writer)));
+        }
+    }
+
+    private static PublicKeyHash randomKey(Random r) {
+        byte[] hash = new byte[32];
+        r.nextBytes(hash);
+        return new PublicKeyHash(new Multihash(Multihash.Type.sha2_256, hash));
+    }
+
+    @Test
+    public void notifiedOfUpdate() throws Exception {
+        Random r = new Random(26);
+        MutableEventPropagator mutable = new MutableEventPropagator(new RamPointers());
+        PublicKeyHash owner = randomKey(r);
+        PublicKeyHash writer = randomKey(r);
+        PublicKeyHash other = randomKey(r);
+        byte[] initial = {1};
+        mutable.setPointer(owner, writer, initial).get();
+
+        Map<PublicKeyHash, Optional<byte[]>> known = new HashMap<>();
+        known.put(writer, Optional.of(initial));
+        known.put(other, Optional.empty());
+        CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> watch = mutable.watchPointers(owner, known, 60_000);
+        Thread.sleep(100);
+        Assert.assertFalse("Waits while unchanged", watch.isDone());
+
+        byte[] updated = {2};
+        mutable.setPointer(owner, writer, updated).get();
+        Map<PublicKeyHash, Optional<byte[]>> changes = watch.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals("Only changed writer", Collections.singleton(writer), changes.keySet());
+        Assert.assertTrue("New value", Arrays.equals(updated, changes.get(writer).get()));
+    }
+
+    @Test
+    public void staleValueReturnsImmediately() throws Exception {
+        Random r = new Random(27);
+        MutableEventPropagator mutable = new MutableEventPropagator(new RamPointers());
+        PublicKeyHash owner = randomKey(r);
+        PublicKeyHash writer = randomKey(r);
+        byte[] current = {3};
+        mutable.setPointer(owner, writer, current).get();
+
+        Map<PublicKeyHash, Optional<byte[]>> changes = mutable.watchPointers(owner,
+                Collections.singletonMap(writer, Optional.empty()), 60_000).get(5, TimeUnit.SECONDS);
+        Assert.assertTrue("Current value", Arrays.equals(current, changes.get(writer).get()));
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        Random r = new Random(28);
+        MutableEventPropagator mutable = new MutableEventPropagator(new RamPointers());
+        PublicKeyHash owner = randomKey(r);
+        PublicKeyHash writer = randomKey(r);
+        PublicKeyHash unrelated = randomKey(r);
+
+        CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> watch = mutable.watchPointers(owner,
+                Collections.singletonMap(writer, Optional.empty()), 500);
+        mutable.setPointer(owner, unrelated, new byte[]{4}).get();
+        Assert.assertTrue("No changes before timeout", watch.get(5, TimeUnit.SECONDS).isEmpty());
+    }
+}
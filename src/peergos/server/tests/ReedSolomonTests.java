@@ -0,0 +1,62 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.shared.user.fs.*;
+
+import java.util.*;
+
+public class ReedSolomonTests {
+    private static final Random random = new Random(28);
+
+    private static byte[] random(int len) {
+        byte[] res = new byte[len];
+        random.nextBytes(res);
+        return res;
+    }
+
+    @Test
+    public void sameFragmentsAsErasureFragmenter() {
+        for (int[] params : new int[][] {{40, 10}, {10, 5}, {5, 0}}) {
+            ErasureFragmenter reference = new ErasureFragmenter(params[0], params[1]);
+            ReedSolomonFragmenter fast = new ReedSolomonFragmenter(params[0], params[1]);
+            for (int size : Arrays.asList(1, 159, 160, 161, 100_000)) {
+                byte[] input = random(size);
+                byte[][] expected = reference.split(input);
+                byte[][] fragments = fast.split(input);
+                Assert.assertTrue("Same number of fragments", expected.length == fragments.length);
+                for (int i = 0; i < expected.length; i++)
+                    Assert.assertTrue("Identical fragment " + i, Arrays.equals(expected[i], fragments[i]));
+                // each can decode the other's fragments
+                Assert.assertTrue(Arrays.equals(input, reference.recombine(fragments, 0, size)));
+                Assert.assertTrue(Arrays.equals(input, fast.recombine(expected, 0, size)));
+            }
+        }
+    }
+
+    @Test
+    public void recoverMissingFragments() {
+        int original = ErasureFragmenter.ERASURE_ORIGINAL, failures = ErasureFragmenter.ERASURE_ALLOWED_FAILURES;
+        ReedSolomonFragmenter fragmenter = new ReedSolomonFragmenter(original, failures);
+        byte[] input = random(Chunk.MAX_SIZE - 17);
+        byte[][] fragments = fragmenter.split(input);
+        for (int missing = 1; missing <= 2 * failures; missing += 3) {
+            byte[][] received = Arrays.copyOf(fragments, fragments.length);
+            List<Integer> indices = new ArrayList<>();
+            for (int i = 0; i < received.length; i++)
+                indices.add(i);
+            Collections.shuffle(indices, random);
+            for (int i = 0; i < missing; i++)
+                received[indices.get(i)] = i % 2 == 0 ? null : new byte[0];
+            Assert.assertTrue("Recovered with " + missing + " missing fragments",
+                    Arrays.equals(input, fragmenter.recombine(received, 0, input.length)));
+        }
+
+        byte[][] tooFew = Arrays.copyOf(fragments, fragments.length);
+        for (int i = 0; i <= 2 * failures; i++)
+            tooFew[i] = null;
+        try {
+            fragmenter.recombine(tooFew, 0, input.length);
+            Assert.fail("Shouldn't be able to recover from too many missing fragments");
+        } catch (IllegalStateException expected) {}
+    }
+}
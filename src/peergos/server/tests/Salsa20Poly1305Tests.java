@@ -0,0 +1,77 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.symmetric.*;
+
+import java.util.*;
+
+public class Salsa20Poly1305Tests {
+    private final Random rnd = new Random(42);
+
+    private byte[] random(int len) {
+        byte[] res = new byte[len];
+        rnd.nextBytes(res);
+        return res;
+    }
+
+    @Test
+    public void compatibleWithTweetNaCl() {
+        Salsa20Poly1305 reference = new Salsa20Poly1305.Java();
+        Salsa20Poly1305 fast = new FastSalsa20Poly1305();
+        // cover every alignment around the poly1305 and salsa20 block boundaries, and some larger sizes
+        List<Integer> sizes = new ArrayList<>();
+        for (int i = 0; i < 300; i++)
+            sizes.add(i);
+        sizes.add(5 * 1024 * 1024 + 7);
+        for (int size : sizes) {
+            byte[] message = random(size);
+            byte[] nonce = random(TweetNaClKey.NONCE_BYTES);
+            byte[] key = random(TweetNaClKey.KEY_BYTES);
+            byte[] expected = reference.secretbox(message, nonce, key);
+            byte[] cipherText = fast.secretbox(message, nonce, key);
+            Assert.assertTrue("Same cipher text", Arrays.equals(expected, cipherText));
+            Assert.assertTrue("Decrypt", Arrays.equals(message, fast.secretbox_open(cipherText, nonce, key)));
+
+            cipherText[rnd.nextInt(cipherText.length)] ^= 1 << rnd.nextInt(8);
+            try {
+                fast.secretbox_open(cipherText, nonce, key);
+                Assert.fail("Modified cipher text should be rejected");
+            } catch (TweetNaCl.InvalidCipherTextException expectedFailure) {}
+        }
+    }
+
+    @Test
+    public void inPlace() {
+        byte[] nonce = random(TweetNaClKey.NONCE_BYTES);
+        byte[] key = random(TweetNaClKey.KEY_BYTES);
+        byte[] message = random(100_000);
+        byte[] buffer = new byte[message.length + FastSalsa20Poly1305.TAG_BYTES];
+        System.arraycopy(message, 0, buffer, FastSalsa20Poly1305.TAG_BYTES, message.length);
+
+        FastSalsa20Poly1305.secretbox(buffer, FastSalsa20Poly1305.TAG_BYTES, message.length, nonce, key, buffer, 0);
+        Assert.assertTrue("Same cipher text", Arrays.equals(TweetNaCl.secretbox(message, nonce, key), buffer));
+
+        FastSalsa20Poly1305.secretbox_open(buffer, 0, buffer.length, nonce, key, buffer, FastSalsa20Poly1305.TAG_BYTES);
+        Assert.assertTrue("Decrypt", Arrays.equals(message,
+                Arrays.copyOfRange(buffer, FastSalsa20Poly1305.TAG_BYTES, buffer.length)));
+    }
+
+    @Test
+    public void intoMatchesCopyingDefault() throws Exception {
+        byte[] nonce = random(TweetNaClKey.NONCE_BYTES);
+        byte[] key = random(TweetNaClKey.KEY_BYTES);
+        byte[] message = random(10_000);
+        for (Salsa20Poly1305 impl : Arrays.asList(new Salsa20Poly1305.Java(), new FastSalsa20Poly1305())) {
+            byte[] buffer = new byte[message.length + TweetNaCl.SECRETBOX_OVERHEAD_BYTES];
+            System.arraycopy(message, 0, buffer, TweetNaCl.SECRETBOX_OVERHEAD_BYTES, message.length);
+            impl.secretboxInto(buffer, TweetNaCl.SECRETBOX_OVERHEAD_BYTES, message.length, nonce, key, buffer, 0);
+            Assert.assertTrue("Same cipher text", Arrays.equals(TweetNaCl.secretbox(message, nonce, key), buffer));
+
+            byte[] plain = impl.secretbox_openIntoAsync(buffer, 0, buffer.length, nonce, key,
+                    buffer, TweetNaCl.SECRETBOX_OVERHEAD_BYTES).get();
+            Assert.assertTrue("Decrypt", Arrays.equals(message,
+                    Arrays.copyOfRange(plain, TweetNaCl.SECRETBOX_OVERHEAD_BYTES, plain.length)));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.scrypt.com.lambdaworks.crypto.*;
+import peergos.shared.user.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ScryptTests {
+    private static final Random random = new Random(45);
+
+    @Test
+    public void sameAsReference() throws Exception {
+        ScryptEngine engine = new ScryptEngine(new CryptoExecutor(ForkJoinPool.commonPool()::execute), 1);
+        // {N, r, p}, including repeats to exercise reusing the scratch memory
+        int[][] params = {{2, 1, 1}, {16, 1, 1}, {1024, 8, 1}, {1024, 8, 1}, {256, 4, 4}, {512, 2, 3}, {256, 4, 4}};
+        for (int[] param : params) {
+            byte[] password = new byte[32];
+            random.nextBytes(password);
+            byte[] salt = "some-user".getBytes();
+            byte[] expected = SCrypt.scryptJ(password, salt, param[0], param[1], param[2], 96);
+            byte[] res = engine.scrypt(password, salt, param[0], param[1], param[2], 96).get();
+            Assert.assertTrue("Same output for " + Arrays.toString(param), Arrays.equals(expected, res));
+        }
+    }
+
+    @Test
+    public void knownAnswer() throws Exception {
+        // from the scrypt paper
+        byte[] res = new ScryptEngine(CryptoExecutor.INLINE, 0)
+                .scrypt("password".getBytes(), "NaCl".getBytes(), 1024, 8, 16, 64).get();
+        Assert.assertEquals("fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b3731622eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640",
+                ArrayOps.bytesToHex(res));
+    }
+
+    @Test
+    public void defaultParameters() throws Exception {
+        SecretGenerationAlgorithm params = SecretGenerationAlgorithm.getDefault();
+        ScryptGenerator scrypt = (ScryptGenerator) params;
+        byte[] expected = SCrypt.scryptJ(Hash.sha256("password".getBytes()), "bob".getBytes(),
+                1 << scrypt.memoryCost, scrypt.cpuCost, scrypt.parallelism, scrypt.outputBytes);
+        byte[] res = new ScryptJava().hashToKeyBytes("bob", "password", params).get();
+        Assert.assertTrue(Arrays.equals(expected, res));
+    }
+}
@@ -17,6 +17,7 @@ import peergos.shared.crypto.asymmetric.curve25519.*;
 import peergos.shared.crypto.hash.*;
 import peergos.shared.crypto.random.*;
 import peergos.shared.crypto.symmetric.*;
+import peergos.shared.social.*;
 import peergos.server.*;
 import peergos.shared.storage.controller.*;
 import peergos.shared.user.*;
@@ -247,6 +248,59 @@ public abstract class UserTests {
         PeergosNetworkUtils.ensureSignedUp(username, password, network, crypto);
     }
 
+    @Test
+    public void loginWithFriendsEntryPoints() throws Exception {
+        String password = "password";
+        UserContext sharee = PeergosNetworkUtils.ensureSignedUp(generateUsername(), password, network.clear(), crypto);
+        List<UserContext> friends = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            friends.add(PeergosNetworkUtils.ensureSignedUp(generateUsername(), password, network.clear(), crypto));
+
+        for (UserContext friend : friends)
+            friend.sendFollowRequest(sharee.username, SymmetricKey.random()).join();
+        for (FollowRequestWithCipherText request : sharee.processFollowRequests().join())
+            sharee.sendReplyFollowRequest(request, true, true).join();
+        for (UserContext friend : friends) {
+            friend.processFollowRequests().join();
+            String filename = friend.username + ".txt";
+            byte[] data = filename.getBytes();
+            friend.getUserRoot().join().uploadOrOverwriteFile(filename, AsyncReader.build(data), data.length,
+                    friend.network, crypto, l -> {}, friend.getUserRoot().join().generateChildLocationsFromSize(data.length, crypto.random)).join();
+            friend.shareReadAccessWith(Paths.get(friend.username, filename), Collections.singleton(sharee.username)).join();
+        }
+
+        // the sharee's original context added each entry point to its trie sequentially as the friendships completed
+        Map<String, Set<String>> sequential = friendsView(sharee, friends);
+        for (UserContext friend : friends)
+            assertTrue("friend visible", sequential.get(friend.username).contains(friend.username + ".txt"));
+
+        UserContext loggedIn = PeergosNetworkUtils.ensureSignedUp(sharee.username, password, network.clear(), crypto);
+        assertEquals("Concurrent entry point retrieval", sequential, friendsView(loggedIn, friends));
+
+        // make one friend's entry point unretrievable, login should skip it and keep the rest
+        UserContext broken = friends.get(1);
+        Path sharingDir = Paths.get(broken.username, UserContext.SHARED_DIR_NAME, sharee.username);
+        broken.getByPath(sharingDir).join().get()
+                .remove(broken.getByPath(sharingDir.getParent()).join().get(), broken).join();
+
+        UserContext afterFailure = PeergosNetworkUtils.ensureSignedUp(sharee.username, password, network.clear(), crypto);
+        Map<String, Set<String>> expected = new HashMap<>(sequential);
+        expected.remove(broken.username);
+        assertEquals("Failed entry point skipped", expected, friendsView(afterFailure, friends));
+    }
+
+    private static Map<String, Set<String>> friendsView(UserContext context, List<UserContext> friends) {
+        Map<String, Set<String>> res = new HashMap<>();
+        for (UserContext friend : friends) {
+            if (! context.getByPath(friend.username).join().isPresent())
+                continue;
+            res.put(friend.username, context.getChildren(friend.username).join().stream()
+                    .map(f -> f.getName())
+                    .collect(Collectors.toSet()));
+        }
+        return res;
+    }
+
     @Test
     public void writeReadVariations() throws Exception {
         String username = generateUsername();
@@ -797,6 +851,71 @@ public abstract class UserTests {
         Assert.assertTrue("Correct data returned for publicly shared file", Arrays.equals(data, returnedData));
     }
 
+    @Test
+    public void publiclySharedFileModified() throws Exception {
+        String username = generateUsername();
+        String password = "test01";
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(username, password, network, crypto);
+        FileWrapper userRoot = context.getUserRoot().get();
+
+        String filename = "afile.bin";
+        byte[] data = new byte[128*1024];
+        random.nextBytes(data);
+        uploadFileSection(userRoot, filename, new AsyncReader.ArrayBacked(data), 0, data.length,
+                context.network, context.crypto, l -> {}).get();
+        String path = "/" + username + "/" + filename;
+        FileWrapper file = context.getByPath(path).get().get();
+        context.makePublic(file).get();
+
+        URL url = peergosUrl.toURI().resolve("/public" + path).toURL();
+        Assert.assertTrue("Correct data returned for publicly shared file",
+                Arrays.equals(data, Serialize.readFully(url.openStream())));
+
+        byte[] update = new byte[1024];
+        random.nextBytes(update);
+        System.arraycopy(update, 0, data, 0, update.length);
+        uploadFileSection(context.getUserRoot().get(), filename, new AsyncReader.ArrayBacked(update), 0, update.length,
+                context.network, context.crypto, l -> {}).get();
+        Assert.assertTrue("Modified data returned for publicly shared file",
+                Arrays.equals(data, Serialize.readFully(url.openStream())));
+    }
+
+    @Test
+    public void publiclySharedFileRangeAndConditionalGet() throws Exception {
+        String username = generateUsername();
+        String password = "test01";
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(username, password, network, crypto);
+        FileWrapper userRoot = context.getUserRoot().get();
+
+        String filename = "afile.bin";
+        byte[] data = new byte[7*1024*1024];
+        random.nextBytes(data);
+        uploadFileSection(userRoot, filename, new AsyncReader.ArrayBacked(data), 0, data.length,
+                context.network, context.crypto, l -> {}).get();
+        String path = "/" + username + "/" + filename;
+        FileWrapper file = context.getByPath(path).get().get();
+        context.makePublic(file).get();
+        URL url = peergosUrl.toURI().resolve("/public" + path).toURL();
+
+        int start = 5*1024*1024 - 10, end = 6*1024*1024;
+        HttpURLConnection range = (HttpURLConnection) url.openConnection();
+        range.setRequestProperty("Range", "bytes=" + start + "-" + end);
+        Assert.assertEquals("Partial content", 206, range.getResponseCode());
+        byte[] returnedRange = Serialize.readFully(range.getInputStream());
+        Assert.assertTrue("Correct range returned", Arrays.equals(Arrays.copyOfRange(data, start, end + 1), returnedRange));
+        String etag = range.getHeaderField("ETag");
+        Assert.assertNotNull("ETag present", etag);
+
+        HttpURLConnection conditional = (HttpURLConnection) url.openConnection();
+        conditional.setRequestProperty("If-None-Match", etag);
+        Assert.assertEquals("Not modified", 304, conditional.getResponseCode());
+
+        HttpURLConnection head = (HttpURLConnection) url.openConnection();
+        head.setRequestMethod("HEAD");
+        Assert.assertEquals(200, head.getResponseCode());
+        Assert.assertEquals("Length of HEAD response", data.length, head.getContentLengthLong());
+    }
+
     @Test
     public void publiclySharedDirectory() throws Exception {
         String username = generateUsername();
@@ -821,6 +940,36 @@ public abstract class UserTests {
         Assert.assertTrue("Correct data returned for publicly shared file", Arrays.equals(data, returnedData));
     }
 
+    @Test
+    public void publiclySharedDirectoryChildModified() throws Exception {
+        String username = generateUsername();
+        String password = "test01";
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(username, password, network, crypto);
+        FileWrapper userRoot = context.getUserRoot().get();
+
+        String dirName = "subdir";
+        userRoot.mkdir(dirName, network, false, crypto).get();
+        String dirPath = "/" + username + "/" + dirName;
+        context.makePublic(context.getByPath(dirPath).get().get()).get();
+
+        String filename = "afile.bin";
+        byte[] data = new byte[128*1024];
+        random.nextBytes(data);
+        uploadFileSection(context.getByPath(dirPath).get().get(), filename, new AsyncReader.ArrayBacked(data), 0,
+                data.length, context.network, context.crypto, l -> {}).get();
+        URL url = peergosUrl.toURI().resolve("/public" + dirPath + "/" + filename).toURL();
+        Assert.assertTrue("Correct data returned for file in public directory",
+                Arrays.equals(data, Serialize.readFully(url.openStream())));
+
+        byte[] update = new byte[1024];
+        random.nextBytes(update);
+        System.arraycopy(update, 0, data, 0, update.length);
+        uploadFileSection(context.getByPath(dirPath).get().get(), filename, new AsyncReader.ArrayBacked(update), 0,
+                update.length, context.network, context.crypto, l -> {}).get();
+        Assert.assertTrue("Modified data returned for file in public directory",
+                Arrays.equals(data, Serialize.readFully(url.openStream())));
+    }
+
     @Test
     public void publicLinkToFile() throws Exception {
         PeergosNetworkUtils.publicLinkToFile(random, network, network);
@@ -1091,6 +1240,77 @@ public abstract class UserTests {
         checkFileContents(data, copy, context);
     }
 
+    @Test
+    public void internalDirectoryCopy() {
+        String username = generateUsername();
+        String password = "test01";
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(username, password, network.clear(), crypto);
+        FileWrapper userRoot = context.getUserRoot().join();
+        Path home = Paths.get(username);
+
+        String foldername = "afolder";
+        userRoot.mkdir(foldername, context.network, false, crypto).join();
+        FileWrapper folder = context.getByPath(home.resolve(foldername)).join().get();
+        folder.mkdir("sub", context.network, false, crypto).join();
+        FileWrapper sub = context.getByPath(home.resolve(foldername).resolve("sub")).join().get();
+
+        Map<String, byte[]> files = new HashMap<>();
+        files.put("empty.bin", new byte[0]);
+        files.put("small.bin", randomData(1024));
+        files.put("twochunks.bin", randomData(6*1024*1024));
+        for (Map.Entry<String, byte[]> e : files.entrySet()) {
+            folder = context.getByPath(home.resolve(foldername)).join().get();
+            folder.uploadOrOverwriteFile(e.getKey(), new AsyncReader.ArrayBacked(e.getValue()), e.getValue().length,
+                    context.network, crypto, x -> {}, folder.generateChildLocationsFromSize(e.getValue().length, crypto.random)).join();
+        }
+        byte[] nested = randomData(4096);
+        sub.uploadOrOverwriteFile("nested.bin", new AsyncReader.ArrayBacked(nested), nested.length,
+                context.network, crypto, x -> {}, sub.generateChildLocationsFromSize(nested.length, crypto.random)).join();
+        // sibling subtrees are copied concurrently
+        context.getByPath(home.resolve(foldername)).join().get().mkdir("other", context.network, false, crypto).join();
+        context.getByPath(home.resolve(foldername).resolve("other")).join().get()
+                .mkdir("deeper", context.network, false, crypto).join();
+        FileWrapper deeper = context.getByPath(home.resolve(foldername).resolve("other").resolve("deeper")).join().get();
+        byte[] deeperData = randomData(2048);
+        deeper.uploadOrOverwriteFile("deeper.bin", new AsyncReader.ArrayBacked(deeperData), deeperData.length,
+                context.network, crypto, x -> {}, deeper.generateChildLocationsFromSize(deeperData.length, crypto.random)).join();
+
+        String destname = "dest";
+        context.getUserRoot().join().mkdir(destname, context.network, false, crypto).join();
+        FileWrapper dest = context.getByPath(home.resolve(destname)).join().get();
+        FileWrapper original = context.getByPath(home.resolve(foldername)).join().get();
+        original.copyTo(dest, context).join();
+
+        Path copyPath = home.resolve(destname).resolve(foldername);
+        for (Map.Entry<String, byte[]> e : files.entrySet()) {
+            FileWrapper copy = context.getByPath(copyPath.resolve(e.getKey())).join().get();
+            FileWrapper source = context.getByPath(home.resolve(foldername).resolve(e.getKey())).join().get();
+            Assert.assertTrue("Different base key", ! getMetaKey(copy).equals(getMetaKey(source)));
+            checkFileContents(e.getValue(), copy, context);
+        }
+        checkFileContents(nested, context.getByPath(copyPath.resolve("sub").resolve("nested.bin")).join().get(), context);
+        checkFileContents(deeperData, context.getByPath(copyPath.resolve("other").resolve("deeper")
+                .resolve("deeper.bin")).join().get(), context);
+
+        // simulate an interrupted copy, and then complete it
+        FileWrapper copiedSub = context.getByPath(copyPath.resolve("sub")).join().get();
+        context.getByPath(copyPath.resolve("sub").resolve("nested.bin")).join().get().remove(copiedSub, context).join();
+        FileWrapper copiedFolder = context.getByPath(copyPath).join().get();
+        context.getByPath(copyPath.resolve("small.bin")).join().get().remove(copiedFolder, context).join();
+        FileWrapper keptCopy = context.getByPath(copyPath.resolve("twochunks.bin")).join().get();
+
+        original = context.getByPath(home.resolve(foldername)).join().get();
+        dest = context.getByPath(home.resolve(destname)).join().get();
+        original.resumeCopyTo(dest, context).join();
+
+        checkFileContents(files.get("small.bin"), context.getByPath(copyPath.resolve("small.bin")).join().get(), context);
+        checkFileContents(nested, context.getByPath(copyPath.resolve("sub").resolve("nested.bin")).join().get(), context);
+        FileWrapper stillCopied = context.getByPath(copyPath.resolve("twochunks.bin")).join().get();
+        Assert.assertTrue("Existing copies kept", getMetaKey(stillCopied).equals(getMetaKey(keptCopy)));
+        Set<FileWrapper> children = context.getByPath(copyPath).join().get().getChildren(context.network).join();
+        Assert.assertTrue("No duplicate children", children.size() == files.size() + 2);
+    }
+
     public static SymmetricKey getDataKey(FileWrapper file) {
         return file.getPointer().fileAccess.getDataKey(file.getPointer().capability.rBaseKey);
     }
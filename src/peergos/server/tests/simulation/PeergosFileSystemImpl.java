@@ -71,10 +71,10 @@ public class PeergosFileSystemImpl implements FileSystem {
         Set<String> userSet = Stream.of(user).collect(Collectors.toSet());
         switch (permission) {
             case READ:
-                userContext.shareReadAccessWith(path, userSet);
+                userContext.shareReadAccessWith(path, userSet).join();
                 return;
             case WRITE:
-                userContext.shareWriteAccessWith(path, userSet);
+                userContext.shareWriteAccessWith(path, userSet).join();
                 return;
         }
         throw new IllegalStateException();
@@ -0,0 +1,109 @@
+package peergos.server.tests.slow;
+
+import jnr.ffi.Pointer;
+import org.junit.*;
+import peergos.server.*;
+import peergos.server.fuse.*;
+import peergos.server.tests.*;
+import peergos.server.util.*;
+import peergos.shared.*;
+import peergos.shared.user.*;
+import peergos.shared.user.fs.*;
+
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class CachingPeergosFSTests {
+    private static final Args args = UserTests.buildArgs().with("useIPFS", "false");
+    private static final Random random = new Random(32);
+    private static NetworkAccess network;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        Main.PKI_INIT.main(args);
+        network = NetworkAccess.buildJava(args.getInt("port")).get();
+    }
+
+    private static UserContext signUp() throws Exception {
+        String username = "fuse" + random.nextInt(Integer.MAX_VALUE);
+        return UserContext.ensureSignedUp(username, username, network, Crypto.initJava()).get();
+    }
+
+    private static Pointer wrap(byte[] data) {
+        return Pointer.wrap(jnr.ffi.Runtime.getSystemRuntime(), ByteBuffer.wrap(data));
+    }
+
+    private static void write(PeergosFS fs, String path, byte[] data, int writeSize) {
+        for (int offset = 0; offset < data.length; offset += writeSize) {
+            int size = Math.min(writeSize, data.length - offset);
+            byte[] section = Arrays.copyOfRange(data, offset, offset + size);
+            Assert.assertEquals("Write", size, fs.write(path, wrap(section), size, offset, null));
+        }
+    }
+
+    private static byte[] read(PeergosFS fs, String path, int size, int readSize) {
+        byte[] res = new byte[size];
+        for (int offset = 0; offset < size; offset += readSize) {
+            int toRead = Math.min(readSize, size - offset);
+            byte[] section = new byte[toRead];
+            Assert.assertEquals("Read", toRead, fs.read(path, wrap(section), toRead, offset, null));
+            System.arraycopy(section, 0, res, offset, toRead);
+        }
+        return res;
+    }
+
+    @Test
+    public void writeMoreChunksThanCached() throws Exception {
+        UserContext context = signUp();
+        CachingPeergosFS fs = new CachingPeergosFS(context, 2, 3_600_000);
+        String path = "/" + context.username + "/large.bin";
+        Assert.assertEquals(0, fs.create(path, 0644, null));
+
+        byte[] data = new byte[3 * Chunk.MAX_SIZE + 1024];
+        random.nextBytes(data);
+        write(fs, path, data, 1024 * 1024);
+        Assert.assertTrue("Read through cache", Arrays.equals(data, read(fs, path, data.length, 128 * 1024)));
+        Assert.assertEquals("Release", 0, fs.release(path, null));
+
+        PeergosFS uncached = new PeergosFS(context);
+        Assert.assertTrue("Committed", Arrays.equals(data, read(uncached, path, data.length, 1024 * 1024)));
+    }
+
+    @Test
+    public void concurrentFilesWithSmallCache() throws Exception {
+        UserContext context = signUp();
+        CachingPeergosFS fs = new CachingPeergosFS(context, 2, 100);
+        int files = 3;
+        List<byte[]> contents = new ArrayList<>();
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            byte[] data = new byte[Chunk.MAX_SIZE + 512 * 1024];
+            random.nextBytes(data);
+            contents.add(data);
+            String path = "/" + context.username + "/file" + i;
+            paths.add(path);
+            Assert.assertEquals(0, fs.create(path, 0644, null));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(files);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            String path = paths.get(i);
+            byte[] data = contents.get(i);
+            results.add(pool.submit(() -> {
+                write(fs, path, data, 256 * 1024);
+                boolean matches = Arrays.equals(data, read(fs, path, data.length, 64 * 1024));
+                return matches && fs.release(path, null) == 0;
+            }));
+        }
+        for (Future<Boolean> result : results)
+            Assert.assertTrue("Written and read back", result.get(5, TimeUnit.MINUTES));
+        pool.shutdown();
+
+        PeergosFS uncached = new PeergosFS(context);
+        for (int i = 0; i < files; i++)
+            Assert.assertTrue("Committed", Arrays.equals(contents.get(i),
+                    read(uncached, paths.get(i), contents.get(i).length, 1024 * 1024)));
+    }
+}
@@ -0,0 +1,161 @@
+package peergos.server.tests.slow;
+
+import jnr.ffi.Pointer;
+import org.junit.*;
+import peergos.server.*;
+import peergos.server.fuse.*;
+import peergos.server.tests.*;
+import peergos.server.util.*;
+import peergos.shared.*;
+import peergos.shared.cbor.*;
+import peergos.shared.storage.controller.*;
+import peergos.shared.user.*;
+import peergos.shared.util.*;
+import ru.serce.jnrfuse.*;
+import ru.serce.jnrfuse.struct.*;
+
+import java.net.*;
+import java.nio.*;
+import java.util.*;
+
+public class PeergosFSTests {
+    private static final long QUOTA = 3L * 1024 * 1024 * 1024;
+    private static final Args args = UserTests.buildArgs()
+            .with("useIPFS", "false")
+            .with("default-quota", Long.toString(QUOTA));
+    private static final Random random = new Random(33);
+    private static NetworkAccess network;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        Main.PKI_INIT.main(args);
+        network = NetworkAccess.buildJava(args.getInt("port")).get();
+    }
+
+    private static UserContext signUp() throws Exception {
+        String username = "fuse" + random.nextInt(Integer.MAX_VALUE);
+        return UserContext.ensureSignedUp(username, username, network, Crypto.initJava()).get();
+    }
+
+    @Test
+    public void statfsReportsUserQuota() throws Exception {
+        UserContext context = signUp();
+        PeergosFS fs = new PeergosFS(context);
+        Statvfs stat = new Statvfs(jnr.ffi.Runtime.getSystemRuntime());
+        long expectedBlocks = QUOTA / 4096;
+        long deadline = System.currentTimeMillis() + 30_000;
+        // the quota is fetched in the background
+        while (true) {
+            Assert.assertEquals(0, fs.statfs("/", stat));
+            if (stat.f_blocks.get() == expectedBlocks || System.currentTimeMillis() > deadline)
+                break;
+            Thread.sleep(100);
+        }
+        Assert.assertEquals("Quota", expectedBlocks, stat.f_blocks.get());
+        Assert.assertTrue("Free space", stat.f_bavail.get() <= expectedBlocks && stat.f_bavail.get() > 0);
+    }
+
+    @Test
+    public void quotaRequiresOwnerSignature() throws Exception {
+        UserContext context = signUp();
+        Assert.assertEquals("Quota", QUOTA, (long) context.getQuota().get());
+
+        String quotaUrl = "http://localhost:" + args.getInt("port") + "/" + Constants.ADMIN_URL + InstanceAdmin.HTTP.QUOTA;
+        HttpURLConnection missing = (HttpURLConnection) new URL(quotaUrl).openConnection();
+        Assert.assertEquals("Missing parameters", 400, missing.getResponseCode());
+
+        byte[] unsigned = new CborObject.CborLong(System.currentTimeMillis()).serialize();
+        HttpURLConnection forged = (HttpURLConnection) new URL(quotaUrl + "?owner=" + context.signer.publicKeyHash
+                + "&auth=" + ArrayOps.bytesToHex(unsigned)).openConnection();
+        Assert.assertEquals("Unsigned time", 400, forged.getResponseCode());
+    }
+
+    private static long size(PeergosFS fs, String path) {
+        FileStat stat = new FileStat(jnr.ffi.Runtime.getSystemRuntime());
+        int res = fs.getattr(path, stat);
+        return res == 0 ? stat.st_size.longValue() : res;
+    }
+
+    private static Set<String> list(PeergosFS fs, String dir) {
+        Set<String> names = new HashSet<>();
+        FuseFillDir filler = (buf, name, stat, offset) -> {
+            StringBuilder b = new StringBuilder();
+            while (name.hasRemaining()) {
+                byte c = name.get();
+                if (c == 0)
+                    break;
+                b.append((char) c);
+            }
+            names.add(b.toString());
+            return 0;
+        };
+        Assert.assertEquals(0, fs.readdir(dir, null, filler, 0, null));
+        return names;
+    }
+
+    @Test
+    public void statCacheSeesMutations() throws Exception {
+        UserContext context = signUp();
+        PeergosFS fs = new PeergosFS(context);
+        String home = "/" + context.username;
+        String a = home + "/a.txt", b = home + "/b.txt";
+        int missing = -ErrorCodes.ENOENT();
+        Assert.assertEquals("Missing", missing, size(fs, a));
+
+        Assert.assertEquals(0, fs.create(a, 0644, null));
+        Assert.assertEquals("Created", 0, size(fs, a));
+
+        byte[] data = new byte[10];
+        random.nextBytes(data);
+        Pointer buf = Pointer.wrap(jnr.ffi.Runtime.getSystemRuntime(), ByteBuffer.wrap(data));
+        Assert.assertEquals(data.length, fs.write(a, buf, data.length, 0, null));
+        Assert.assertEquals("Written", data.length, size(fs, a));
+
+        Assert.assertEquals(0, fs.rename(a, b));
+        Assert.assertEquals("Renamed from", missing, size(fs, a));
+        Assert.assertEquals("Renamed to", data.length, size(fs, b));
+
+        Assert.assertEquals(0, fs.unlink(b));
+        Assert.assertEquals("Removed", missing, size(fs, b));
+    }
+
+    @Test
+    public void listingCacheSeesMutations() throws Exception {
+        UserContext context = signUp();
+        PeergosFS fs = new PeergosFS(context);
+        String home = "/" + context.username;
+        Set<String> initial = list(fs, home);
+        Assert.assertFalse(initial.contains("dir"));
+
+        Assert.assertEquals(0, fs.mkdir(home + "/dir", 0755));
+        Assert.assertTrue("Made dir", list(fs, home).contains("dir"));
+        Assert.assertFalse(list(fs, home + "/dir").contains("file"));
+
+        Assert.assertEquals(0, fs.create(home + "/dir/file", 0644, null));
+        Assert.assertTrue("Created file", list(fs, home + "/dir").contains("file"));
+
+        Assert.assertEquals(0, fs.rename(home + "/dir/file", home + "/dir/renamed"));
+        Set<String> renamed = list(fs, home + "/dir");
+        Assert.assertTrue("Renamed", renamed.contains("renamed") && ! renamed.contains("file"));
+
+        Assert.assertEquals(0, fs.unlink(home + "/dir/renamed"));
+        Assert.assertFalse("Removed file", list(fs, home + "/dir").contains("renamed"));
+        Assert.assertEquals(0, fs.rmdir(home + "/dir"));
+        Assert.assertEquals("Removed dir", initial, list(fs, home));
+    }
+
+    @Test
+    public void cacheSeesOtherClientsChanges() throws Exception {
+        UserContext context = signUp();
+        PeergosFS fs = new PeergosFS(context);
+        String home = "/" + context.username;
+        Assert.assertFalse(list(fs, home).contains("remote"));
+        Assert.assertFalse("Cached listing", list(fs, home).contains("remote"));
+
+        UserContext other = UserContext.signIn(context.username, context.username, network.clear(), Crypto.initJava()).get();
+        other.getUserRoot().get().mkdir("remote", other.network, false, other.crypto).get();
+        // cached entries are revalidated against the writer's pointer once it is older than the pointer TTL
+        Thread.sleep(1_100);
+        Assert.assertTrue("Other client's change", list(fs, home).contains("remote"));
+    }
+}
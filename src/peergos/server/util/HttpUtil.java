@@ -1,5 +1,7 @@
 package peergos.server.util;
 
+import peergos.shared.util.*;
+
 import java.util.*;
 
 public class HttpUtil {
@@ -25,4 +27,68 @@ public class HttpUtil {
         }
         return res;
     }
+
+    /** Check whether an If-None-Match header value matches an entity tag, using the weak comparison
+     *
+     * @param header the header value, which may be a comma separated list of tags, or "*"
+     * @param etag the quoted entity tag of the current representation
+     * @return
+     */
+    public static boolean matchesETag(String header, String etag) {
+        if (header == null)
+            return false;
+        for (String tag : header.split(",")) {
+            String trimmed = tag.trim();
+            if (trimmed.equals("*"))
+                return true;
+            if (trimmed.startsWith("W/"))
+                trimmed = trimmed.substring(2);
+            if (trimmed.equals(etag))
+                return true;
+        }
+        return false;
+    }
+
+    /** Parse a single byte range from a Range header
+     *
+     * @param header the Range header value
+     * @param size the size of the resource in bytes
+     * @return The inclusive start and end of the requested range, or empty if the header is absent, malformed, or
+     * requests multiple ranges, in which case the whole resource should be returned
+     * @throws IllegalArgumentException if the range is unsatisfiable
+     */
+    public static Optional<Pair<Long, Long>> parseRange(String header, long size) {
+        if (header == null || ! header.startsWith("bytes=") || header.contains(","))
+            return Optional.empty();
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf("-");
+        if (dash < 0)
+            return Optional.empty();
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start, end;
+            if (first.isEmpty()) {
+                if (last.isEmpty())
+                    return Optional.empty();
+                // suffix range of the last N bytes
+                long suffix = Long.parseLong(last);
+                if (suffix == 0)
+                    throw new IllegalArgumentException("Unsatisfiable range: " + header);
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                long requestedEnd = last.isEmpty() ? size - 1 : Long.parseLong(last);
+                if (requestedEnd < start)
+                    return Optional.empty();
+                end = Math.min(requestedEnd, size - 1);
+            }
+            if (start >= size)
+                throw new IllegalArgumentException("Unsatisfiable range: " + header);
+            return Optional.of(new Pair<>(start, end));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
 }
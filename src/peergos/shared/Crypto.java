@@ -1,12 +1,14 @@
 package peergos.shared;
 
 import jsinterop.annotations.*;
+import peergos.shared.crypto.*;
 import peergos.shared.crypto.asymmetric.*;
 import peergos.shared.crypto.asymmetric.curve25519.*;
 import peergos.shared.crypto.hash.*;
 import peergos.shared.crypto.random.*;
 import peergos.shared.crypto.symmetric.*;
 
+import java.util.concurrent.*;
 import java.util.function.*;
 
 public class Crypto {
@@ -54,11 +56,38 @@ public class Crypto {
         return init(() -> new Crypto(random, new ScryptJS(), symmetricProvider, signer, boxer), false);
     }
 
+    /** Initialise java crypto which runs async encryption and signing on the calling thread, so that futures from
+     *  purely local operations are complete when they are returned, as callers may rely on.
+     *
+     */
     public static Crypto initJava() {
+        return initJava(CryptoExecutor.INLINE, 0);
+    }
+
+    /**
+     *
+     * @param cryptoPool The executor to run async encryption and signing on, e.g. ForkJoinPool.commonPool()::execute
+     */
+    public static Crypto initJava(Executor cryptoPool) {
+        return initJava(cryptoPool, 0);
+    }
+
+    /**
+     *
+     * @param cryptoPool The executor to run async encryption and signing, and parallel scrypt lanes on
+     * @param maxIdleScryptBuffers The number of scrypt scratch buffers (128 MiB each for logins) to retain between
+     *                             calls, which only helps processes that derive many keys
+     */
+    public static Crypto initJava(Executor cryptoPool, int maxIdleScryptBuffers) {
+        return initJava(new CryptoExecutor(cryptoPool), maxIdleScryptBuffers);
+    }
+
+    private static Crypto initJava(CryptoExecutor executor, int maxIdleScryptBuffers) {
         SafeRandom.Java random = new SafeRandom.Java();
-        Salsa20Poly1305.Java symmetricProvider = new Salsa20Poly1305.Java();
-        Ed25519.Java signer = new Ed25519.Java();
+        Salsa20Poly1305 symmetricProvider = new FastSalsa20Poly1305(executor);
+        Ed25519.Java signer = new Ed25519.Java(executor);
         Curve25519 boxer = new Curve25519.Java();
-        return init(() -> new Crypto(random, new ScryptJava(), symmetricProvider, signer, boxer), true);
+        ScryptJava hasher = new ScryptJava(new ScryptEngine(executor, maxIdleScryptBuffers));
+        return init(() -> new Crypto(random, hasher, symmetricProvider, signer, boxer), true);
     }
 }
@@ -22,6 +22,7 @@ import java.net.*;
 import java.time.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.*;
 import java.util.stream.*;
 
 /**
@@ -42,6 +43,9 @@ public class NetworkAccess {
     public final List<String> usernames;
     private final LocalDateTime creationTime;
     private final boolean isJavascript;
+    private static final int CHAMP_WARM_DEPTH = 2;
+    private static final int CHAMP_WARM_BLOCKS = 100;
+    private final LRUCache<Multihash, CompletableFuture<Boolean>> warmedChamps = new LRUCache<>(100);
 
     public NetworkAccess(CoreNode coreNode,
                          SocialNetwork social,
@@ -63,9 +67,29 @@ public class NetworkAccess {
                          InstanceAdmin instanceAdmin,
                          List<String> usernames,
                          boolean isJavascript) {
+        this(coreNode, social, dhtClient, mutable, tree, synchronizer, instanceAdmin, usernames, isJavascript, true);
+    }
+
+    /**
+     *
+     * @param verifyBlocks whether to verify the hashes of blocks from dhtClient, which networks derived from this one
+     *                     don't need, as their storage is built on our already verifying storage
+     */
+    private NetworkAccess(CoreNode coreNode,
+                          SocialNetwork social,
+                          ContentAddressedStorage dhtClient,
+                          MutablePointers mutable,
+                          MutableTree tree,
+                          WriteSynchronizer synchronizer,
+                          InstanceAdmin instanceAdmin,
+                          List<String> usernames,
+                          boolean isJavascript,
+                          boolean verifyBlocks) {
         this.coreNode = coreNode;
         this.social = social;
-        this.dhtClient = new HashVerifyingStorage(dhtClient, isJavascript ? new ScryptJS() : new ScryptJava());
+        this.dhtClient = verifyBlocks ?
+                new HashVerifyingStorage(dhtClient, isJavascript ? new ScryptJS() : new ScryptJava()) :
+                dhtClient;
         this.mutable = mutable;
         this.tree = tree;
         this.synchronizer = synchronizer;
@@ -80,7 +104,7 @@ public class NetworkAccess {
     }
 
     public NetworkAccess withCorenode(CoreNode newCore) {
-        return new NetworkAccess(newCore, social, dhtClient, mutable, tree, synchronizer, instanceAdmin, usernames, isJavascript);
+        return new NetworkAccess(newCore, social, dhtClient, mutable, tree, synchronizer, instanceAdmin, usernames, isJavascript, false);
     }
 
     @JsMethod
@@ -93,14 +117,25 @@ public class NetworkAccess {
     public NetworkAccess clear() {
         WriteSynchronizer synchronizer = new WriteSynchronizer(mutable, dhtClient);
         MutableTree mutableTree = new MutableTreeImpl(mutable, dhtClient, synchronizer);
-        return new NetworkAccess(coreNode, social, dhtClient, mutable, mutableTree, synchronizer, instanceAdmin, usernames, isJavascript);
+        return new NetworkAccess(coreNode, social, dhtClient, mutable, mutableTree, synchronizer, instanceAdmin, usernames, isJavascript, false);
     }
 
     public NetworkAccess withMutablePointerCache(int ttl) {
         CachingPointers mutable = new CachingPointers(this.mutable, ttl);
         WriteSynchronizer synchronizer = new WriteSynchronizer(mutable, dhtClient);
         MutableTree mutableTree = new MutableTreeImpl(mutable, dhtClient, synchronizer);
-        return new NetworkAccess(coreNode, social, dhtClient, mutable, mutableTree, synchronizer, instanceAdmin, usernames, isJavascript);
+        return new NetworkAccess(coreNode, social, dhtClient, mutable, mutableTree, synchronizer, instanceAdmin, usernames, isJavascript, false);
+    }
+
+    /**
+     *
+     * @param wrapper applied to the current block storage, e.g. to add a cache
+     */
+    public NetworkAccess withStorage(Function<ContentAddressedStorage, ContentAddressedStorage> wrapper) {
+        ContentAddressedStorage dhtClient = wrapper.apply(this.dhtClient);
+        WriteSynchronizer synchronizer = new WriteSynchronizer(mutable, dhtClient);
+        MutableTree mutableTree = new MutableTreeImpl(mutable, dhtClient, synchronizer);
+        return new NetworkAccess(coreNode, social, dhtClient, mutable, mutableTree, synchronizer, instanceAdmin, usernames, isJavascript, false);
     }
 
     public static CoreNode buildProxyingCorenode(HttpPoster poster, Multihash pkiServerNodeId) {
@@ -120,6 +155,9 @@ public class NetworkAccess {
         Multihash pkiServerNodeId = Cid.decode(pkiNodeId);
         System.setOut(new ConsolePrintStream());
         System.setErr(new ConsolePrintStream());
+        // idle buffers would pin memory in the browser for the life of the page
+        BufferPool.CHUNKS.setMaxPooled(0);
+        BufferPool.FRAGMENTS.setMaxPooled(0);
         JavaScriptPoster relative = new JavaScriptPoster(false);
         JavaScriptPoster absolute = new JavaScriptPoster(true);
 
@@ -274,31 +312,63 @@ public class NetworkAccess {
                 .collect(Collectors.toList()));
     }
 
+    /** Retrieve the cryptree nodes for many capabilities. All the champ lookups are made in a single batched request,
+     *  and the results are verified and the lookups repeated locally, so a remote server can't lie about the mappings.
+     *
+     */
     public CompletableFuture<List<RetrievedCapability>> retrieveAllMetadata(List<AbsoluteCapability> links, Snapshot current) {
-        List<CompletableFuture<Optional<RetrievedCapability>>> all = links.stream()
-                .map(link -> {
-                    PublicKeyHash owner = link.owner;
-                    PublicKeyHash writer = link.writer;
-                    byte[] mapKey = link.getMapKey();
-                    return current.withWriter(owner, writer, this).thenCompose(version ->
-                            tree.get(version.get(writer).props, owner, writer, mapKey))
-                            .thenCompose(key -> {
-                                if (key.isPresent())
-                                    return dhtClient.get(key.get())
-                                            .thenApply(dataOpt ->  dataOpt
-                                                    .map(cbor -> new RetrievedCapability(
-                                                            link,
-                                                            CryptreeNode.fromCbor(cbor, link.rBaseKey, key.get()))));
-                                LOG.severe("Couldn't download link at: " + new Location(owner, writer, mapKey));
-                                Optional<RetrievedCapability> result = Optional.empty();
-                                return CompletableFuture.completedFuture(result);
+        if (links.isEmpty())
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        Map<PublicKeyHash, Set<PublicKeyHash>> writersByOwner = new HashMap<>();
+        for (AbsoluteCapability link : links)
+            writersByOwner.computeIfAbsent(link.owner, o -> new HashSet<>()).add(link.writer);
+        return Futures.reduceAll(writersByOwner.entrySet(), current,
+                (s, e) -> s.withWriters(e.getKey(), e.getValue(), this), (a, b) -> b)
+                .thenCompose(version -> {
+                    List<Pair<Multihash, byte[]>> lookups = links.stream()
+                            .flatMap(link -> version.get(link.writer).props.tree
+                                    .map(root -> Stream.of(new Pair<>(root, link.getMapKey())))
+                                    .orElse(Stream.empty()))
+                            .collect(Collectors.toList());
+                    return dhtClient.getChampLookupBlocks(lookups)
+                            .exceptionally(t -> {
+                                LOG.log(Level.WARNING, "Batched champ lookup failed, falling back to individual lookups", t);
+                                return Collections.emptyList();
+                            }).thenCompose(blocks -> {
+                                // blocks are addressed by their locally computed hashes, anything else is fetched
+                                BufferedStorage prefetched = new BufferedStorage(dhtClient);
+                                prefetched.put(null, null, Collections.emptyList(), blocks, null);
+                                MutableTree prefetchedTree = new MutableTreeImpl(mutable, prefetched, synchronizer);
+                                List<CompletableFuture<Optional<RetrievedCapability>>> all = links.stream()
+                                        .map(link -> retrieveMetadata(link, version, prefetchedTree, prefetched))
+                                        .collect(Collectors.toList());
+                                return Futures.combineAll(all);
                             });
-                }).collect(Collectors.toList());
+                }).thenApply(optSet -> optSet.stream()
+                        .filter(Optional::isPresent)
+                        .map(Optional::get)
+                        .collect(Collectors.toList()));
+    }
 
-        return Futures.combineAll(all).thenApply(optSet -> optSet.stream()
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .collect(Collectors.toList()));
+    private static CompletableFuture<Optional<RetrievedCapability>> retrieveMetadata(AbsoluteCapability link,
+                                                                                      Snapshot version,
+                                                                                      MutableTree tree,
+                                                                                      ContentAddressedStorage dht) {
+        PublicKeyHash owner = link.owner;
+        PublicKeyHash writer = link.writer;
+        byte[] mapKey = link.getMapKey();
+        return tree.get(version.get(writer).props, owner, writer, mapKey)
+                .thenCompose(key -> {
+                    if (key.isPresent())
+                        return dht.get(key.get())
+                                .thenApply(dataOpt ->  dataOpt
+                                        .map(cbor -> new RetrievedCapability(
+                                                link,
+                                                CryptreeNode.fromCbor(cbor, link.rBaseKey, key.get()))));
+                    LOG.severe("Couldn't download link at: " + new Location(owner, writer, mapKey));
+                    Optional<RetrievedCapability> result = Optional.empty();
+                    return CompletableFuture.completedFuture(result);
+                });
     }
 
     public CompletableFuture<Set<FileWrapper>> retrieveAll(List<EntryPoint> entries) {
@@ -310,13 +380,37 @@ public class NetworkAccess {
                 (a, b) -> Stream.concat(a.stream(), b.stream()).collect(Collectors.toSet()));
     }
 
+    /** Fetch the top levels of a champ into the block cache in a single request, once per champ root, so that the
+     *  first lookups in it don't need a round trip per level. This does nothing unless the block storage caches.
+     *
+     */
+    public CompletableFuture<Boolean> warmChamp(WriterData base) {
+        if (! base.tree.isPresent() || ! dhtClient.isCaching())
+            return CompletableFuture.completedFuture(true);
+        Multihash root = base.tree.get();
+        synchronized (warmedChamps) {
+            CompletableFuture<Boolean> existing = warmedChamps.get(root);
+            if (existing != null)
+                return existing;
+            CompletableFuture<Boolean> res = dhtClient.getBlockGraph(root, CHAMP_WARM_DEPTH, CHAMP_WARM_BLOCKS)
+                    .thenApply(blocks -> true)
+                    .exceptionally(t -> false);
+            warmedChamps.put(root, res);
+            return res;
+        }
+    }
+
     public CompletableFuture<Optional<FileWrapper>> retrieveEntryPoint(EntryPoint e) {
         return synchronizer.getValue(e.pointer.owner, e.pointer.writer)
-                .thenCompose(version -> getMetadata(version.get(e.pointer.writer).props, e.pointer)
-                        .thenApply(faOpt ->faOpt.map(fa -> new FileWrapper(Optional.empty(),
-                                new RetrievedCapability(e.pointer, fa),
-                                e.pointer.wBaseKey.map(wBase -> fa.getSigner(e.pointer.rBaseKey, wBase, Optional.empty())),
-                                e.ownerName, version))))
+                .thenCompose(version -> {
+                    // warm the cache in the background for later lookups, rather than delaying this one
+                    warmChamp(version.get(e.pointer.writer).props);
+                    return getMetadata(version.get(e.pointer.writer).props, e.pointer)
+                            .thenApply(faOpt ->faOpt.map(fa -> new FileWrapper(Optional.empty(),
+                                    new RetrievedCapability(e.pointer, fa),
+                                    e.pointer.wBaseKey.map(wBase -> fa.getSigner(e.pointer.rBaseKey, wBase, Optional.empty())),
+                                    e.ownerName, version)));
+                })
                 .exceptionally(t -> {
                     LOG.log(Level.SEVERE, t.getMessage(), t);
                     return Optional.empty();
@@ -374,13 +468,16 @@ public class NetworkAccess {
                 .mapToObj(i -> fragments.stream().skip(FRAGMENTs_PER_QUERY * i).limit(FRAGMENTs_PER_QUERY).collect(Collectors.toList()))
                 .collect(Collectors.toList());
         List<CompletableFuture<List<Multihash>>> futures = grouped.stream()
-                .map(g -> bulkUploadFragments(
-                        g,
-                        owner,
-                        writer.publicKeyHash,
-                        g.stream().map(f -> writer.secret.signatureOnly(f.data)).collect(Collectors.toList()),
-                        tid
-                ).thenApply(hash -> {
+                .map(g -> Futures.combineAllInOrder(g.stream()
+                        .map(f -> writer.secret.signatureOnlyAsync(f.data))
+                        .collect(Collectors.toList()))
+                        .thenCompose(signatures -> bulkUploadFragments(
+                                g,
+                                owner,
+                                writer.publicKeyHash,
+                                signatures,
+                                tid
+                        )).thenApply(hash -> {
                     if (progressCounter != null)
                         progressCounter.accept((long)(g.stream().mapToInt(f -> f.data.length).sum()));
                     return hash;
@@ -435,6 +532,38 @@ public class NetworkAccess {
         }
     }
 
+    /** Upload many new metadata blobs for a writer and commit them to its champ in a single update
+     *
+     * @param chunks pairs of map key and metadata to store under it
+     */
+    public CompletableFuture<Snapshot> uploadChunks(Snapshot current,
+                                                    Committer committer,
+                                                    List<Pair<byte[], CryptreeNode>> chunks,
+                                                    PublicKeyHash owner,
+                                                    SigningPrivateKeyAndPublicHash writer,
+                                                    TransactionId tid) {
+        if (chunks.isEmpty())
+            return CompletableFuture.completedFuture(current);
+        if (! current.versions.containsKey(writer.publicKeyHash))
+            throw new IllegalStateException("Trying to commit to incorrect writer!");
+        List<byte[]> metaBlobs = chunks.stream()
+                .map(p -> p.right.serialize())
+                .collect(Collectors.toList());
+        List<byte[]> signatures = metaBlobs.stream()
+                .map(writer.secret::signatureOnly)
+                .collect(Collectors.toList());
+        CommittedWriterData version = current.get(writer);
+        return dhtClient.put(owner, writer.publicKeyHash, signatures, metaBlobs, tid)
+                .thenCompose(blobHashes -> {
+                    Map<ByteArrayWrapper, Pair<MaybeMultihash, Multihash>> updates = new HashMap<>();
+                    for (int i = 0; i < chunks.size(); i++)
+                        updates.put(new ByteArrayWrapper(chunks.get(i).left),
+                                new Pair<>(chunks.get(i).right.committedHash(), blobHashes.get(i)));
+                    return tree.putAll(version.props, owner, writer, updates, tid);
+                }).thenCompose(wd -> committer.commit(owner, writer, wd, version, tid))
+                .thenApply(committed -> current.withVersion(writer.publicKeyHash, committed.get(writer)));
+    }
+
     public CompletableFuture<Snapshot> addPreexistingChunk(CryptreeNode metadata,
                                                            PublicKeyHash owner,
                                                            byte[] mapKey,
@@ -9,10 +9,17 @@ package peergos.shared.cbor;
 import static peergos.shared.cbor.CborConstants.*;
 import static peergos.shared.cbor.CborType.*;
 
+import peergos.shared.io.ipfs.cid.*;
+import peergos.shared.io.ipfs.multihash.*;
+
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Provides a decoder capable of handling CBOR encoded data from a {@link InputStream}.
@@ -32,6 +39,17 @@ public class CborDecoder {
         m_is = (is instanceof PushbackInputStream) ? (PushbackInputStream) is : new PushbackInputStream(is);
     }
 
+    /**
+     * Creates a new {@link CborDecoder} instance reading from a slice of an array, without copying it.
+     *
+     * @param data the array containing the CBOR-encoded data;
+     * @param offset the index of the first byte to decode;
+     * @param length the maximum number of bytes to decode.
+     */
+    public CborDecoder(byte[] data, int offset, int length) {
+        this(new ByteArrayInputStream(data, offset, length));
+    }
+
     private static void fail(String msg, Object... args) throws IOException {
         throw new IOException(msg + args);
     }
@@ -341,6 +359,129 @@ public class CborDecoder {
         return null;
     }
 
+    /**
+     * Skips over the next complete data item, including any nested items, without materializing it.
+     *
+     * @param maxGroupSize the maximum number of elements in any array or map, and of bytes in any string.
+     * @throws IOException in case of I/O problems, or invalid CBOR, in the underlying input stream.
+     */
+    public void skipValue(int maxGroupSize) throws IOException {
+        walk(maxGroupSize, null);
+    }
+
+    /**
+     * Reads the next complete data item, only decoding the merkle links it contains. This is equivalent to
+     * <code>CborObject.deserialize(decoder, maxGroupSize).links()</code>, but doesn't build the object tree.
+     *
+     * @param maxGroupSize the maximum number of elements in any array or map, and of bytes in any string.
+     * @return the targets of the merkle links, in the order they are encoded.
+     * @throws IOException in case of I/O problems, or invalid CBOR, in the underlying input stream.
+     */
+    public List<Multihash> readLinks(int maxGroupSize) throws IOException {
+        List<Multihash> links = new ArrayList<>();
+        walk(maxGroupSize, links);
+        return links;
+    }
+
+    /**
+     * Reads the target of a merkle link, after its tag has been read.
+     *
+     * @param maxLen the maximum length of the encoded target.
+     * @return the link target.
+     * @throws IOException in case of I/O problems, or invalid CBOR, in the underlying input stream.
+     */
+    public Multihash readLinkTarget(int maxLen) throws IOException {
+        CborType type = peekType();
+        if (type == null)
+            throw new EOFException();
+        if (type.getMajorType() == TYPE_TEXT_STRING)
+            return Cid.decode(readTextString(maxLen));
+        if (type.getMajorType() == TYPE_BYTE_STRING) {
+            byte[] bytes = readByteString(maxLen);
+            if (bytes.length > 0 && bytes[0] == 0) // multibase for binary
+                return Cid.cast(Arrays.copyOfRange(bytes, 1, bytes.length));
+            fail("Unknown Multibase decoding Merkle link!");
+        }
+        fail("Invalid type for merkle link: " + type);
+        return null;
+    }
+
+    /**
+     * Walks the next complete data item, collecting the merkle links in any array or map value if links is present.
+     */
+    private void walk(int maxGroupSize, List<Multihash> links) throws IOException {
+        CborType type = peekType();
+        if (type == null)
+            throw new EOFException();
+        switch (type.getMajorType()) {
+            case TYPE_UNSIGNED_INTEGER:
+            case TYPE_NEGATIVE_INTEGER:
+                readInt();
+                return;
+            case TYPE_BYTE_STRING:
+                skipFully(checkLength(readByteStringLength(), maxGroupSize));
+                return;
+            case TYPE_TEXT_STRING:
+                skipFully(checkLength(readTextStringLength(), maxGroupSize));
+                return;
+            case TYPE_FLOAT_SIMPLE: {
+                int info = type.getAdditionalInfo();
+                if (info != NULL && info != TRUE && info != FALSE)
+                    fail("Unimplemented simple type! " + info);
+                m_is.read();
+                return;
+            }
+            case TYPE_ARRAY: {
+                long nItems = checkLength(readArrayLength(), maxGroupSize);
+                for (long i = 0; i < nItems; i++)
+                    walk(maxGroupSize, links);
+                return;
+            }
+            case TYPE_MAP: {
+                long nValues = checkLength(readMapLength(), maxGroupSize);
+                for (long i = 0; i < nValues; i++) {
+                    // links in map keys are not included, consistent with CborMap.links()
+                    walk(maxGroupSize, null);
+                    walk(maxGroupSize, links);
+                }
+                return;
+            }
+            case TYPE_TAG: {
+                long tag = readTag();
+                if (tag != CborObject.LINK_TAG)
+                    fail("Unknown TAG in CBOR: " + tag);
+                if (links == null)
+                    walk(maxGroupSize, null);
+                else
+                    links.add(readLinkTarget(maxGroupSize));
+                return;
+            }
+            default:
+                fail("Unimplemented cbor type: " + type);
+        }
+    }
+
+    private static long checkLength(long len, int maxGroupSize) throws IOException {
+        if (len < 0)
+            fail("Infinite-length values not supported!");
+        if (len > maxGroupSize)
+            fail("Invalid cbor: more elements than original bytes!");
+        return len;
+    }
+
+    private void skipFully(long len) throws IOException {
+        long remaining = len;
+        while (remaining > 0) {
+            long skipped = m_is.skip(remaining);
+            if (skipped <= 0) {
+                if (m_is.read() < 0)
+                    throw new EOFException();
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
     /**
      * Reads the next major type from the underlying input stream, and verifies whether it matches the given expectation.
      *
@@ -131,6 +131,19 @@ public class CborEncoder {
         writeString(TYPE_BYTE_STRING, bytes);
     }
 
+    /**
+     * Writes the header of a definite-length byte string in canonical CBOR-format.
+     * <p>
+     * After calling this method, one is expected to write exactly <tt>length</tt> raw bytes.
+     * </p>
+     *
+     * @param length the length of the byte string that will follow.
+     * @throws IOException in case of I/O problems writing the CBOR-encoded value to the underlying output stream.
+     */
+    public void writeByteStringHeader(long length) throws IOException {
+        writeType(TYPE_BYTE_STRING, length);
+    }
+
     /**
      * Writes the start of an indefinite-length byte string.
      * <p>
@@ -19,11 +19,18 @@ public interface CborObject extends Cborable {
 
     default byte[] toByteArray() {
         ByteArrayOutputStream bout = new ByteArrayOutputStream();
-        CborEncoder encoder = new CborEncoder(bout);
-        serialize(encoder);
+        writeTo(bout);
         return bout.toByteArray();
     }
 
+    /** Encode directly into a caller supplied stream, e.g. a reused buffer
+     *
+     * @param out
+     */
+    default void writeTo(OutputStream out) {
+        serialize(new CborEncoder(out));
+    }
+
     @Override
     default CborObject toCbor() {
         return this;
@@ -35,6 +42,35 @@ public interface CborObject extends Cborable {
         return deserialize(new CborDecoder(new ByteArrayInputStream(cbor)), cbor.length);
     }
 
+    static CborObject fromByteArray(byte[] cbor, int offset, int length) {
+        return deserialize(new CborDecoder(cbor, offset, length), length);
+    }
+
+    /** Extract the merkle links from serialized cbor, without building the object tree
+     *
+     * @param cbor
+     * @return The same links as fromByteArray(cbor).links()
+     */
+    static List<Multihash> getLinks(byte[] cbor) {
+        return getLinks(cbor, 0, cbor.length);
+    }
+
+    static List<Multihash> getLinks(byte[] cbor, int offset, int length) {
+        return readLinks(new CborDecoder(cbor, offset, length), length);
+    }
+
+    static List<Multihash> readLinks(InputStream in, int maxBytes) {
+        return readLinks(new CborDecoder(in), maxBytes);
+    }
+
+    static List<Multihash> readLinks(CborDecoder decoder, int maxGroupSize) {
+        try {
+            return decoder.readLinks(maxGroupSize);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     static CborObject read(InputStream in, int maxBytes) {
         return deserialize(new CborDecoder(in), maxBytes);
     }
@@ -0,0 +1,49 @@
+package peergos.shared.crypto;
+
+import peergos.shared.util.*;
+
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/** Runs cpu bound crypto operations, either inline on the calling thread, or on a pool of worker threads, so that
+ *  independent chunks and fragments can be encrypted and signed concurrently.
+ *
+ *  In the browser the JS crypto implementations are already asynchronous, so they use the inline executor.
+ */
+public class CryptoExecutor {
+
+    public static final CryptoExecutor INLINE = new CryptoExecutor(null);
+
+    private final Executor pool;
+
+    /**
+     *
+     * @param pool The executor to run tasks on, or null to run them on the calling thread
+     */
+    public CryptoExecutor(Executor pool) {
+        this.pool = pool;
+    }
+
+    public boolean isInline() {
+        return pool == null;
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        if (pool == null) {
+            try {
+                return CompletableFuture.completedFuture(task.get());
+            } catch (Throwable t) {
+                return Futures.errored(t);
+            }
+        }
+        CompletableFuture<T> res = new CompletableFuture<>();
+        pool.execute(() -> {
+            try {
+                res.complete(task.get());
+            } catch (Throwable t) {
+                res.completeExceptionally(t);
+            }
+        });
+        return res;
+    }
+}
@@ -8,6 +8,7 @@ import peergos.shared.io.ipfs.multihash.*;
 import peergos.shared.user.fs.*;
 import peergos.shared.util.*;
 
+import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.*;
@@ -53,8 +54,40 @@ public class FragmentedPaddedCipherText implements Cborable {
     }
 
     protected static byte[] pad(byte[] input, int blockSize) {
-        int nBlocks = (input.length + blockSize - 1) / blockSize;
-        return Arrays.copyOfRange(input, 0, nBlocks * blockSize);
+        return Arrays.copyOfRange(input, 0, paddedLength(input.length, blockSize));
+    }
+
+    private static int paddedLength(int length, int blockSize) {
+        int nBlocks = (length + blockSize - 1) / blockSize;
+        return nBlocks * blockSize;
+    }
+
+    private static byte[] byteStringHeader(int length) {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try {
+            new CborEncoder(bout).writeByteStringHeader(length);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bout.toByteArray();
+    }
+
+    /** Serialize the secret into a single zero padded buffer, leaving room at the start for the tag, so it can be
+     *  encrypted in place. Raw byte arrays (file chunks) are written directly without an intermediate serialization.
+     */
+    private static byte[] serializePadded(Cborable secret, int paddingBlockSize, int offset) {
+        if (secret instanceof CborObject.CborByteArray) {
+            byte[] data = ((CborObject.CborByteArray) secret).value;
+            byte[] header = byteStringHeader(data.length);
+            byte[] buffer = new byte[offset + paddedLength(header.length + data.length, paddingBlockSize)];
+            System.arraycopy(header, 0, buffer, offset, header.length);
+            System.arraycopy(data, 0, buffer, offset + header.length, data.length);
+            return buffer;
+        }
+        byte[] serialized = secret.serialize();
+        byte[] buffer = new byte[offset + paddedLength(serialized.length, paddingBlockSize)];
+        System.arraycopy(serialized, 0, buffer, offset, serialized.length);
+        return buffer;
     }
 
     public static <T extends Cborable> Pair<FragmentedPaddedCipherText, List<FragmentWithHash>> build(SymmetricKey from,
@@ -65,15 +98,19 @@ public class FragmentedPaddedCipherText implements Cborable {
         if (paddingBlockSize < 1)
             throw new IllegalStateException("Invalid padding block size: " + paddingBlockSize);
         byte[] nonce = from.createNonce();
-        byte[] cipherText = from.encrypt(pad(secret.serialize(), paddingBlockSize), nonce);
+        int overhead = TweetNaCl.SECRETBOX_OVERHEAD_BYTES;
+        byte[] cipherText = serializePadded(secret, paddingBlockSize, overhead);
+        from.encryptInto(cipherText, overhead, cipherText.length - overhead, nonce, cipherText, 0);
 
-        if (cipherText.length <= 4096 + TweetNaCl.SECRETBOX_OVERHEAD_BYTES) {
+        if (cipherText.length <= 4096 + overhead) {
             // use inline identity hash for small amount of data (small files or directories)
             FragmentWithHash frag = new FragmentWithHash(new Fragment(cipherText), hasher.identityHash(cipherText, true));
             return new Pair<>(new FragmentedPaddedCipherText(nonce, Collections.singletonList(frag.hash)), Collections.singletonList(frag));
         }
 
-        byte[][] split = split(cipherText, maxFragmentSize);
+        byte[][] split = cipherText.length <= maxFragmentSize ?
+                new byte[][] {cipherText} :
+                split(cipherText, maxFragmentSize);
 
         List<FragmentWithHash> frags = Arrays.stream(split)
                 .map(d -> new FragmentWithHash(new Fragment(d), hasher.hash(d, true)))
@@ -88,8 +125,11 @@ public class FragmentedPaddedCipherText implements Cborable {
                                                   Function<CborObject, T> fromCbor,
                                                   NetworkAccess network,
                                                   ProgressConsumer<Long> monitor) {
+        int overhead = TweetNaCl.SECRETBOX_OVERHEAD_BYTES;
         return network.downloadFragments(cipherTextFragments, monitor, 1.0)
-                .thenApply(fargs -> new CipherText(nonce, recombine(fargs)).decrypt(from, fromCbor));
+                .thenApply(this::recombine)
+                .thenCompose(cipherText -> from.decryptIntoAsync(cipherText, 0, cipherText.length, nonce, cipherText, overhead))
+                .thenApply(plainText -> fromCbor.apply(CborObject.fromByteArray(plainText, overhead, plainText.length - overhead)));
     }
 
     public static byte[][] split(byte[] input, int maxFragmentSize) {
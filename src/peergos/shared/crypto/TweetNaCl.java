@@ -32,7 +32,7 @@ public class TweetNaCl {
     public static class InvalidSignatureException extends RuntimeException {}
     public static class InvalidCipherTextException extends IllegalStateException {
         InvalidCipherTextException() {}
-        InvalidCipherTextException(String msg) {
+        public InvalidCipherTextException(String msg) {
             super(msg);
         }
     }
@@ -11,6 +11,8 @@ import peergos.shared.util.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+
 @JsType
 public interface SecretSigningKey extends Cborable {
 
@@ -30,6 +32,9 @@ public interface SecretSigningKey extends Cborable {
      */
     byte[] signatureOnly(byte[] message);
 
+    @SuppressWarnings("unusable-by-js")
+    CompletableFuture<byte[]> signatureOnlyAsync(byte[] message);
+
     @SuppressWarnings("unusable-by-js")
     static SecretSigningKey fromCbor(Cborable cbor) {
         if (! (cbor instanceof CborObject.CborList))
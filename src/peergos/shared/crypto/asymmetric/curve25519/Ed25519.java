@@ -3,6 +3,8 @@ package peergos.shared.crypto.asymmetric.curve25519;
 import peergos.shared.crypto.*;
 import peergos.shared.crypto.random.JSNaCl;
 
+import java.util.concurrent.*;
+
 public interface Ed25519 {
 
     byte[] crypto_sign_open(byte[] signed, byte[] publicSigningKey);
@@ -11,7 +13,19 @@ public interface Ed25519 {
 
     void crypto_sign_keypair(byte[] pk, byte[] sk);
 
+    CompletableFuture<byte[]> crypto_signAsync(byte[] message, byte[] secretSigningKey);
+
     class Java implements Ed25519 {
+        private final CryptoExecutor executor;
+
+        public Java(CryptoExecutor executor) {
+            this.executor = executor;
+        }
+
+        public Java() {
+            this(CryptoExecutor.INLINE);
+        }
+
         @Override
         public byte[] crypto_sign_open(byte[] signed, byte[] publicSigningKey) {
             return TweetNaCl.crypto_sign_open(signed, publicSigningKey);
@@ -26,6 +40,11 @@ public interface Ed25519 {
         public void crypto_sign_keypair(byte[] pk, byte[] sk) {
             TweetNaCl.crypto_sign_keypair(pk, sk, true);
         }
+
+        @Override
+        public CompletableFuture<byte[]> crypto_signAsync(byte[] message, byte[] secretSigningKey) {
+            return executor.submit(() -> TweetNaCl.crypto_sign(message, secretSigningKey));
+        }
     }
     class Javascript implements Ed25519 {
         JSNaCl scriptJS = new JSNaCl();
@@ -51,6 +70,11 @@ public interface Ed25519 {
             }
         }
 
+        @Override
+        public CompletableFuture<byte[]> crypto_signAsync(byte[] message, byte[] secretSigningKey) {
+            return CryptoExecutor.INLINE.submit(() -> crypto_sign(message, secretSigningKey));
+        }
+
     }
 
 }
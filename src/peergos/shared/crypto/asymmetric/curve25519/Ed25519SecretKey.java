@@ -9,6 +9,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class Ed25519SecretKey implements SecretSigningKey {
 
@@ -54,6 +55,12 @@ public class Ed25519SecretKey implements SecretSigningKey {
         return Arrays.copyOf(implementation.crypto_sign(message, secretKey), TweetNaCl.SIGNATURE_SIZE_BYTES);
     }
 
+    @Override
+    public CompletableFuture<byte[]> signatureOnlyAsync(byte[] message) {
+        return implementation.crypto_signAsync(message, secretKey)
+                .thenApply(signed -> Arrays.copyOf(signed, TweetNaCl.SIGNATURE_SIZE_BYTES));
+    }
+
     public static SecretSigningKey fromCbor(Cborable cbor, Ed25519 provider) {
         if (! (cbor instanceof CborObject.CborList))
             throw new IllegalStateException("Invalid cbor for Ed25519 secret key! " + cbor);
@@ -1,6 +1,7 @@
 package peergos.shared.crypto.hash;
 
 import peergos.shared.user.fs.*;
+import peergos.shared.util.*;
 
 import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
@@ -27,11 +28,11 @@ public class Hash {
     public static CompletableFuture<byte[]> sha256(AsyncReader input, long length) {
         try {
             MessageDigest md = MessageDigest.getInstance(HASH);
-            return sha256(input, length, md, new byte[Chunk.MAX_SIZE]);
+            return BufferPool.CHUNKS.withBuffer(buf -> sha256(input, length, md, buf));
         } catch (NoSuchAlgorithmException e) {
             // This is only here to work around a bug in Doppio JVM
             Sha256 sha256 = new Sha256();
-            return sha256(input, length, sha256, new byte[Chunk.MAX_SIZE]);
+            return BufferPool.CHUNKS.withBuffer(buf -> sha256(input, length, sha256, buf));
         }
     }
 
@@ -0,0 +1,205 @@
+package peergos.shared.crypto.hash;
+
+import peergos.shared.crypto.*;
+import peergos.shared.scrypt.com.lambdaworks.crypto.*;
+import peergos.shared.util.*;
+
+import javax.crypto.*;
+import javax.crypto.spec.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** An implementation of the scrypt key derivation function which produces the same output as SCrypt.scryptJ, but
+ *  works on 32 bit words without any allocation in the mixing loops, runs the p independent lanes concurrently (the
+ *  first on the calling thread), and reuses the large per lane scratch buffer (128 * r * N bytes) across calls.
+ *
+ *  At most maxIdleScratch scratch buffers are retained between calls, which bounds the memory held when idle.
+ */
+public class ScryptEngine {
+
+    private final CryptoExecutor lanes;
+    private final int maxIdleScratch;
+    private final Deque<int[]> idleScratch = new ArrayDeque<>();
+
+    /**
+     *
+     * @param lanes where to run the parallel lanes of a derivation with p > 1
+     * @param maxIdleScratch the maximum number of scratch buffers to keep for reuse
+     */
+    public ScryptEngine(CryptoExecutor lanes, int maxIdleScratch) {
+        if (maxIdleScratch < 0)
+            throw new IllegalArgumentException("Invalid number of idle scratch buffers: " + maxIdleScratch);
+        this.lanes = lanes;
+        this.maxIdleScratch = maxIdleScratch;
+    }
+
+    /**
+     *
+     * @param passwd    Password.
+     * @param salt      Salt.
+     * @param N         CPU/memory cost parameter, a power of 2.
+     * @param r         Block size parameter.
+     * @param p         Parallelization parameter.
+     * @param dkLen     Intended length of the derived key.
+     * @return The derived key.
+     */
+    public CompletableFuture<byte[]> scrypt(byte[] passwd, byte[] salt, int N, int r, int p, int dkLen) {
+        if (N < 2 || (N & (N - 1)) != 0)
+            throw new IllegalArgumentException("N must be a power of 2 greater than 1");
+        if (N > Integer.MAX_VALUE / 128 / r)
+            throw new IllegalArgumentException("Parameter N is too large");
+        if (r > Integer.MAX_VALUE / 128 / p)
+            throw new IllegalArgumentException("Parameter r is too large");
+
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(passwd, "HmacSHA256"));
+
+            int laneBytes = 128 * r;
+            byte[] B = new byte[laneBytes * p];
+            PBKDF.pbkdf2(mac, salt, 1, B, B.length);
+
+            // start the other lanes before mixing the first on this thread
+            List<CompletableFuture<Boolean>> mixed = new ArrayList<>();
+            for (int i = p - 1; i >= 0; i--) {
+                int laneOffset = i * laneBytes;
+                mixed.add(0, (i == 0 ? CryptoExecutor.INLINE : lanes).submit(() -> {
+                    smix(B, laneOffset, r, N);
+                    return true;
+                }));
+            }
+            return Futures.combineAllInOrder(mixed).thenApply(done -> {
+                try {
+                    byte[] DK = new byte[dkLen];
+                    PBKDF.pbkdf2(mac, B, 1, DK, dkLen);
+                    return DK;
+                } catch (GeneralSecurityException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        } catch (GeneralSecurityException e) {
+            return Futures.errored(e);
+        }
+    }
+
+    private int[] takeScratch(int words) {
+        synchronized (idleScratch) {
+            Iterator<int[]> it = idleScratch.iterator();
+            while (it.hasNext()) {
+                int[] candidate = it.next();
+                if (candidate.length == words) {
+                    it.remove();
+                    return candidate;
+                }
+            }
+        }
+        return new int[words];
+    }
+
+    private void releaseScratch(int[] scratch) {
+        if (maxIdleScratch == 0)
+            return;
+        synchronized (idleScratch) {
+            if (idleScratch.size() >= maxIdleScratch)
+                idleScratch.pollLast();
+            idleScratch.push(scratch);
+        }
+    }
+
+    /** Mix one lane of B in place, B[offset, offset + 128 * r)
+     *
+     */
+    private void smix(byte[] B, int offset, int r, int N) {
+        int blockWords = 32 * r;
+        int[] V = takeScratch(blockWords * N);
+        try {
+            int[] X = new int[blockWords];
+            int[] Y = new int[blockWords];
+            int[] T = new int[16];
+            for (int i = 0; i < blockWords; i++)
+                X[i] = littleEndian(B, offset + 4 * i);
+
+            for (int i = 0; i < N; i++) {
+                System.arraycopy(X, 0, V, i * blockWords, blockWords);
+                blockmix_salsa8(X, Y, T, r);
+                int[] tmp = X; X = Y; Y = tmp;
+            }
+
+            int mask = N - 1;
+            int last = (2 * r - 1) * 16;
+            for (int i = 0; i < N; i++) {
+                int j = X[last] & mask;
+                int vOffset = j * blockWords;
+                for (int k = 0; k < blockWords; k++)
+                    X[k] ^= V[vOffset + k];
+                blockmix_salsa8(X, Y, T, r);
+                int[] tmp = X; X = Y; Y = tmp;
+            }
+
+            for (int i = 0; i < blockWords; i++) {
+                int w = X[i];
+                int o = offset + 4 * i;
+                B[o] = (byte) w;
+                B[o + 1] = (byte) (w >>> 8);
+                B[o + 2] = (byte) (w >>> 16);
+                B[o + 3] = (byte) (w >>> 24);
+            }
+        } finally {
+            releaseScratch(V);
+        }
+    }
+
+    private static int littleEndian(byte[] b, int offset) {
+        return (b[offset] & 0xff) |
+                (b[offset + 1] & 0xff) << 8 |
+                (b[offset + 2] & 0xff) << 16 |
+                (b[offset + 3] & 0xff) << 24;
+    }
+
+    /** Write BlockMix(in) to out, where even 64 byte blocks go to the first half, and odd blocks to the second half
+     *
+     */
+    private static void blockmix_salsa8(int[] in, int[] out, int[] T, int r) {
+        System.arraycopy(in, (2 * r - 1) * 16, T, 0, 16);
+        for (int i = 0; i < 2 * r; i++) {
+            int inOffset = i * 16;
+            for (int k = 0; k < 16; k++)
+                T[k] ^= in[inOffset + k];
+            salsa20_8(T);
+            int outOffset = ((i & 1) == 0 ? i / 2 : r + i / 2) * 16;
+            System.arraycopy(T, 0, out, outOffset, 16);
+        }
+    }
+
+    private static void salsa20_8(int[] B) {
+        int x0 = B[0], x1 = B[1], x2 = B[2], x3 = B[3],
+                x4 = B[4], x5 = B[5], x6 = B[6], x7 = B[7],
+                x8 = B[8], x9 = B[9], x10 = B[10], x11 = B[11],
+                x12 = B[12], x13 = B[13], x14 = B[14], x15 = B[15];
+
+        for (int i = 8; i > 0; i -= 2) {
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);   x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);  x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);    x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);  x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);  x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);  x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);  x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);  x15 ^= Integer.rotateLeft(x11 + x7, 18);
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);    x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);   x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);    x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);   x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);  x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);  x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7); x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13); x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+
+        B[0] += x0; B[1] += x1; B[2] += x2; B[3] += x3;
+        B[4] += x4; B[5] += x5; B[6] += x6; B[7] += x7;
+        B[8] += x8; B[9] += x9; B[10] += x10; B[11] += x11;
+        B[12] += x12; B[13] += x13; B[14] += x14; B[15] += x15;
+    }
+}
@@ -0,0 +1,380 @@
+package peergos.shared.crypto.symmetric;
+
+import peergos.shared.crypto.*;
+
+import java.util.concurrent.*;
+
+/** An implementation of NaCl's secretbox (XSalsa20 and Poly1305) that is compatible with TweetNaCl, but which works
+ *  on whole words and blocks rather than following the reference code byte by byte.
+ *
+ *  The Salsa20 rounds are unrolled over int locals, the keystream is applied 64 bytes at a time, and Poly1305 uses
+ *  26 bit limbs with long products. The static methods encrypt from and into caller supplied buffers, which may be
+ *  the same array, so a cipher text can be produced in place with no extra allocation.
+ */
+public class FastSalsa20Poly1305 implements Salsa20Poly1305 {
+    public static final int KEY_BYTES = 32;
+    public static final int NONCE_BYTES = 24;
+    public static final int TAG_BYTES = 16;
+
+    private static final int BLOCK_BYTES = 64;
+    private static final int SIGMA0 = 0x61707865, SIGMA1 = 0x3320646e, SIGMA2 = 0x79622d32, SIGMA3 = 0x6b206574;
+
+    private final CryptoExecutor executor;
+
+    public FastSalsa20Poly1305(CryptoExecutor executor) {
+        this.executor = executor;
+    }
+
+    public FastSalsa20Poly1305() {
+        this(CryptoExecutor.INLINE);
+    }
+
+    @Override
+    public byte[] secretbox(byte[] data, byte[] nonce, byte[] key) {
+        byte[] res = new byte[data.length + TAG_BYTES];
+        secretbox(data, 0, data.length, nonce, key, res, 0);
+        return res;
+    }
+
+    @Override
+    public byte[] secretbox_open(byte[] cipher, byte[] nonce, byte[] key) {
+        if (cipher.length < TAG_BYTES)
+            throw new TweetNaCl.InvalidCipherTextException("Cipher text too short: " + cipher.length);
+        byte[] res = new byte[cipher.length - TAG_BYTES];
+        secretbox_open(cipher, 0, cipher.length, nonce, key, res, 0);
+        return res;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> secretboxAsync(byte[] data, byte[] nonce, byte[] key) {
+        return executor.submit(() -> secretbox(data, nonce, key));
+    }
+
+    @Override
+    public CompletableFuture<byte[]> secretbox_openAsync(byte[] cipher, byte[] nonce, byte[] key) {
+        return executor.submit(() -> secretbox_open(cipher, nonce, key));
+    }
+
+    @Override
+    public void secretboxInto(byte[] data, int offset, int length, byte[] nonce, byte[] key, byte[] out, int outOffset) {
+        secretbox(data, offset, length, nonce, key, out, outOffset);
+    }
+
+    @Override
+    public CompletableFuture<byte[]> secretbox_openIntoAsync(byte[] cipher, int offset, int length, byte[] nonce, byte[] key, byte[] out, int outOffset) {
+        return executor.submit(() -> {
+            secretbox_open(cipher, offset, length, nonce, key, out, outOffset);
+            return out;
+        });
+    }
+
+    /** Write the tag followed by the cipher text of message[messageOffset, messageOffset + length) to out.
+     *  To encrypt in place use the same array, with outOffset = messageOffset - TAG_BYTES.
+     */
+    public static void secretbox(byte[] message, int messageOffset, int length,
+                                 byte[] nonce, byte[] key,
+                                 byte[] out, int outOffset) {
+        checkParameters(nonce, key);
+        int[] state = initState(nonce, key);
+        int[] keyStream = new int[16];
+        salsa20(state, keyStream);
+        incrementCounter(state);
+        Poly1305 mac = new Poly1305(keyStream);
+
+        int cipherOffset = outOffset + TAG_BYTES;
+        // the first block is shared by the poly1305 key and the start of the message
+        int first = Math.min(length, BLOCK_BYTES / 2);
+        xor(keyStream, BLOCK_BYTES / 2, message, messageOffset, out, cipherOffset, first);
+        mac.update(out, cipherOffset, first);
+        for (int done = first; done < length; done += BLOCK_BYTES) {
+            int len = Math.min(BLOCK_BYTES, length - done);
+            salsa20(state, keyStream);
+            incrementCounter(state);
+            xor(keyStream, 0, message, messageOffset + done, out, cipherOffset + done, len);
+            mac.update(out, cipherOffset + done, len);
+        }
+        mac.finish(out, outOffset);
+    }
+
+    /** Verify the tag of, and decrypt, cipher[cipherOffset, cipherOffset + length) into out.
+     *  To decrypt in place use the same array, with outOffset = cipherOffset + TAG_BYTES.
+     *
+     * @throws TweetNaCl.InvalidCipherTextException if the tag is invalid, in which case out is not modified
+     */
+    public static void secretbox_open(byte[] cipher, int cipherOffset, int length,
+                                      byte[] nonce, byte[] key,
+                                      byte[] out, int outOffset) {
+        checkParameters(nonce, key);
+        if (length < TAG_BYTES)
+            throw new TweetNaCl.InvalidCipherTextException("Cipher text too short: " + length);
+        int[] state = initState(nonce, key);
+        int[] keyStream = new int[16];
+        salsa20(state, keyStream);
+        incrementCounter(state);
+
+        int textOffset = cipherOffset + TAG_BYTES;
+        int textLength = length - TAG_BYTES;
+        Poly1305 mac = new Poly1305(keyStream);
+        for (int done = 0; done < textLength; done += BLOCK_BYTES)
+            mac.update(cipher, textOffset + done, Math.min(BLOCK_BYTES, textLength - done));
+        if (! mac.verify(cipher, cipherOffset))
+            throw new TweetNaCl.InvalidCipherTextException("Invalid encryption! [" + length + "]");
+
+        int first = Math.min(textLength, BLOCK_BYTES / 2);
+        xor(keyStream, BLOCK_BYTES / 2, cipher, textOffset, out, outOffset, first);
+        for (int done = first; done < textLength; done += BLOCK_BYTES) {
+            salsa20(state, keyStream);
+            incrementCounter(state);
+            xor(keyStream, 0, cipher, textOffset + done, out, outOffset + done, Math.min(BLOCK_BYTES, textLength - done));
+        }
+    }
+
+    private static void checkParameters(byte[] nonce, byte[] key) {
+        if (nonce.length != NONCE_BYTES)
+            throw new IllegalStateException("Illegal nonce length: " + nonce.length);
+        if (key.length != KEY_BYTES)
+            throw new IllegalStateException("Illegal key length: " + key.length);
+    }
+
+    /**
+     *
+     * @return The Salsa20 input block for the XSalsa20 stream, with the block counter at 0
+     */
+    private static int[] initState(byte[] nonce, byte[] key) {
+        int[] state = new int[16];
+        state[0] = SIGMA0;
+        state[5] = SIGMA1;
+        state[10] = SIGMA2;
+        state[15] = SIGMA3;
+        for (int i = 0; i < 4; i++) {
+            state[1 + i] = readInt(key, 4 * i);
+            state[11 + i] = readInt(key, 16 + 4 * i);
+        }
+        for (int i = 0; i < 4; i++)
+            state[6 + i] = readInt(nonce, 4 * i);
+        // derive the XSalsa20 sub key with HSalsa20
+        int[] out = new int[16];
+        rounds(state, out);
+        state[1] = out[0];
+        state[2] = out[5];
+        state[3] = out[10];
+        state[4] = out[15];
+        state[11] = out[6];
+        state[12] = out[7];
+        state[13] = out[8];
+        state[14] = out[9];
+        state[6] = readInt(nonce, 16);
+        state[7] = readInt(nonce, 20);
+        state[8] = 0;
+        state[9] = 0;
+        return state;
+    }
+
+    private static void incrementCounter(int[] state) {
+        if (++state[8] == 0)
+            state[9]++;
+    }
+
+    private static void salsa20(int[] input, int[] output) {
+        rounds(input, output);
+        for (int i = 0; i < 16; i++)
+            output[i] += input[i];
+    }
+
+    /** The 20 Salsa20 rounds, without the final addition of the input
+     */
+    private static void rounds(int[] input, int[] output) {
+        int x0 = input[0], x1 = input[1], x2 = input[2], x3 = input[3],
+                x4 = input[4], x5 = input[5], x6 = input[6], x7 = input[7],
+                x8 = input[8], x9 = input[9], x10 = input[10], x11 = input[11],
+                x12 = input[12], x13 = input[13], x14 = input[14], x15 = input[15];
+        for (int i = 0; i < 10; i++) {
+            // columns
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);
+            x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);
+            x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);
+            x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);
+            x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);
+            x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);
+            x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);
+            x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);
+            x15 ^= Integer.rotateLeft(x11 + x7, 18);
+            // rows
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);
+            x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);
+            x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);
+            x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);
+            x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);
+            x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);
+            x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);
+            x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13);
+            x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+        output[0] = x0; output[1] = x1; output[2] = x2; output[3] = x3;
+        output[4] = x4; output[5] = x5; output[6] = x6; output[7] = x7;
+        output[8] = x8; output[9] = x9; output[10] = x10; output[11] = x11;
+        output[12] = x12; output[13] = x13; output[14] = x14; output[15] = x15;
+    }
+
+    /** out = in ^ keyStream, starting at a word aligned offset into the key stream block
+     */
+    private static void xor(int[] keyStream, int keyStreamOffset, byte[] in, int inOffset, byte[] out, int outOffset, int len) {
+        int word = keyStreamOffset >>> 2;
+        int i = 0;
+        for (; i + 4 <= len; i += 4, word++) {
+            int k = keyStream[word];
+            out[outOffset + i] = (byte) (in[inOffset + i] ^ k);
+            out[outOffset + i + 1] = (byte) (in[inOffset + i + 1] ^ (k >>> 8));
+            out[outOffset + i + 2] = (byte) (in[inOffset + i + 2] ^ (k >>> 16));
+            out[outOffset + i + 3] = (byte) (in[inOffset + i + 3] ^ (k >>> 24));
+        }
+        for (int shift = 0; i < len; i++, shift += 8)
+            out[outOffset + i] = (byte) (in[inOffset + i] ^ (keyStream[word] >>> shift));
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+    }
+
+    private static void writeInt(byte[] b, int off, int v) {
+        b[off] = (byte) v;
+        b[off + 1] = (byte) (v >>> 8);
+        b[off + 2] = (byte) (v >>> 16);
+        b[off + 3] = (byte) (v >>> 24);
+    }
+
+    /** Poly1305 with 5 limbs of 26 bits, after poly1305-donna
+     */
+    private static final class Poly1305 {
+        private static final int MASK = 0x3ffffff;
+        private final int r0, r1, r2, r3, r4, s1, s2, s3, s4;
+        private final int pad0, pad1, pad2, pad3;
+        private int h0, h1, h2, h3, h4;
+        private final byte[] lastBlock = new byte[16];
+        private boolean finished = false;
+
+        /**
+         *
+         * @param key The first 8 words of a key stream block
+         */
+        Poly1305(int[] key) {
+            // r is clamped
+            r0 = key[0] & 0x3ffffff;
+            r1 = ((key[0] >>> 26) | (key[1] << 6)) & 0x3ffff03;
+            r2 = ((key[1] >>> 20) | (key[2] << 12)) & 0x3ffc0ff;
+            r3 = ((key[2] >>> 14) | (key[3] << 18)) & 0x3f03fff;
+            r4 = (key[3] >>> 8) & 0x00fffff;
+            s1 = r1 * 5;
+            s2 = r2 * 5;
+            s3 = r3 * 5;
+            s4 = r4 * 5;
+            pad0 = key[4];
+            pad1 = key[5];
+            pad2 = key[6];
+            pad3 = key[7];
+        }
+
+        /** Absorb len bytes, which must be a multiple of 16 for all but the last call
+         */
+        void update(byte[] m, int off, int len) {
+            if (finished)
+                throw new IllegalStateException("Only the last update may have a partial block!");
+            int i = 0;
+            for (; i + 16 <= len; i += 16)
+                block(m, off + i, 1 << 24);
+            if (i < len) {
+                int rem = len - i;
+                System.arraycopy(m, off + i, lastBlock, 0, rem);
+                lastBlock[rem] = 1;
+                for (int j = rem + 1; j < 16; j++)
+                    lastBlock[j] = 0;
+                block(lastBlock, 0, 0);
+                finished = true;
+            }
+        }
+
+        private void block(byte[] m, int off, int hibit) {
+            int t0 = readInt(m, off), t1 = readInt(m, off + 4), t2 = readInt(m, off + 8), t3 = readInt(m, off + 12);
+            h0 += t0 & MASK;
+            h1 += ((t0 >>> 26) | (t1 << 6)) & MASK;
+            h2 += ((t1 >>> 20) | (t2 << 12)) & MASK;
+            h3 += ((t2 >>> 14) | (t3 << 18)) & MASK;
+            h4 += (t3 >>> 8) | hibit;
+
+            long d0 = (long) h0 * r0 + (long) h1 * s4 + (long) h2 * s3 + (long) h3 * s2 + (long) h4 * s1;
+            long d1 = (long) h0 * r1 + (long) h1 * r0 + (long) h2 * s4 + (long) h3 * s3 + (long) h4 * s2;
+            long d2 = (long) h0 * r2 + (long) h1 * r1 + (long) h2 * r0 + (long) h3 * s4 + (long) h4 * s3;
+            long d3 = (long) h0 * r3 + (long) h1 * r2 + (long) h2 * r1 + (long) h3 * r0 + (long) h4 * s4;
+            long d4 = (long) h0 * r4 + (long) h1 * r3 + (long) h2 * r2 + (long) h3 * r1 + (long) h4 * r0;
+
+            long c = d0 >>> 26; h0 = (int) d0 & MASK;
+            d1 += c; c = d1 >>> 26; h1 = (int) d1 & MASK;
+            d2 += c; c = d2 >>> 26; h2 = (int) d2 & MASK;
+            d3 += c; c = d3 >>> 26; h3 = (int) d3 & MASK;
+            d4 += c; c = d4 >>> 26; h4 = (int) d4 & MASK;
+            long t = h0 + c * 5;
+            h0 = (int) t & MASK;
+            h1 += (int) (t >>> 26);
+        }
+
+        private int[] tag() {
+            // fully carry h
+            int c = h1 >>> 26; h1 &= MASK;
+            h2 += c; c = h2 >>> 26; h2 &= MASK;
+            h3 += c; c = h3 >>> 26; h3 &= MASK;
+            h4 += c; c = h4 >>> 26; h4 &= MASK;
+            h0 += c * 5; c = h0 >>> 26; h0 &= MASK;
+            h1 += c;
+
+            // compute h - p, and select it if h >= p
+            int g0 = h0 + 5; c = g0 >>> 26; g0 &= MASK;
+            int g1 = h1 + c; c = g1 >>> 26; g1 &= MASK;
+            int g2 = h2 + c; c = g2 >>> 26; g2 &= MASK;
+            int g3 = h3 + c; c = g3 >>> 26; g3 &= MASK;
+            int g4 = h4 + c - (1 << 26);
+            int mask = (g4 >>> 31) - 1;
+            int f0 = (h0 & ~mask) | (g0 & mask);
+            int f1 = (h1 & ~mask) | (g1 & mask);
+            int f2 = (h2 & ~mask) | (g2 & mask);
+            int f3 = (h3 & ~mask) | (g3 & mask);
+            int f4 = (h4 & ~mask) | (g4 & mask);
+
+            // h mod 2^128, plus the pad
+            long w0 = ((f0 | (f1 << 26)) & 0xffffffffL) + (pad0 & 0xffffffffL);
+            long w1 = (((f1 >>> 6) | (f2 << 20)) & 0xffffffffL) + (pad1 & 0xffffffffL) + (w0 >>> 32);
+            long w2 = (((f2 >>> 12) | (f3 << 14)) & 0xffffffffL) + (pad2 & 0xffffffffL) + (w1 >>> 32);
+            long w3 = (((f3 >>> 18) | (f4 << 8)) & 0xffffffffL) + (pad3 & 0xffffffffL) + (w2 >>> 32);
+            return new int[]{(int) w0, (int) w1, (int) w2, (int) w3};
+        }
+
+        void finish(byte[] out, int off) {
+            int[] tag = tag();
+            for (int i = 0; i < 4; i++)
+                writeInt(out, off + 4 * i, tag[i]);
+        }
+
+        /** Constant time comparison with an expected tag
+         */
+        boolean verify(byte[] expected, int off) {
+            int[] tag = tag();
+            int diff = 0;
+            for (int i = 0; i < 4; i++)
+                diff |= tag[i] ^ readInt(expected, off + 4 * i);
+            return diff == 0;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package peergos.shared.crypto.symmetric;
 import peergos.shared.crypto.*;
 import peergos.shared.crypto.random.JSNaCl;
 
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
 
 public interface Salsa20Poly1305 {
@@ -15,6 +16,27 @@ public interface Salsa20Poly1305 {
 
     CompletableFuture<byte[]> secretbox_openAsync(byte[] cipher, byte[] nonce, byte[] key);
 
+    /** Encrypt data[offset, offset + length) writing the tag and cipher text to out starting at outOffset.
+     *  The output may overlap the input, e.g. to encrypt in place use outOffset = offset - TweetNaCl.SECRETBOX_OVERHEAD_BYTES.
+     */
+    default void secretboxInto(byte[] data, int offset, int length, byte[] nonce, byte[] key, byte[] out, int outOffset) {
+        byte[] cipher = secretbox(Arrays.copyOfRange(data, offset, offset + length), nonce, key);
+        System.arraycopy(cipher, 0, out, outOffset, cipher.length);
+    }
+
+    /** Decrypt cipher[offset, offset + length) writing the plain text to out starting at outOffset.
+     *  The output may overlap the input, e.g. to decrypt in place use outOffset = offset + TweetNaCl.SECRETBOX_OVERHEAD_BYTES.
+     *
+     * @return out, once it has been written to
+     */
+    default CompletableFuture<byte[]> secretbox_openIntoAsync(byte[] cipher, int offset, int length, byte[] nonce, byte[] key, byte[] out, int outOffset) {
+        return secretbox_openAsync(Arrays.copyOfRange(cipher, offset, offset + length), nonce, key)
+                .thenApply(plain -> {
+                    System.arraycopy(plain, 0, out, outOffset, plain.length);
+                    return out;
+                });
+    }
+
     class Javascript implements Salsa20Poly1305 {
         JSNaCl scriptJS = new JSNaCl();
 
@@ -40,6 +62,15 @@ public interface Salsa20Poly1305 {
     }
 
     class Java implements Salsa20Poly1305 {
+        private final CryptoExecutor executor;
+
+        public Java(CryptoExecutor executor) {
+            this.executor = executor;
+        }
+
+        public Java() {
+            this(CryptoExecutor.INLINE);
+        }
 
         @Override
         public byte[] secretbox(byte[] data, byte[] nonce, byte[] key) {
@@ -53,19 +84,12 @@ public interface Salsa20Poly1305 {
 
         @Override
         public CompletableFuture<byte[]> secretboxAsync(byte[] data, byte[] nonce, byte[] key) {
-            byte[] encrypted = TweetNaCl.secretbox(data, nonce, key);
-            CompletableFuture<byte[]> res = new CompletableFuture<>();
-            res.complete(encrypted);
-            return res;
+            return executor.submit(() -> TweetNaCl.secretbox(data, nonce, key));
         }
 
         @Override
         public CompletableFuture<byte[]> secretbox_openAsync(byte[] cipher, byte[] nonce, byte[] key) {
-            byte[] decrypted = TweetNaCl.secretbox_open(cipher, nonce, key);
-            CompletableFuture<byte[]> res = new CompletableFuture<>();
-            res.complete(decrypted);
-            return res;
-
+            return executor.submit(() -> TweetNaCl.secretbox_open(cipher, nonce, key));
         }
     }
 
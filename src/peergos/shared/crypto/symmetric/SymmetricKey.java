@@ -54,6 +54,10 @@ public interface SymmetricKey extends Cborable
 
     CompletableFuture<byte[]> decryptAsync(byte[] data, byte[] nonce);
 
+    void encryptInto(byte[] data, int offset, int length, byte[] nonce, byte[] out, int outOffset);
+
+    CompletableFuture<byte[]> decryptIntoAsync(byte[] cipher, int offset, int length, byte[] nonce, byte[] out, int outOffset);
+
     @JsMethod
     byte[] createNonce();
 
@@ -64,6 +64,16 @@ public class TweetNaClKey implements SymmetricKey
         return decryptAsync(secretKey, data, nonce, implementation);
     }
 
+    public void encryptInto(byte[] data, int offset, int length, byte[] nonce, byte[] out, int outOffset)
+    {
+        implementation.secretboxInto(data, offset, length, nonce, secretKey, out, outOffset);
+    }
+
+    public CompletableFuture<byte[]> decryptIntoAsync(byte[] cipher, int offset, int length, byte[] nonce, byte[] out, int outOffset)
+    {
+        return implementation.secretbox_openIntoAsync(cipher, offset, length, nonce, secretKey, out, outOffset);
+    }
+
     private static byte[] encrypt(byte[] key, byte[] data, byte[] nonce, Salsa20Poly1305 implementation)
     {
         return implementation.secretbox(data, nonce, key);
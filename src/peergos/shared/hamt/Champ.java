@@ -20,6 +20,8 @@ import java.util.stream.*;
 public class Champ implements Cborable {
 
     private static final int HASH_CODE_LENGTH = 32;
+    // bitmaps are ints, so each level can have at most 32 hash prefixes
+    public static final int MAX_BIT_WIDTH = 5;
 
     private static class KeyElement {
         public final ByteArrayWrapper key;
@@ -59,24 +61,56 @@ public class Champ implements Cborable {
         }
     }
 
-    private static final Champ EMPTY = new Champ(new BitSet(), new BitSet(), new HashPrefixPayload[0]);
+    private static final Champ EMPTY = build(0, 0, new HashPrefixPayload[0], Optional.of(0L));
 
     public static Champ empty() {
         return EMPTY;
     }
 
-    private final BitSet dataMap, nodeMap;
+    private final int dataMap, nodeMap;
     private final HashPrefixPayload[] contents;
+    // The total number of mappings in this node and all its descendants. This is absent in nodes written before it
+    // was introduced, and in nodes with such a descendant.
+    private final Optional<Long> mappingCount;
 
-    public Champ(BitSet dataMap, BitSet nodeMap, HashPrefixPayload[] contents) {
+    private Champ(int dataMap, int nodeMap, HashPrefixPayload[] contents, Optional<Long> mappingCount) {
         this.dataMap = dataMap;
         this.nodeMap = nodeMap;
         this.contents = contents;
+        this.mappingCount = mappingCount;
         for (int i=0; i< contents.length; i++)
             if (contents[i] == null)
                 throw new IllegalStateException();
     }
 
+    /**
+     *
+     * @param derivedCount The mapping count of the new node, derived from the node it replaces, if known
+     * @return A new node, with an exact mapping count if it has no children
+     */
+    private static Champ build(int dataMap, int nodeMap, HashPrefixPayload[] contents, Optional<Long> derivedCount) {
+        if (nodeMap != 0)
+            return new Champ(dataMap, nodeMap, contents, derivedCount);
+        long keys = 0;
+        for (HashPrefixPayload payload : contents)
+            keys += payload.keyCount();
+        return new Champ(dataMap, nodeMap, contents, Optional.of(keys));
+    }
+
+    private Optional<Long> adjustCount(long delta) {
+        return mappingCount.map(c -> c + delta);
+    }
+
+    /**
+     *
+     * @return Our mapping count after replacing oldChild with newChild, if known
+     */
+    private Optional<Long> adjustCount(Champ oldChild, Champ newChild) {
+        if (! mappingCount.isPresent() || ! oldChild.mappingCount.isPresent() || ! newChild.mappingCount.isPresent())
+            return Optional.empty();
+        return Optional.of(mappingCount.get() - oldChild.mappingCount.get() + newChild.mappingCount.get());
+    }
+
     private int keyCount() {
         int count = 0;
         for (HashPrefixPayload payload : contents) {
@@ -104,16 +138,16 @@ public class Champ implements Cborable {
                 ((hash[index + 1] & ((1 << hiBits) - 1)) << lowBits);
     }
 
-    private static int getIndex(BitSet bitmap, int bitpos) {
-        int total = 0;
-        for (int i = 0; i < bitpos;) {
-            int next = bitmap.nextSetBit(i);
-            if (next == -1 || next >= bitpos)
-                return total;
-            total++;
-            i = next + 1;
-        }
-        return total;
+    private static boolean isSet(int bitmap, int bitpos) {
+        return (bitmap & (1 << bitpos)) != 0;
+    }
+
+    /**
+     *
+     * @return the number of set bits below bitpos
+     */
+    private static int getIndex(int bitmap, int bitpos) {
+        return Integer.bitCount(bitmap & ((1 << bitpos) - 1));
     }
 
     CompletableFuture<Pair<Multihash, Optional<Champ>>> getChild(byte[] hash, int depth, int bitWidth, ContentAddressedStorage storage) {
@@ -125,6 +159,8 @@ public class Champ implements Cborable {
     }
 
     public CompletableFuture<Long> size(int depth, ContentAddressedStorage storage) {
+        if (mappingCount.isPresent())
+            return CompletableFuture.completedFuture(mappingCount.get());
         long keys = keyCount();
         if (nodeCount() == 0)
             return CompletableFuture.completedFuture(keys);
@@ -135,8 +171,7 @@ public class Champ implements Cborable {
             if (! pointer.isShard())
                 break; // we reach the key section
             childCounts.add(storage.get(pointer.link.get())
-                    .thenApply(x -> new Pair<>(pointer.link.get(), x.map(Champ::fromCbor)))
-                    .thenCompose(child -> child.right.map(c -> c.size(depth + 1, storage))
+                    .thenCompose(child -> child.map(c -> fromCbor(c).size(depth + 1, storage))
                             .orElse(CompletableFuture.completedFuture(0L)))
             );
         }
@@ -156,9 +191,23 @@ public class Champ implements Cborable {
      * @return The value, if any, that this key maps to
      */
     public CompletableFuture<MaybeMultihash> get(ByteArrayWrapper key, byte[] hash, int depth, int bitWidth, ContentAddressedStorage storage) {
+        return get(key, hash, depth, bitWidth, storage, (h, c) -> {});
+    }
+
+    /**
+     *
+     * @param visited called with each child champ node retrieved during the lookup, and its hash
+     * @return The value, if any, that this key maps to
+     */
+    public CompletableFuture<MaybeMultihash> get(ByteArrayWrapper key,
+                                                 byte[] hash,
+                                                 int depth,
+                                                 int bitWidth,
+                                                 ContentAddressedStorage storage,
+                                                 BiConsumer<Multihash, Champ> visited) {
         final int bitpos = mask(hash, depth, bitWidth);
 
-        if (dataMap.get(bitpos)) { // local value
+        if (isSet(dataMap, bitpos)) { // local value
             int index = getIndex(this.dataMap, bitpos);
             HashPrefixPayload payload = contents[index];
             for (KeyElement candidate : payload.mappings) {
@@ -170,10 +219,12 @@ public class Champ implements Cborable {
             return CompletableFuture.completedFuture(MaybeMultihash.empty());
         }
 
-        if (nodeMap.get(bitpos)) { // child node
+        if (isSet(nodeMap, bitpos)) { // child node
             return getChild(hash, depth, bitWidth, storage)
-                    .thenCompose(child -> child.right.map(c -> c.get(key, hash, depth + 1, bitWidth, storage))
-                            .orElse(CompletableFuture.completedFuture(MaybeMultihash.empty())));
+                    .thenCompose(child -> child.right.map(c -> {
+                        visited.accept(child.left, c);
+                        return c.get(key, hash, depth + 1, bitWidth, storage, visited);
+                    }).orElse(CompletableFuture.completedFuture(MaybeMultihash.empty())));
         }
 
         return CompletableFuture.completedFuture(MaybeMultihash.empty());
@@ -210,7 +261,7 @@ public class Champ implements Cborable {
                                                          Multihash ourHash) {
         int bitpos = mask(hash, depth, bitWidth);
 
-        if (dataMap.get(bitpos)) { // local value
+        if (isSet(dataMap, bitpos)) { // local value
             int index = getIndex(this.dataMap, bitpos);
             HashPrefixPayload payload = contents[index];
             KeyElement[] mappings = payload.mappings;
@@ -241,14 +292,14 @@ public class Champ implements Cborable {
                         Champ champ = copyAndMigrateFromInlineToNode(bitpos, p);
                         return storage.put(owner, writer, champ.serialize(), tid).thenApply(h -> new Pair<>(champ, h));
                     });
-        } else if (nodeMap.get(bitpos)) { // child node
+        } else if (isSet(nodeMap, bitpos)) { // child node
             return getChild(hash, depth, bitWidth, storage)
                     .thenCompose(child -> child.right.get().put(owner, writer, key, hash, depth + 1, expected, value,
                             bitWidth, maxCollisions, hasher, tid, storage, child.left)
                             .thenCompose(newChild -> {
                                 if (newChild.right.equals(child.left))
                                     return CompletableFuture.completedFuture(new Pair<>(this, ourHash));
-                                Champ champ = overwriteChildLink(bitpos, newChild);
+                                Champ champ = overwriteChildLink(bitpos, newChild, adjustCount(child.right.get(), newChild.left));
                                 return storage.put(owner, writer, champ.serialize(), tid).thenApply(h -> new Pair<>(champ, h));
                             }));
         } else {
@@ -298,7 +349,7 @@ public class Champ implements Cborable {
         updated[payloadIndex] = new KeyElement(existing.mappings[payloadIndex].key, val);
         dst[setIndex] = new HashPrefixPayload(updated);
 
-        return new Champ(dataMap, nodeMap, dst);
+        return build(dataMap, nodeMap, dst, mappingCount);
     }
 
     private Champ insertIntoPrefix(final int index, final ByteArrayWrapper key, final MaybeMultihash val) {
@@ -312,7 +363,7 @@ public class Champ implements Cborable {
         Arrays.sort(prefix, Comparator.comparing(m -> m.key));
         result[index] = new HashPrefixPayload(prefix);
 
-        return new Champ(dataMap, nodeMap, result);
+        return build(dataMap, nodeMap, result, adjustCount(1));
     }
 
     private Champ addNewPrefix(final int bitpos, final ByteArrayWrapper key, final MaybeMultihash val) {
@@ -325,9 +376,7 @@ public class Champ implements Cborable {
         System.arraycopy(src, insertIndex, result, insertIndex + 1, src.length - insertIndex);
         result[insertIndex] = new HashPrefixPayload(new KeyElement[]{new KeyElement(key, val)});
 
-        BitSet newDataMap = BitSet.valueOf(dataMap.toByteArray());
-        newDataMap.set(bitpos);
-        return new Champ(newDataMap, nodeMap, result);
+        return build(dataMap | (1 << bitpos), nodeMap, result, adjustCount(1));
     }
 
     private Champ copyAndMigrateFromInlineToNode(final int bitpos, final Pair<Champ, Multihash> node) {
@@ -346,14 +395,11 @@ public class Champ implements Cborable {
         dst[newIndex] = new HashPrefixPayload(MaybeMultihash.of(node.right));
         System.arraycopy(src, newIndex + 1, dst, newIndex + 1, src.length - newIndex - 1);
 
-        BitSet newNodeMap = BitSet.valueOf(nodeMap.toByteArray());
-        newNodeMap.set(bitpos);
-        BitSet newDataMap = BitSet.valueOf(dataMap.toByteArray());
-        newDataMap.set(bitpos, false);
-        return new Champ(newDataMap, newNodeMap, dst);
+        // the pushed down node contains the existing mappings plus the new one
+        return build(dataMap & ~(1 << bitpos), nodeMap | (1 << bitpos), dst, adjustCount(1));
     }
 
-    private Champ overwriteChildLink(final int bitpos, final Pair<Champ, Multihash> node) {
+    private Champ overwriteChildLink(final int bitpos, final Pair<Champ, Multihash> node, Optional<Long> newCount) {
 
         final int setIndex = this.contents.length - 1 - getIndex(nodeMap, bitpos);
 
@@ -362,7 +408,7 @@ public class Champ implements Cborable {
 
         dst[setIndex] = new HashPrefixPayload(MaybeMultihash.of(node.right));
 
-        return new Champ(dataMap, nodeMap, dst);
+        return build(dataMap, nodeMap, dst, newCount);
     }
 
     /**
@@ -391,7 +437,7 @@ public class Champ implements Cborable {
                                                             Multihash ourHash) {
         int bitpos = mask(hash, depth, bitWidth);
 
-        if (dataMap.get(bitpos)) { // in place value
+        if (isSet(dataMap, bitpos)) { // in place value
             final int dataIndex = getIndex(dataMap, bitpos);
 
             HashPrefixPayload payload = contents[dataIndex];
@@ -418,8 +464,7 @@ public class Champ implements Cborable {
                         if (depth > 0) {
                             // inline all mappings into a single node because at a higher level, all mappings have the
                             // same hash prefix
-                            final BitSet newDataMap = new BitSet();
-                            newDataMap.set(mask(hash, 0, bitWidth));
+                            final int newDataMap = 1 << mask(hash, 0, bitWidth);
 
                             KeyElement[] remainingMappings = new KeyElement[maxCollisions];
                             int nextIndex = 0;
@@ -432,14 +477,12 @@ public class Champ implements Cborable {
                             Arrays.sort(remainingMappings, Comparator.comparing(x -> x.key));
                             HashPrefixPayload[] oneBucket = new HashPrefixPayload[]{new HashPrefixPayload(remainingMappings)};
 
-                            champ = new Champ(newDataMap, new BitSet(), oneBucket);
+                            champ = build(newDataMap, 0, oneBucket, Optional.empty());
                         } else {
-                            final BitSet newDataMap = BitSet.valueOf(dataMap.toByteArray());
                             boolean lastInPrefix = mappings.length == 1;
-                            if (lastInPrefix)
-                                newDataMap.clear(bitpos);
-                            else
-                                newDataMap.set(mask(hash, 0, bitWidth));
+                            final int newDataMap = lastInPrefix ?
+                                    dataMap & ~(1 << bitpos) :
+                                    dataMap | (1 << mask(hash, 0, bitWidth));
 
                             HashPrefixPayload[] src = this.contents;
                             HashPrefixPayload[] dst = new HashPrefixPayload[src.length - (lastInPrefix ? 1 : 0)];
@@ -452,7 +495,7 @@ public class Champ implements Cborable {
                                 dst[dataIndex] = new HashPrefixPayload(remaining);
                             }
 
-                            champ = new Champ(newDataMap, new BitSet(), dst);
+                            champ = build(newDataMap, 0, dst, Optional.empty());
                         }
                         return storage.put(owner, writer, champ.serialize(), tid).thenApply(h -> new Pair<>(champ, h));
                     } else {
@@ -462,7 +505,7 @@ public class Champ implements Cborable {
                 }
             }
             return CompletableFuture.completedFuture(new Pair<>(this, ourHash));
-        } else if (nodeMap.get(bitpos)) { // node (not value)
+        } else if (isSet(nodeMap, bitpos)) { // node (not value)
             return getChild(hash, depth, bitWidth, storage)
                     .thenCompose(child -> child.right.get().remove(owner, writer, key, hash, depth + 1, expected, bitWidth, maxCollisions, tid, storage, child.left)
                             .thenCompose(newChild -> {
@@ -477,12 +520,13 @@ public class Champ implements Cborable {
                                         return CompletableFuture.completedFuture(newChild);
                                     } else {
                                         // inline value (move to front)
-                                        Champ champ = copyAndMigrateFromNodeToInline(bitpos, newChild.left);
+                                        Champ champ = copyAndMigrateFromNodeToInline(bitpos, newChild.left,
+                                                adjustCount(child.right.get(), newChild.left));
                                         return storage.put(owner, writer, champ.serialize(), tid).thenApply(h -> new Pair<>(champ, h));
                                     }
                                 } else {
                                     // modify current node (set replacement node)
-                                    Champ champ = overwriteChildLink(bitpos, newChild);
+                                    Champ champ = overwriteChildLink(bitpos, newChild, adjustCount(child.right.get(), newChild.left));
                                     return storage.put(owner, writer, champ.serialize(), tid).thenApply(h -> new Pair<>(champ, h));
                                 }
                             }));
@@ -491,7 +535,7 @@ public class Champ implements Cborable {
         return CompletableFuture.completedFuture(new Pair<>(this, ourHash));
     }
 
-    private Champ copyAndMigrateFromNodeToInline(final int bitpos, final Champ node) {
+    private Champ copyAndMigrateFromNodeToInline(final int bitpos, final Champ node, Optional<Long> newCount) {
 
         final int oldIndex = this.contents.length - 1 - getIndex(nodeMap, bitpos);
         final int newIndex = getIndex(dataMap, bitpos);
@@ -515,11 +559,7 @@ public class Champ implements Cborable {
         System.arraycopy(src, newIndex, dst, newIndex + 1, oldIndex - newIndex);
         System.arraycopy(src, oldIndex + 1, dst, oldIndex + 1, src.length - oldIndex - 1);
 
-        BitSet newNodeMap = BitSet.valueOf(nodeMap.toByteArray());
-        newNodeMap.set(bitpos, false);
-        BitSet newDataMap = BitSet.valueOf(dataMap.toByteArray());
-        newDataMap.set(bitpos, true);
-        return new Champ(newDataMap, newNodeMap, dst);
+        return build(dataMap | (1 << bitpos), nodeMap & ~(1 << bitpos), dst, newCount);
     }
 
     private Champ removeMapping(final int bitpos, final int payloadIndex) {
@@ -539,10 +579,7 @@ public class Champ implements Cborable {
             dst[index] = new HashPrefixPayload(remaining);
         }
 
-        BitSet newDataMap = BitSet.valueOf(dataMap.toByteArray());
-        if (lastInPrefix)
-            newDataMap.clear(bitpos);
-        return new Champ(newDataMap, nodeMap, dst);
+        return build(lastInPrefix ? dataMap & ~(1 << bitpos) : dataMap, nodeMap, dst, adjustCount(-1));
     }
 
     public <T> CompletableFuture<T> applyToAllMappings(T identity,
@@ -565,75 +602,175 @@ public class Champ implements Cborable {
                 ), (a, b) -> a);
     }
 
-    private List<KeyElement> getMappings() {
-        return Arrays.stream(contents)
-                .filter(p -> !p.isShard())
-                .flatMap(p -> Arrays.stream(p.mappings))
-                .collect(Collectors.toList());
-    }
+    private static final int DEFAULT_DIFF_CONCURRENCY = 16;
 
-    private List<HashPrefixPayload> getLinks() {
-        return Arrays.stream(contents)
-                .filter(p -> p.isShard())
-                .collect(Collectors.toList());
+    public static CompletableFuture<Boolean> applyToDiff(
+            MaybeMultihash original,
+            MaybeMultihash updated,
+            Consumer<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> consumer,
+            ContentAddressedStorage storage) {
+        return applyToDiff(original, updated, consumer, DEFAULT_DIFF_CONCURRENCY, storage);
     }
 
+    /** Call the consumer with (key, original value, updated value) for every key whose value differs between two champs.
+     *  Subtrees with identical hashes are skipped without being retrieved. The consumer is called once per key, and
+     *  never concurrently, but in no particular order.
+     *
+     * @param maxConcurrentFetches The maximum number of nodes being retrieved from storage at once
+     */
     public static CompletableFuture<Boolean> applyToDiff(
             MaybeMultihash original,
             MaybeMultihash updated,
             Consumer<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> consumer,
+            int maxConcurrentFetches,
             ContentAddressedStorage storage) {
+        AsyncLimiter limiter = new AsyncLimiter(maxConcurrentFetches);
+        // not the limiter's monitor, so a slow consumer never blocks tasks starting or completing
+        Object consumerLock = new Object();
+        Consumer<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> serialConsumer = t -> {
+            synchronized (consumerLock) {
+                consumer.accept(t);
+            }
+        };
+        return diffLinks(original, updated, serialConsumer, limiter, storage);
+    }
 
+    private static CompletableFuture<Champ> getNode(MaybeMultihash link,
+                                                    AsyncLimiter limiter,
+                                                    ContentAddressedStorage storage) {
+        if (! link.isPresent())
+            return CompletableFuture.completedFuture(empty());
+        return limiter.submit(() -> storage.get(link.get()))
+                .thenApply(rawOpt -> Champ.fromCbor(rawOpt.orElseThrow(() ->
+                        new IllegalStateException("Champ node not present! " + link))));
+    }
+
+    private static CompletableFuture<Boolean> diffLinks(MaybeMultihash original,
+                                                        MaybeMultihash updated,
+                                                        Consumer<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> consumer,
+                                                        AsyncLimiter limiter,
+                                                        ContentAddressedStorage storage) {
         if (updated.equals(original))
             return CompletableFuture.completedFuture(true);
-        return original.map(storage::get).orElseGet(() -> CompletableFuture.completedFuture(Optional.empty()))
-                .thenApply(rawOpt -> rawOpt.map(Champ::fromCbor))
-                .thenCompose(left -> updated.map(storage::get).orElseGet(() -> CompletableFuture.completedFuture(Optional.empty()))
-                        .thenApply(rawOpt -> rawOpt.map(Champ::fromCbor))
-                        .thenCompose(right -> {
-                            List<KeyElement> leftMappings = left.map(Champ::getMappings).orElseGet(Collections::emptyList);
-                            List<KeyElement> rightMappings = right.map(Champ::getMappings).orElseGet(Collections::emptyList);
-                            Map<ByteArrayWrapper, MaybeMultihash> leftMap = leftMappings.stream()
-                                    .collect(Collectors.toMap(e -> e.key, e -> e.valueHash));
-                            Map<ByteArrayWrapper, MaybeMultihash> rightMap = rightMappings.stream()
-                                    .collect(Collectors.toMap(e -> e.key, e -> e.valueHash));
-
-                            HashSet<ByteArrayWrapper> both = new HashSet<>(leftMap.keySet());
-                            both.retainAll(rightMap.keySet());
-                            for (Map.Entry<ByteArrayWrapper, MaybeMultihash> entry : leftMap.entrySet()) {
-                                if (! both.contains(entry.getKey()))
-                                    consumer.accept(new Triple<>(entry.getKey(), entry.getValue(), MaybeMultihash.empty()));
-                                else
-                                    consumer.accept(new Triple<>(entry.getKey(), entry.getValue(), rightMap.get(entry.getKey())));
-                            }
-                            for (Map.Entry<ByteArrayWrapper, MaybeMultihash> entry : rightMap.entrySet()) {
-                                if (! both.contains(entry.getKey()))
-                                    consumer.accept(new Triple<>(entry.getKey(), MaybeMultihash.empty(), entry.getValue()));
-                            }
+        // fetch both sides concurrently
+        CompletableFuture<Champ> left = getNode(original, limiter, storage);
+        CompletableFuture<Champ> right = getNode(updated, limiter, storage);
+        return left.thenCompose(l -> right.thenCompose(r -> diffNodes(l, r, consumer, limiter, storage)));
+    }
 
-                            // Now descend recursively, diffing equal indexed elements
-                            List<HashPrefixPayload> leftLinks = left.map(Champ::getLinks).orElseGet(Collections::emptyList);
-                            List<HashPrefixPayload> rightLinks = right.map(Champ::getLinks).orElseGet(Collections::emptyList);
+    /** Diff two nodes at the same depth, matching their contents by hash prefix
+     *
+     */
+    private static CompletableFuture<Boolean> diffNodes(Champ left,
+                                                        Champ right,
+                                                        Consumer<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> consumer,
+                                                        AsyncLimiter limiter,
+                                                        ContentAddressedStorage storage) {
+        List<CompletableFuture<Boolean>> children = new ArrayList<>();
+        int prefixes = left.dataMap | left.nodeMap | right.dataMap | right.nodeMap;
+        while (prefixes != 0) {
+            int bitpos = Integer.numberOfTrailingZeros(prefixes);
+            prefixes &= prefixes - 1;
+            HashPrefixPayload l = left.getPayload(bitpos);
+            HashPrefixPayload r = right.getPayload(bitpos);
+            if (l != null && l.isShard() && r != null && r.isShard()) {
+                children.add(diffLinks(l.link, r.link, consumer, limiter, storage));
+            } else if ((l == null || ! l.isShard()) && (r == null || ! r.isShard())) {
+                diffMappings(l == null ? new KeyElement[0] : l.mappings, r == null ? new KeyElement[0] : r.mappings, consumer);
+            } else {
+                // one side has been pushed down a level, so compare everything under this prefix
+                children.add(getAllMappings(l, limiter, storage)
+                        .thenCompose(leftMappings -> getAllMappings(r, limiter, storage)
+                                .thenApply(rightMappings -> {
+                                    diffMappings(leftMappings, rightMappings, consumer);
+                                    return true;
+                                })));
+            }
+        }
+        return Futures.combineAll(children).thenApply(x -> true);
+    }
 
-                            List<Pair<MaybeMultihash, MaybeMultihash>> linkPairs = new ArrayList<>();
-                            for (int i=0; i < Math.max(leftLinks.size(), rightLinks.size()); i++) {
-                                linkPairs.add(new Pair<>(i < leftLinks.size() ? leftLinks.get(i).link : MaybeMultihash.empty(),
-                                        i < rightLinks.size() ? rightLinks.get(i).link : MaybeMultihash.empty()));
-                            }
+    /**
+     *
+     * @return the payload for this hash prefix, or null if there isn't one
+     */
+    private HashPrefixPayload getPayload(int bitpos) {
+        if (isSet(dataMap, bitpos))
+            return contents[getIndex(dataMap, bitpos)];
+        if (isSet(nodeMap, bitpos))
+            return contents[contents.length - 1 - getIndex(nodeMap, bitpos)];
+        return null;
+    }
 
-                            return Futures.combineAll(linkPairs.stream()
-                                    .map(p -> applyToDiff(p.left, p.right, consumer, storage))
-                                    .collect(Collectors.toList()))
-                                    .thenApply(x -> true);
-                        })
-        );
+    private static CompletableFuture<KeyElement[]> getAllMappings(HashPrefixPayload payload,
+                                                                  AsyncLimiter limiter,
+                                                                  ContentAddressedStorage storage) {
+        if (payload == null)
+            return CompletableFuture.completedFuture(new KeyElement[0]);
+        if (! payload.isShard())
+            return CompletableFuture.completedFuture(payload.mappings);
+        return getNode(payload.link, limiter, storage)
+                .thenCompose(child -> getAllMappings(child, limiter, storage))
+                .thenApply(all -> {
+                    all.sort(Comparator.comparing(m -> m.key));
+                    return all.toArray(new KeyElement[0]);
+                });
     }
 
+    /**
+     *
+     * @return every mapping in this node and its descendants, which are retrieved concurrently through the limiter
+     */
+    private static CompletableFuture<List<KeyElement>> getAllMappings(Champ node,
+                                                                      AsyncLimiter limiter,
+                                                                      ContentAddressedStorage storage) {
+        List<KeyElement> res = new ArrayList<>();
+        List<CompletableFuture<List<KeyElement>>> children = new ArrayList<>();
+        for (HashPrefixPayload payload : node.contents) {
+            if (payload.isShard())
+                children.add(getNode(payload.link, limiter, storage)
+                        .thenCompose(child -> getAllMappings(child, limiter, storage)));
+            else
+                res.addAll(Arrays.asList(payload.mappings));
+        }
+        return Futures.combineAllInOrder(children).thenApply(descendants -> {
+            descendants.forEach(res::addAll);
+            return res;
+        });
+    }
+
+    /** Merge two lists of mappings sorted by key
+     *
+     */
+    private static void diffMappings(KeyElement[] left,
+                                     KeyElement[] right,
+                                     Consumer<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> consumer) {
+        int i = 0, j = 0;
+        while (i < left.length || j < right.length) {
+            int comparison = i == left.length ? 1 : j == right.length ? -1 : left[i].key.compareTo(right[j].key);
+            if (comparison < 0) {
+                consumer.accept(new Triple<>(left[i].key, left[i].valueHash, MaybeMultihash.empty()));
+                i++;
+            } else if (comparison > 0) {
+                consumer.accept(new Triple<>(right[j].key, MaybeMultihash.empty(), right[j].valueHash));
+                j++;
+            } else {
+                if (! left[i].valueHash.equals(right[j].valueHash))
+                    consumer.accept(new Triple<>(left[i].key, left[i].valueHash, right[j].valueHash));
+                i++;
+                j++;
+            }
+        }
+    }
+
+    /** The serialized form is [dataMap, nodeMap, contents], with an optional 4th element of the mapping count in nodes
+     *  which know it. Readers of the original format ignore it.
+     */
     @Override
     public CborObject toCbor() {
-        return new CborObject.CborList(Arrays.asList(
-                new CborObject.CborByteArray(dataMap.toByteArray()),
-                new CborObject.CborByteArray(nodeMap.toByteArray()),
+        List<CborObject> fields = new ArrayList<>(Arrays.asList(
+                new CborObject.CborByteArray(bitmapToBytes(dataMap)),
+                new CborObject.CborByteArray(bitmapToBytes(nodeMap)),
                 new CborObject.CborList(Arrays.stream(contents)
                         .flatMap(e -> e.link != null ?
                                 Stream.of(new CborObject.CborMerkleLink(e.link.get())) :
@@ -647,6 +784,31 @@ public class Champ implements Cborable {
                                         .collect(Collectors.toList()))))
                         .collect(Collectors.toList()))
         ));
+        mappingCount.ifPresent(count -> fields.add(new CborObject.CborLong(count)));
+        return new CborObject.CborList(fields);
+    }
+
+    /** Serialize a bitmap the same way as BitSet.toByteArray(), little endian without trailing zero bytes
+     *
+     */
+    private static byte[] bitmapToBytes(int bitmap) {
+        int len = (32 - Integer.numberOfLeadingZeros(bitmap) + 7) / 8;
+        byte[] res = new byte[len];
+        for (int i = 0; i < len; i++)
+            res[i] = (byte) (bitmap >>> (8 * i));
+        return res;
+    }
+
+    private static int bitmapFromBytes(byte[] raw) {
+        int bitmap = 0;
+        for (int i = 0; i < raw.length; i++) {
+            if (raw[i] == 0)
+                continue;
+            if (i >= 4)
+                throw new IllegalStateException("Champ bitmap too large!");
+            bitmap |= (raw[i] & 0xFF) << (8 * i);
+        }
+        return bitmap;
     }
 
     public static Champ fromCbor(Cborable cbor) {
@@ -656,8 +818,8 @@ public class Champ implements Cborable {
 
         if (! (list.get(0) instanceof CborObject.CborByteArray))
             throw new IllegalStateException("Invalid cbor for a champ, is this a btree?");
-        BitSet dataMap = BitSet.valueOf(((CborObject.CborByteArray)list.get(0)).value);
-        BitSet nodeMap = BitSet.valueOf(((CborObject.CborByteArray)list.get(1)).value);
+        int dataMap = bitmapFromBytes(((CborObject.CborByteArray)list.get(0)).value);
+        int nodeMap = bitmapFromBytes(((CborObject.CborByteArray)list.get(1)).value);
         List<? extends Cborable> contentsCbor = ((CborObject.CborList) list.get(2)).value;
 
         List<HashPrefixPayload> contents = new ArrayList<>();
@@ -679,6 +841,9 @@ public class Champ implements Cborable {
                 contents.add(new HashPrefixPayload(MaybeMultihash.of(((CborObject.CborMerkleLink)keyOrHash).target)));
             }
         }
-        return new Champ(dataMap, nodeMap, contents.toArray(new HashPrefixPayload[contents.size()]));
+        Optional<Long> mappingCount = list.size() > 3 ?
+                Optional.of(((CborObject.CborLong) list.get(3)).value) :
+                Optional.empty();
+        return new Champ(dataMap, nodeMap, contents.toArray(new HashPrefixPayload[contents.size()]), mappingCount);
     }
 }
@@ -9,8 +9,10 @@ import peergos.shared.user.*;
 import peergos.shared.util.*;
 
 import java.io.*;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.*;
+import java.util.stream.*;
 
 public class ChampWrapper implements ImmutableTree
 {
@@ -23,6 +25,8 @@ public class ChampWrapper implements ImmutableTree
     private Pair<Champ, Multihash> root;
 
     public ChampWrapper(Champ root, Multihash rootHash, Function<ByteArrayWrapper, byte[]> hasher, ContentAddressedStorage storage, int bitWidth) {
+        if (bitWidth > Champ.MAX_BIT_WIDTH)
+            throw new IllegalStateException("Champ bit width must be at most " + Champ.MAX_BIT_WIDTH);
         this.storage = storage;
         this.hasher = hasher;
         this.root = new Pair<>(root, rootHash);
@@ -59,7 +63,44 @@ public class ChampWrapper implements ImmutableTree
     @Override
     public CompletableFuture<MaybeMultihash> get(byte[] rawKey) {
         ByteArrayWrapper key = new ByteArrayWrapper(rawKey);
-        return root.left.get(key, hasher.apply(key), 0, BIT_WIDTH, storage);
+        return root.left.get(key, hasher.apply(key), 0, bitWidth, storage);
+    }
+
+    /** Look up many keys, each in the champ with the given root, concurrently
+     *
+     * @param lookups pairs of champ root and raw key
+     * @return every champ node visited, and every value found, so that the lookups can be repeated without any
+     * other blocks. Each block is only included once.
+     */
+    public static CompletableFuture<List<byte[]>> getLookupBlocks(List<Pair<Multihash, byte[]>> lookups,
+                                                                  Function<ByteArrayWrapper, byte[]> hasher,
+                                                                  ContentAddressedStorage storage) {
+        Map<Multihash, byte[]> blocks = new LinkedHashMap<>();
+        BiConsumer<Multihash, byte[]> add = (h, block) -> {
+            synchronized (blocks) {
+                blocks.putIfAbsent(h, block);
+            }
+        };
+        List<CompletableFuture<Boolean>> all = lookups.stream()
+                .map(lookup -> storage.get(lookup.left).thenCompose(rootOpt -> {
+                    if (! rootOpt.isPresent())
+                        return CompletableFuture.completedFuture(false);
+                    add.accept(lookup.left, rootOpt.get().toByteArray());
+                    ByteArrayWrapper key = new ByteArrayWrapper(lookup.right);
+                    return Champ.fromCbor(rootOpt.get())
+                            .get(key, hasher.apply(key), 0, BIT_WIDTH, storage, (h, c) -> add.accept(h, c.serialize()))
+                            .thenCompose(value -> value.isPresent() ?
+                                    storage.get(value.get()).thenApply(valueOpt -> {
+                                        valueOpt.ifPresent(cbor -> add.accept(value.get(), cbor.toByteArray()));
+                                        return true;
+                                    }) :
+                                    CompletableFuture.completedFuture(false));
+                })).collect(Collectors.toList());
+        return Futures.combineAll(all).thenApply(done -> {
+            synchronized (blocks) {
+                return new ArrayList<>(blocks.values());
+            }
+        });
     }
 
     /**
@@ -78,7 +119,7 @@ public class ChampWrapper implements ImmutableTree
                                             TransactionId tid) {
         ByteArrayWrapper key = new ByteArrayWrapper(rawKey);
         return root.left.put(owner, writer, key, hasher.apply(key), 0, existing, MaybeMultihash.of(value),
-                BIT_WIDTH, MAX_HASH_COLLISIONS_PER_LEVEL, hasher, tid, storage, root.right)
+                bitWidth, MAX_HASH_COLLISIONS_PER_LEVEL, hasher, tid, storage, root.right)
                 .thenCompose(newRoot -> commit(writer, newRoot));
     }
 
@@ -96,10 +137,55 @@ public class ChampWrapper implements ImmutableTree
                                                TransactionId tid) {
         ByteArrayWrapper key = new ByteArrayWrapper(rawKey);
         return root.left.put(owner, writer, key, hasher.apply(key), 0, existing, MaybeMultihash.empty(),
-                BIT_WIDTH, MAX_HASH_COLLISIONS_PER_LEVEL, hasher, tid, storage, root.right)
+                bitWidth, MAX_HASH_COLLISIONS_PER_LEVEL, hasher, tid, storage, root.right)
                 .thenCompose(newRoot -> commit(writer, newRoot));
     }
 
+    /** Apply many updates, writing each modified node only once, rather than once per update
+     *
+     * @param updates map from key to the expected current value and the new value
+     * @return hash of new tree root
+     */
+    public CompletableFuture<Multihash> putAll(PublicKeyHash owner,
+                                               SigningPrivateKeyAndPublicHash writer,
+                                               Map<ByteArrayWrapper, Pair<MaybeMultihash, Multihash>> updates,
+                                               TransactionId tid) {
+        Map<ByteArrayWrapper, Pair<MaybeMultihash, MaybeMultihash>> changes = new LinkedHashMap<>();
+        for (Map.Entry<ByteArrayWrapper, Pair<MaybeMultihash, Multihash>> e : updates.entrySet())
+            changes.put(e.getKey(), new Pair<>(e.getValue().left, MaybeMultihash.of(e.getValue().right)));
+        return applyAll(owner, writer, changes, tid);
+    }
+
+    /** Remove many keys, writing each modified node only once, rather than once per removal
+     *
+     * @param existing map from key to the expected current value
+     * @return hash of new tree root
+     */
+    public CompletableFuture<Multihash> removeAll(PublicKeyHash owner,
+                                                  SigningPrivateKeyAndPublicHash writer,
+                                                  Map<ByteArrayWrapper, MaybeMultihash> existing,
+                                                  TransactionId tid) {
+        Map<ByteArrayWrapper, Pair<MaybeMultihash, MaybeMultihash>> changes = new LinkedHashMap<>();
+        for (Map.Entry<ByteArrayWrapper, MaybeMultihash> e : existing.entrySet())
+            changes.put(e.getKey(), new Pair<>(e.getValue(), MaybeMultihash.empty()));
+        return applyAll(owner, writer, changes, tid);
+    }
+
+    private CompletableFuture<Multihash> applyAll(PublicKeyHash owner,
+                                                  SigningPrivateKeyAndPublicHash writer,
+                                                  Map<ByteArrayWrapper, Pair<MaybeMultihash, MaybeMultihash>> changes,
+                                                  TransactionId tid) {
+        // intermediate nodes only live in the buffer, and the final ones are uploaded in a single call
+        BufferedStorage buffer = new BufferedStorage(storage);
+        return Futures.reduceAll(changes.entrySet(), root,
+                (current, e) -> current.left.put(owner, writer, e.getKey(), hasher.apply(e.getKey()), 0,
+                        e.getValue().left, e.getValue().right, bitWidth, MAX_HASH_COLLISIONS_PER_LEVEL, hasher,
+                        tid, buffer, current.right),
+                (a, b) -> b)
+                .thenCompose(newRoot -> buffer.commit(owner, writer, newRoot.right, tid)
+                        .thenCompose(h -> commit(writer, newRoot)));
+    }
+
     private CompletableFuture<Multihash> commit(SigningPrivateKeyAndPublicHash writer, Pair<Champ, Multihash> newRoot) {
         root = newRoot;
         return CompletableFuture.completedFuture(newRoot.right);
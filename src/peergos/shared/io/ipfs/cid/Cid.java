@@ -48,6 +48,7 @@ public class Cid extends Multihash {
 
     public final long version;
     public final Codec codec;
+    private String string; // lazily computed
 
     public Cid(long version, Codec codec, Multihash.Type type, byte[] hash) {
         super(type, hash);
@@ -89,7 +90,9 @@ public class Cid extends Multihash {
         if (version == 0) {
             return super.toString();
         } else if (version == 1) {
-            return Multibase.encode(Multibase.Base.Base58BTC, toBytesV1());
+            if (string == null)
+                string = Multibase.encode(Multibase.Base.Base58BTC, toBytesV1());
+            return string;
         }
         throw new IllegalStateException("Unknown Cid version: " + version);
     }
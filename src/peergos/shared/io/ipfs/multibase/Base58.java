@@ -17,6 +17,7 @@ package peergos.shared.io.ipfs.multibase;
  */
 
 import java.math.*;
+import java.util.*;
 
 /**
  * A custom form of base58 is used to encode BitCoin addresses. Note that this is not the same base58 as used by
@@ -34,44 +35,101 @@ import java.math.*;
  */
 public class Base58 {
     private static final String ALPHABET = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz";
+    private static final char[] ALPHABET_CHARS = ALPHABET.toCharArray();
+    private static final char ENCODED_ZERO = ALPHABET_CHARS[0];
+    private static final int[] INDEXES = new int[128];
+    static {
+        Arrays.fill(INDEXES, -1);
+        for (int i = 0; i < ALPHABET_CHARS.length; i++)
+            INDEXES[ALPHABET_CHARS[i]] = i;
+    }
     private static final BigInteger BASE = BigInteger.valueOf(58);
 
+    // the largest powers of the output bases for which a division step cannot overflow an int (longs are slow in JS)
+    private static final int DIGITS_PER_DIVISION = 3;
+    private static final int DIGITS_DIVISOR = 58 * 58 * 58;
+    private static final int BYTES_PER_DIVISION = 3;
+    private static final int BYTES_DIVISOR = 1 << 24;
+
+    /** Repeatedly divides the number in a working copy of the input by a power of 58, collecting several digits
+     *  from each remainder, without any intermediate allocation.
+     */
     public static String encode(byte[] input) {
-        // TODO: This could be a lot more efficient.
-        BigInteger bi = new BigInteger(1, input);
-        StringBuffer s = new StringBuffer();
-        while (bi.compareTo(BASE) >= 0) {
-            BigInteger mod = bi.mod(BASE);
-            s.insert(0, ALPHABET.charAt(mod.intValue()));
-            bi = bi.subtract(mod).divide(BASE);
-        }
-        s.insert(0, ALPHABET.charAt(bi.intValue()));
-        // Convert leading zeros too.
-        for (byte anInput : input) {
-            if (anInput == 0)
-                s.insert(0, ALPHABET.charAt(0));
-            else
-                break;
+        if (input.length == 0)
+            return "";
+        // Count leading zeros, which are each encoded as a single zero digit
+        int zeros = 0;
+        while (zeros < input.length && input[zeros] == 0)
+            zeros++;
+        byte[] number = Arrays.copyOf(input, input.length);
+        // log(256) / log(58) < 1.37, so this is an upper bound on the output length
+        char[] encoded = new char[input.length * 2 + DIGITS_PER_DIVISION];
+        int outputStart = encoded.length;
+        for (int inputStart = zeros; inputStart < number.length; ) {
+            int remainder = divmod(number, inputStart, 256, DIGITS_DIVISOR);
+            for (int i = 0; i < DIGITS_PER_DIVISION; i++) {
+                encoded[--outputStart] = ALPHABET_CHARS[remainder % 58];
+                remainder /= 58;
+            }
+            while (inputStart < number.length && number[inputStart] == 0)
+                inputStart++;
         }
-        return s.toString();
+        // Strip extra zero digits from the division and add back the ones from leading zero bytes
+        while (outputStart < encoded.length && encoded[outputStart] == ENCODED_ZERO)
+            outputStart++;
+        while (--zeros >= 0)
+            encoded[--outputStart] = ENCODED_ZERO;
+        return new String(encoded, outputStart, encoded.length - outputStart);
     }
 
     public static byte[] decode(String input) {
-        byte[] bytes = decodeToBigInteger(input).toByteArray();
-        // We may have got one more byte than we wanted, if the high bit of the next-to-last byte was not zero. This
-        // is because BigIntegers are represented with twos-compliment notation, thus if the high bit of the last
-        // byte happens to be 1 another 8 zero bits will be added to ensure the number parses as positive. Detect
-        // that case here and chop it off.
-        boolean stripSignByte = bytes.length > 1 && bytes[0] == 0 && bytes[1] < 0;
-        // Count the leading zeros, if any.
-        int leadingZeros = 0;
-        for (int i = 0; input.charAt(i) == ALPHABET.charAt(0); i++) {
-            leadingZeros++;
+        if (input.length() == 0)
+            return new byte[0];
+        // Convert the string to an array of base 58 digits
+        byte[] input58 = new byte[input.length()];
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            int digit = c < 128 ? INDEXES[c] : -1;
+            if (digit < 0)
+                throw new IllegalStateException("Illegal character " + c + " at " + i);
+            input58[i] = (byte) digit;
+        }
+        int zeros = 0;
+        while (zeros < input58.length && input58[zeros] == 0)
+            zeros++;
+        // Convert from base 58 to base 256, filling the output from the end
+        byte[] decoded = new byte[input.length() + BYTES_PER_DIVISION];
+        int outputStart = decoded.length;
+        for (int inputStart = zeros; inputStart < input58.length; ) {
+            int remainder = divmod(input58, inputStart, 58, BYTES_DIVISOR);
+            for (int i = 0; i < BYTES_PER_DIVISION; i++) {
+                decoded[--outputStart] = (byte) remainder;
+                remainder >>= 8;
+            }
+            while (inputStart < input58.length && input58[inputStart] == 0)
+                inputStart++;
+        }
+        // Strip extra leading zeros from the division and add back the ones from leading zero digits
+        while (outputStart < decoded.length && decoded[outputStart] == 0)
+            outputStart++;
+        return Arrays.copyOfRange(decoded, outputStart - zeros, decoded.length);
+    }
+
+    /**
+     * Divides a number, in the given base, by a divisor, in place.
+     *
+     * @param number the digits of the number, most significant first, each in the range [0, base)
+     * @param firstDigit the index of the first non zero digit
+     * @return the remainder
+     */
+    private static int divmod(byte[] number, int firstDigit, int base, int divisor) {
+        int remainder = 0;
+        for (int i = firstDigit; i < number.length; i++) {
+            int temp = remainder * base + (number[i] & 0xFF);
+            number[i] = (byte) (temp / divisor);
+            remainder = temp % divisor;
         }
-        // Now cut/pad correctly. Java 6 has a convenience for this, but Android can't use it.
-        byte[] tmp = new byte[bytes.length - (stripSignByte ? 1 : 0) + leadingZeros];
-        System.arraycopy(bytes, stripSignByte ? 1 : 0, tmp, leadingZeros, tmp.length - leadingZeros);
-        return tmp;
+        return remainder;
     }
 
     public static BigInteger decodeToBigInteger(String input) {
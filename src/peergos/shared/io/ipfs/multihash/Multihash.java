@@ -42,6 +42,8 @@ public class Multihash implements Comparable<Multihash> {
 
     public final Type type;
     private final byte[] hash;
+    // lazily computed, this is used as a file name, map key and url parameter
+    private String base58;
 
     @JsConstructor
     public Multihash(Type type, byte[] hash) {
@@ -137,7 +139,9 @@ public class Multihash implements Comparable<Multihash> {
     }
 
     public String toBase58() {
-        return Base58.encode(toBytes());
+        if (base58 == null)
+            base58 = Base58.encode(toBytes());
+        return base58;
     }
 
     public static Multihash fromBase58(String base58) {
@@ -49,4 +49,19 @@ public class CachingPointers implements MutablePointers {
             return res;
         });
     }
+
+    @Override
+    public CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> watchPointers(PublicKeyHash owner,
+                                                                                 Map<PublicKeyHash, Optional<byte[]>> known,
+                                                                                 long timeoutMillis) {
+        return target.watchPointers(owner, known, timeoutMillis).thenApply(changes -> {
+            synchronized (cache) {
+                long now = System.currentTimeMillis();
+                for (Map.Entry<PublicKeyHash, Optional<byte[]>> e : changes.entrySet()) {
+                    cache.put(e.getKey(), new Pair<>(e.getValue(), now));
+                }
+            }
+            return changes;
+        });
+    }
 }
@@ -2,6 +2,7 @@
 package peergos.shared.mutable;
 import java.util.logging.*;
 
+import peergos.shared.cbor.*;
 import peergos.shared.crypto.hash.*;
 import peergos.shared.io.ipfs.multihash.*;
 import peergos.shared.user.*;
@@ -107,4 +108,29 @@ public class HttpMutablePointers implements MutablePointersProxy {
                 LOG.info("HttpMutablePointers.get took " + (t2 -t1) + "mS");
         }
     }
+
+    @Override
+    public CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> watchPointers(PublicKeyHash owner,
+                                                                                 Map<PublicKeyHash, Optional<byte[]>> known,
+                                                                                 long timeoutMillis) {
+        return watchPointers(directUrlPrefix, direct, owner, known, timeoutMillis);
+    }
+
+    @Override
+    public CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> watchPointers(Multihash targetId,
+                                                                                 PublicKeyHash owner,
+                                                                                 Map<PublicKeyHash, Optional<byte[]>> known,
+                                                                                 long timeoutMillis) {
+        return watchPointers(getProxyUrlPrefix(targetId), p2p, owner, known, timeoutMillis);
+    }
+
+    private CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> watchPointers(String urlPrefix,
+                                                                                  HttpPoster poster,
+                                                                                  PublicKeyHash owner,
+                                                                                  Map<PublicKeyHash, Optional<byte[]>> known,
+                                                                                  long timeoutMillis) {
+        return poster.postUnzip(urlPrefix + Constants.MUTABLE_POINTERS_URL + "watchPointers?owner=" + owner
+                + "&timeout=" + timeoutMillis, new WatchedPointers(known).serialize())
+                .thenApply(res -> WatchedPointers.fromCbor(CborObject.fromByteArray(res)).pointers);
+    }
 }
@@ -6,6 +6,7 @@ import peergos.shared.crypto.hash.*;
 import peergos.shared.io.ipfs.multihash.*;
 import peergos.shared.MaybeMultihash;
 import peergos.shared.storage.ContentAddressedStorage;
+import peergos.shared.util.*;
 
 import java.util.*;
 import java.util.concurrent.*;
@@ -28,6 +29,43 @@ public interface MutablePointers {
      */
     CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash owner, PublicKeyHash writer);
 
+    /** Wait until the pointer of any of the given writers differs from the caller's known value
+     *
+     * @param owner The owner of the signing keys
+     * @param known The caller's current signed pointer value for each writer, or empty if it has none
+     * @param timeoutMillis The maximum time to wait for a change
+     * @return The writers whose pointers differ from the known values mapped to their current values, or an empty map
+     * if there were no changes before the timeout. Implementations which are not notified of updates return immediately.
+     */
+    default CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> watchPointers(PublicKeyHash owner,
+                                                                                  Map<PublicKeyHash, Optional<byte[]>> known,
+                                                                                  long timeoutMillis) {
+        return getChangedPointers(owner, known);
+    }
+
+    /**
+     *
+     * @param owner The owner of the signing keys
+     * @param known The caller's current signed pointer value for each writer
+     * @return The writers whose current pointers differ from the known values, mapped to their current values
+     */
+    default CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> getChangedPointers(PublicKeyHash owner,
+                                                                                       Map<PublicKeyHash, Optional<byte[]>> known) {
+        return Futures.reduceAll(known.entrySet(), Collections.emptyMap(),
+                (acc, e) -> getPointer(owner, e.getKey()).thenApply(current -> {
+                    if (isSamePointer(current, e.getValue()))
+                        return acc;
+                    Map<PublicKeyHash, Optional<byte[]>> res = new HashMap<>(acc);
+                    res.put(e.getKey(), current);
+                    return res;
+                }),
+                (a, b) -> {
+                    Map<PublicKeyHash, Optional<byte[]>> res = new HashMap<>(a);
+                    res.putAll(b);
+                    return res;
+                });
+    }
+
     /**
      * Get the CAS key-hash for the data pointed to by a writer-key.
      * @param writerKeyHash
@@ -57,4 +95,10 @@ public interface MutablePointers {
                 .orElse(MaybeMultihash.empty());
         return existing.equals(claimedCurrentHash);
     }
+
+    static boolean isSamePointer(Optional<byte[]> a, Optional<byte[]> b) {
+        if (a.isPresent() != b.isPresent())
+            return false;
+        return ! a.isPresent() || Arrays.equals(a.get(), b.get());
+    }
 }
@@ -29,4 +29,18 @@ public interface MutablePointersProxy extends MutablePointers {
      */
     CompletableFuture<Optional<byte[]>> getPointer(Multihash targetServerId, PublicKeyHash owner, PublicKeyHash writer);
 
+    /** Wait until the pointer of any of the given writers differs from the caller's known value
+     *
+     * @param targetServerId The id of the server which stores the writers' pointers
+     * @param owner The owner of the signing keys
+     * @param known The caller's current signed pointer value for each writer, or empty if it has none
+     * @param timeoutMillis The maximum time to wait for a change
+     * @return The writers whose pointers differ from the known values mapped to their current values, or an empty map
+     * if there were no changes before the timeout
+     */
+    CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> watchPointers(Multihash targetServerId,
+                                                                          PublicKeyHash owner,
+                                                                          Map<PublicKeyHash, Optional<byte[]>> known,
+                                                                          long timeoutMillis);
+
 }
@@ -0,0 +1,45 @@
+package peergos.shared.mutable;
+
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.hash.*;
+
+import java.util.*;
+import java.util.stream.*;
+
+/** A set of writers and their signed pointer values, used to subscribe to, and report, pointer changes
+ *
+ */
+public class WatchedPointers implements Cborable {
+
+    public final Map<PublicKeyHash, Optional<byte[]>> pointers;
+
+    public WatchedPointers(Map<PublicKeyHash, Optional<byte[]>> pointers) {
+        this.pointers = pointers;
+    }
+
+    @Override
+    public CborObject toCbor() {
+        TreeMap<CborObject, CborObject.CborByteArray> map = pointers.entrySet()
+                .stream()
+                .collect(Collectors.toMap(
+                        e -> e.getKey().toCbor(),
+                        e -> new CborObject.CborByteArray(e.getValue().orElse(new byte[0])),
+                        (a, b) -> a,
+                        TreeMap::new
+                ));
+        return new CborObject.CborMap(map);
+    }
+
+    public static WatchedPointers fromCbor(CborObject cbor) {
+        if (! (cbor instanceof CborObject.CborMap))
+            throw new IllegalStateException("Incorrect cbor for WatchedPointers: " + cbor);
+
+        Map<PublicKeyHash, Optional<byte[]>> pointers = ((CborObject.CborMap) cbor).getMap(
+                PublicKeyHash::fromCbor,
+                c -> {
+                    byte[] value = ((CborObject.CborByteArray) c).value;
+                    return value.length == 0 ? Optional.empty() : Optional.of(value);
+                });
+        return new WatchedPointers(pointers);
+    }
+}
@@ -0,0 +1,180 @@
+package peergos.shared.storage;
+
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.cid.*;
+import peergos.shared.io.ipfs.multiaddr.*;
+import peergos.shared.io.ipfs.multihash.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Holds cbor blocks written through it in memory, addressed by their locally computed hash, until they are committed.
+ *
+ *  This lets a series of modifications to a merkle tree be applied without uploading (or signing) the intermediate
+ *  versions. Committing a root uploads only the buffered blocks reachable from it, each exactly once, in one call.
+ */
+public class BufferedStorage implements ContentAddressedStorage {
+    private final ContentAddressedStorage target;
+    private final Map<Multihash, byte[]> buffered = new HashMap<>();
+
+    public BufferedStorage(ContentAddressedStorage target) {
+        this.target = target;
+    }
+
+    public static Cid hashToCid(byte[] block) {
+        return new Cid(1, Cid.Codec.DagCbor, Multihash.Type.sha2_256, Hash.sha256(block));
+    }
+
+    /**
+     *
+     * @return The number of blocks that have been written to this buffer, committed or not
+     */
+    public synchronized int bufferedBlocks() {
+        return buffered.size();
+    }
+
+    @Override
+    public synchronized CompletableFuture<Multihash> put(PublicKeyHash owner,
+                                                         SigningPrivateKeyAndPublicHash writer,
+                                                         byte[] block,
+                                                         TransactionId tid) {
+        // defer signing until we know this block will be committed
+        Cid hash = hashToCid(block);
+        buffered.put(hash, block);
+        return CompletableFuture.completedFuture(hash);
+    }
+
+    @Override
+    public synchronized CompletableFuture<List<Multihash>> put(PublicKeyHash owner,
+                                                               PublicKeyHash writer,
+                                                               List<byte[]> signatures,
+                                                               List<byte[]> blocks,
+                                                               TransactionId tid) {
+        List<Multihash> res = new ArrayList<>();
+        for (byte[] block : blocks) {
+            Cid hash = hashToCid(block);
+            buffered.put(hash, block);
+            res.add(hash);
+        }
+        return CompletableFuture.completedFuture(res);
+    }
+
+    /** Upload all the buffered blocks reachable from root, without traversing into blocks that aren't buffered
+     *
+     * @return the hash of root as written to the target
+     */
+    public CompletableFuture<Multihash> commit(PublicKeyHash owner,
+                                               SigningPrivateKeyAndPublicHash writer,
+                                               Multihash root,
+                                               TransactionId tid) {
+        List<Multihash> hashes = new ArrayList<>();
+        List<byte[]> blocks = new ArrayList<>();
+        synchronized (this) {
+            Set<Multihash> seen = new HashSet<>();
+            Deque<Multihash> toVisit = new ArrayDeque<>();
+            toVisit.add(root);
+            while (! toVisit.isEmpty()) {
+                Multihash next = toVisit.poll();
+                byte[] block = buffered.get(next);
+                if (block == null || ! seen.add(next))
+                    continue;
+                hashes.add(next);
+                blocks.add(block);
+                toVisit.addAll(CborObject.getLinks(block));
+            }
+        }
+        if (blocks.isEmpty())
+            return CompletableFuture.completedFuture(root);
+        List<byte[]> signatures = new ArrayList<>();
+        for (byte[] block : blocks)
+            signatures.add(writer.secret.signatureOnly(block));
+        return target.put(owner, writer.publicKeyHash, signatures, blocks, tid)
+                .thenApply(written -> {
+                    if (! written.equals(hashes))
+                        throw new IllegalStateException("Storage returned different hashes for buffered blocks!");
+                    synchronized (this) {
+                        buffered.keySet().removeAll(hashes);
+                    }
+                    return root;
+                });
+    }
+
+    @Override
+    public CompletableFuture<Multihash> id() {
+        return target.id();
+    }
+
+    @Override
+    public CompletableFuture<TransactionId> startTransaction(PublicKeyHash owner) {
+        return target.startTransaction(owner);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> closeTransaction(PublicKeyHash owner, TransactionId tid) {
+        return target.closeTransaction(owner, tid);
+    }
+
+    @Override
+    public CompletableFuture<Optional<CborObject>> get(Multihash key) {
+        byte[] block;
+        synchronized (this) {
+            block = buffered.get(key);
+        }
+        if (block != null)
+            return CompletableFuture.completedFuture(Optional.of(CborObject.fromByteArray(block)));
+        return target.get(key);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> putRaw(PublicKeyHash owner,
+                                                     PublicKeyHash writer,
+                                                     List<byte[]> signatures,
+                                                     List<byte[]> blocks,
+                                                     TransactionId tid) {
+        return target.putRaw(owner, writer, signatures, blocks, tid);
+    }
+
+    @Override
+    public CompletableFuture<Optional<byte[]>> getRaw(Multihash key) {
+        return target.getRaw(key);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> recursivePin(PublicKeyHash owner, Multihash h) {
+        return target.recursivePin(owner, h);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> recursiveUnpin(PublicKeyHash owner, Multihash h) {
+        return target.recursiveUnpin(owner, h);
+    }
+
+    @Override
+    public CompletableFuture<List<MultiAddress>> pinUpdate(PublicKeyHash owner, Multihash existing, Multihash updated) {
+        return target.pinUpdate(owner, existing, updated);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> getLinks(Multihash root) {
+        byte[] block;
+        synchronized (this) {
+            block = buffered.get(root);
+        }
+        if (block != null)
+            return CompletableFuture.completedFuture(CborObject.getLinks(block));
+        return target.getLinks(root);
+    }
+
+    @Override
+    public CompletableFuture<Optional<Integer>> getSize(Multihash block) {
+        byte[] buffer;
+        synchronized (this) {
+            buffer = buffered.get(block);
+        }
+        if (buffer != null)
+            return CompletableFuture.completedFuture(Optional.of(buffer.length));
+        return target.getSize(block);
+    }
+}
@@ -133,6 +133,31 @@ public class CachingStorage implements ContentAddressedStorage {
         return target.getLinks(root);
     }
 
+    @Override
+    public CompletableFuture<List<byte[]>> getChampLookupBlocks(List<Pair<Multihash, byte[]>> lookups) {
+        return target.getChampLookupBlocks(lookups).thenApply(this::cacheAll);
+    }
+
+    @Override
+    public CompletableFuture<List<byte[]>> getBlockGraph(Multihash root, int maxDepth, int maxBlocks) {
+        return target.getBlockGraph(root, maxDepth, maxBlocks).thenApply(this::cacheAll);
+    }
+
+    @Override
+    public boolean isCaching() {
+        return true;
+    }
+
+    /** Cache cbor blocks under their locally computed hashes
+     *
+     */
+    private List<byte[]> cacheAll(List<byte[]> blocks) {
+        for (byte[] block : blocks)
+            if (block.length > 0 && block.length < maxValueSize)
+                cache.put(BufferedStorage.hashToCid(block), block);
+        return blocks;
+    }
+
     @Override
     public CompletableFuture<Optional<Integer>> getSize(Multihash block) {
         return target.getSize(block);
@@ -6,6 +6,7 @@ import peergos.shared.corenode.*;
 import peergos.shared.crypto.*;
 import peergos.shared.crypto.asymmetric.*;
 import peergos.shared.crypto.hash.*;
+import peergos.shared.hamt.*;
 import peergos.shared.io.ipfs.api.*;
 import peergos.shared.io.ipfs.cid.*;
 import peergos.shared.io.ipfs.multiaddr.*;
@@ -148,6 +149,79 @@ public interface ContentAddressedStorage {
      */
     CompletableFuture<Optional<Integer>> getSize(Multihash block);
 
+    /**
+     * Look up many keys in champs, so that a remote client can resolve all of them in a single round trip. The result
+     * contains the champ nodes on the path to each key and the blocks the keys map to, and the caller should verify
+     * the blocks by their hashes and repeat the lookups locally.
+     *
+     * @param lookups pairs of champ root and key
+     * @return the blocks needed to look up every key, each included once
+     */
+    default CompletableFuture<List<byte[]>> getChampLookupBlocks(List<Pair<Multihash, byte[]>> lookups) {
+        return ChampWrapper.getLookupBlocks(lookups, x -> x.data, this);
+    }
+
+    /**
+     * Get a block and its descendants, breadth first, following the links from getLinks. Raw blocks are not included,
+     * so this returns the metadata graph (e.g. champ nodes and cryptree nodes) without any file data. This lets a
+     * remote client warm its caches in one round trip rather than one per level.
+     *
+     * @param root the first block
+     * @param maxDepth how many levels of links to follow, 0 returns just the root
+     * @param maxBlocks the maximum number of blocks to return
+     * @return the cbor blocks found, each included once
+     */
+    default CompletableFuture<List<byte[]>> getBlockGraph(Multihash root, int maxDepth, int maxBlocks) {
+        return collectBlockGraph(this, Collections.singletonList(root), maxDepth, maxBlocks, new HashSet<>(), new ArrayList<>());
+    }
+
+    /**
+     *
+     * @return whether blocks retrieved through this storage are kept locally, so prefetching them speeds up later reads
+     */
+    default boolean isCaching() {
+        return false;
+    }
+
+    static CompletableFuture<List<byte[]>> collectBlockGraph(ContentAddressedStorage storage,
+                                                             List<Multihash> level,
+                                                             int remainingDepth,
+                                                             int maxBlocks,
+                                                             Set<Multihash> seen,
+                                                             List<byte[]> res) {
+        List<Multihash> toGet = new ArrayList<>();
+        for (Multihash h : level) {
+            if (res.size() + toGet.size() >= maxBlocks)
+                break;
+            boolean isRaw = h instanceof Cid && ((Cid) h).codec == Cid.Codec.Raw;
+            if (isRaw || h.isIdentity() || ! seen.add(h))
+                continue;
+            toGet.add(h);
+        }
+        if (toGet.isEmpty())
+            return CompletableFuture.completedFuture(res);
+        List<CompletableFuture<Optional<CborObject>>> blocks = toGet.stream()
+                .map(storage::get)
+                .collect(Collectors.toList());
+        return Futures.combineAllInOrder(blocks).thenCompose(retrieved -> {
+            List<Multihash> present = new ArrayList<>();
+            for (int i = 0; i < retrieved.size(); i++) {
+                if (! retrieved.get(i).isPresent())
+                    continue;
+                res.add(retrieved.get(i).get().toByteArray());
+                present.add(toGet.get(i));
+            }
+            if (remainingDepth == 0 || res.size() >= maxBlocks)
+                return CompletableFuture.completedFuture(res);
+            List<CompletableFuture<List<Multihash>>> links = present.stream()
+                    .map(storage::getLinks)
+                    .collect(Collectors.toList());
+            return Futures.combineAllInOrder(links).thenCompose(children -> collectBlockGraph(storage,
+                    children.stream().flatMap(List::stream).collect(Collectors.toList()),
+                    remainingDepth - 1, maxBlocks, seen, res));
+        });
+    }
+
     default CompletableFuture<PublicKeyHash> putSigningKey(byte[] signature,
                                                            PublicKeyHash owner,
                                                            PublicSigningKey newKey,
@@ -263,6 +337,11 @@ public interface ContentAddressedStorage {
         public static final String PIN_RM = "pin/rm";
         public static final String PIN_UPDATE = "pin/update";
         public static final String REFS = "refs";
+        public static final String CHAMP_GET = "champ/get";
+        public static final int MAX_CHAMP_LOOKUPS = 1000;
+        public static final String BLOCK_GRAPH = "block/graph";
+        public static final int MAX_GRAPH_DEPTH = 8;
+        public static final int MAX_GRAPH_BLOCKS = 1000;
 
         private final boolean isPeergosServer;
         private final Random r = new Random();
@@ -406,6 +485,59 @@ public interface ContentAddressedStorage {
                             .collect(Collectors.toList()));
         }
 
+        @Override
+        public CompletableFuture<List<byte[]>> getChampLookupBlocks(List<Pair<Multihash, byte[]>> lookups) {
+            if (! isPeergosServer)
+                return ContentAddressedStorage.super.getChampLookupBlocks(lookups);
+            List<CompletableFuture<List<byte[]>>> batches = new ArrayList<>();
+            for (int i = 0; i < lookups.size(); i += MAX_CHAMP_LOOKUPS) {
+                List<Pair<Multihash, byte[]>> batch = lookups.subList(i, Math.min(lookups.size(), i + MAX_CHAMP_LOOKUPS));
+                batches.add(poster.postUnzip(apiPrefix + CHAMP_GET, serializeChampLookups(batch))
+                        .thenApply(HTTP::parseBlockList));
+            }
+            return Futures.combineAllInOrder(batches)
+                    .thenApply(results -> results.stream()
+                            .flatMap(List::stream)
+                            .collect(Collectors.toList()));
+        }
+
+        @Override
+        public CompletableFuture<List<byte[]>> getBlockGraph(Multihash root, int maxDepth, int maxBlocks) {
+            if (! isPeergosServer)
+                return ContentAddressedStorage.super.getBlockGraph(root, maxDepth, maxBlocks);
+            return poster.get(apiPrefix + BLOCK_GRAPH + "?arg=" + root.toString()
+                    + "&depth=" + maxDepth + "&max=" + maxBlocks)
+                    .thenApply(HTTP::parseBlockList);
+        }
+
+        public static byte[] serializeBlockList(List<byte[]> blocks) {
+            return new CborObject.CborList(blocks.stream()
+                    .map(CborObject.CborByteArray::new)
+                    .collect(Collectors.toList())).serialize();
+        }
+
+        public static List<byte[]> parseBlockList(byte[] raw) {
+            return ((CborObject.CborList) CborObject.fromByteArray(raw)).value.stream()
+                    .map(cbor -> ((CborObject.CborByteArray) cbor).value)
+                    .collect(Collectors.toList());
+        }
+
+        public static byte[] serializeChampLookups(List<Pair<Multihash, byte[]>> lookups) {
+            return new CborObject.CborList(lookups.stream()
+                    .map(p -> new CborObject.CborList(Arrays.asList(
+                            new CborObject.CborMerkleLink(p.left),
+                            new CborObject.CborByteArray(p.right))))
+                    .collect(Collectors.toList())).serialize();
+        }
+
+        public static List<Pair<Multihash, byte[]>> parseChampLookups(byte[] raw) {
+            return ((CborObject.CborList) CborObject.fromByteArray(raw)).value.stream()
+                    .map(cbor -> ((CborObject.CborList) cbor).value)
+                    .map(pair -> new Pair<>(((CborObject.CborMerkleLink) pair.get(0)).target,
+                            ((CborObject.CborByteArray) pair.get(1)).value))
+                    .collect(Collectors.toList());
+        }
+
         @Override
         public CompletableFuture<Optional<Integer>> getSize(Multihash block) {
             return poster.get(apiPrefix + BLOCK_STAT + "?stream-channels=true&arg=" + block.toString())
@@ -460,6 +592,16 @@ public interface ContentAddressedStorage {
             return local.getLinks(root);
         }
 
+        @Override
+        public CompletableFuture<List<byte[]>> getChampLookupBlocks(List<Pair<Multihash, byte[]>> lookups) {
+            return local.getChampLookupBlocks(lookups);
+        }
+
+        @Override
+        public CompletableFuture<List<byte[]>> getBlockGraph(Multihash root, int maxDepth, int maxBlocks) {
+            return local.getBlockGraph(root, maxDepth, maxBlocks);
+        }
+
         @Override
         public CompletableFuture<Optional<Integer>> getSize(Multihash block) {
             return local.getSize(block);
@@ -5,6 +5,7 @@ import peergos.shared.crypto.hash.*;
 import peergos.shared.io.ipfs.cid.*;
 import peergos.shared.io.ipfs.multiaddr.*;
 import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.util.*;
 
 import java.util.*;
 import java.util.concurrent.*;
@@ -111,6 +112,22 @@ public class HashVerifyingStorage implements ContentAddressedStorage {
         return source.getLinks(root);
     }
 
+    @Override
+    public CompletableFuture<List<byte[]>> getChampLookupBlocks(List<Pair<Multihash, byte[]>> lookups) {
+        // callers address the returned blocks by their locally computed hashes
+        return source.getChampLookupBlocks(lookups);
+    }
+
+    @Override
+    public CompletableFuture<List<byte[]>> getBlockGraph(Multihash root, int maxDepth, int maxBlocks) {
+        return source.getBlockGraph(root, maxDepth, maxBlocks);
+    }
+
+    @Override
+    public boolean isCaching() {
+        return source.isCaching();
+    }
+
     @Override
     public CompletableFuture<Optional<Integer>> getSize(Multihash block) {
         return source.getSize(block);
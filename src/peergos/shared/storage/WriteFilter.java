@@ -4,6 +4,7 @@ import peergos.shared.cbor.*;
 import peergos.shared.crypto.hash.*;
 import peergos.shared.io.ipfs.multiaddr.*;
 import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.util.*;
 
 import java.util.*;
 import java.util.concurrent.*;
@@ -49,6 +50,21 @@ public class WriteFilter implements ContentAddressedStorage {
         return dht.getLinks(root);
     }
 
+    @Override
+    public CompletableFuture<List<byte[]>> getChampLookupBlocks(List<Pair<Multihash, byte[]>> lookups) {
+        return dht.getChampLookupBlocks(lookups);
+    }
+
+    @Override
+    public CompletableFuture<List<byte[]>> getBlockGraph(Multihash root, int maxDepth, int maxBlocks) {
+        return dht.getBlockGraph(root, maxDepth, maxBlocks);
+    }
+
+    @Override
+    public boolean isCaching() {
+        return dht.isCaching();
+    }
+
     @Override
     public CompletableFuture<Optional<Integer>> getSize(Multihash block) {
         return dht.getSize(block);
@@ -1,5 +1,6 @@
 package peergos.shared.storage.controller;
 
+import peergos.shared.crypto.hash.*;
 import peergos.shared.io.ipfs.api.*;
 import peergos.shared.user.*;
 import peergos.shared.util.*;
@@ -21,6 +22,14 @@ public interface InstanceAdmin {
 
     CompletableFuture<VersionInfo> getVersionInfo();
 
+    /**
+     *
+     * @param owner The user's identity key
+     * @param signedTime The current time signed by the owner
+     * @return The total number of bytes this instance allows the user to store
+     */
+    CompletableFuture<Long> getQuota(PublicKeyHash owner, byte[] signedTime);
+
     class VersionInfo {
         public final Version version;
 
@@ -43,6 +52,7 @@ public interface InstanceAdmin {
 
     class HTTP implements InstanceAdmin {
         public static final String VERSION = "version";
+        public static final String QUOTA = "quota";
 
         private final HttpPoster poster;
 
@@ -55,5 +65,11 @@ public interface InstanceAdmin {
             return poster.get(Constants.ADMIN_URL + VERSION)
                     .thenApply(raw -> VersionInfo.fromJSON(JSONParser.parse(new String(raw))));
         }
+
+        @Override
+        public CompletableFuture<Long> getQuota(PublicKeyHash owner, byte[] signedTime) {
+            return poster.get(Constants.ADMIN_URL + QUOTA + "?owner=" + owner + "&auth=" + ArrayOps.bytesToHex(signedTime))
+                    .thenApply(raw -> ((Number) ((Map) JSONParser.parse(new String(raw))).get("Quota")).longValue());
+        }
     }
 }
\ No newline at end of file
@@ -5,8 +5,10 @@ import peergos.shared.crypto.hash.*;
 import peergos.shared.io.ipfs.multihash.*;
 import peergos.shared.MaybeMultihash;
 import peergos.shared.storage.*;
+import peergos.shared.util.*;
 
 import java.io.*;
+import java.util.*;
 import java.util.concurrent.*;
 
 public interface MutableTree {
@@ -44,6 +46,20 @@ public interface MutableTree {
                                       Multihash value,
                                       TransactionId tid);
 
+    /** Set many values in one traversal, writing each modified tree node once
+     *
+     * @param base
+     * @param owner
+     * @param sharingKey
+     * @param updates map from key to the expected current value and the new value
+     * @return the new root WriterData
+     */
+    CompletableFuture<WriterData> putAll(WriterData base,
+                                         PublicKeyHash owner,
+                                         SigningPrivateKeyAndPublicHash sharingKey,
+                                         Map<ByteArrayWrapper, Pair<MaybeMultihash, Multihash>> updates,
+                                         TransactionId tid);
+
     /**
      *
      * @param owner
@@ -80,6 +96,19 @@ public interface MutableTree {
                                          MaybeMultihash existing,
                                          TransactionId tid);
 
+    /** Remove many keys in one traversal, writing each modified tree node once
+     *
+     * @param base
+     * @param owner
+     * @param sharingKey
+     * @param existing map from key to the expected current value
+     * @return the new root WriterData
+     */
+    CompletableFuture<WriterData> removeAll(WriterData base,
+                                            PublicKeyHash owner,
+                                            SigningPrivateKeyAndPublicHash sharingKey,
+                                            Map<ByteArrayWrapper, MaybeMultihash> existing,
+                                            TransactionId tid);
 
     class CasException extends RuntimeException {
         public CasException(MaybeMultihash actualExisting, MaybeMultihash claimedExisting) {
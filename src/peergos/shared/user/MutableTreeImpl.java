@@ -10,6 +10,7 @@ import peergos.shared.mutable.*;
 import peergos.shared.storage.*;
 import peergos.shared.util.*;
 
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.*;
 
@@ -61,6 +62,21 @@ public class MutableTreeImpl implements MutableTree {
                 .thenApply(base::withChamp);
     }
 
+    @Override
+    public CompletableFuture<WriterData> putAll(WriterData base,
+                                                PublicKeyHash owner,
+                                                SigningPrivateKeyAndPublicHash writer,
+                                                Map<ByteArrayWrapper, Pair<MaybeMultihash, Multihash>> updates,
+                                                TransactionId tid) {
+        return (base.tree.isPresent() ?
+                ChampWrapper.create(base.tree.get(), hasher, dht) :
+                ChampWrapper.create(owner, writer, x -> x.data, tid, dht)
+        ).thenCompose(tree -> tree.putAll(owner, writer, updates, tid))
+                .thenApply(newRoot -> LOGGING ? log(newRoot, "TREE.putAll (" + updates.size()
+                        + " keys) => CAS(" + base.tree + ", " + newRoot + ")") : newRoot)
+                .thenApply(base::withChamp);
+    }
+
     @Override
     public CompletableFuture<MaybeMultihash> get(PublicKeyHash owner, PublicKeyHash writer, byte[] mapKey) {
         return synchronizer.getValue(owner, writer)
@@ -92,4 +108,19 @@ public class MutableTreeImpl implements MutableTree {
                         + ArrayOps.bytesToHex(mapKey) + "  => " + pair) : pair)
                 .thenApply(newTreeRoot -> base.withChamp(newTreeRoot));
     }
+
+    @Override
+    public CompletableFuture<WriterData> removeAll(WriterData base,
+                                                   PublicKeyHash owner,
+                                                   SigningPrivateKeyAndPublicHash writer,
+                                                   Map<ByteArrayWrapper, MaybeMultihash> existing,
+                                                   TransactionId tid) {
+        if (! base.tree.isPresent())
+            throw new IllegalStateException("Tree root not present!");
+        return ChampWrapper.create(base.tree.get(), hasher, dht)
+                .thenCompose(tree -> tree.removeAll(owner, writer, existing, tid))
+                .thenApply(newRoot -> LOGGING ? log(newRoot, "TREE.rmAll (" + existing.size()
+                        + " keys) => " + newRoot) : newRoot)
+                .thenApply(base::withChamp);
+    }
 }
@@ -45,6 +45,8 @@ public class UserContext {
     public static final String ENTRY_POINTS_FROM_FRIENDS_FILENAME = ".from-friends.cborstream";
     public static final String ENTRY_POINTS_FROM_US_FILENAME = ".from-us.cborstream";
     public static final String BLOCKED_USERNAMES_FILE = ".blocked-usernames.txt";
+    // the maximum number of entry points to retrieve concurrently during login
+    private static final int ENTRY_POINT_RETRIEVAL_FANOUT = 20;
 
     @JsProperty
     public final String username;
@@ -134,6 +136,17 @@ public class UserContext {
     @JsMethod
     public static CompletableFuture<UserContext> signIn(String username, String password, NetworkAccess network,
                                                         Crypto crypto, Consumer<String> progressCallback) {
+        return signIn(username, password, network, crypto, progressCallback, userWithRoot -> network);
+    }
+
+    /**
+     *
+     * @param sessionNetwork the network to use for everything after key derivation, e.g. one with a local block cache
+     *                       encrypted under the user's derived keys. Only the user's root pointer is read before this.
+     */
+    public static CompletableFuture<UserContext> signIn(String username, String password, NetworkAccess network,
+                                                        Crypto crypto, Consumer<String> progressCallback,
+                                                        Function<UserWithRoot, NetworkAccess> sessionNetwork) {
         return getWriterDataCbor(network, username)
                 .thenCompose(pair -> {
                     SecretGenerationAlgorithm algorithm = WriterData.fromCbor(pair.right).generationAlgorithm
@@ -142,7 +155,7 @@ public class UserContext {
                     return UserUtil.generateUser(username, password, crypto.hasher, crypto.symmetricProvider,
                             crypto.random, crypto.signer, crypto.boxer, algorithm)
                             .thenCompose(userWithRoot ->
-                                    login(username, userWithRoot, pair, network, crypto, progressCallback));
+                                    login(username, userWithRoot, pair, sessionNetwork.apply(userWithRoot), crypto, progressCallback));
                 }).exceptionally(Futures::logAndThrow);
     }
 
@@ -466,6 +479,16 @@ public class UserContext {
                 .thenApply(size -> new Pair<>((int) (size >> 32), size.intValue()));
     }
 
+    /**
+     *
+     * @return The total number of bytes our server allows us to store
+     */
+    public CompletableFuture<Long> getQuota() {
+        byte[] time = new CborObject.CborLong(System.currentTimeMillis()).serialize();
+        byte[] auth = signer.secret.signMessage(time);
+        return network.instanceAdmin.getQuota(signer.publicKeyHash, auth);
+    }
+
     public CompletableFuture<Long> getTotalSpaceUsed() {
         return getTotalSpaceUsed(signer.publicKeyHash, signer.publicKeyHash);
     }
@@ -1223,10 +1246,7 @@ public class UserContext {
                 .stream()
                 .filter(e -> e.ownerName.equals(ourName))
                 .collect(Collectors.toList());
-        return Futures.reduceAll(ourFileSystemEntries, root,
-                (t, e) -> getLatestEntryPoint(e, network)
-                        .thenCompose(r -> addRetrievedEntryPointToTrie(ourName, t, r.entry, r.getPath(), network, crypto)),
-                (a, b) -> a)
+        return addEntryPointsToTrie(ourName, root, ourFileSystemEntries, false, network, crypto)
                 .exceptionally(Futures::logAndThrow);
     }
 
@@ -1239,14 +1259,38 @@ public class UserContext {
                                                        Crypto crypto) {
         // need to to retrieve all the entry points of our friends
         return getFriendsEntryPoints()
-                .thenCompose(friendEntries -> Futures.reduceAll(friendEntries, ourRoot,
-                        (t, e) -> getLatestEntryPoint(e, network)
-                                .thenCompose(r -> addRetrievedEntryPointToTrie(ourName, t, r.entry, r.getPath(), network, crypto))
-                                .exceptionally(ex -> t),
-                        (a, b) -> a))
+                .thenCompose(friendEntries -> addEntryPointsToTrie(ourName, ourRoot, friendEntries, true, network, crypto))
                 .exceptionally(Futures::logAndThrow);
     }
 
+    /** Retrieve and validate entry points concurrently, with at most ENTRY_POINT_RETRIEVAL_FANOUT in flight, then add
+     *  them all to the trie in their original order.
+     *
+     * @param ignoreFailures whether to skip entry points which can't be retrieved, rather than failing
+     */
+    private static CompletableFuture<TrieNode> addEntryPointsToTrie(String ourName,
+                                                                    TrieNode root,
+                                                                    List<EntryPoint> entries,
+                                                                    boolean ignoreFailures,
+                                                                    NetworkAccess network,
+                                                                    Crypto crypto) {
+        AsyncLimiter limiter = new AsyncLimiter(ENTRY_POINT_RETRIEVAL_FANOUT);
+        List<CompletableFuture<Function<TrieNode, TrieNode>>> updates = entries.stream()
+                .map(e -> limiter.submit(() -> {
+                    CompletableFuture<Function<TrieNode, TrieNode>> update = getLatestEntryPoint(e, network)
+                            .thenCompose(r -> retrievedEntryPointTrieUpdate(ourName, root, r.entry, r.getPath(), network, crypto));
+                    return ignoreFailures ? update.exceptionally(ex -> Function.identity()) : update;
+                }))
+                .collect(Collectors.toList());
+        return Futures.combineAllInOrder(updates)
+                .thenApply(all -> {
+                    TrieNode res = root;
+                    for (Function<TrieNode, TrieNode> update : all)
+                        res = update.apply(res);
+                    return res;
+                });
+    }
+
     private static CompletableFuture<RetrievedEntryPoint> getLatestEntryPoint(EntryPoint e, NetworkAccess network) {
         return Futures.asyncExceptionally(() -> retrieveEntryPoint(e, network),
                 ex -> getUptodateEntryPoint(e, network)
@@ -1280,6 +1324,15 @@ public class UserContext {
     }
 
     private CompletableFuture<List<EntryPoint>> getFriendsEntryPoints() {
+        // read the blocked list at the same time as the entry points
+        CompletableFuture<Set<String>> blocked = getByPath(Paths.get(username, BLOCKED_USERNAMES_FILE))
+                .thenCompose(fopt -> fopt
+                        .map(f -> f.getInputStream(network, crypto.random, x -> {})
+                                .thenCompose(in -> Serialize.readFully(in, f.getSize()))
+                                .thenApply(data -> new HashSet<>(Arrays.asList(new String(data).split("\n")))
+                                        .stream()
+                                        .collect(Collectors.toSet())))
+                        .orElse(CompletableFuture.completedFuture(Collections.emptySet())));
         return getByPath(Paths.get(username, ENTRY_POINTS_FROM_FRIENDS_FILENAME))
                 .thenCompose(fopt -> fopt
                         .map(f -> {
@@ -1288,19 +1341,11 @@ public class UserContext {
                                     .thenCompose(reader -> reader.parseStream(EntryPoint::fromCbor, res::add, f.getSize())
                                             .thenApply(x -> res));
                         }).orElse(CompletableFuture.completedFuture(Collections.emptyList())))
-                .thenCompose(fromFriends -> {
+                .thenCombine(blocked, (fromFriends, toRemove) -> {
                     // filter out blocked friends
-                    return getByPath(Paths.get(username, BLOCKED_USERNAMES_FILE))
-                            .thenCompose(fopt -> fopt
-                                    .map(f -> f.getInputStream(network, crypto.random, x -> {})
-                                            .thenCompose(in -> Serialize.readFully(in, f.getSize()))
-                                            .thenApply(data -> new HashSet<>(Arrays.asList(new String(data).split("\n")))
-                                                    .stream()
-                                                    .collect(Collectors.toSet())))
-                                    .orElse(CompletableFuture.completedFuture(Collections.emptySet())))
-                            .thenApply(toRemove -> fromFriends.stream()
-                                    .filter(e -> ! toRemove.contains(e.ownerName))
-                                    .collect(Collectors.toList()));
+                    return fromFriends.stream()
+                            .filter(e -> ! toRemove.contains(e.ownerName))
+                            .collect(Collectors.toList());
                 }).thenApply(entries -> {
                     // Only take the most recent version of each entry
                     Map<PublicKeyHash, EntryPoint> latest = new LinkedHashMap<>();
@@ -1317,20 +1362,37 @@ public class UserContext {
                                                                             String path,
                                                                             NetworkAccess network,
                                                                             Crypto crypto) {
+        return retrievedEntryPointTrieUpdate(ourName, root, fileCap, path, network, crypto)
+                .thenApply(update -> update.apply(root));
+    }
+
+    /** Do the network work needed to add a retrieved entry point to a trie, without modifying any trie
+     *
+     * @param root a trie containing our home directory
+     * @return how to add the entry point to a trie
+     */
+    private static CompletableFuture<Function<TrieNode, TrieNode>> retrievedEntryPointTrieUpdate(String ourName,
+                                                                                                 TrieNode root,
+                                                                                                 EntryPoint fileCap,
+                                                                                                 String path,
+                                                                                                 NetworkAccess network,
+                                                                                                 Crypto crypto) {
         // check entrypoint doesn't forge the owner
         return (fileCap.ownerName.equals(ourName) ? CompletableFuture.completedFuture(true) :
                 fileCap.isValid(path, network)).thenCompose(valid -> {
             String[] parts = path.split("/");
             if (parts.length < 3 || !parts[2].equals(SHARED_DIR_NAME))
-                return CompletableFuture.completedFuture(root.put(path, fileCap));
+                return CompletableFuture.completedFuture(t -> t.put(path, fileCap));
             String username = parts[1];
             if (username.endsWith(ourName)) // This is a sharing directory of ours for a friend
-                return CompletableFuture.completedFuture(root);
+                return CompletableFuture.completedFuture(Function.identity());
             // This is a friend's sharing directory, create a wrapper to read the capabilities lazily from it
             Supplier<CompletableFuture<FileWrapper>> cacheDirSupplier =
                     () -> root.getByPath(Paths.get(ourName).toString(), network).thenApply(opt -> opt.get());
             return FriendSourcedTrieNode.build(cacheDirSupplier, fileCap, network, crypto)
-                    .thenApply(fromUser -> fromUser.map(userEntrie -> root.putNode(username, userEntrie)).orElse(root));
+                    .thenApply(fromUser -> fromUser
+                            .<Function<TrieNode, TrieNode>>map(userEntrie -> t -> t.putNode(username, userEntrie))
+                            .orElse(Function.identity()));
         });
     }
 
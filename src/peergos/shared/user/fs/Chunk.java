@@ -32,7 +32,27 @@ public class Chunk {
         return Arrays.copyOfRange(nonce, 0, nonce.length);
     }
 
+    public int length() {
+        return data.length;
+    }
+
+    /** Copy the data into the start of dest, which must be large enough, e.g. to reuse a pooled buffer
+     *
+     * @return the number of bytes copied
+     */
+    public int copyInto(byte[] dest) {
+        System.arraycopy(data, 0, dest, 0, data.length);
+        return data.length;
+    }
+
     public byte[] data() {
         return Arrays.copyOfRange(data, 0, data.length);
     }
+
+    /** The data without copying it, for callers which only read it
+     *
+     */
+    byte[] dataWithoutCopy() {
+        return data;
+    }
 }
@@ -40,9 +40,11 @@ public class EncryptedChunkRetriever implements FileRetriever {
         return getChunk(version, network, random, 0, fileSize, ourCap, ourExistingHash, monitor)
                 .thenApply(chunk -> {
                     Location nextChunkPointer = ourCap.withMapKey(nextChunkLabel).getLocation();
+                    // the combiner never modifies its chunks, so the current and original chunk can share an array
+                    byte[] data = chunk.get().chunk.data();
                     return new LazyInputStreamCombiner(version, 0,
-                            chunk.get().chunk.data(), nextChunkPointer,
-                            chunk.get().chunk.data(), nextChunkPointer,
+                            data, nextChunkPointer,
+                            data, nextChunkPointer,
                             network, random, ourCap.rBaseKey, fileSize, monitor);
                 });
     }
@@ -86,7 +86,8 @@ public class FileUploader implements AutoCloseable {
         long fileLength = length;
         boolean isLastChunk = fileLength < position + Chunk.MAX_SIZE;
         int length =  isLastChunk ? (int)(fileLength -  position) : Chunk.MAX_SIZE;
-        byte[] data = new byte[length];
+        // full chunks use a pooled buffer, which can be reused once the chunk has been encrypted and uploaded
+        byte[] data = length == Chunk.MAX_SIZE ? BufferPool.CHUNKS.take() : new byte[length];
         return reader.readIntoArray(data, 0, data.length).thenCompose(b -> {
             byte[] nonce = baseKey.createNonce();
             byte[] mapKey = locations.get((int) chunkIndex).getMapKey();
@@ -95,7 +96,7 @@ public class FileUploader implements AutoCloseable {
             Location nextLocation = new Location(owner, writer.publicKeyHash, locations.get((int) chunkIndex + 1).getMapKey());
             return uploadChunk(current, committer, writer, props, parentLocation, parentparentKey, baseKey, locatedChunk,
                     nextLocation, Optional.empty(), hasher, network, monitor);
-        });
+        }).whenComplete((r, t) -> BufferPool.CHUNKS.release(data));
     }
 
     public CompletableFuture<Snapshot> upload(Snapshot current,
@@ -132,7 +133,7 @@ public class FileUploader implements AutoCloseable {
             throw new IllegalStateException("Trying to write a chunk to the wrong signing key space!");
         RelativeCapability nextChunk = RelativeCapability.buildSubsequentChunk(nextChunkLocation.getMapKey(), baseKey);
         Pair<CryptreeNode, List<FragmentWithHash>> file = CryptreeNode.createFile(chunk.existingHash, baseKey,
-                chunk.chunk.key(), props, chunk.chunk.data(), parentLocation, parentparentKey, nextChunk, hasher);
+                chunk.chunk.key(), props, chunk.chunk.dataWithoutCopy(), parentLocation, parentparentKey, nextChunk, hasher);
 
         CryptreeNode metadata = file.left.withWriterLink(baseKey, writerLink);
 
@@ -142,7 +143,7 @@ public class FileUploader implements AutoCloseable {
                 .collect(Collectors.toList());
 
         if (fragments.size() < file.right.size())
-            monitor.accept((long)chunk.chunk.data().length);
+            monitor.accept((long)chunk.chunk.length());
         LOG.info(StringUtils.format("Uploading chunk with %d fragments\n", fragments.size()));
         return IpfsTransaction.call(chunk.location.owner,
                 tid -> network.uploadFragments(fragments, chunk.location.owner, writer, monitor, tid)
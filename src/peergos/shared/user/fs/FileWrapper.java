@@ -1194,16 +1194,10 @@ public class FileWrapper {
                 if (isDirectory()) {
                     byte[] newMapKey = random.randomBytes(32);
                     SymmetricKey newBaseKey = SymmetricKey.random();
-                    SymmetricKey newWriterBaseKey = SymmetricKey.random();
-                    WritableAbsoluteCapability newCap = new WritableAbsoluteCapability(target.owner(), target.writer(),
-                            newMapKey, newBaseKey, newWriterBaseKey);
                     SymmetricKey newParentParentKey = target.getParentKey();
                     return pointer.fileAccess.copyTo(version, committer, pointer.capability, newBaseKey,
-                                    target.writableFilePointer(), target.entryWriter, newParentParentKey,
-                                    newMapKey, network, crypto)
-                            .thenCompose(updatedBase -> {
-                                return target.addLinkTo(updatedBase, committer, getName(), newCap, network, crypto);
-                            });
+                            target.writableFilePointer(), target.entryWriter, newParentParentKey,
+                            newMapKey, network, crypto);
                 } else {
                     return version.withWriter(owner(), writer(), network).thenCompose(snapshot ->
                             getInputStream(snapshot.get(writer()).props, network, random, x -> {})
@@ -1216,6 +1210,29 @@ public class FileWrapper {
         }).thenApply(newAccess -> true);
     }
 
+    /** Complete a copy of this file or directory into target which was interrupted, or start one if there is none.
+     *  Any children already present in the copy are kept.
+     *
+     */
+    @JsMethod
+    public CompletableFuture<Boolean> resumeCopyTo(FileWrapper target, UserContext context) {
+        ensureUnmodified();
+        NetworkAccess network = context.network;
+        return target.getChild(getName(), network).thenCompose(existing -> {
+            if (! existing.isPresent())
+                return copyTo(target, context);
+            FileWrapper copy = existing.get();
+            if (isDirectory() != copy.isDirectory())
+                return Futures.errored(new IllegalStateException("CopyTo target " + target + " already has child with name " + getName()));
+            if (! isDirectory())
+                return CompletableFuture.completedFuture(true);
+            return network.synchronizer.applyComplexUpdate(copy.owner(), copy.signingPair(),
+                    (version, committer) -> pointer.fileAccess.copyChildrenTo(version, committer, pointer.capability,
+                            copy.writableFilePointer(), copy.entryWriter, network, context.crypto))
+                    .thenApply(newAccess -> true);
+        });
+    }
+
     /**
      * Move this file/dir and subtree to a new signing key pair.
      * @param signer
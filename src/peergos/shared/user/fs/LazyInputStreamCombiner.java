@@ -70,7 +70,13 @@ public class LazyInputStreamCombiner implements AsyncReader {
         AbsoluteCapability newNextChunkPointer = nextChunkPointer.withMapKey(access.getNextChunkLocation(baseKey));
         return nextRet.getChunk(version, network, random, 0, truncateTo, nextChunkPointer, access.committedHash(), monitor)
                 .thenApply(x -> {
-                    byte[] nextData = x.get().chunk.data();
+                    Chunk chunk = x.get().chunk;
+                    byte[] nextData;
+                    if (chunk.length() == Chunk.MAX_SIZE) {
+                        nextData = BufferPool.CHUNKS.take();
+                        chunk.copyInto(nextData);
+                    } else
+                        nextData = chunk.data();
                     return new Pair<>(nextData, newNextChunkPointer);
                 });
     }
@@ -110,14 +116,14 @@ public class LazyInputStreamCombiner implements AsyncReader {
 
         long toSkipAfterThisChunk = skip - toRead;
             // skip through the cryptree nodes without downloading the data
-            long finalOffset = globalIndex + skip;
+            long finalOffset = globalIndex + index + skip;
             long finalInternalIndex = finalOffset % Chunk.MAX_SIZE;
             long startOfTargetChunk = finalOffset - finalInternalIndex;
             long chunksToSkip = toSkipAfterThisChunk / Chunk.MAX_SIZE;
             int truncateTo = (int) Math.min(Chunk.MAX_SIZE, totalLength - startOfTargetChunk);
             return getSubsequentMetadata(nextChunkPointer, chunksToSkip)
                     .thenCompose(access -> getChunk(access, truncateTo))
-                    .thenApply(p -> new LazyInputStreamCombiner(version, finalOffset, p.left, p.right.getLocation(),
+                    .thenApply(p -> new LazyInputStreamCombiner(version, startOfTargetChunk, p.left, p.right.getLocation(),
                             originalChunk, originalNextPointer.getLocation(), network, random, baseKey, totalLength, x -> {}))
                     .thenCompose(reader -> reader.skip(finalInternalIndex));
     }
@@ -138,11 +144,22 @@ public class LazyInputStreamCombiner implements AsyncReader {
         return this.currentChunk.length - this.index;
     }
 
-    public void close() {}
+    /** Return the current chunk to the buffer pool, unless it is the original chunk, which we keep for reset()
+     *
+     */
+    private void releaseCurrentChunk() {
+        if (currentChunk != originalChunk)
+            BufferPool.CHUNKS.release(currentChunk);
+        currentChunk = originalChunk;
+    }
+
+    public void close() {
+        releaseCurrentChunk();
+    }
 
     public CompletableFuture<AsyncReader> reset() {
         this.globalIndex = 0;
-        this.currentChunk = originalChunk;
+        releaseCurrentChunk();
         this.nextChunkPointer = originalNextPointer;
         this.index = 0;
         return CompletableFuture.completedFuture(this);
@@ -183,6 +200,7 @@ public class LazyInputStreamCombiner implements AsyncReader {
                              AbsoluteCapability nextChunkPointer) {
         this.index = index;
         this.globalIndex = globalIndex;
+        releaseCurrentChunk();
         this.currentChunk = chunk;
         this.nextChunkPointer = nextChunkPointer;
     }
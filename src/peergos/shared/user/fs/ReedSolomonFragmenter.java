@@ -0,0 +1,70 @@
+package peergos.shared.user.fs;
+
+import peergos.shared.cbor.*;
+import peergos.shared.user.fs.erasure.*;
+
+import java.util.*;
+
+/** A table driven Reed-Solomon erasure code over GF(256).
+ *
+ *  This generates the same fragments as an ErasureFragmenter with the same parameters, but is fast enough to use for
+ *  every chunk. Missing fragments (null or empty) are treated as erasures, so any nOriginalFragments of the fragments
+ *  are enough to recover the chunk.
+ */
+public class ReedSolomonFragmenter implements Fragmenter {
+
+    private final int nOriginalFragments;
+    private final int nAllowedFailures;
+    private final ReedSolomon256 code;
+
+    public ReedSolomonFragmenter(int nOriginalFragments, int nAllowedFailures) {
+        this.nOriginalFragments = nOriginalFragments;
+        this.nAllowedFailures = nAllowedFailures;
+        this.code = new ReedSolomon256(nOriginalFragments, nAllowedFailures);
+    }
+
+    @Override
+    public double storageIncreaseFactor() {
+        return ((double)(2*nAllowedFailures + nOriginalFragments)) / nOriginalFragments;
+    }
+
+    public byte[][] split(byte[] input) {
+        return code.split(input);
+    }
+
+    public byte[] recombine(byte[][] encoded, int startOffset, int truncateLength) {
+        byte[] withoutPrefix = code.recombine(encoded, truncateLength);
+        if (startOffset == 0)
+            return withoutPrefix;
+        byte[] withPrefix = new byte[startOffset + withoutPrefix.length];
+        System.arraycopy(withoutPrefix, 0, withPrefix, startOffset, withoutPrefix.length);
+        return withPrefix;
+    }
+
+    @Override
+    public CborObject toCbor() {
+        Map<String, CborObject> res = new HashMap<>();
+        res.put("t", new CborObject.CborLong(Type.REED_SOLOMON.val));
+        res.put("o", new CborObject.CborLong(nOriginalFragments));
+        res.put("a", new CborObject.CborLong(nAllowedFailures));
+        return CborObject.CborMap.build(res);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ReedSolomonFragmenter that = (ReedSolomonFragmenter) o;
+
+        if (nOriginalFragments != that.nOriginalFragments) return false;
+        return nAllowedFailures == that.nAllowedFailures;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = nOriginalFragments;
+        result = 31 * result + nAllowedFailures;
+        return result;
+    }
+}
@@ -35,6 +35,10 @@ public class CryptreeNode implements Cborable {
     private static final int META_DATA_PADDING_BLOCKSIZE = 16;
     private static final int BASE_BLOCK_PADDING_BLOCKSIZE = 64;
     private static final int MIN_FRAGMENT_SIZE = 4096;
+    // the maximum number of listings and children whose copies are produced concurrently across a whole copy
+    private static final int COPY_FANOUT = 8;
+    // the maximum number of children committed to a directory in a single update during a copy
+    private static final int COPY_BATCH_SIZE = 32;
     private static int MAX_CHILD_LINKS_PER_BLOB = 500;
 
     public static synchronized void setMaxChildLinkPerBlob(int newValue) {
@@ -588,6 +592,10 @@ public class CryptreeNode implements Cborable {
                 });
     }
 
+    /** Copy this directory and its subtree under a new parent. The empty copy is linked into the new parent before
+     *  its children are copied, so an interrupted copy can be completed with copyChildrenTo.
+     *
+     */
     public CompletableFuture<Snapshot> copyTo(Snapshot base,
                                               Committer committer,
                                               AbsoluteCapability us,
@@ -601,47 +609,277 @@ public class CryptreeNode implements Cborable {
         if (! isDirectory) {
             throw new IllegalStateException("Copy to only valid for directories!");
         }
+        FileProperties props = getProperties(getParentKey(us.rBaseKey));
+        Pair<WritableAbsoluteCapability, DirAndChildren> newDir = emptyDirCopy(props, newReadBaseKey, newParentCap,
+                parentparentKey, newMapKey, crypto);
+        WritableAbsoluteCapability ourNewCap = newDir.left;
+
+        return IpfsTransaction.call(newParentCap.owner,
+                tid -> newDir.right.commit(base, committer, ourNewCap, newEntryWriter, network, tid), network.dhtClient)
+                .thenCompose(withDir -> network.getMetadata(withDir.get(newParentCap.writer).props, newParentCap)
+                        .thenCompose(parent -> parent.get().addChildAndCommit(withDir, committer,
+                                newParentCap.relativise(ourNewCap), newParentCap, newEntryWriter, network, crypto)))
+                .thenCompose(linked -> copyChildrenTo(linked, committer, us, ourNewCap, newEntryWriter, network, crypto));
+    }
+
+    /** Copy any of our children which aren't present in the target directory into it, recursing into subdirectories
+     *  which are. Children are matched by name, and a file is only linked into the target after all its chunks have
+     *  been committed, so this will complete an interrupted copy.
+     *
+     *  Subdirectories are copied concurrently, and up to COPY_FANOUT listings or new children anywhere in the subtree
+     *  are produced at once. The new children are committed along with their links in the target in a single update
+     *  per batch of COPY_BATCH_SIZE children.
+     *
+     * @param us the source directory
+     * @param target the directory to copy our children into
+     */
+    public CompletableFuture<Snapshot> copyChildrenTo(Snapshot base,
+                                                      Committer committer,
+                                                      AbsoluteCapability us,
+                                                      WritableAbsoluteCapability target,
+                                                      Optional<SigningPrivateKeyAndPublicHash> entryWriter,
+                                                      NetworkAccess network,
+                                                      Crypto crypto) {
+        if (! isDirectory)
+            return Futures.errored(new IllegalStateException("Copy to only valid for directories!"));
+        return copyChildrenTo(base, committer, us, target, entryWriter, network, crypto, new CopyQueue(base, target.writer));
+    }
+
+    private CompletableFuture<Snapshot> copyChildrenTo(Snapshot base,
+                                                       Committer committer,
+                                                       AbsoluteCapability us,
+                                                       WritableAbsoluteCapability target,
+                                                       Optional<SigningPrivateKeyAndPublicHash> entryWriter,
+                                                       NetworkAccess network,
+                                                       Crypto crypto,
+                                                       CopyQueue queue) {
+        return base.withWriter(us.owner, us.writer, network)
+                .thenCompose(snapshot -> queue.submit(() -> this.getChildren(snapshot, network, us))
+                        .thenCompose(sources -> queue.submit(() -> {
+                            Snapshot current = queue.current(snapshot);
+                            return network.getMetadata(current.get(target.writer).props, target)
+                                    .thenCompose(targetDir -> targetDir.get().getChildren(current, network, target));
+                        }).thenCompose(existing -> {
+                            Map<String, RetrievedCapability> existingByName = new HashMap<>();
+                            for (RetrievedCapability child : existing)
+                                existingByName.put(getProperties(child).name, child);
+
+                            List<RetrievedCapability> newDirs = new ArrayList<>();
+                            List<RetrievedCapability> newFiles = new ArrayList<>();
+                            List<Pair<RetrievedCapability, WritableAbsoluteCapability>> toRecurse = new ArrayList<>();
+                            for (RetrievedCapability source : sources) {
+                                RetrievedCapability copy = existingByName.get(getProperties(source).name);
+                                if (copy == null)
+                                    (source.fileAccess.isDirectory() ? newDirs : newFiles).add(source);
+                                else if (source.fileAccess.isDirectory() && copy.fileAccess.isDirectory()
+                                        && copy.capability instanceof WritableAbsoluteCapability
+                                        && copy.capability.writer.equals(target.writer))
+                                    toRecurse.add(new Pair<>(source, (WritableAbsoluteCapability) copy.capability));
+                            }
+                            return copyChildrenTo(snapshot, committer, toRecurse, newDirs, newFiles, target,
+                                    entryWriter, network, crypto, queue);
+                        })));
+    }
+
+    private static CompletableFuture<Snapshot> copyChildrenTo(Snapshot base,
+                                                              Committer committer,
+                                                              List<Pair<RetrievedCapability, WritableAbsoluteCapability>> toRecurse,
+                                                              List<RetrievedCapability> newDirs,
+                                                              List<RetrievedCapability> newFiles,
+                                                              WritableAbsoluteCapability target,
+                                                              Optional<SigningPrivateKeyAndPublicHash> entryWriter,
+                                                              NetworkAccess network,
+                                                              Crypto crypto,
+                                                              CopyQueue queue) {
+        return network.getMetadata(base.get(target.writer).props, target).thenCompose(targetDirOpt -> {
+            CryptreeNode targetDir = targetDirOpt.get();
+            SymmetricKey targetParentKey = targetDir.getParentKey(target.rBaseKey);
+            SigningPrivateKeyAndPublicHash signer = targetDir.getSigner(target.rBaseKey, target.wBaseKey.get(), entryWriter);
+
+            List<Pair<RetrievedCapability, Pair<WritableAbsoluteCapability, DirAndChildren>>> dirCopies = newDirs.stream()
+                    .map(source -> new Pair<>(source, emptyDirCopy(getProperties(source), SymmetricKey.random(), target,
+                            targetParentKey, crypto.random.randomBytes(32), crypto)))
+                    .collect(Collectors.toList());
+            List<Pair<RetrievedCapability, WritableAbsoluteCapability>> allDirs = new ArrayList<>(toRecurse);
+            dirCopies.forEach(p -> allDirs.add(new Pair<>(p.left, p.right.left)));
+
+            // create and link the new subdirectories, and then copy the files while filling the subdirectories
+            return Futures.reduceAll(batches(dirCopies), base,
+                    (s, batch) -> IpfsTransaction.call(target.owner,
+                            tid -> Futures.combineAllInOrder(batch.stream()
+                                    .map(p -> queue.submit(() -> p.right.right.commitChildrenLinks(p.right.left,
+                                            entryWriter, network, tid))
+                                            .thenApply(hashes -> new Pair<>(p.right.left,
+                                                    Arrays.asList(new Pair<>(p.right.left.getMapKey(), p.right.right.dir)))))
+                                    .collect(Collectors.toList()))
+                                    .thenCompose(copies -> queue.commit(s, latest -> commitCopies(latest, committer,
+                                            copies, target, signer, entryWriter, network, crypto, tid))),
+                            network.dhtClient),
+                    (a, b) -> b)
+                    .thenCompose(withDirs -> {
+                        CompletableFuture<Snapshot> files = Futures.reduceAll(batches(newFiles), withDirs,
+                                (s, batch) -> IpfsTransaction.call(target.owner,
+                                        tid -> Futures.combineAllInOrder(batch.stream()
+                                                .map(source -> queue.submit(() -> prepareFileCopy(s, source, target,
+                                                        targetParentKey, signer, network, crypto, tid)))
+                                                .collect(Collectors.toList()))
+                                                .thenCompose(copies -> queue.commit(s, latest -> commitCopies(latest,
+                                                        committer, copies, target, signer, entryWriter, network, crypto, tid))),
+                                        network.dhtClient),
+                                (a, b) -> b);
+                        List<CompletableFuture<Snapshot>> subdirs = allDirs.stream()
+                                .map(dir -> dir.left.fileAccess.copyChildrenTo(withDirs, committer, dir.left.capability,
+                                        dir.right, entryWriter, network, crypto, queue))
+                                .collect(Collectors.toList());
+                        return files.thenCompose(x -> Futures.combineAll(subdirs))
+                                .thenApply(x -> queue.current(withDirs));
+                    });
+        });
+    }
+
+    /** The state shared by every directory of one recursive copy. Listings and new children are produced through a
+     *  single limiter, and updates to the target writer are applied one at a time, each on top of the last.
+     *  Subdirectory copies only wait on this from outside it, so they never hold a slot while their children do.
+     */
+    private static class CopyQueue {
+        private final PublicKeyHash writer;
+        private final AsyncLimiter work = new AsyncLimiter(COPY_FANOUT);
+        private final AsyncLimiter commits = new AsyncLimiter(1);
+        private CommittedWriterData latest;
+
+        CopyQueue(Snapshot base, PublicKeyHash writer) {
+            this.writer = writer;
+            this.latest = base.get(writer);
+        }
+
+        <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> task) {
+            return work.submit(task);
+        }
+
+        /**
+         * @return the given snapshot with the latest committed version of the target writer
+         */
+        synchronized Snapshot current(Snapshot local) {
+            return local.withVersion(writer, latest);
+        }
+
+        private synchronized void committed(Snapshot updated) {
+            latest = updated.get(writer);
+        }
+
+        CompletableFuture<Snapshot> commit(Snapshot local, Function<Snapshot, CompletableFuture<Snapshot>> update) {
+            return commits.submit(() -> update.apply(current(local))
+                    .thenApply(updated -> {
+                        committed(updated);
+                        return updated;
+                    }));
+        }
+    }
+
+    /** Commit the chunks of some new children of the target directory, and then link them into it
+     *
+     * @param copies the capability for each new child and the chunks under it
+     */
+    private static CompletableFuture<Snapshot> commitCopies(Snapshot current,
+                                                            Committer committer,
+                                                            List<Pair<WritableAbsoluteCapability, List<Pair<byte[], CryptreeNode>>>> copies,
+                                                            WritableAbsoluteCapability target,
+                                                            SigningPrivateKeyAndPublicHash signer,
+                                                            Optional<SigningPrivateKeyAndPublicHash> entryWriter,
+                                                            NetworkAccess network,
+                                                            Crypto crypto,
+                                                            TransactionId tid) {
+        List<Pair<byte[], CryptreeNode>> chunks = copies.stream()
+                .flatMap(c -> c.right.stream())
+                .collect(Collectors.toList());
+        List<RelativeCapability> links = copies.stream()
+                .map(c -> target.relativise(c.left))
+                .collect(Collectors.toList());
+        return network.uploadChunks(current, committer, chunks, target.owner, signer, tid)
+                .thenCompose(s -> network.getMetadata(s.get(target.writer).props, target)
+                        .thenCompose(dir -> dir.get().addChildrenAndCommit(s, committer, links, target, entryWriter,
+                                network, crypto)));
+    }
+
+    /** Re-encrypt a file under new keys in the target directory, uploading its fragments, but not its metadata
+     *
+     * @return the capability for the copy and the metadata for each of its chunks, by map key
+     */
+    private static CompletableFuture<Pair<WritableAbsoluteCapability, List<Pair<byte[], CryptreeNode>>>> prepareFileCopy(
+            Snapshot version,
+            RetrievedCapability file,
+            WritableAbsoluteCapability target,
+            SymmetricKey targetParentKey,
+            SigningPrivateKeyAndPublicHash signer,
+            NetworkAccess network,
+            Crypto crypto,
+            TransactionId tid) {
+        AbsoluteCapability cap = file.capability;
+        CryptreeNode source = file.fileAccess;
+        FileProperties props = getProperties(file);
+        long size = props.size;
+        int nChunks = FileWrapper.getNumberOfChunks(size);
+        SymmetricKey baseKey = SymmetricKey.random();
+        SymmetricKey dataKey = SymmetricKey.random();
+        List<byte[]> mapKeys = IntStream.range(0, nChunks + 1)
+                .mapToObj(i -> crypto.random.randomBytes(32))
+                .collect(Collectors.toList());
+        WritableAbsoluteCapability newCap = new WritableAbsoluteCapability(target.owner, target.writer, mapKeys.get(0),
+                baseKey, SymmetricKey.random());
+        Location parentLocation = target.getLocation();
+
+        return version.withWriter(cap.owner, cap.writer, network)
+                .thenCompose(v -> source.retriever(cap.rBaseKey).getFile(v.get(cap.writer).props, network,
+                        crypto.random, cap, size, source.committedHash(), x -> {}))
+                .thenCompose(reader -> Futures.reduceAll(IntStream.range(0, nChunks).boxed().collect(Collectors.toList()),
+                        new ArrayList<Pair<byte[], CryptreeNode>>(),
+                        (chunks, i) -> {
+                            int length = (int) Math.min(Chunk.MAX_SIZE, size - (long) i * Chunk.MAX_SIZE);
+                            byte[] data = length == Chunk.MAX_SIZE ? BufferPool.CHUNKS.take() : new byte[length];
+                            return reader.readIntoArray(data, 0, length).thenCompose(read -> {
+                                RelativeCapability nextChunk = RelativeCapability.buildSubsequentChunk(mapKeys.get(i + 1), baseKey);
+                                Pair<CryptreeNode, List<FragmentWithHash>> chunk = createFile(MaybeMultihash.empty(),
+                                        baseKey, dataKey, props, data, parentLocation, targetParentKey, nextChunk, crypto.hasher);
+                                List<Fragment> fragments = chunk.right.stream()
+                                        .filter(f -> ! f.hash.isIdentity())
+                                        .map(f -> f.fragment)
+                                        .collect(Collectors.toList());
+                                return network.uploadFragments(fragments, target.owner, signer, x -> {}, tid)
+                                        .thenApply(hashes -> {
+                                            chunks.add(new Pair<>(mapKeys.get(i), chunk.left));
+                                            return chunks;
+                                        });
+                            }).whenComplete((r, t) -> BufferPool.CHUNKS.release(data));
+                        }, (a, b) -> b)
+                        .whenComplete((r, t) -> reader.close()))
+                .thenApply(chunks -> new Pair<>(newCap, chunks));
+    }
+
+    private static Pair<WritableAbsoluteCapability, DirAndChildren> emptyDirCopy(FileProperties props,
+                                                                                  SymmetricKey newReadBaseKey,
+                                                                                  WritableAbsoluteCapability newParentCap,
+                                                                                  SymmetricKey parentparentKey,
+                                                                                  byte[] newMapKey,
+                                                                                  Crypto crypto) {
         SymmetricKey newWriteBaseKey = SymmetricKey.random();
-        SymmetricKey parentKey = getParentKey(us.rBaseKey);
-        FileProperties props = getProperties(parentKey);
-        Optional<SigningPrivateKeyAndPublicHash> newSigner = Optional.empty();
         RelativeCapability nextChunk = new RelativeCapability(Optional.empty(), crypto.random.randomBytes(32), newReadBaseKey, Optional.empty());
         RelativeCapability parentLink = new RelativeCapability(Optional.empty(), newParentCap.getMapKey(), parentparentKey, Optional.empty());
-        DirAndChildren dirWithLinked = CryptreeNode.createDir(MaybeMultihash.empty(), newReadBaseKey, newWriteBaseKey, newSigner, props,
-                Optional.of(parentLink), parentKey, nextChunk, crypto.hasher);
-        CryptreeNode da = dirWithLinked.dir;
-        SymmetricKey ourNewParentKey = da.getParentKey(newReadBaseKey);
-        WritableAbsoluteCapability ourNewCap = new WritableAbsoluteCapability(newParentCap.owner, newParentCap.writer,
+        DirAndChildren dir = CryptreeNode.createDir(MaybeMultihash.empty(), newReadBaseKey, newWriteBaseKey, Optional.empty(),
+                props, Optional.of(parentLink), SymmetricKey.random(), nextChunk, crypto.hasher);
+        WritableAbsoluteCapability cap = new WritableAbsoluteCapability(newParentCap.owner, newParentCap.writer,
                 newMapKey, newReadBaseKey, newWriteBaseKey);
+        return new Pair<>(cap, dir);
+    }
 
-        return base.withWriter(us.owner, us.writer, network)
-                .thenCompose(snapshot -> this.getChildren(snapshot, network, us).thenCompose(RFPs -> {
-                    // upload new metadata blob for each child and re-add child
-                    CompletableFuture<Pair<CryptreeNode, Snapshot>> reduce = RFPs.stream()
-                            .reduce(CompletableFuture.completedFuture(new Pair<>(da, snapshot)),
-                                    (dirFuture, rfp) -> {
-                                        return dirFuture.thenCompose(pair -> {
-                                            SymmetricKey newChildReadKey = rfp.fileAccess.isDirectory() ?
-                                                    SymmetricKey.random() :
-                                                    rfp.capability.rBaseKey;
-                                            SymmetricKey newChildWriteKey = SymmetricKey.random();
-                                            byte[] newChildMapKey = crypto.random.randomBytes(32);
-                                            WritableAbsoluteCapability newChildCap = new WritableAbsoluteCapability(ourNewCap.owner,
-                                                    ourNewCap.writer, newChildMapKey, newChildReadKey, newChildWriteKey);
-                                            return rfp.fileAccess.copyTo(pair.right, committer, rfp.capability, newChildReadKey,
-                                                    ourNewCap, newEntryWriter, ourNewParentKey, newChildMapKey, network, crypto)
-                                                    .thenCompose(updatedBase -> pair.left.addChildAndCommit(updatedBase, committer,
-                                                            ourNewCap.relativise(newChildCap), ourNewCap, newEntryWriter,
-                                                            network, crypto)
-                                                            .thenCompose(state -> network.getMetadata(state.get(ourNewCap.writer).props, ourNewCap)
-                                                                    .thenApply(updatedDir -> new Pair<>(updatedDir.get(), state)))
-                                                    );
-                                        });
-                                    }, (a, b) -> a.thenCompose(x -> b));
-                    return reduce;
-                })).thenCompose(finalPair -> IpfsTransaction.call(newParentCap.owner,
-                        tid -> finalPair.left.commit(finalPair.right, committer, ourNewCap, newEntryWriter, network, tid),
-                        network.dhtClient));
+    private static FileProperties getProperties(RetrievedCapability child) {
+        return child.fileAccess.getProperties(child.fileAccess.getParentKey(child.capability.rBaseKey));
+    }
+
+    private static <T> List<List<T>> batches(List<T> in) {
+        List<List<T>> res = new ArrayList<>();
+        for (int i = 0; i < in.size(); i += COPY_BATCH_SIZE)
+            res.add(in.subList(i, Math.min(in.size(), i + COPY_BATCH_SIZE)));
+        return res;
     }
 
     public CompletableFuture<Snapshot> updateChildLink(Snapshot base,
@@ -0,0 +1,300 @@
+package peergos.shared.user.fs.erasure;
+
+import peergos.shared.util.StringUtils;
+
+import java.util.*;
+
+/** A systematic Reed-Solomon erasure code over GF(256) which works directly on byte arrays using precomputed
+ *  log, exp and multiplication tables.
+ *
+ *  The fragments are identical to those from Erasure.split with a GaloisField256: the input is cut into stripes of
+ *  inputSize bytes, each stripe is extended with nEC parity bytes, and the resulting codeword is dealt out to the n
+ *  fragments in symbolSize byte pieces. All stripes are written straight into the output fragments in a single pass.
+ *
+ *  Decoding treats absent fragments (null or empty) as erasures at known positions, so any originalBlobs fragments are
+ *  sufficient to recover the input.
+ */
+public class ReedSolomon256 {
+    private static final int SIZE = 256;
+    private static final int[] EXP = new int[2 * SIZE];
+    private static final int[] LOG = new int[SIZE];
+    // MUL[(x << 8) | y] = x * y
+    private static final byte[] MUL = new byte[SIZE * SIZE];
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = x;
+            LOG[x] = i;
+            x <<= 1;
+            // field generator polynomial is p(x) = x^8 + x^4 + x^3 + x^2 + 1, the same as GaloisField256
+            if ((x & SIZE) != 0)
+                x ^= (SIZE | 0x1D);
+        }
+        for (int i = 255; i < EXP.length; i++)
+            EXP[i] = EXP[i - 255];
+        for (int a = 1; a < SIZE; a++)
+            for (int b = 1; b < SIZE; b++)
+                MUL[(a << 8) | b] = (byte) EXP[LOG[a] + LOG[b]];
+    }
+
+    private static int mul(int x, int y) {
+        return MUL[(x << 8) | y] & 0xFF;
+    }
+
+    private static int inverse(int x) {
+        if (x == 0)
+            throw new IllegalStateException("Zero has no inverse!");
+        return EXP[255 - LOG[x]];
+    }
+
+    private final int originalBlobs, nBlobs, inputSize, nEC, symbolSize;
+    // coefficients of the generator polynomial, highest order first, generator[0] == 1
+    private final int[] generator;
+    // generatorProducts[(k << 8) | x] = generator[k] * x, small enough to stay in L1 cache, unlike MUL
+    private final byte[] generatorProducts;
+    // parityMatrix[k][q] is the coefficient of message symbol k in parity symbol q, computed on first decode
+    private int[][] parityMatrix;
+
+    public ReedSolomon256(int originalBlobs, int allowedFailures) {
+        if (originalBlobs < 1 || allowedFailures < 0)
+            throw new IllegalArgumentException(StringUtils.format("Invalid erasure parameters: %d, %d", originalBlobs, allowedFailures));
+        this.originalBlobs = originalBlobs;
+        this.nBlobs = originalBlobs + allowedFailures * 2;
+        if (nBlobs > SIZE)
+            throw new IllegalArgumentException("Too many fragments for GF(256): " + nBlobs);
+        int encodeSize = (SIZE / nBlobs) * nBlobs;
+        this.inputSize = encodeSize * originalBlobs / nBlobs;
+        this.nEC = encodeSize - inputSize;
+        this.symbolSize = inputSize / originalBlobs;
+
+        int[] g = {1};
+        for (int i = 0; i < nEC; i++) {
+            // multiply by (x + a^i)
+            int[] next = new int[g.length + 1];
+            for (int j = 0; j < g.length; j++) {
+                next[j] ^= g[j];
+                next[j + 1] ^= mul(g[j], EXP[i]);
+            }
+            g = next;
+        }
+        this.generator = g;
+        this.generatorProducts = new byte[g.length << 8];
+        for (int k = 0; k < g.length; k++)
+            System.arraycopy(MUL, g[k] << 8, generatorProducts, k << 8, SIZE);
+    }
+
+    /** Write the parity bytes for one stripe of the message to parity[0, nEC)
+     *
+     * @param message the message symbols for this stripe, which are zero beyond the end
+     */
+    private void parity(byte[] message, int offset, int length, int[] parity) {
+        Arrays.fill(parity, 0);
+        int last = nEC - 1;
+        for (int i = 0; i < inputSize; i++) {
+            int m = i < length ? message[offset + i] & 0xFF : 0;
+            int feedback = m ^ parity[0];
+            if (feedback == 0) {
+                System.arraycopy(parity, 1, parity, 0, last);
+                parity[last] = 0;
+                continue;
+            }
+            for (int k = 0; k < last; k++)
+                parity[k] = parity[k + 1] ^ (generatorProducts[((k + 1) << 8) | feedback] & 0xFF);
+            parity[last] = generatorProducts[(nEC << 8) | feedback] & 0xFF;
+        }
+    }
+
+    public byte[][] split(byte[] input) {
+        int nStripes = (input.length + inputSize - 1) / inputSize;
+        byte[][] res = new byte[nBlobs][nStripes * symbolSize];
+        int[] parity = new int[nEC];
+        for (int s = 0; s < nStripes; s++) {
+            int offset = s * inputSize;
+            int length = Math.min(inputSize, input.length - offset);
+            int outOffset = s * symbolSize;
+            for (int j = 0; j < originalBlobs; j++) {
+                int start = j * symbolSize;
+                if (start < length)
+                    System.arraycopy(input, offset + start, res[j], outOffset, Math.min(symbolSize, length - start));
+            }
+            if (nEC == 0)
+                continue;
+            parity(input, offset, length, parity);
+            for (int k = 0; k < nEC; k++)
+                res[originalBlobs + k / symbolSize][outOffset + k % symbolSize] = (byte) parity[k];
+        }
+        return res;
+    }
+
+    private static boolean isPresent(byte[] fragment) {
+        return fragment != null && fragment.length > 0;
+    }
+
+    /**
+     *
+     * @param encoded the fragments, with any missing fragments null or empty
+     * @param truncateTo the length of the original input
+     * @return the original input
+     */
+    public byte[] recombine(byte[][] encoded, int truncateTo) {
+        if (encoded.length == 0)
+            return new byte[0];
+        if (truncateTo == 0)
+            return new byte[0];
+        if (encoded.length != nBlobs)
+            throw new IllegalStateException(StringUtils.format("Expected %d fragments, but got %d", nBlobs, encoded.length));
+        byte[] res = new byte[truncateTo];
+        List<Integer> missing = new ArrayList<>();
+        int fragmentSize = 0;
+        for (int j = 0; j < nBlobs; j++) {
+            if (isPresent(encoded[j]))
+                fragmentSize = encoded[j].length;
+            else if (j < originalBlobs)
+                missing.add(j);
+        }
+        int nStripes = fragmentSize / symbolSize;
+        // copy all the original fragments we have
+        for (int j = 0; j < originalBlobs; j++) {
+            if (! isPresent(encoded[j]))
+                continue;
+            for (int s = 0; s < nStripes; s++) {
+                int outOffset = s * inputSize + j * symbolSize;
+                if (outOffset >= truncateTo)
+                    break;
+                System.arraycopy(encoded[j], s * symbolSize, res, outOffset, Math.min(symbolSize, truncateTo - outOffset));
+            }
+        }
+        if (! missing.isEmpty())
+            reconstruct(encoded, missing, nStripes, res);
+        return res;
+    }
+
+    /** Recover the missing original fragments, from the first originalBlobs fragments present
+     *
+     */
+    private void reconstruct(byte[][] encoded, List<Integer> missing, int nStripes, byte[] res) {
+        // codeword positions we will read, and the matrix mapping the message to them
+        int[] positions = new int[inputSize];
+        int[][] matrix = new int[inputSize][];
+        int nPositions = 0;
+        for (int j = 0; j < nBlobs && nPositions < inputSize; j++) {
+            if (! isPresent(encoded[j]))
+                continue;
+            for (int t = 0; t < symbolSize; t++) {
+                int position = j * symbolSize + t;
+                positions[nPositions] = position;
+                matrix[nPositions] = generatorColumn(position);
+                nPositions++;
+            }
+        }
+        if (nPositions < inputSize)
+            throw new IllegalStateException(StringUtils.format("Too many missing fragments to recover, need %d of %d",
+                    originalBlobs, nBlobs));
+        int[][] inverse = invert(matrix);
+
+        // each missing message symbol is a linear combination of the symbols we have
+        int[] targets = new int[missing.size() * symbolSize];
+        int[][] rows = new int[targets.length][];
+        for (int i = 0; i < missing.size(); i++)
+            for (int t = 0; t < symbolSize; t++) {
+                int position = missing.get(i) * symbolSize + t;
+                targets[i * symbolSize + t] = position;
+                rows[i * symbolSize + t] = inverse[position];
+            }
+
+        int[] known = new int[inputSize];
+        for (int s = 0; s < nStripes; s++) {
+            int stripeStart = s * inputSize;
+            if (stripeStart >= res.length)
+                break;
+            for (int r = 0; r < inputSize; r++) {
+                int position = positions[r];
+                known[r] = encoded[position / symbolSize][s * symbolSize + position % symbolSize] & 0xFF;
+            }
+            for (int i = 0; i < targets.length; i++) {
+                int index = stripeStart + targets[i];
+                if (index >= res.length)
+                    continue;
+                int[] row = rows[i];
+                int sum = 0;
+                for (int r = 0; r < inputSize; r++) {
+                    int c = known[r];
+                    if (c != 0)
+                        sum ^= MUL[(row[r] << 8) | c];
+                }
+                res[index] = (byte) sum;
+            }
+        }
+    }
+
+    /**
+     *
+     * @return the coefficients of each message symbol in the given codeword position
+     */
+    private int[] generatorColumn(int position) {
+        int[] column = new int[inputSize];
+        if (position < inputSize) {
+            column[position] = 1;
+            return column;
+        }
+        int[][] parityMatrix = parityMatrix();
+        for (int k = 0; k < inputSize; k++)
+            column[k] = parityMatrix[k][position - inputSize];
+        return column;
+    }
+
+    private synchronized int[][] parityMatrix() {
+        if (parityMatrix != null)
+            return parityMatrix;
+        // the code is linear, so the parity of each unit message gives the contribution of that message symbol
+        int[][] res = new int[inputSize][nEC];
+        byte[] unit = new byte[inputSize];
+        for (int k = 0; k < inputSize; k++) {
+            unit[k] = 1;
+            parity(unit, 0, inputSize, res[k]);
+            unit[k] = 0;
+        }
+        parityMatrix = res;
+        return res;
+    }
+
+    /** Invert a matrix over GF(256) by Gauss-Jordan elimination
+     *
+     * @param rows the rows of the matrix, each of which maps the message to a codeword symbol
+     * @return the inverse, each row of which maps the codeword symbols to a message symbol
+     */
+    private static int[][] invert(int[][] rows) {
+        int size = rows.length;
+        int[][] a = new int[size][];
+        int[][] inv = new int[size][size];
+        for (int i = 0; i < size; i++) {
+            a[i] = Arrays.copyOf(rows[i], size);
+            inv[i][i] = 1;
+        }
+        for (int col = 0; col < size; col++) {
+            int pivot = col;
+            while (pivot < size && a[pivot][col] == 0)
+                pivot++;
+            if (pivot == size)
+                throw new IllegalStateException("Singular erasure decoding matrix!");
+            int[] tmp = a[col]; a[col] = a[pivot]; a[pivot] = tmp;
+            tmp = inv[col]; inv[col] = inv[pivot]; inv[pivot] = tmp;
+
+            int scale = inverse(a[col][col]);
+            for (int k = 0; k < size; k++) {
+                a[col][k] = mul(a[col][k], scale);
+                inv[col][k] = mul(inv[col][k], scale);
+            }
+            for (int r = 0; r < size; r++) {
+                int factor = a[r][col];
+                if (r == col || factor == 0)
+                    continue;
+                for (int k = 0; k < size; k++) {
+                    a[r][k] ^= mul(factor, a[col][k]);
+                    inv[r][k] ^= mul(factor, inv[col][k]);
+                }
+            }
+        }
+        return inv;
+    }
+}
@@ -0,0 +1,75 @@
+package peergos.shared.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/** Limits the number of asynchronous tasks in flight at once, queueing the rest until earlier ones complete
+ *
+ */
+public class AsyncLimiter {
+    private final int maxInFlight;
+    private final Deque<Runnable> queued = new ArrayDeque<>();
+    private int inFlight = 0;
+    private boolean draining = false;
+
+    public AsyncLimiter(int maxInFlight) {
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("Must allow at least one task in flight!");
+        this.maxInFlight = maxInFlight;
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> task) {
+        CompletableFuture<T> res = new CompletableFuture<>();
+        Runnable start = () -> {
+            CompletableFuture<T> started;
+            try {
+                started = task.get();
+            } catch (Throwable t) {
+                started = Futures.errored(t);
+            }
+            started.whenComplete((r, t) -> {
+                release();
+                if (t != null)
+                    res.completeExceptionally(t);
+                else
+                    res.complete(r);
+            });
+        };
+        synchronized (this) {
+            queued.add(start);
+        }
+        drain();
+        return res;
+    }
+
+    private void release() {
+        synchronized (this) {
+            inFlight--;
+        }
+        drain();
+    }
+
+    /** Start queued tasks while there are free slots. Only one caller drains at a time, so a task which completes
+     *  synchronously hands the next task back to the loop below rather than starting it on a deeper stack.
+     */
+    private void drain() {
+        synchronized (this) {
+            if (draining)
+                return;
+            draining = true;
+        }
+        while (true) {
+            Runnable next;
+            synchronized (this) {
+                if (queued.isEmpty() || inFlight >= maxInFlight) {
+                    draining = false;
+                    return;
+                }
+                next = queued.poll();
+                inFlight++;
+            }
+            next.run();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package peergos.shared.util;
+
+import peergos.shared.user.fs.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/** A bounded, thread safe pool of equal sized byte arrays, so that streaming code can reuse large buffers rather than
+ *  allocating a new one per call (on the JVM chunk sized arrays are humongous objects which are expensive to collect).
+ *
+ *  Buffers are zeroed when they are released, so a buffer from take() is indistinguishable from a new array, and no
+ *  data leaks between users of the pool. A buffer must be released at most once, by its sole owner.
+ */
+public class BufferPool {
+
+    public static final BufferPool CHUNKS = new BufferPool(Chunk.MAX_SIZE, 8);
+    public static final BufferPool FRAGMENTS = new BufferPool(Fragment.MAX_LENGTH, 32);
+
+    private final int bufferSize;
+    private int maxPooled;
+    private final Deque<byte[]> free = new ArrayDeque<>();
+
+    /**
+     *
+     * @param bufferSize the length of every buffer in the pool
+     * @param maxPooled the maximum number of idle buffers to retain
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        if (bufferSize < 1)
+            throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+        if (maxPooled < 0)
+            throw new IllegalArgumentException("Invalid pool size: " + maxPooled);
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    public synchronized int idle() {
+        return free.size();
+    }
+
+    /** Change the maximum number of idle buffers to retain, dropping any excess
+     *
+     */
+    public synchronized void setMaxPooled(int maxPooled) {
+        if (maxPooled < 0)
+            throw new IllegalArgumentException("Invalid pool size: " + maxPooled);
+        this.maxPooled = maxPooled;
+        while (free.size() > maxPooled)
+            free.poll();
+    }
+
+    /**
+     *
+     * @return a zeroed buffer of bufferSize bytes, either from the pool or newly allocated
+     */
+    public byte[] take() {
+        synchronized (this) {
+            byte[] pooled = free.poll();
+            if (pooled != null)
+                return pooled;
+        }
+        return new byte[bufferSize];
+    }
+
+    /** Return a buffer to the pool, the caller must not use it again. Buffers of any other size are ignored, so it is
+     *  safe to release any buffer the caller owns that might have come from take().
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null || buffer.length != bufferSize)
+            return;
+        synchronized (this) {
+            if (free.size() >= maxPooled)
+                return;
+        }
+        Arrays.fill(buffer, (byte) 0);
+        synchronized (this) {
+            if (free.size() < maxPooled)
+                free.push(buffer);
+        }
+    }
+
+    /** Run an asynchronous task with a buffer from the pool, releasing it once the task has completed
+     *
+     */
+    public <T> CompletableFuture<T> withBuffer(Function<byte[], CompletableFuture<T>> task) {
+        byte[] buffer = take();
+        CompletableFuture<T> res;
+        try {
+            res = task.apply(buffer);
+        } catch (Throwable t) {
+            release(buffer);
+            return Futures.errored(t);
+        }
+        return res.whenComplete((r, t) -> release(buffer));
+    }
+}